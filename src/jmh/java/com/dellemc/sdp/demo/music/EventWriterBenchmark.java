@@ -0,0 +1,117 @@
+package com.dellemc.sdp.demo.music;
+
+import com.amazonaws.services.kinesis.AbstractAmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import io.pravega.client.stream.EventStreamWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The generator's side of writing an event to each sink, with the sink's client replaced by an in-memory one that
+ * acknowledges everything immediately. Events go through the same {@link BoundedEventWriter} and
+ * {@link MeteredEventWriter} as in the generator, so this measures our overhead per event (copies, queueing,
+ * batching and bookkeeping), not the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventWriterBenchmark {
+    private static final int KEY_COUNT = 1024;
+
+    public enum Sink {Memory, Pravega, Kinesis}
+
+    @Param({"Memory", "Pravega", "Kinesis"})
+    public Sink sink;
+
+    private SongEventGenerator.EventWriter writer;
+    private String[] keys = new String[KEY_COUNT];
+    private ByteBuffer body;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream("benchmark");
+        config.setKinesisLingerMS(0);
+        writer = new BoundedEventWriter(new MeteredEventWriter(createSink(config), new GeneratorMetrics(sink.name())),
+                SongEventGenerator.DEFAULT_MAX_IN_FLIGHT);
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = Integer.toString(i + 1);
+        }
+        PlayerStateStore players = new PlayerStateStore(1, 1, 1, 42, 1585699200000L);
+        SongEvent event = PlayerStateStore.newEvent();
+        players.peek(0, event);
+        body = new JsonSongEventSerializer().serialize(event);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> writeEvent() {
+        String key = keys[next];
+        next = (next + 1) & (KEY_COUNT - 1);
+        return writer.writeEvent(key, body);
+    }
+
+    private SongEventGenerator.EventWriter createSink(SongEventGenerator.Config config) {
+        switch (sink) {
+            case Pravega:
+                return new PravegaEventWriter(config, inMemoryStreamWriter());
+            case Kinesis:
+                return new KinesisEventWriter(config, new InMemoryKinesis());
+            default:
+                return new SongEventGenerator.EventWriter() {
+                    @Override
+                    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+        }
+    }
+
+    // a stream writer that acknowledges every event as soon as it's written
+    @SuppressWarnings("unchecked")
+    private static EventStreamWriter<ByteBuffer> inMemoryStreamWriter() {
+        CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+        return (EventStreamWriter<ByteBuffer>) Proxy.newProxyInstance(EventStreamWriter.class.getClassLoader(),
+                new Class<?>[]{EventStreamWriter.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("writeEvent")) return done;
+                    return null; // flush, close, etc.
+                });
+    }
+
+    // accepts every record in every batch
+    private static class InMemoryKinesis extends AbstractAmazonKinesis {
+        @Override
+        public PutRecordsResult putRecords(PutRecordsRequest request) {
+            List<PutRecordsResultEntry> results = new ArrayList<>(request.getRecords().size());
+            for (int i = 0; i < request.getRecords().size(); i++) {
+                results.add(new PutRecordsResultEntry().withSequenceNumber(Integer.toString(i)).withShardId("shard-0"));
+            }
+            return new PutRecordsResult().withRecords(results).withFailedRecordCount(0);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dellemc.sdp.demo.music;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of deciding events: a single {@link SongPlayer}, a slot in a large {@link PlayerStateStore}, and scheduling
+ * the next due player with the {@link EmissionScheduler}. Everything is seeded, so runs are repeatable.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GeneratorBenchmark {
+    private static final long START = 1585699200000L;
+    private static final long SEED = 42;
+
+    @Param({"1000", "1000000"})
+    public int playerCount;
+
+    private SongPlayer player;
+    private PlayerStateStore players;
+    private EmissionScheduler scheduler;
+    private SongEvent event = PlayerStateStore.newEvent();
+    private SplitMix64 random = new SplitMix64(SEED);
+    private int nextSlot;
+
+    @Setup
+    public void setup() {
+        player = new SongPlayer(1, SEED, new GeneratorClock.SimulatedClock(START, 0));
+        players = new PlayerStateStore(1, 1, playerCount, SEED, START);
+        scheduler = new EmissionScheduler(playerCount);
+        for (int slot = 0; slot < playerCount; slot++) {
+            scheduler.add(slot, players.getPendingTime(slot));
+        }
+    }
+
+    @Benchmark
+    public SongEvent songPlayerNextEvent() {
+        return player.nextEvent();
+    }
+
+    @Benchmark
+    public SongEvent playerStateStoreEmit() {
+        int slot = nextSlot;
+        if (++nextSlot == playerCount) nextSlot = 0;
+        players.emit(slot, event, players.getPendingTime(slot));
+        return event;
+    }
+
+    @Benchmark
+    public int schedulerPollAndAdd() {
+        // reschedule the next due player somewhere in the next 5 minutes (like a mix of skips and whole songs)
+        long time = scheduler.peekTime();
+        int slot = scheduler.poll();
+        scheduler.add(slot, time + 2000 + random.nextInt(300000));
+        return slot;
+    }
+
+    @Benchmark
+    public SongEvent generateNextEvent() {
+        // the generator's whole per-event decision: find the next due player, emit its event and reschedule it
+        int slot = scheduler.poll();
+        players.emit(slot, event, players.getPendingTime(slot));
+        scheduler.add(slot, players.getPendingTime(slot));
+        return event;
+    }
+}
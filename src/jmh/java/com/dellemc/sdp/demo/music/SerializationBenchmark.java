@@ -0,0 +1,65 @@
+package com.dellemc.sdp.demo.music;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing {@link SongEvent}s in each format, plus Jackson's own serialization of the same
+ * events as a reference for the hand-written JSON writer (which produces the same bytes).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+    private static final int EVENT_COUNT = 1024;
+
+    @Param({"Json", "Binary"})
+    public SongEventSerializer.Format format;
+
+    private SongEventSerializer serializer;
+    private ObjectMapper mapper = new ObjectMapper();
+    private SongEvent[] events = new SongEvent[EVENT_COUNT];
+    private ByteBuffer[] serialized = new ByteBuffer[EVENT_COUNT];
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private int next;
+
+    @Setup
+    public void setup() {
+        serializer = format.createSerializer();
+        PlayerStateStore players = new PlayerStateStore(1, 1, EVENT_COUNT, 42, 1585699200000L);
+        for (int slot = 0; slot < EVENT_COUNT; slot++) {
+            events[slot] = PlayerStateStore.newEvent();
+            players.peek(slot, events[slot]);
+            serialized[slot] = serializer.serialize(events[slot]);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() {
+        buffer.clear();
+        serializer.serialize(events[nextIndex()], buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public SongEvent deserialize() {
+        return serializer.deserialize(serialized[nextIndex()].duplicate());
+    }
+
+    @Benchmark
+    public byte[] jacksonSerialize() throws Exception {
+        return mapper.writeValueAsBytes(events[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1) & (EVENT_COUNT - 1);
+        return index;
+    }
+}
@@ -0,0 +1,74 @@
+package com.dellemc.sdp.demo.music;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link SongList} lookups on the generator and serializer paths: picking a random song under each popularity
+ * distribution, resolving a song's artist and album, and mapping between IDs and names. Uses a generated 100K song
+ * catalog (the bundled list is too small to show cache effects).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SongListBenchmark {
+    private static final int SONG_COUNT = 100000;
+    private static final int NAME_COUNT = 1024;
+
+    @Param({"Uniform", "Zipf"})
+    public SongList.Popularity popularity;
+
+    private SplitMix64 random = new SplitMix64(42);
+    private String[] songNames = new String[NAME_COUNT];
+    private int[] songIds = new int[NAME_COUNT];
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Path catalogFile = Files.createTempFile("benchmark-catalog", ".lst");
+        catalogFile.toFile().deleteOnExit(); // it's memory-mapped while we run
+        new SongCatalogGenerator(42).generate(catalogFile, SONG_COUNT);
+        SongList.load(catalogFile);
+        SongList.setPopularity(popularity, SongEventGenerator.DEFAULT_ZIPF_EXPONENT);
+
+        for (int i = 0; i < NAME_COUNT; i++) {
+            songIds[i] = SongList.getRandomSongId(random);
+            songNames[i] = SongList.getSong(songIds[i]);
+        }
+    }
+
+    @Benchmark
+    public int randomSongId() {
+        return SongList.getRandomSongId(random);
+    }
+
+    @Benchmark
+    public int artistAndAlbumFor() {
+        int songId = nextSongId();
+        return SongList.getArtistIdFor(songId) + SongList.getAlbumIdFor(songId) + SongList.getLengthFor(songId);
+    }
+
+    @Benchmark
+    public String songName() {
+        return SongList.getSong(nextSongId());
+    }
+
+    @Benchmark
+    public int songIdByName() {
+        String name = songNames[next];
+        next = (next + 1) & (NAME_COUNT - 1);
+        return SongList.getSongId(name);
+    }
+
+    private int nextSongId() {
+        int songId = songIds[next];
+        next = (next + 1) & (NAME_COUNT - 1);
+        return songId;
+    }
+}
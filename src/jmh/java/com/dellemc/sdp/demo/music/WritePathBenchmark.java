@@ -0,0 +1,138 @@
+package com.dellemc.sdp.demo.music;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-event cost of the generator's write path (serialize, pick a routing key, log, hand to the sink), comparing
+ * logging every event with a string-built routing key (as the generator used to) to sampled logging with cached
+ * routing keys. Logging is enabled at INFO (as with -v) and goes through a real logback appender and encoder with the
+ * generator's pattern, into a stream that discards it, so formatting is measured without console I/O.
+ * <p>
+ * Run with ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WritePathBenchmark {
+    private static final int PLAYER_COUNT = 10000;
+    private static final int LOG_EVERY = 1000;
+    private static final String SCOPE = "benchmark", STREAM = "benchmark";
+
+    @Param({"Json", "Binary"})
+    public SongEventSerializer.Format format;
+
+    private Logger log;
+    private SongEventSerializer serializer;
+    private SongEvent[] events = new SongEvent[PLAYER_COUNT];
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private RoutingKeyCache routingKeys = new RoutingKeyCache(PLAYER_COUNT);
+    private int next;
+    private int unloggedCount;
+
+    @Setup
+    public void setup() {
+        log = createDiscardingLogger();
+        serializer = format.createSerializer();
+
+        // one pending event from each player
+        PlayerStateStore players = new PlayerStateStore(1, 1, PLAYER_COUNT, 42, System.currentTimeMillis());
+        for (int slot = 0; slot < PLAYER_COUNT; slot++) {
+            events[slot] = PlayerStateStore.newEvent();
+            players.peek(slot, events[slot]);
+        }
+    }
+
+    @Benchmark
+    public void logEveryEvent(Blackhole blackhole) {
+        SongEvent event = nextEvent();
+        serialize(event);
+        log.info("Writing message (key: {}, size: {}, timestamp: {}) to stream {} / {}",
+                event.playerId, buffer.remaining(), event.timestamp, SCOPE, STREAM);
+        blackhole.consume("" + event.playerId);
+        blackhole.consume(buffer);
+    }
+
+    @Benchmark
+    public void sampledLogging(Blackhole blackhole) {
+        int slot = next;
+        SongEvent event = nextEvent();
+        serialize(event);
+        String routingKey = routingKeys.get(slot, event.playerId);
+        if (++unloggedCount >= LOG_EVERY) {
+            unloggedCount = 0;
+            if (log.isInfoEnabled()) {
+                log.info("Writing message (key: {}, size: {}, timestamp: {}) to stream {} / {}",
+                        routingKey, buffer.remaining(), event.timestamp, SCOPE, STREAM);
+            }
+        }
+        blackhole.consume(routingKey);
+        blackhole.consume(buffer);
+    }
+
+    @Benchmark
+    public String routingKeyConcat() {
+        SongEvent event = nextEvent();
+        return "" + event.playerId;
+    }
+
+    @Benchmark
+    public String routingKeyCached() {
+        int slot = next;
+        return routingKeys.get(slot, nextEvent().playerId);
+    }
+
+    private SongEvent nextEvent() {
+        SongEvent event = events[next];
+        if (++next == PLAYER_COUNT) next = 0;
+        return event;
+    }
+
+    private void serialize(SongEvent event) {
+        buffer.clear();
+        serializer.serialize(event, buffer);
+        buffer.flip();
+    }
+
+    private static Logger createDiscardingLogger() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n"); // as in logback.xml
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        appender.start();
+
+        ch.qos.logback.classic.Logger logger = context.getLogger(WritePathBenchmark.class);
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return logger;
+    }
+}
@@ -0,0 +1,73 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * Samples indexes from a discrete distribution in constant time, using Vose's alias method. Building the tables is
+ * O(n); each sample is one random bucket plus one biased coin flip between the bucket's own index and its alias.
+ * <p>
+ * Instances are immutable, so they can be shared between threads (each thread supplies its own random).
+ */
+final class AliasSampler {
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights relative weights (non-negative, not all zero); they don't need to add up to anything in particular
+     */
+    AliasSampler(double[] weights) {
+        int n = weights.length;
+        if (n == 0) throw new IllegalArgumentException("no weights");
+        double sum = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) throw new IllegalArgumentException("invalid weight: " + weight);
+            sum += weight;
+        }
+        if (sum <= 0) throw new IllegalArgumentException("weights must not all be zero");
+
+        probability = new double[n];
+        alias = new int[n];
+
+        // scale the weights so the average is 1, then split them into buckets that are under-full (small) and over-full
+        // (large). small ones grow from the front of the work list, large ones from the back
+        int[] work = new int[n];
+        int smallSize = 0, largeStart = n;
+        for (int i = 0; i < n; i++) {
+            probability[i] = weights[i] * n / sum;
+            if (probability[i] < 1) work[smallSize++] = i;
+            else work[--largeStart] = i;
+        }
+
+        // top up each small bucket from a large one, which becomes its alias
+        while (smallSize > 0 && largeStart < n) {
+            int small = work[--smallSize];
+            int large = work[largeStart++];
+            alias[small] = large;
+            probability[large] += probability[small] - 1;
+            if (probability[large] < 1) work[smallSize++] = large;
+            else work[--largeStart] = large;
+        }
+
+        // whatever is left is full (give or take rounding error)
+        while (largeStart < n) probability[work[largeStart++]] = 1;
+        while (smallSize > 0) probability[work[--smallSize]] = 1;
+    }
+
+    int size() {
+        return probability.length;
+    }
+
+    int sample(SplitMix64 random) {
+        int bucket = random.nextInt(probability.length);
+        return random.nextDouble() < probability[bucket] ? bucket : alias[bucket];
+    }
+
+    /**
+     * Zipf weights for ranks 1..n (the weight of rank k is 1/k^exponent)
+     */
+    static double[] zipfWeights(int n, double exponent) {
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,154 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact, schema-based binary encoding of {@link SongEvent}. Field names are implied by position, numbers are
+ * varints, enums are ordinals and songs/artists/albums are catalog IDs from {@link SongList}, so an event is typically
+ * 4-5 times smaller than its JSON form. Both sides must use the same song list; an ID past the end of the reader's
+ * song list fails to deserialize, but one that is in it can't be told apart from the writer's.
+ * <p>
+ * Layout (version 2):
+ * <pre>
+ * byte    version
+ * varint  timestamp
+ * varint  playerId
+ * byte    subscriptionLevel (ordinal + 1, 0 = null)
+ * byte    songEventType (ordinal + 1, 0 = null)
+ * string  partnerService
+ * context lastContext
+ * context nextContext
+ *
+ * context:
+ *   byte    listType (ordinal + 1, 0 = null context; nothing else follows)
+ *   string  playlist
+ *   string  station
+ *   id      artist
+ *   id      album
+ *   id      song
+ *
+ * string:  varint (UTF-8 length + 1, 0 = null), followed by the UTF-8 bytes
+ * id:      varint (catalog ID + 1, 0 = none)
+ * </pre>
+ */
+public class BinarySongEventSerializer implements SongEventSerializer {
+    static final byte VERSION = 2;
+
+    @Override
+    public void serialize(SongEvent event, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        writeVarLong(buffer, event.timestamp);
+        writeVarLong(buffer, event.playerId);
+        buffer.put(ordinalOf(event.subscriptionLevel));
+        buffer.put(ordinalOf(event.songEventType));
+        writeString(buffer, event.partnerService);
+        writeContext(buffer, event.lastContext);
+        writeContext(buffer, event.nextContext);
+    }
+
+    @Override
+    public SongEvent deserialize(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) throw new IllegalArgumentException("unsupported binary event version: " + version);
+        SongEvent event = new SongEvent();
+        event.timestamp = readVarLong(buffer);
+        event.playerId = readVarLong(buffer);
+        event.subscriptionLevel = valueOf(SubscriptionLevel.values(), buffer.get(), "subscription level");
+        event.songEventType = valueOf(SongEventType.values(), buffer.get(), "event type");
+        event.partnerService = readString(buffer);
+        event.lastContext = readContext(buffer);
+        event.nextContext = readContext(buffer);
+        return event;
+    }
+
+    private void writeContext(ByteBuffer buffer, SongEvent.Context context) {
+        if (context == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put(ordinalOf(context.listType));
+        writeString(buffer, context.playlist);
+        writeString(buffer, context.station);
+        writeVarLong(buffer, context.artistId + 1);
+        writeVarLong(buffer, context.albumId + 1);
+        writeVarLong(buffer, context.songId + 1);
+    }
+
+    private SongEvent.Context readContext(ByteBuffer buffer) {
+        SongEvent.ListType listType = valueOf(SongEvent.ListType.values(), buffer.get(), "list type");
+        if (listType == null) return null;
+        SongEvent.Context context = new SongEvent.Context();
+        context.listType = listType;
+        context.playlist = readString(buffer);
+        context.station = readString(buffer);
+        SongCatalog catalog = SongList.getCatalog();
+        context.artistId = readId(buffer, catalog.getArtistCount(), "artist");
+        context.albumId = readId(buffer, catalog.getAlbumCount(), "album");
+        context.songId = readId(buffer, catalog.getSongCount(), "song");
+        return context;
+    }
+
+    // an ID past the end of the catalog means the writer used another song list
+    private static int readId(ByteBuffer buffer, int count, String kind) {
+        long id = readVarLong(buffer) - 1;
+        if (id < -1 || id >= count) throw new IllegalArgumentException(kind + " ID " + id + " is not in the song list");
+        return (int) id;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            writeVarLong(buffer, 0);
+        } else {
+            writeVarLong(buffer, Utf8.encodedLength(value) + 1);
+            Utf8.encode(value, buffer);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        long length = readVarLong(buffer) - 1;
+        if (length < 0) return null;
+        if (length > buffer.remaining())
+            throw new IllegalArgumentException("string length " + length + " is past the end of the event");
+        return readString(buffer, (int) length);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    // unsigned LEB128 (7 bits per byte, high bit set on all but the last byte)
+    static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private static byte ordinalOf(Enum<?> value) {
+        return (byte) (value == null ? 0 : value.ordinal() + 1);
+    }
+
+    private static <T extends Enum<T>> T valueOf(T[] values, byte ordinal, String kind) {
+        if (ordinal < 0 || ordinal > values.length) throw new IllegalArgumentException("unknown " + kind + " " + ordinal);
+        return ordinal == 0 ? null : values[ordinal - 1];
+    }
+}
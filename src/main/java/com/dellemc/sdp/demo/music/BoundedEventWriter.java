@@ -0,0 +1,107 @@
+package com.dellemc.sdp.demo.music;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an asynchronous {@link SongEventGenerator.EventWriter} with a bounded window of in-flight events. When the
+ * window is full, {@link #writeEvent(String, ByteBuffer)} blocks the calling thread until the sink acknowledges an
+ * outstanding event, so a slow sink slows down the scheduler instead of letting unacknowledged events pile up in memory.
+ * The time spent blocked is tracked and reported, so we can tell when the sink is the bottleneck.
+ */
+public class BoundedEventWriter implements SongEventGenerator.EventWriter {
+    private static final Logger log = LoggerFactory.getLogger(BoundedEventWriter.class);
+
+    private static final long REPORT_INTERVAL_MS = 10000;
+    private static final long CLOSE_TIMEOUT_MS = 30000;
+
+    private SongEventGenerator.EventWriter delegate;
+    private int maxInFlight;
+    private Semaphore permits;
+    private AtomicLong failedCount = new AtomicLong();
+    private long blockedNanos; // only touched by the writing thread
+    private long lastReportTime = System.currentTimeMillis();
+
+    public BoundedEventWriter(SongEventGenerator.EventWriter delegate, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("max in-flight must be positive");
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+        // wait for a slot in the window (this is where backpressure from the sink is applied)
+        if (!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            } finally {
+                blockedNanos += System.nanoTime() - start;
+            }
+        }
+        reportBackpressure();
+
+        CompletableFuture<Void> future;
+        try {
+            future = delegate.writeEvent(routingKey, body);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete((result, t) -> {
+            permits.release();
+            if (t != null && failedCount.getAndIncrement() == 0) log.warn("error writing event", t);
+        });
+        return future;
+    }
+
+    /**
+     * @return the number of events that have been submitted but not yet acknowledged by the sink
+     */
+    public int getInFlightCount() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    private void reportBackpressure() {
+        long now = System.currentTimeMillis();
+        if (now - lastReportTime < REPORT_INTERVAL_MS) return;
+        long blockedMS = TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+        if (blockedMS > 0) {
+            log.warn("sink is falling behind: blocked {}ms out of the last {}ms waiting for acknowledgements ({} events in flight)",
+                    blockedMS, now - lastReportTime, getInFlightCount());
+        }
+        long failed = failedCount.getAndSet(0);
+        if (failed > 0) log.warn("{} events failed to write in the last {}ms", failed, now - lastReportTime);
+        blockedNanos = 0;
+        lastReportTime = now;
+    }
+
+    @Override
+    public void noteTime(long timestamp) {
+        delegate.noteTime(timestamp);
+    }
+
+    @Override
+    public void close() {
+        // give outstanding events a chance to be acknowledged before closing the sink
+        try {
+            if (!permits.tryAcquire(maxInFlight, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                log.warn("timed out waiting for {} in-flight events", getInFlightCount());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+}
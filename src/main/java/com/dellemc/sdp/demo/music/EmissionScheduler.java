@@ -0,0 +1,92 @@
+package com.dellemc.sdp.demo.music;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of player slots keyed on each player's next emission time. Slots and times are kept in parallel
+ * primitive arrays, so scheduling a player does not allocate and each tick only touches the players that are due
+ * (O(log n) per event instead of O(n) per tick).
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+class EmissionScheduler {
+    private long[] times;
+    private int[] slots;
+    private int size;
+
+    EmissionScheduler(int initialCapacity) {
+        times = new long[Math.max(initialCapacity, 1)];
+        slots = new int[times.length];
+    }
+
+    /**
+     * Schedules the given player slot to emit at the given time
+     */
+    void add(int slot, long time) {
+        if (size == times.length) grow();
+        int i = size++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= time) break;
+            times[i] = times[parent];
+            slots[i] = slots[parent];
+            i = parent;
+        }
+        times[i] = time;
+        slots[i] = slot;
+    }
+
+    /**
+     * @return the emission time of the next due player (Long.MAX_VALUE if nothing is scheduled)
+     */
+    long peekTime() {
+        return size == 0 ? Long.MAX_VALUE : times[0];
+    }
+
+    /**
+     * @return the slot of the next due player (-1 if nothing is scheduled)
+     */
+    int peekSlot() {
+        return size == 0 ? -1 : slots[0];
+    }
+
+    /**
+     * Removes and returns the slot of the next due player (-1 if nothing is scheduled)
+     */
+    int poll() {
+        if (size == 0) return -1;
+        int result = slots[0];
+        size--;
+        if (size > 0) siftDown(times[size], slots[size]);
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void siftDown(long time, int slot) {
+        int i = 0, half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1, right = child + 1;
+            if (right < size && times[right] < times[child]) child = right;
+            if (time <= times[child]) break;
+            times[i] = times[child];
+            slots[i] = slots[child];
+            i = child;
+        }
+        times[i] = time;
+        slots[i] = slot;
+    }
+
+    private void grow() {
+        int newCapacity = times.length + (times.length >> 1) + 1;
+        times = Arrays.copyOf(times, newCapacity);
+        slots = Arrays.copyOf(slots, newCapacity);
+    }
+}
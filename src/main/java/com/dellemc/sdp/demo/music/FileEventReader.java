@@ -0,0 +1,179 @@
+package com.dellemc.sdp.demo.music;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back the events of one writer's series of segment files written by {@link FileEventWriter}, in the order they
+ * were written. Files are memory-mapped, and the bodies of uncompressed files are handed out as slices of the mapping,
+ * so nothing is copied on the way to the sink.
+ * <pre>
+ * try (FileEventReader reader = new FileEventReader(files)) {
+ *     while (reader.next()) sink.writeEvent(reader.getRoutingKey(), reader.getBody());
+ * }
+ * </pre>
+ * A block cut short at the end of a file (i.e. the writer was killed) ends that file.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+public class FileEventReader implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FileEventReader.class);
+    private static final Pattern FILE_NAME = Pattern.compile("events-(\\d+)-(\\d+)\\.seg");
+    private static final int MIN_RECORD_LENGTH = FileEventWriter.RECORD_HEADER_SIZE - 4; // after the length itself
+
+    private final List<Path> files;
+    private int fileIndex;
+    private ByteBuffer file; // the current file, positioned at the next block
+    private boolean compressed;
+    private final Inflater inflater = new Inflater();
+    private byte[] deflated = new byte[0];
+    private byte[] inflated = new byte[0];
+    private ByteBuffer block = ByteBuffer.allocate(0); // the current block, positioned at the next record
+    private byte[] keyBytes = new byte[64];
+
+    private long time;
+    private String routingKey;
+    private ByteBuffer body;
+
+    public FileEventReader(List<Path> files) {
+        this.files = files;
+    }
+
+    /**
+     * @return each writer's segment files in the directory, in order (one list per writer)
+     */
+    public static List<List<Path>> findSeries(Path directory) throws IOException {
+        Map<Integer, TreeMap<Integer, Path>> writers = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "events-*.seg")) {
+            for (Path path : paths) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (!matcher.matches() || Files.size(path) == 0) continue;
+                writers.computeIfAbsent(Integer.parseInt(matcher.group(1)), w -> new TreeMap<>())
+                        .put(Integer.parseInt(matcher.group(2)), path);
+            }
+        }
+        List<List<Path>> series = new ArrayList<>();
+        for (TreeMap<Integer, Path> segments : writers.values()) {
+            series.add(new ArrayList<>(segments.values()));
+        }
+        return series;
+    }
+
+    /**
+     * Moves to the next event
+     *
+     * @return false if there are no more events
+     */
+    public boolean next() throws IOException {
+        while (!block.hasRemaining()) {
+            if (!nextBlock()) return false;
+        }
+        int length = block.getInt();
+        if (length < MIN_RECORD_LENGTH || length > block.remaining())
+            throw new IOException("malformed record in " + files.get(fileIndex - 1));
+        int end = block.position() + length;
+        time = block.getLong();
+        int keyLength = block.getShort() & 0xffff;
+        if (keyLength > keyBytes.length) keyBytes = new byte[keyLength];
+        block.get(keyBytes, 0, keyLength);
+        routingKey = new String(keyBytes, 0, keyLength, StandardCharsets.UTF_8);
+        body = block.duplicate();
+        body.limit(end);
+        block.position(end);
+        return true;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (file == null || file.remaining() < FileEventWriter.BLOCK_HEADER_SIZE) {
+            if (file != null && file.hasRemaining())
+                log.warn("{} ends with a partial block", files.get(fileIndex - 1));
+            if (fileIndex == files.size()) return false;
+            openFile(files.get(fileIndex++));
+        }
+        int rawLength = file.getInt(), storedLength = file.getInt();
+        if (rawLength < 0 || storedLength < 0) throw new IOException("malformed block in " + files.get(fileIndex - 1));
+        if (storedLength > file.remaining()) {
+            log.warn("{} ends with a partial block", files.get(fileIndex - 1));
+            file.position(file.limit());
+            return true;
+        }
+        ByteBuffer stored = file.slice();
+        stored.limit(storedLength);
+        file.position(file.position() + storedLength);
+        if (!compressed) {
+            block = stored;
+            return true;
+        }
+
+        // the inflater needs an array, so the block is copied out of the mapping, then inflated into a reused array
+        if (deflated.length < storedLength) deflated = new byte[storedLength];
+        if (inflated.length < rawLength) inflated = new byte[rawLength];
+        stored.get(deflated, 0, storedLength);
+        inflater.reset();
+        inflater.setInput(deflated, 0, storedLength);
+        try {
+            if (inflater.inflate(inflated, 0, rawLength) != rawLength || !inflater.finished())
+                throw new IOException("malformed block in " + files.get(fileIndex - 1));
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block in " + files.get(fileIndex - 1), e);
+        }
+        block = ByteBuffer.wrap(inflated, 0, rawLength);
+        return true;
+    }
+
+    private void openFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (file.remaining() < FileEventWriter.FILE_HEADER_SIZE || file.getInt() != FileEventWriter.MAGIC)
+            throw new IOException(path + " is not a segment file");
+        byte version = file.get();
+        if (version != FileEventWriter.VERSION) throw new IOException(path + " has unsupported version " + version);
+        byte compression = file.get();
+        if (compression != FileEventWriter.NO_COMPRESSION && compression != FileEventWriter.DEFLATE)
+            throw new IOException(path + " has unknown compression " + compression);
+        compressed = compression == FileEventWriter.DEFLATE;
+    }
+
+    /**
+     * @return the time the current event was written (epoch milliseconds)
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    /**
+     * @return the body of the current event (only valid until the next call to {@link #next()})
+     */
+    public ByteBuffer getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+        file = null;
+        block = ByteBuffer.allocate(0);
+    }
+}
@@ -0,0 +1,226 @@
+package com.dellemc.sdp.demo.music;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+/**
+ * Writes events to rolling segment files in a local directory instead of a stream, so a run can be captured once and
+ * replayed (see {@link FileEventReader}) against any sink without a cluster.
+ * <p>
+ * Events are appended to a large buffer as length-prefixed records, and each full buffer is written to the current
+ * segment file through a FileChannel as one block (deflated, with compression on). A segment rolls over to the next
+ * file once it reaches the segment size. Each writer (i.e. each generator worker) claims its own series of files,
+ * events-&lt;writer&gt;-&lt;segment&gt;.seg, so writers never share a file and per-player order is kept within a series.
+ * <p>
+ * Layout of a segment file:
+ * <pre>
+ * int     magic ("MSEV")
+ * byte    version
+ * byte    compression (0 = none, 1 = deflate)
+ * blocks:
+ *   int   length of the records
+ *   int   length of the block as stored (the same, unless compressed)
+ *   bytes records, each:
+ *     int    length of the rest of the record
+ *     long   time the event was written (epoch milliseconds)
+ *     short  length of the routing key
+ *     bytes  routing key (UTF-8)
+ *     bytes  body
+ * </pre>
+ * Events are acknowledged once they are in the buffer (writing a block doesn't wait on the disk), so the last block is
+ * only on disk once the writer is closed.
+ * <p>
+ * NOTE: this class is *not* thread-safe (each generator worker has its own writer)
+ */
+public class FileEventWriter implements SongEventGenerator.EventWriter, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FileEventWriter.class);
+
+    static final int MAGIC = 0x4d534556;
+    static final byte VERSION = 1;
+    static final byte NO_COMPRESSION = 0;
+    static final byte DEFLATE = 1;
+    static final int FILE_HEADER_SIZE = 4 + 1 + 1;
+    static final int BLOCK_HEADER_SIZE = 4 + 4;
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 2;
+    static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean compress;
+    private final int writerNumber;
+    private ByteBuffer buffer;
+    private ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+    private Deflater deflater;
+    private byte[] deflated;
+    private FileChannel channel;
+    private int segmentNumber;
+    private IOException failure;
+    private long eventCount, rawBytes, storedBytes;
+
+    public FileEventWriter(SongEventGenerator.Config config) {
+        this(Paths.get(config.getFileDir()), config.getFileSegmentSize(), DEFAULT_BUFFER_SIZE, config.isFileCompression());
+    }
+
+    FileEventWriter(Path directory, long segmentSize, int bufferSize, boolean compress) {
+        if (segmentSize <= 0) throw new IllegalArgumentException("segment size must be positive");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compress = compress;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        if (compress) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflated = new byte[bufferSize];
+        }
+        try {
+            Files.createDirectories(directory);
+            writerNumber = claimWriterNumber();
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not create segment files in " + directory, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+        if (failure != null) return failed();
+        int keyLength = Utf8.encodedLength(routingKey);
+        if (keyLength > 0xffff) throw new IllegalArgumentException("routing key is too long");
+        int length = RECORD_HEADER_SIZE + keyLength + body.remaining();
+        if (length > buffer.remaining()) {
+            flush();
+            if (failure != null) return failed();
+            // a record never spans blocks, so an event bigger than the buffer gets a bigger one
+            if (length > buffer.capacity()) {
+                buffer = ByteBuffer.allocate(length);
+                if (compress) deflated = new byte[length];
+            }
+        }
+        buffer.putInt(length - 4);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putShort((short) keyLength);
+        Utf8.encode(routingKey, buffer);
+        buffer.put(body.duplicate());
+        eventCount++;
+        return WRITTEN;
+    }
+
+    /**
+     * Writes the buffered records to the current segment file as a block (rolling over to a new file first if the
+     * block would take the segment past its size)
+     */
+    void flush() {
+        if (buffer.position() == 0 || failure != null) return;
+        buffer.flip();
+        int rawLength = buffer.remaining();
+        ByteBuffer block = buffer;
+        if (compress) block = deflate();
+        try {
+            if (channel == null || (channel.position() > FILE_HEADER_SIZE
+                    && channel.position() + BLOCK_HEADER_SIZE + block.remaining() > segmentSize)) {
+                roll();
+            }
+            blockHeader.clear();
+            blockHeader.putInt(rawLength).putInt(block.remaining()).flip();
+            storedBytes += BLOCK_HEADER_SIZE + block.remaining();
+            ByteBuffer[] buffers = {blockHeader, block};
+            while (block.hasRemaining()) {
+                channel.write(buffers);
+            }
+        } catch (IOException e) {
+            log.error("could not write to segment {} of writer {} in {}", segmentNumber, writerNumber, directory, e);
+            failure = e;
+        }
+        rawBytes += rawLength;
+        buffer.clear();
+    }
+
+    private ByteBuffer deflate() {
+        deflater.reset();
+        deflater.setInput(buffer.array(), 0, buffer.remaining());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                byte[] grown = new byte[deflated.length * 2];
+                System.arraycopy(deflated, 0, grown, 0, length);
+                deflated = grown;
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return ByteBuffer.wrap(deflated, 0, length);
+    }
+
+    private void roll() throws IOException {
+        if (channel != null) {
+            channel.close();
+            segmentNumber++;
+        }
+        channel = FileChannel.open(path(directory, writerNumber, segmentNumber), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).put(compress ? DEFLATE : NO_COMPRESSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    // the first writer number with no files, claimed by creating its first segment (so concurrent writers never share)
+    private int claimWriterNumber() throws IOException {
+        for (int number = 0; ; number++) {
+            try {
+                Files.createFile(path(directory, number, 0));
+                return number;
+            } catch (FileAlreadyExistsException e) {
+                // taken
+            }
+        }
+    }
+
+    static Path path(Path directory, int writerNumber, int segmentNumber) {
+        return directory.resolve(String.format("events-%04d-%06d.seg", writerNumber, segmentNumber));
+    }
+
+    private CompletableFuture<Void> failed() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    int getWriterNumber() {
+        return writerNumber;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            if (channel != null) {
+                channel.close();
+            } else if (failure == null && eventCount == 0) {
+                // nothing was written, so the claimed file would be empty
+                Files.deleteIfExists(path(directory, writerNumber, 0));
+            }
+        } catch (IOException e) {
+            log.warn("could not close segment {} of writer {} in {}", segmentNumber, writerNumber, directory, e);
+        }
+        channel = null;
+        if (deflater != null) deflater.end();
+        deflater = null;
+        if (eventCount > 0) {
+            log.info("wrote {} events ({} bytes, {} stored) to {} segment files of writer {} in {}", eventCount,
+                    rawBytes, storedBytes, segmentNumber + 1, writerNumber, directory);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * The source of "now" for event generation. Live generation uses the system clock and really waits for each event's
+ * time to come; a {@link SimulatedClock} lets us generate events for a historical time range (backfill), either
+ * compressed by a speed-up factor or as fast as the stream accepts them.
+ */
+public interface GeneratorClock {
+    /**
+     * @return the current (possibly simulated) time in epoch milliseconds
+     */
+    long now();
+
+    /**
+     * Waits until the clock reaches the given time, but for no more than maxSleepMS of real time (so callers can check
+     * whether they've been stopped)
+     */
+    void sleepUntil(long time, long maxSleepMS) throws InterruptedException;
+
+    static GeneratorClock system() {
+        return SystemClock.INSTANCE;
+    }
+
+    final class SystemClock implements GeneratorClock {
+        static final SystemClock INSTANCE = new SystemClock();
+
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleepUntil(long time, long maxSleepMS) throws InterruptedException {
+            long waitMS = time - now();
+            if (waitMS > 0) Thread.sleep(Math.min(waitMS, maxSleepMS));
+        }
+    }
+
+    /**
+     * A clock that starts at a given time and runs speed times faster than real time. With a speed of 0, time doesn't
+     * pass on its own at all; it jumps straight to whatever time is waited for, so events are generated as fast as
+     * possible.
+     * <p>
+     * NOTE: this class is *not* thread-safe (each generator worker has its own)
+     */
+    final class SimulatedClock implements GeneratorClock {
+        private final long start;
+        private final double speed;
+        private final long realStartNanos = System.nanoTime();
+        private long now; // only used at unlimited speed
+
+        public SimulatedClock(long start, double speed) {
+            if (!(speed >= 0) || Double.isInfinite(speed)) throw new IllegalArgumentException("speed must be a positive factor or 0");
+            this.start = start;
+            this.speed = speed;
+            this.now = start;
+        }
+
+        @Override
+        public long now() {
+            if (speed == 0) return now;
+            return start + (long) ((System.nanoTime() - realStartNanos) / 1000000d * speed);
+        }
+
+        @Override
+        public void sleepUntil(long time, long maxSleepMS) throws InterruptedException {
+            if (speed == 0) {
+                if (time > now) now = time;
+                return;
+            }
+            long waitMS = (long) Math.ceil((time - now()) / speed);
+            if (waitMS > 0) Thread.sleep(Math.min(waitMS, maxSleepMS));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.dellemc.sdp.demo.music;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Instrumentation of a generator run, so we can tell whether a slow run is down to the generator, the serializer or
+ * the sink. Everything on the hot path is a {@link LongAdder} or a {@link LatencyHistogram}, so recording is lock-free
+ * and doesn't allocate:
+ * <ul>
+ * <li>events, bytes and failures acknowledged by the sink, and events in flight (see {@link MeteredEventWriter})</li>
+ * <li>emission lag: how long after its timestamp each event was handed to the sink (ms)</li>
+ * <li>serialization time of each event (ns)</li>
+ * <li>write latency: how long the sink took to acknowledge each event (us)</li>
+ * <li>any gauges registered by sinks (i.e. queue depths)</li>
+ * </ul>
+ * A summary of each interval can be logged periodically, and all of it can be scraped in the Prometheus text format
+ * from a local HTTP endpoint.
+ */
+public class GeneratorMetrics implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(GeneratorMetrics.class);
+
+    static final String METRICS_PATH = "/metrics";
+    // histogram bucket boundaries for the scrape endpoint, in seconds
+    private static final double[] BUCKET_BOUNDS = {0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025,
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    final LongAdder events = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder inFlight = new LongAdder();
+    final LatencyHistogram emissionLag = new LatencyHistogram(); // milliseconds
+    final LatencyHistogram serializeTime = new LatencyHistogram(); // nanoseconds
+    final LatencyHistogram writeLatency = new LatencyHistogram(); // microseconds
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final String sink;
+    private final long startTime = System.currentTimeMillis();
+
+    private ScheduledExecutorService reporter;
+    private HttpServer server;
+    private final Totals initialTotals;
+    private Totals lastTotals; // only touched by the reporter thread
+
+    /**
+     * @param sink the name of the sink being written to (used as a label on its metrics)
+     */
+    public GeneratorMetrics(String sink) {
+        this.sink = sink;
+        this.initialTotals = this.lastTotals = new Totals(startTime);
+    }
+
+    /**
+     * Adds a gauge to the scrape output. Gauges registered more than once under the same name (i.e. one per worker) are
+     * reported as the sum of their values.
+     */
+    public void registerGauge(String name, String help, LongSupplier value) {
+        gauges.computeIfAbsent(name, n -> new Gauge(help)).values.add(value);
+    }
+
+    /**
+     * Logs a summary of each interval (of the given length) until closed
+     */
+    public synchronized void startReporting(long intervalMS) {
+        if (reporter != null) throw new IllegalStateException("already reporting");
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            Totals totals = new Totals(System.currentTimeMillis());
+            log.info(summarize(totals, lastTotals));
+            lastTotals = totals;
+        }, intervalMS, intervalMS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format at http://&lt;host&gt;:&lt;port&gt;/metrics until closed
+     *
+     * @param port the port to listen on (0 picks a free port; see {@link #getPort()})
+     */
+    public synchronized void startServer(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("already serving");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(METRICS_PATH, exchange -> {
+            try {
+                byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        log.info("serving metrics at http://localhost:{}{}", getPort(), METRICS_PATH);
+    }
+
+    /**
+     * @return the port the metrics endpoint is listening on (-1 if it isn't)
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * @return a one-line summary of the values recorded between two points in time
+     */
+    String summarize(Totals now, Totals earlier) {
+        double seconds = Math.max(now.time - earlier.time, 1) / 1000d;
+        LatencyHistogram.Snapshot lag = now.emissionLag.minus(earlier.emissionLag);
+        LatencyHistogram.Snapshot serialize = now.serializeTime.minus(earlier.serializeTime);
+        LatencyHistogram.Snapshot write = now.writeLatency.minus(earlier.writeLatency);
+        return String.format("%s: %.1f events/s, %.1f KB/s, %d failed, %d in flight | emission lag ms p50 %d p99 %d max %d" +
+                        " | serialize us p50 %.1f p99 %.1f | write latency ms p50 %.1f p99 %.1f p99.9 %.1f max %.1f",
+                sink, (now.events - earlier.events) / seconds, (now.bytes - earlier.bytes) / 1024d / seconds,
+                now.failures - earlier.failures, inFlight.sum(),
+                lag.getValueAt(0.5), lag.getValueAt(0.99), lag.getMax(),
+                serialize.getValueAt(0.5) / 1000d, serialize.getValueAt(0.99) / 1000d,
+                write.getValueAt(0.5) / 1000d, write.getValueAt(0.99) / 1000d, write.getValueAt(0.999) / 1000d,
+                write.getMax() / 1000d);
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        String labels = "sink=\"" + sink + "\"";
+        writeMetric(out, "generator_events_total", "counter", "Events acknowledged by the sink", labels, events.sum());
+        writeMetric(out, "generator_bytes_total", "counter", "Bytes acknowledged by the sink", labels, bytes.sum());
+        writeMetric(out, "generator_write_failures_total", "counter", "Events the sink failed to write", labels, failures.sum());
+        writeMetric(out, "generator_in_flight_events", "gauge", "Events written but not yet acknowledged by the sink", labels, inFlight.sum());
+        writeHistogram(out, "generator_emission_lag_seconds", "How long after its timestamp each event was handed to the sink",
+                null, emissionLag.snapshot(), 1e-3);
+        writeHistogram(out, "generator_serialize_seconds", "Time to serialize each event",
+                null, serializeTime.snapshot(), 1e-9);
+        writeHistogram(out, "generator_write_latency_seconds", "Time for the sink to acknowledge each event",
+                labels, writeLatency.snapshot(), 1e-6);
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            long value = 0;
+            for (LongSupplier supplier : entry.getValue().values) {
+                value += supplier.getAsLong();
+            }
+            writeMetric(out, entry.getKey(), "gauge", entry.getValue().help, labels, value);
+        }
+        return out.toString();
+    }
+
+    private void writeMetric(StringBuilder out, String name, String type, String help, String labels, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    // buckets are cumulative; a bucket boundary is rounded up to the top of the histogram bucket it falls in (~1.5%)
+    private void writeHistogram(StringBuilder out, String name, String help, String labels, LatencyHistogram.Snapshot snapshot,
+                                double secondsPerUnit) {
+        String prefix = labels == null ? "{" : "{" + labels + ",";
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (double bound : BUCKET_BOUNDS) {
+            long count = snapshot.getCountAtOrBelow(Math.round(bound / secondsPerUnit));
+            out.append(name).append("_bucket").append(prefix).append("le=\"").append(BigDecimal.valueOf(bound).stripTrailingZeros().toPlainString())
+                    .append("\"} ").append(count).append('\n');
+        }
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+        out.append(name).append("_sum").append(labels == null ? "" : "{" + labels + "}").append(' ')
+                .append(snapshot.getSum() * secondsPerUnit).append('\n');
+        out.append(name).append("_count").append(labels == null ? "" : "{" + labels + "}").append(' ')
+                .append(snapshot.getCount()).append('\n');
+    }
+
+    /**
+     * Stops reporting and serving, and logs a summary of the whole run
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) reporter.shutdownNow();
+        reporter = null;
+        if (server != null) server.stop(0);
+        server = null;
+        log.info("run totals - {}", summarize(new Totals(System.currentTimeMillis()), initialTotals));
+    }
+
+    /**
+     * The values of the counters and histograms at some point in time
+     */
+    class Totals {
+        final long time;
+        final long events, bytes, failures;
+        final LatencyHistogram.Snapshot emissionLag, serializeTime, writeLatency;
+
+        Totals(long time) {
+            this.time = time;
+            events = GeneratorMetrics.this.events.sum();
+            bytes = GeneratorMetrics.this.bytes.sum();
+            failures = GeneratorMetrics.this.failures.sum();
+            emissionLag = GeneratorMetrics.this.emissionLag.snapshot();
+            serializeTime = GeneratorMetrics.this.serializeTime.snapshot();
+            writeLatency = GeneratorMetrics.this.writeLatency.snapshot();
+        }
+    }
+
+    private static class Gauge {
+        final String help;
+        final List<LongSupplier> values = new CopyOnWriteArrayList<>();
+
+        Gauge(String help) {
+            this.help = help;
+        }
+    }
+}
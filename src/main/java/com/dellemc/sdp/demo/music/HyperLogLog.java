@@ -0,0 +1,169 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the number of distinct values added (i.e. players) in fixed memory. With precision p there are 2^p
+ * registers, and the estimate has a standard error of 1.04 / sqrt(2^p) (1.6% with p = 12, in 4KB). Sketches with the
+ * same precision merge into the sketch of the union of their values, so partial counts from readers and panes combine
+ * without keeping the values themselves.
+ * <p>
+ * Sketches start out sparse (a small hash table of the registers that are set), since most keys (i.e. songs in a
+ * pane) only see a few values, and switch to an array of registers once that takes less memory.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class HyperLogLog {
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private byte[] registers; // null while sparse
+    private int[] sparse = new int[8]; // (index << 7 | rank), 0 = empty, linear probing
+    private int sparseSize;
+
+    HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        this.precision = precision;
+    }
+
+    /**
+     * @return the standard error of the estimate, relative to the true count
+     */
+    static double standardError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * @return the hash to add a value with (so a value added to several sketches is only hashed once)
+     */
+    static long hash(long value) {
+        return SplitMix64.mix64(value);
+    }
+
+    void add(long value) {
+        addHash(hash(value));
+    }
+
+    void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        set(index, rank);
+    }
+
+    void merge(HyperLogLog other) {
+        if (other.precision != precision) throw new IllegalArgumentException("can't merge sketches with different precisions");
+        if (other.registers == null) {
+            for (int entry : other.sparse) {
+                if (entry != 0) set(entry >>> 7, entry & 0x7f);
+            }
+        } else {
+            if (registers == null) toDense();
+            for (int i = 0; i < registers.length; i++) {
+                if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    long estimate() {
+        int m = 1 << precision;
+        double sum = 0;
+        int zeros;
+        if (registers == null) {
+            zeros = m - sparseSize;
+            sum = zeros;
+            for (int entry : sparse) {
+                if (entry != 0) sum += Math.scalb(1d, -(entry & 0x7f));
+            }
+        } else {
+            zeros = 0;
+            for (byte register : registers) {
+                if (register == 0) zeros++;
+                sum += Math.scalb(1d, -register);
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // small cardinalities: linear counting is more accurate while there are empty registers
+        if (estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double) m / zeros);
+        return Math.round(estimate);
+    }
+
+    /**
+     * Writes the sketch for a snapshot: the registers that are set while sparse, or all of them
+     */
+    void writeTo(StateBuffer out) {
+        out.putVarLong(precision);
+        if (registers != null) {
+            out.putByte(1);
+            out.putBytes(registers);
+        } else {
+            out.putByte(0);
+            out.putVarLong(sparseSize);
+            for (int entry : sparse) {
+                if (entry != 0) out.putVarLong(entry);
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link #writeTo(StateBuffer)} wrote into this (empty) sketch, which must have the same precision
+     */
+    void readFrom(ByteBuffer in) {
+        int precision = StateBuffer.getVarInt(in);
+        if (precision != this.precision)
+            throw new IllegalArgumentException("snapshot sketch has precision " + precision + ", not " + this.precision);
+        if (in.get() != 0) {
+            byte[] registers = StateBuffer.getBytes(in);
+            if (registers.length != 1 << precision) throw new IllegalArgumentException("malformed sketch registers");
+            this.registers = registers;
+            sparse = null;
+            sparseSize = 0;
+        } else {
+            for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+                int entry = StateBuffer.getVarInt(in);
+                set(entry >>> 7, entry & 0x7f);
+            }
+        }
+    }
+
+    private void set(int index, int rank) {
+        if (registers != null) {
+            if (rank > registers[index]) registers[index] = (byte) rank;
+            return;
+        }
+        int mask = sparse.length - 1;
+        int slot = (int) SplitMix64.mix64(index) & mask;
+        while (sparse[slot] != 0 && sparse[slot] >>> 7 != index) {
+            slot = (slot + 1) & mask;
+        }
+        if (sparse[slot] != 0) {
+            if (rank > (sparse[slot] & 0x7f)) sparse[slot] = index << 7 | rank;
+            return;
+        }
+        sparse[slot] = index << 7 | rank;
+        sparseSize++;
+        // the table is at most half full, so at 1/8 of the registers it's as big as they are
+        if (sparseSize > (1 << precision) / 8) toDense();
+        else if (sparseSize * 2 > sparse.length) resize();
+    }
+
+    private void resize() {
+        int[] entries = sparse;
+        sparse = new int[entries.length * 2];
+        sparseSize = 0;
+        for (int entry : entries) {
+            if (entry != 0) set(entry >>> 7, entry & 0x7f);
+        }
+    }
+
+    private void toDense() {
+        registers = new byte[1 << precision];
+        for (int entry : sparse) {
+            if (entry != 0) registers[entry >>> 7] = (byte) (entry & 0x7f);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+}
@@ -0,0 +1,156 @@
+package com.dellemc.sdp.demo.music;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes events as UTF-8 JSON (see README for a sample). Serialization writes the JSON by hand (producing the same
+ * output as Jackson's default ObjectMapper) so that the write path does not allocate; deserialization uses Jackson.
+ */
+public class JsonSongEventSerializer implements SongEventSerializer {
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+
+    @Override
+    public void serialize(SongEvent event, ByteBuffer buffer) {
+        buffer.put((byte) '{');
+        writeName(buffer, "timestamp", false);
+        writeLong(buffer, event.timestamp);
+        writeName(buffer, "playerId", true);
+        writeLong(buffer, event.playerId);
+        writeName(buffer, "subscriptionLevel", true);
+        writeString(buffer, event.subscriptionLevel == null ? null : event.subscriptionLevel.name());
+        writeName(buffer, "partnerService", true);
+        writeString(buffer, event.partnerService);
+        writeName(buffer, "songEventType", true);
+        writeString(buffer, event.songEventType == null ? null : event.songEventType.name());
+        writeName(buffer, "lastContext", true);
+        writeContext(buffer, event.lastContext);
+        writeName(buffer, "nextContext", true);
+        writeContext(buffer, event.nextContext);
+        buffer.put((byte) '}');
+    }
+
+    @Override
+    public SongEvent deserialize(ByteBuffer buffer) {
+        try {
+            if (buffer.hasArray()) {
+                SongEvent event = mapper.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), SongEvent.class);
+                buffer.position(buffer.limit());
+                return event;
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return mapper.readValue(bytes, SongEvent.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("error unmarshalling JSON", e);
+        }
+    }
+
+    private void writeContext(ByteBuffer buffer, SongEvent.Context context) {
+        if (context == null) {
+            buffer.put(NULL);
+            return;
+        }
+        buffer.put((byte) '{');
+        writeName(buffer, "listType", false);
+        writeString(buffer, context.listType == null ? null : context.listType.name());
+        writeName(buffer, "playlist", true);
+        writeString(buffer, context.playlist);
+        writeName(buffer, "station", true);
+        writeString(buffer, context.station);
+        SongCatalog catalog = SongList.getCatalog();
+        writeName(buffer, "artist", true);
+        writeCatalogName(buffer, catalog.artists(), context.artistId);
+        writeName(buffer, "album", true);
+        writeCatalogName(buffer, catalog.albums(), context.albumId);
+        writeName(buffer, "song", true);
+        writeCatalogName(buffer, catalog.songs(), context.songId);
+        buffer.put((byte) '}');
+    }
+
+    // field names are plain ASCII
+    private void writeName(ByteBuffer buffer, String name, boolean comma) {
+        if (comma) buffer.put((byte) ',');
+        buffer.put((byte) '"');
+        for (int i = 0; i < name.length(); i++) {
+            buffer.put((byte) name.charAt(i));
+        }
+        buffer.put((byte) '"').put((byte) ':');
+    }
+
+    // escapes the same characters Jackson does by default (quotes, backslashes and control characters)
+    private void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put(NULL);
+            return;
+        }
+        buffer.put((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                writeEscaped(buffer, c);
+            } else {
+                Utf8.encodeChar(value, i, buffer);
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+                    i++;
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    // writes a catalog name from its UTF-8 bytes (the bytes of multi-byte characters are all >= 0x80, so they never
+    // need escaping)
+    private void writeCatalogName(ByteBuffer buffer, SongCatalog.NameTable names, int id) {
+        if (id < 0) {
+            buffer.put(NULL);
+            return;
+        }
+        ByteBuffer pool = names.pool(id);
+        buffer.put((byte) '"');
+        for (int i = names.offset(id), end = i + names.length(id); i < end; i++) {
+            byte b = pool.get(i);
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20)) writeEscaped(buffer, (char) b);
+            else buffer.put(b);
+        }
+        buffer.put((byte) '"');
+    }
+
+    private void writeEscaped(ByteBuffer buffer, char c) {
+        buffer.put((byte) '\\');
+        switch (c) {
+            case '"': buffer.put((byte) '"'); break;
+            case '\\': buffer.put((byte) '\\'); break;
+            case '\b': buffer.put((byte) 'b'); break;
+            case '\t': buffer.put((byte) 't'); break;
+            case '\n': buffer.put((byte) 'n'); break;
+            case '\f': buffer.put((byte) 'f'); break;
+            case '\r': buffer.put((byte) 'r'); break;
+            default:
+                buffer.put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 0xF]);
+        }
+    }
+
+    private void writeLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            // can't be negated
+            buffer.put("-9223372036854775808".getBytes());
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        // find the highest power of 10 <= value, then write digits from the top down
+        long divisor = 1;
+        while (divisor <= value / 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+}
@@ -1,28 +1,228 @@
 package com.dellemc.sdp.demo.music;
 
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.services.kinesis.AmazonKinesisClientBuilder;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Writes events to Kinesis in batches using PutRecords. Events are queued and a sender thread groups them into
+ * requests of up to 500 records / 5 MB, waiting up to the configured linger time for a batch to fill up.
+ * <p>
+ * Kinesis only guarantees ordering for records with the same partition key when they are written sequentially, so a
+ * batch never contains more than one record per partition key (player), and records that fail are retried
+ * individually ahead of anything that came after them. This preserves per-player ordering even when only part of a
+ * batch is throttled.
+ */
 public class KinesisEventWriter implements SongEventGenerator.EventWriter, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(KinesisEventWriter.class);
+
+    static final int MAX_BATCH_RECORDS = 500;
+    static final int MAX_BATCH_BYTES = 5 * 1024 * 1024;
+    static final int MAX_RECORD_BYTES = 1024 * 1024;
+    static final int MAX_ATTEMPTS = 10;
+    private static final int MAX_SCAN = 10 * MAX_BATCH_RECORDS; // how far into the backlog we look for records to batch
+    private static final long INITIAL_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 5000;
+
     SongEventGenerator.Config config;
     AmazonKinesis kinesisClient;
+    private BlockingQueue<Record> incoming = new LinkedBlockingQueue<>();
+    ArrayDeque<Record> backlog = new ArrayDeque<>(); // only touched by the sender thread
+    private volatile boolean running = true;
+    private Thread sender;
 
     public KinesisEventWriter(SongEventGenerator.Config config) {
+        this(config, createClient(config, new ProfileCredentialsProvider(config.getAwsProfile())));
+    }
+
+    KinesisEventWriter(SongEventGenerator.Config config, AmazonKinesis kinesisClient) {
         this.config = config;
-        kinesisClient = AmazonKinesisClientBuilder.standard().withCredentials(new ProfileCredentialsProvider(config.getAwsProfile())).build();
+        this.kinesisClient = kinesisClient;
+        sender = new Thread(this::sendLoop, "kinesis-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    static AmazonKinesis createClient(SongEventGenerator.Config config, AWSCredentialsProvider credentials) {
+        AmazonKinesisClientBuilder builder = AmazonKinesisClientBuilder.standard().withCredentials(credentials);
+
+        // an endpoint override lets us point at a local stand-in for Kinesis
+        if (config.getKinesisEndpoint() != null) {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(config.getKinesisEndpoint(), config.getAwsRegion()));
+        } else if (config.getAwsRegion() != null) {
+            builder.withRegion(config.getAwsRegion());
+        }
+        return builder.build();
     }
 
     @Override
-    public void writeEvent(String routingKey, String body) {
-        kinesisClient.putRecord(config.getStream(), ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)), routingKey);
+    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+        // we hold on to the event until it is sent, so we need our own copy
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+        copy.put(body.duplicate()).flip();
+        Record record = new Record(routingKey, copy);
+        if (!running) {
+            record.future.completeExceptionally(new IllegalStateException("writer is closed"));
+        } else if (record.size() > MAX_RECORD_BYTES) {
+            record.future.completeExceptionally(new IllegalArgumentException("record is larger than " + MAX_RECORD_BYTES + " bytes"));
+        } else {
+            incoming.add(record);
+        }
+        return record.future;
+    }
+
+    /**
+     * @return the number of records waiting to be sent (approximate, since the sender is working on them concurrently)
+     */
+    int getQueueDepth() {
+        return incoming.size() + backlog.size();
+    }
+
+    private void sendLoop() {
+        int failedBatches = 0;
+        try {
+            while (running || !incoming.isEmpty() || !backlog.isEmpty()) {
+                incoming.drainTo(backlog);
+                if (backlog.isEmpty()) {
+                    Record record = incoming.poll(100, TimeUnit.MILLISECONDS);
+                    if (record != null) backlog.add(record);
+                    continue;
+                }
+
+                // linger until we have a full batch or the oldest record has waited long enough
+                long deadline = backlog.peekFirst().queuedTime + config.getKinesisLingerMS();
+                long waitMS;
+                while (running && backlog.size() < MAX_BATCH_RECORDS && (waitMS = deadline - System.currentTimeMillis()) > 0) {
+                    Record record = incoming.poll(waitMS, TimeUnit.MILLISECONDS);
+                    if (record != null) {
+                        backlog.add(record);
+                        incoming.drainTo(backlog);
+                    }
+                }
+
+                List<Record> batch = nextBatch();
+                int written = sendBatch(batch);
+                if (written == batch.size()) {
+                    failedBatches = 0;
+                } else if (written > 0) {
+                    // partially throttled - give the shards a moment before retrying
+                    failedBatches = 0;
+                    Thread.sleep(INITIAL_BACKOFF_MS);
+                } else {
+                    // back off exponentially while Kinesis is rejecting everything
+                    Thread.sleep(Math.min(INITIAL_BACKOFF_MS << Math.min(failedBatches++, 10), MAX_BACKOFF_MS));
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("interrupted while sending to Kinesis", e);
+        } finally {
+            // fail anything we didn't get to
+            incoming.drainTo(backlog);
+            for (Record record : backlog) {
+                record.future.completeExceptionally(new IllegalStateException("writer closed before record was sent"));
+            }
+            backlog.clear();
+        }
+    }
+
+    /**
+     * Removes the next batch of records from the backlog. At most one record per partition key is included, so records
+     * for the same key are always written sequentially in the order they were queued.
+     */
+    List<Record> nextBatch() {
+        List<Record> batch = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        int bytes = 0, scanned = 0;
+        for (Iterator<Record> i = backlog.iterator(); i.hasNext() && scanned < MAX_SCAN; scanned++) {
+            Record record = i.next();
+            if (!keys.add(record.routingKey)) continue; // there's already a record for this key in the batch
+            if (bytes + record.size() > MAX_BATCH_BYTES) break;
+            i.remove();
+            batch.add(record);
+            bytes += record.size();
+            if (batch.size() == MAX_BATCH_RECORDS) break;
+        }
+        return batch;
+    }
+
+    /**
+     * Sends a batch and completes the records that succeeded. Records that failed are put back at the front of the
+     * backlog (in their original order) to be retried, unless they have run out of attempts.
+     *
+     * @return the number of records that were written
+     */
+    int sendBatch(List<Record> batch) {
+        List<PutRecordsRequestEntry> entries = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            entries.add(new PutRecordsRequestEntry().withPartitionKey(record.routingKey).withData(record.data.duplicate()));
+        }
+
+        List<Record> failed = new ArrayList<>();
+        try {
+            PutRecordsResult result = kinesisClient.putRecords(new PutRecordsRequest()
+                    .withStreamName(config.getStream()).withRecords(entries));
+            List<PutRecordsResultEntry> results = result.getRecords();
+            for (int i = 0; i < batch.size(); i++) {
+                Record record = batch.get(i);
+                PutRecordsResultEntry resultEntry = results.get(i);
+                if (resultEntry.getErrorCode() == null) {
+                    record.future.complete(null);
+                } else {
+                    record.lastError = resultEntry.getErrorCode() + ": " + resultEntry.getErrorMessage();
+                    failed.add(record);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("error sending batch of {} records to Kinesis", batch.size(), e);
+            for (Record record : batch) {
+                record.lastError = e.toString();
+            }
+            failed.addAll(batch);
+        }
+        if (failed.isEmpty()) return batch.size();
+
+        log.debug("{} of {} records failed; retrying", failed.size(), batch.size());
+        for (int i = failed.size() - 1; i >= 0; i--) {
+            Record record = failed.get(i);
+            if (++record.attempts >= MAX_ATTEMPTS) {
+                // NOTE: later records for this key may still be written, since we can't hold them back forever
+                record.future.completeExceptionally(new RuntimeException("failed to write record after " + record.attempts + " attempts (" + record.lastError + ")"));
+            } else {
+                backlog.addFirst(record);
+            }
+        }
+        return batch.size() - failed.size();
     }
 
     @Override
     public synchronized void close() {
+        running = false;
+        try {
+            if (sender != null) sender.join();
+        } catch (InterruptedException e) {
+            log.warn("interrupted while waiting for Kinesis sender to finish", e);
+        }
+        sender = null;
         try {
             if (kinesisClient != null) kinesisClient.shutdown();
         } catch (Throwable t) {
@@ -30,4 +230,23 @@ public class KinesisEventWriter implements SongEventGenerator.EventWriter, AutoC
         }
         kinesisClient = null;
     }
+
+    static class Record {
+        String routingKey;
+        ByteBuffer data;
+        long queuedTime = System.currentTimeMillis();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        int attempts;
+        String lastError;
+
+        Record(String routingKey, ByteBuffer data) {
+            this.routingKey = routingKey;
+            this.data = data;
+        }
+
+        // Kinesis counts the partition key towards the record size
+        int size() {
+            return data.remaining() + routingKey.length();
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package com.dellemc.sdp.demo.music;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (i.e. latencies), with log-linear buckets in the style of HdrHistogram:
+ * values below 128 get their own bucket, and above that each power of 2 is split into 64 buckets, so any value is
+ * within ~1.5% of its bucket. That covers the whole range of a long in ~3700 buckets (29KB), and recording a value is
+ * one bucket increment (no locks and no allocation), so it can be called from any number of threads on the hot path.
+ * <p>
+ * Counts are cumulative; take a {@link Snapshot} and subtract an earlier one to look at an interval.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a value (negative values are recorded as 0)
+     */
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.getAndIncrement(bucketFor(value));
+        sum.add(value);
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, count, sum.sum());
+    }
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        // shift the value down until it fits in the upper half of the sub-buckets; the shift is the power of 2
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value that falls in the given bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+        int shift = bucket / HALF_SUB_BUCKET_COUNT - 1;
+        long subBucket = bucket - shift * HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * The counts of a histogram at some point in time
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * @return the values recorded since the given (earlier) snapshot
+         */
+        Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(diff, count - earlier.count, sum - earlier.sum);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getSum() {
+            return sum;
+        }
+
+        double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile between 0 and 1 (i.e. 0.99 for the 99th percentile)
+         * @return the value at the given quantile (rounded up to the top of its bucket), or 0 if there are no values
+         */
+        long getValueAt(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) return highestValueIn(i);
+            }
+            return getMax();
+        }
+
+        /**
+         * @return the number of values in the buckets up to and including the one the given value falls in
+         */
+        long getCountAtOrBelow(long value) {
+            int last = bucketFor(value);
+            long result = 0;
+            for (int i = 0; i <= last; i++) {
+                result += counts[i];
+            }
+            return result;
+        }
+
+        long getMax() {
+            for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+                if (counts[i] > 0) return highestValueIn(i);
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a sink and records what goes through it in {@link GeneratorMetrics}: events and bytes written, events in flight,
+ * failures, and the write latency of each event (from the call to {@link #writeEvent(String, ByteBuffer)} until the
+ * sink acknowledges it). This sits inside the {@link BoundedEventWriter}, so time spent waiting for a slot in the
+ * in-flight window is not counted as write latency.
+ */
+public class MeteredEventWriter implements SongEventGenerator.EventWriter {
+    private SongEventGenerator.EventWriter delegate;
+    private GeneratorMetrics metrics;
+
+    public MeteredEventWriter(SongEventGenerator.EventWriter delegate, GeneratorMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+        int size = body.remaining();
+        long start = System.nanoTime();
+        metrics.inFlight.increment();
+        CompletableFuture<Void> future;
+        try {
+            future = delegate.writeEvent(routingKey, body);
+        } catch (RuntimeException e) {
+            metrics.inFlight.decrement();
+            metrics.failures.increment();
+            throw e;
+        }
+        future.whenComplete((result, t) -> {
+            metrics.inFlight.decrement();
+            if (t != null) {
+                metrics.failures.increment();
+            } else {
+                metrics.events.increment();
+                metrics.bytes.add(size);
+                metrics.writeLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void noteTime(long timestamp) {
+        delegate.noteTime(timestamp);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
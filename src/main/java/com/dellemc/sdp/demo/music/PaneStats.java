@@ -0,0 +1,202 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Statistics of the events in one pane: a slide-length slice of event time. Events are added as they are read and panes
+ * are merged into windows (see {@link WindowAggregator}), so windows never hold on to the events themselves.
+ * <p>
+ * A play is an event that starts a song (Next, Skip or Select), and is counted for the song, artist and playlist in its
+ * next context. Plays are counted in {@link TopKSketch}es, so a pane's size doesn't depend on the size of the catalog.
+ * <p>
+ * Distinct players are counted in {@link HyperLogLog}s: overall and per subscription level (players with any event), and
+ * per song and artist (players that played it). The per-song and per-artist sketches stay sparse unless a song has many
+ * listeners, so they cost a few bytes per listener rather than the player IDs themselves. They are only kept for the
+ * songs and artists that are heavy hitters of the play sketches (and dropped when they stop being one), so there are at
+ * most as many as the heavy hitters whatever the size of the catalog, and only the top songs and artists have listener
+ * counts. A song that becomes a heavy hitter part way through a pane only counts the listeners it has from then on.
+ * <p>
+ * Listening sessions that ended (see {@link SessionTracker}) are counted in the pane their gap ran out in.
+ */
+final class PaneStats {
+    static final int TYPE_COUNT = SongEventType.values().length;
+
+    final long start;
+    long eventCount;
+    final long[] typeCounts = new long[TYPE_COUNT];
+    final TopKSketch songPlays;
+    final TopKSketch artistPlays;
+    final TopKSketch playlistPlays;
+    final int hllPrecision;
+    final HyperLogLog players;
+    final HyperLogLog[] levelPlayers = new HyperLogLog[SubscriptionLevel.values().length];
+    final Map<Integer, HyperLogLog> songListeners = new HashMap<>();
+    final Map<Integer, HyperLogLog> artistListeners = new HashMap<>();
+    long sessionCount;
+    long sessionMS;
+    long sessionSongCount;
+
+    PaneStats(long start, int sketchWidth, int sketchDepth, int heavyHitters, int hllPrecision) {
+        this.start = start;
+        songPlays = new TopKSketch(sketchWidth, sketchDepth, heavyHitters);
+        artistPlays = new TopKSketch(sketchWidth, sketchDepth, heavyHitters);
+        playlistPlays = new TopKSketch(sketchWidth, sketchDepth, heavyHitters);
+        this.hllPrecision = hllPrecision;
+        players = new HyperLogLog(hllPrecision);
+        for (int i = 0; i < levelPlayers.length; i++) {
+            levelPlayers[i] = new HyperLogLog(hllPrecision);
+        }
+        songPlays.setEvictionListener(id -> songListeners.remove((int) id));
+        artistPlays.setEvictionListener(id -> artistListeners.remove((int) id));
+    }
+
+    void add(SongEvent event) {
+        eventCount++;
+        typeCounts[event.songEventType.ordinal()]++;
+        long player = HyperLogLog.hash(event.playerId);
+        players.addHash(player);
+        if (event.subscriptionLevel != null) levelPlayers[event.subscriptionLevel.ordinal()].addHash(player);
+        if (isPlay(event.songEventType) && event.nextContext != null) {
+            SongEvent.Context context = event.nextContext;
+            if (context.songId >= 0) {
+                songPlays.add(context.songId, null);
+                if (songPlays.contains(context.songId)) listeners(songListeners, context.songId).addHash(player);
+            }
+            if (context.artistId >= 0) {
+                artistPlays.add(context.artistId, null);
+                if (artistPlays.contains(context.artistId)) listeners(artistListeners, context.artistId).addHash(player);
+            }
+            if (context.listType == SongEvent.ListType.Playlist && context.playlist != null)
+                playlistPlays.add(nameKey(context.playlist), context.playlist);
+        }
+    }
+
+    void addSession(SessionSummary session) {
+        sessionCount++;
+        sessionMS += session.getDurationMS();
+        sessionSongCount += session.getSongCount();
+    }
+
+    void merge(PaneStats other) {
+        eventCount += other.eventCount;
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            typeCounts[i] += other.typeCounts[i];
+        }
+        songPlays.merge(other.songPlays);
+        artistPlays.merge(other.artistPlays);
+        playlistPlays.merge(other.playlistPlays);
+        players.merge(other.players);
+        for (int i = 0; i < levelPlayers.length; i++) {
+            levelPlayers[i].merge(other.levelPlayers[i]);
+        }
+        // (after the play sketches, so only the listeners of the merged heavy hitters are kept)
+        other.songListeners.forEach((id, sketch) -> {
+            if (songPlays.contains(id)) listeners(songListeners, id).merge(sketch);
+        });
+        other.artistListeners.forEach((id, sketch) -> {
+            if (artistPlays.contains(id)) listeners(artistListeners, id).merge(sketch);
+        });
+        sessionCount += other.sessionCount;
+        sessionMS += other.sessionMS;
+        sessionSongCount += other.sessionSongCount;
+    }
+
+    /**
+     * Writes the pane for a snapshot (see {@link #readFrom(ByteBuffer, LongFunction)})
+     */
+    void writeTo(StateBuffer out) {
+        out.putLong(start);
+        out.putVarLong(eventCount);
+        out.putVarLong(TYPE_COUNT);
+        for (long count : typeCounts) {
+            out.putVarLong(count);
+        }
+        songPlays.writeTo(out);
+        artistPlays.writeTo(out);
+        playlistPlays.writeTo(out);
+        players.writeTo(out);
+        out.putVarLong(levelPlayers.length);
+        for (HyperLogLog sketch : levelPlayers) {
+            sketch.writeTo(out);
+        }
+        writeListeners(out, songListeners);
+        writeListeners(out, artistListeners);
+        out.putVarLong(sessionCount);
+        out.putVarLong(sessionMS);
+        out.putVarLong(sessionSongCount);
+    }
+
+    /**
+     * Reads a pane written by {@link #writeTo(StateBuffer)} into a new pane, which must have the same sketch settings
+     */
+    static PaneStats readFrom(ByteBuffer in, LongFunction<PaneStats> newPane) {
+        PaneStats pane = newPane.apply(in.getLong());
+        pane.eventCount = StateBuffer.getVarLong(in);
+        if (StateBuffer.getVarInt(in) != TYPE_COUNT) throw new IllegalArgumentException("snapshot has other event types");
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            pane.typeCounts[i] = StateBuffer.getVarLong(in);
+        }
+        pane.songPlays.readFrom(in);
+        pane.artistPlays.readFrom(in);
+        pane.playlistPlays.readFrom(in);
+        pane.players.readFrom(in);
+        if (StateBuffer.getVarInt(in) != pane.levelPlayers.length)
+            throw new IllegalArgumentException("snapshot has other subscription levels");
+        for (HyperLogLog sketch : pane.levelPlayers) {
+            sketch.readFrom(in);
+        }
+        pane.readListeners(in, pane.songListeners);
+        pane.readListeners(in, pane.artistListeners);
+        pane.sessionCount = StateBuffer.getVarLong(in);
+        pane.sessionMS = StateBuffer.getVarLong(in);
+        pane.sessionSongCount = StateBuffer.getVarLong(in);
+        return pane;
+    }
+
+    private static void writeListeners(StateBuffer out, Map<Integer, HyperLogLog> listeners) {
+        out.putVarLong(listeners.size());
+        listeners.forEach((id, sketch) -> {
+            out.putVarLong(id);
+            sketch.writeTo(out);
+        });
+    }
+
+    private void readListeners(ByteBuffer in, Map<Integer, HyperLogLog> listeners) {
+        for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+            listeners(listeners, StateBuffer.getVarInt(in)).readFrom(in);
+        }
+    }
+
+    /**
+     * @return the number of distinct players that played the song or artist (0 if it wasn't played)
+     */
+    static long listenerCount(Map<Integer, HyperLogLog> listeners, int id) {
+        HyperLogLog sketch = listeners.get(id);
+        return sketch != null ? sketch.estimate() : 0;
+    }
+
+    private HyperLogLog listeners(Map<Integer, HyperLogLog> listeners, int id) {
+        HyperLogLog sketch = listeners.get(id);
+        if (sketch == null) {
+            sketch = new HyperLogLog(hllPrecision);
+            listeners.put(id, sketch);
+        }
+        return sketch;
+    }
+
+    // playlists are only known by name: a 64-bit FNV-1a hash of it
+    static long nameKey(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static boolean isPlay(SongEventType type) {
+        return type == SongEventType.Next || type == SongEventType.Skip || type == SongEventType.Select;
+    }
+}
@@ -0,0 +1,287 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * The state of a population of simulated players, kept in primitive arrays (struct-of-arrays) so that tens of millions
+ * of players fit in memory: ~45 bytes per player, with no objects per player. Players are addressed by slot, and the
+ * player ID of a slot is firstPlayerId + slot * playerIdStride (so a worker can own every n-th player).
+ * <p>
+ * For each player we keep the last event it emitted (whose next context is what the player is doing now) and its
+ * pending event, which is decided as soon as the last one is emitted, so its time is known for scheduling. Events are
+ * only materialized into {@link SongEvent} objects when they are emitted. Songs, playlists and stations are stored as
+ * {@link SongList} IDs and enums as ordinals.
+ * <p>
+ * Each player has its own {@link SplitMix64} state, derived from a run-wide seed and the player ID, so its behavior
+ * doesn't depend on which other players are in the store or the order they are driven in.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class PlayerStateStore {
+    static final String PARTNER_SERVICE = "Prime";
+
+    private static final SubscriptionLevel[] SUBSCRIPTION_LEVELS = SubscriptionLevel.values();
+    private static final SongEventType[] EVENT_TYPES = SongEventType.values();
+    private static final SongEvent.ListType[] LIST_TYPES = SongEvent.ListType.values();
+    private static final byte PLAYLIST = (byte) SongEvent.ListType.Playlist.ordinal();
+    private static final byte STATION = (byte) SongEvent.ListType.Station.ordinal();
+    private static final byte SINGLE_SONG = (byte) SongEvent.ListType.SingleSong.ordinal();
+    private static final byte ALBUM = (byte) SongEvent.ListType.Album.ordinal();
+    private static final byte NEXT = (byte) SongEventType.Next.ordinal();
+    private static final byte SKIP = (byte) SongEventType.Skip.ordinal();
+    private static final byte PAUSE = (byte) SongEventType.Pause.ordinal();
+    private static final byte RESUME = (byte) SongEventType.Resume.ordinal();
+    private static final byte SELECT = (byte) SongEventType.Select.ordinal();
+
+    private final long firstPlayerId;
+    private final long playerIdStride;
+    private final int size;
+    private final SplitMix64 random = new SplitMix64(0); // each player's state is swapped in while we generate for it
+
+    private final byte[] subscriptionLevels;
+    private final long[] randomStates;
+    // the last event (list IDs are playlist IDs or station IDs, depending on the list type; -1 for other lists)
+    private final byte[] lastTypes;
+    private final byte[] lastListTypes;
+    private final int[] lastListIds;
+    private final int[] lastSongIds;
+    private final long[] lastTimes;
+    // the pending event
+    private final byte[] pendingTypes;
+    private final byte[] pendingListTypes;
+    private final int[] pendingListIds;
+    private final int[] pendingSongIds;
+    private final long[] pendingTimes;
+
+    /**
+     * Creates the players and decides each one's first event
+     *
+     * @param now the current time; players start out somewhere in the middle of a song
+     */
+    PlayerStateStore(long firstPlayerId, long playerIdStride, int size, long seed, long now) {
+        this.firstPlayerId = firstPlayerId;
+        this.playerIdStride = playerIdStride;
+        this.size = size;
+        subscriptionLevels = new byte[size];
+        randomStates = new long[size];
+        lastTypes = new byte[size];
+        lastListTypes = new byte[size];
+        lastListIds = new int[size];
+        lastSongIds = new int[size];
+        lastTimes = new long[size];
+        pendingTypes = new byte[size];
+        pendingListTypes = new byte[size];
+        pendingListIds = new int[size];
+        pendingSongIds = new int[size];
+        pendingTimes = new long[size];
+
+        for (int slot = 0; slot < size; slot++) {
+            random.setState(seedFor(seed, getPlayerId(slot)));
+            subscriptionLevels[slot] = (byte) randomSubscriptionLevel().ordinal();
+
+            // we just started, so we don't have a last event; make one up that occurred in the past, to infer behavior
+            pendingTypes[slot] = NEXT;
+            selectNewList(slot);
+            selectNewSong(slot);
+            pendingTimes[slot] = now - random.nextInt(30000); // some time in the last 30 seconds
+            promotePending(slot);
+
+            randomStates[slot] = random.getState();
+            generatePending(slot, now);
+        }
+    }
+
+    /**
+     * The initial generator state for a player. The same seed and player ID always produce the same state, and
+     * different players get independent streams.
+     */
+    static long seedFor(long seed, long playerId) {
+        // nearby SplitMix64 seeds produce overlapping streams, so mix them
+        return SplitMix64.mix64(seed ^ SplitMix64.mix64(playerId));
+    }
+
+    static SongEvent newEvent() {
+        SongEvent event = new SongEvent();
+        event.lastContext = new SongEvent.Context();
+        event.nextContext = new SongEvent.Context();
+        return event;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getPlayerId(int slot) {
+        return firstPlayerId + slot * playerIdStride;
+    }
+
+    /**
+     * @return the time of the player's pending event
+     */
+    long getPendingTime(int slot) {
+        return pendingTimes[slot];
+    }
+
+    /**
+     * Writes the player's pending event into the given event (created by {@link #newEvent()})
+     */
+    void peek(int slot, SongEvent event) {
+        event.timestamp = pendingTimes[slot];
+        event.playerId = getPlayerId(slot);
+        event.subscriptionLevel = SUBSCRIPTION_LEVELS[subscriptionLevels[slot]];
+        event.partnerService = event.subscriptionLevel == SubscriptionLevel.PartnerMember ? PARTNER_SERVICE : null;
+        event.songEventType = EVENT_TYPES[pendingTypes[slot]];
+        fillContext(event.lastContext, lastListTypes[slot], lastListIds[slot], lastSongIds[slot]);
+        fillContext(event.nextContext, pendingListTypes[slot], pendingListIds[slot], pendingSongIds[slot]);
+    }
+
+    /**
+     * Writes the player's pending event into the given event, then decides the player's next one
+     *
+     * @param now the current time (events are never scheduled before it)
+     */
+    void emit(int slot, SongEvent event, long now) {
+        peek(slot, event);
+        promotePending(slot);
+        generatePending(slot, now);
+    }
+
+    private void fillContext(SongEvent.Context context, byte listType, int listId, int songId) {
+        context.listType = LIST_TYPES[listType];
+        context.playlist = listType == PLAYLIST ? SongList.getPlaylist(listId) : null;
+        context.station = listType == STATION ? SongList.getStation(listId) : null;
+        context.songId = songId;
+        context.artistId = SongList.getArtistIdFor(songId);
+        context.albumId = SongList.getAlbumIdFor(songId);
+    }
+
+    private void promotePending(int slot) {
+        lastTypes[slot] = pendingTypes[slot];
+        lastListTypes[slot] = pendingListTypes[slot];
+        lastListIds[slot] = pendingListIds[slot];
+        lastSongIds[slot] = pendingSongIds[slot];
+        lastTimes[slot] = pendingTimes[slot];
+    }
+
+    // decide the player's next event, including the time at which it occurs, following a reasonable behavior pattern
+    private void generatePending(int slot, long now) {
+        random.setState(randomStates[slot]);
+        byte listType = lastListTypes[slot];
+        long lastTime = lastTimes[slot];
+        long time;
+
+        // unless we change them below, we stay on the same list and song
+        pendingListTypes[slot] = listType;
+        pendingListIds[slot] = lastListIds[slot];
+        pendingSongIds[slot] = lastSongIds[slot];
+
+        // are we paused?  how long til we unpause?
+        if (lastTypes[slot] == PAUSE) {
+            // 17% chance we pick a different song when resuming (unless we were playing a single song)
+            if (random.nextInt(100) < 17 || listType == SINGLE_SONG) {
+                pendingTypes[slot] = SELECT;
+                selectNewList(slot);
+                selectNewSong(slot);
+            } else {
+                pendingTypes[slot] = RESUME;
+            }
+            time = lastTime + random.nextInt(1170000) + 30000; // between 30 seconds and 20 minutes
+
+            // we are not currently paused - check if we need to pause (1% chance)
+        } else if (random.nextInt(100) < 1) {
+            pendingTypes[slot] = PAUSE;
+            // pause should happen some time in the middle of the last song played
+            time = lastTime + random.nextInt(SongList.getLengthFor(lastSongIds[slot]) * 1000);
+
+        } else { // not pausing or resuming
+
+            if (likeThisSong(listType)) { // if we like the current song
+                if (listType == SINGLE_SONG) {
+                    // if we are playing a single song, they player will automatically pause at the end of it
+                    pendingTypes[slot] = PAUSE;
+                } else {
+                    // wait for the next song in the list
+                    pendingTypes[slot] = NEXT;
+                    selectNewSong(slot);
+                }
+                time = lastTime + SongList.getLengthFor(lastSongIds[slot]) * 1000;
+            } else if (likeCurrentList(listType)) { // if we like the current list (album, station, playlist, etc.)
+                // skip song, keep list
+                pendingTypes[slot] = SKIP;
+                selectNewSong(slot);
+                time = lastTime + random.nextInt(3000) + 2000; // skip within 2-5 seconds
+            } else {
+                // select new list
+                pendingTypes[slot] = SELECT;
+                selectNewList(slot);
+                selectNewSong(slot);
+                time = lastTime + random.nextInt(3000) + 2000; // skip within 2-5 seconds
+            }
+        }
+
+        // make sure we don't send a late event on purpose
+        if (time < now) time = now + 5;
+        pendingTimes[slot] = time;
+
+        randomStates[slot] = random.getState();
+    }
+
+    private SubscriptionLevel randomSubscriptionLevel() {
+        // 37% are on free tier
+        // 19% = paid members
+        // 25% = members through partners
+        // 12% = 30-day promo
+        // 7% = 90-day promo
+        int chance = random.nextInt(100);
+        if (chance < 37) return SubscriptionLevel.FreeTier;
+        if (chance < 56) return SubscriptionLevel.Member;
+        if (chance < 81) return SubscriptionLevel.PartnerMember;
+        if (chance < 93) return SubscriptionLevel.Promo30;
+        return SubscriptionLevel.Promo90;
+    }
+
+    private boolean likeThisSong(byte listType) {
+        // if in a playlist, we are 82% likely to like the current song
+        // if in a station, we are 23% likely to like the song
+        // if in an album, we are 32% likely to like the song
+        // if we picked the song, we like it
+        int chance = random.nextInt(100);
+        if (listType == PLAYLIST) return chance < 82;
+        if (listType == STATION) return chance < 23;
+        if (listType == ALBUM) return chance < 32;
+        return true;
+    }
+
+    // if this is called, it means we do not like the current song
+    private boolean likeCurrentList(byte listType) {
+        // if in a playlist, we are 94% likely to like the list
+        // if in a station, we are 87% likely to like the list
+        // if in an album, we are 83% likely
+        int chance = random.nextInt(100);
+        if (listType == PLAYLIST) return chance < 94;
+        if (listType == STATION) return chance < 87;
+        if (listType == ALBUM) return chance < 83;
+        return false;
+    }
+
+    private void selectNewList(int slot) {
+        // weighted (50% playlist, 35% station, 13% one song, 2% album)
+        int chance = random.nextInt(100);
+        if (chance < 50) {
+            pendingListTypes[slot] = PLAYLIST;
+            pendingListIds[slot] = SongList.getRandomPlaylistId(random);
+        } else if (chance < 85) {
+            pendingListTypes[slot] = STATION;
+            pendingListIds[slot] = SongList.getRandomStationId(random);
+        } else if (chance < 98) {
+            pendingListTypes[slot] = SINGLE_SONG;
+            pendingListIds[slot] = -1;
+        } else {
+            pendingListTypes[slot] = ALBUM;
+            pendingListIds[slot] = -1;
+        }
+    }
+
+    private void selectNewSong(int slot) {
+        // pull a random song from the song list (its artist and album come with it)
+        pendingSongIds[slot] = SongList.getRandomSongId(random);
+    }
+}
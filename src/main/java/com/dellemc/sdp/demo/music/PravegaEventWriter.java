@@ -7,15 +7,57 @@ import io.pravega.client.stream.EventStreamWriter;
 import io.pravega.client.stream.EventWriterConfig;
 import io.pravega.client.stream.ScalingPolicy;
 import io.pravega.client.stream.StreamConfiguration;
-import io.pravega.client.stream.impl.UTF8StringSerializer;
+import io.pravega.client.stream.Transaction;
+import io.pravega.client.stream.TransactionalEventStreamWriter;
+import io.pravega.client.stream.TxnFailedException;
+import io.pravega.client.stream.impl.ByteBufferSerializer;
 import io.pravega.keycloak.client.PravegaKeycloakCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Writes events to a Pravega stream through a pool of stream writers. Each event goes to the writer picked by its
+ * routing key, so a player's events always go through the same writer and stay in order, while the pool spreads the
+ * appends of different players over several writers (and their connections).
+ * <p>
+ * In transactional mode, each writer fills a transaction with events and commits it once it holds the batch size or has
+ * been open for the linger time, so a batch of events becomes visible to readers all at once or not at all. Commits run
+ * on a committer thread, in the order the batches filled up, and each event is acknowledged when its transaction is
+ * committed. The committer also opens each writer's next transaction ahead of time, so writing an event doesn't wait on
+ * the controller.
+ * <p>
+ * The writers are all driven by the caller's thread (a generator worker), so more writers add connections, not threads.
+ * <p>
+ * Noted times (see {@link #noteTime(long)}) go to every writer, or in transactional mode, with the commit of each
+ * transaction filled up by then, so readers can get the watermarks of the stream from Pravega.
+ */
 public class PravegaEventWriter implements SongEventGenerator.EventWriter, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PravegaEventWriter.class);
+
+    static final long MIN_TXN_TIMEOUT_MS = 30000;
+    private static final long CLOSE_TIMEOUT_MS = 30000;
+
     SongEventGenerator.Config config;
     EventStreamClientFactory clientFactory;
-    EventStreamWriter<String> writer;
+    List<EventStreamWriter<ByteBuffer>> writers;
+    List<TransactionalEventStreamWriter<ByteBuffer>> txnWriters;
+    private Batch[] batches; // the transaction each transactional writer is filling (guarded by itself)
+    private final ArrayDeque<Batch> ready = new ArrayDeque<>(); // batches to commit, in order (guarded by batches)
+    private List<Transaction<ByteBuffer>> opened; // each writer's next transaction, if open yet (guarded by batches)
+    private long notedTime = Long.MIN_VALUE; // (guarded by batches)
+    private ScheduledExecutorService committer;
 
     public PravegaEventWriter(SongEventGenerator.Config config) {
         this.config = config;
@@ -24,25 +66,233 @@ public class PravegaEventWriter implements SongEventGenerator.EventWriter, AutoC
         ClientConfig clientConfig = createClientConfig();
         createStream(clientConfig);
 
-        // create writer
+        // create writers
         clientFactory = EventStreamClientFactory.withScope(config.getScope(), clientConfig);
-        writer = clientFactory.createEventWriter(
-                config.getStream(), new UTF8StringSerializer(), EventWriterConfig.builder().build());
+        EventWriterConfig writerConfig = createWriterConfig();
+        if (config.getTxnBatchSize() > 0) {
+            List<TransactionalEventStreamWriter<ByteBuffer>> txnWriters = new ArrayList<>();
+            for (int i = 0; i < config.getPravegaWriterCount(); i++) {
+                txnWriters.add(clientFactory.createTransactionalEventWriter(UUID.randomUUID().toString(),
+                        config.getStream(), new ByteBufferSerializer(), writerConfig));
+            }
+            startTransactions(txnWriters);
+        } else {
+            writers = new ArrayList<>();
+            for (int i = 0; i < config.getPravegaWriterCount(); i++) {
+                writers.add(clientFactory.createEventWriter(config.getStream(), new ByteBufferSerializer(), writerConfig));
+            }
+        }
+    }
+
+    // writes to an existing stream writer (i.e. an in-memory one, for benchmarks)
+    PravegaEventWriter(SongEventGenerator.Config config, EventStreamWriter<ByteBuffer> writer) {
+        this.config = config;
+        this.writers = Collections.singletonList(writer);
+    }
+
+    // writes in transactions to existing writers (i.e. in-memory ones, for tests)
+    PravegaEventWriter(SongEventGenerator.Config config, List<TransactionalEventStreamWriter<ByteBuffer>> txnWriters) {
+        this.config = config;
+        startTransactions(txnWriters);
+    }
+
+    private void startTransactions(List<TransactionalEventStreamWriter<ByteBuffer>> txnWriters) {
+        if (config.getTxnBatchSize() > config.getMaxInFlight())
+            throw new IllegalArgumentException("transaction batch cannot be larger than the max in-flight events");
+        this.txnWriters = txnWriters;
+        batches = new Batch[txnWriters.size()];
+        opened = new ArrayList<>(Collections.nCopies(txnWriters.size(), null));
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pravega-committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long lingerMS = config.getTxnLingerMS();
+        committer.scheduleAtFixedRate(() -> commitOpen(false), lingerMS, lingerMS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < txnWriters.size(); i++) {
+            int index = i;
+            committer.execute(() -> openNext(index));
+        }
     }
 
     @Override
-    public void writeEvent(String routingKey, String body) {
-        writer.writeEvent(routingKey, body);
+    public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+        // the writer holds on to the event until it is acknowledged, so it needs its own copy
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+        copy.put(body.duplicate()).flip();
+        if (txnWriters == null) return writers.get(writerFor(routingKey, writers.size())).writeEvent(routingKey, copy);
+
+        int index = writerFor(routingKey, txnWriters.size());
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Transaction<ByteBuffer> txn = null, spare = null;
+        boolean written = false;
+        while (!written) {
+            synchronized (batches) {
+                // start a batch with the transaction the committer opened ahead, or else the one opened below
+                if (txn == null && batches[index] == null) txn = opened.set(index, null);
+                if (txn != null) {
+                    if (batches[index] == null) batches[index] = new Batch(txn);
+                    else if (opened.get(index) == null) opened.set(index, txn); // another thread started one meanwhile
+                    else spare = txn;
+                    txn = null;
+                }
+                Batch batch = batches[index];
+                if (batch != null) {
+                    batch.futures.add(future);
+                    try {
+                        batch.txn.writeEvent(routingKey, copy);
+                    } catch (TxnFailedException e) {
+                        // the transaction can't be committed, so nothing in it will be written
+                        batch.failure = e;
+                    }
+                    if (batch.failure != null || batch.futures.size() >= config.getTxnBatchSize()) {
+                        batch.time = notedTime;
+                        ready.add(batch);
+                        batches[index] = null;
+                        committer.execute(this::commitReady);
+                        committer.execute(() -> openNext(index));
+                    }
+                    written = true;
+                }
+            }
+            // the committer hasn't opened one yet; beginning a transaction waits on the controller, so not under the lock
+            if (!written) txn = txnWriters.get(index).beginTxn();
+        }
+        if (spare != null) abort(spare);
+        return future;
     }
 
     @Override
-    public synchronized void close() {
+    public void noteTime(long timestamp) {
+        if (txnWriters == null) {
+            for (EventStreamWriter<ByteBuffer> writer : writers) {
+                writer.noteTime(timestamp);
+            }
+        } else {
+            synchronized (batches) {
+                notedTime = timestamp;
+            }
+        }
+    }
+
+    static int writerFor(String routingKey, int writerCount) {
+        return writerCount == 1 ? 0 : (routingKey.hashCode() & Integer.MAX_VALUE) % writerCount;
+    }
+
+    // commits the transactions that have been open for the linger time, or all of them (runs on the committer thread)
+    private void commitOpen(boolean all) {
+        long now = System.currentTimeMillis();
+        List<Integer> closed = new ArrayList<>();
+        synchronized (batches) {
+            for (int i = 0; i < batches.length; i++) {
+                if (batches[i] != null && (all || now - batches[i].startTime >= config.getTxnLingerMS())) {
+                    batches[i].time = notedTime;
+                    ready.add(batches[i]);
+                    batches[i] = null;
+                    closed.add(i);
+                }
+            }
+        }
+        commitReady();
+        if (!all) closed.forEach(this::openNext);
+    }
+
+    // opens a writer's next transaction, unless one is open already (runs on the committer thread)
+    private void openNext(int index) {
+        synchronized (batches) {
+            if (opened.get(index) != null) return;
+        }
+        Transaction<ByteBuffer> txn;
         try {
-            if (writer != null) writer.close();
-        } catch (Throwable t) {
-            t.printStackTrace();
+            txn = txnWriters.get(index).beginTxn();
+        } catch (RuntimeException e) {
+            // the writer will begin its next transaction itself
+            log.warn("could not open a transaction ahead", e);
+            return;
+        }
+        synchronized (batches) {
+            if (opened.get(index) == null) {
+                opened.set(index, txn);
+                return;
+            }
+        }
+        abort(txn);
+    }
+
+    // commits the batches in the order they were filled, so a player's events are committed in order
+    private void commitReady() {
+        while (true) {
+            Batch batch;
+            synchronized (batches) {
+                batch = ready.poll();
+            }
+            if (batch == null) return;
+            if (batch.failure != null) abort(batch, batch.failure);
+            else commit(batch);
         }
-        writer = null;
+    }
+
+    private void commit(Batch batch) {
+        try {
+            // every event written to the writer after this one was filled up is at or after the time noted by then
+            if (batch.time != Long.MIN_VALUE) batch.txn.commit(batch.time);
+            else batch.txn.commit();
+        } catch (TxnFailedException | RuntimeException e) {
+            abort(batch, e);
+            return;
+        }
+        for (CompletableFuture<Void> future : batch.futures) {
+            future.complete(null);
+        }
+    }
+
+    private void abort(Batch batch, Throwable cause) {
+        log.warn("transaction {} of {} events failed", batch.txn.getTxnId(), batch.futures.size(), cause);
+        abort(batch.txn);
+        for (CompletableFuture<Void> future : batch.futures) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static void abort(Transaction<ByteBuffer> txn) {
+        try {
+            txn.abort();
+        } catch (RuntimeException e) {
+            log.debug("could not abort transaction {}", txn.getTxnId(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (committer != null) {
+            // commit what has been written so far, after any batches already waiting
+            committer.execute(() -> commitOpen(true));
+            committer.shutdown();
+            try {
+                if (!committer.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    log.warn("timed out waiting for transactions to commit");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            committer = null;
+            // the transactions opened ahead were never written to
+            for (Transaction<ByteBuffer> txn : opened) {
+                if (txn != null) abort(txn);
+            }
+            Collections.fill(opened, null);
+        }
+        List<AutoCloseable> all = new ArrayList<>();
+        if (writers != null) all.addAll(writers);
+        if (txnWriters != null) all.addAll(txnWriters);
+        for (AutoCloseable writer : all) {
+            try {
+                writer.close();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+        writers = null;
+        txnWriters = null;
         try {
             if (clientFactory != null) clientFactory.close();
         } catch (Throwable t) {
@@ -63,6 +313,17 @@ public class PravegaEventWriter implements SongEventGenerator.EventWriter, AutoC
         return builder.build();
     }
 
+    EventWriterConfig createWriterConfig() {
+        EventWriterConfig.EventWriterConfigBuilder builder = EventWriterConfig.builder();
+        if (config.getWriterRetryAttempts() != null) builder.retryAttempts(config.getWriterRetryAttempts());
+        if (config.getWriterMaxBackoffMS() != null) builder.maxBackoffMillis(config.getWriterMaxBackoffMS());
+        builder.enableConnectionPooling(config.isWriterConnectionPooling());
+        // a transaction must not time out while it lingers (or waits for the commits ahead of it)
+        if (config.getTxnBatchSize() > 0)
+            builder.transactionTimeoutTime(Math.max(MIN_TXN_TIMEOUT_MS, 3L * config.getTxnLingerMS()));
+        return builder.build();
+    }
+
     void createStream(ClientConfig clientConfig) {
         try (StreamManager streamManager = StreamManager.create(clientConfig)) {
 
@@ -72,9 +333,49 @@ public class PravegaEventWriter implements SongEventGenerator.EventWriter, AutoC
 
             // create the stream
             StreamConfiguration streamConfiguration = StreamConfiguration.builder()
-                    .scalingPolicy(ScalingPolicy.byEventRate(5, 2, 2))
+                    .scalingPolicy(parseScalingPolicy(config.getScalingPolicy(), config.getSegmentCount()))
                     .build();
-            streamManager.createStream(config.getScope(), config.getStream(), streamConfiguration);
+            if (!streamManager.createStream(config.getScope(), config.getStream(), streamConfiguration))
+                log.info("stream {} / {} already exists; its scaling policy is unchanged", config.getScope(), config.getStream());
+        }
+    }
+
+    /**
+     * Parses a scaling policy spec: fixed, events:&lt;events-per-sec&gt;[:&lt;scale-factor&gt;] or
+     * kbytes:&lt;KB-per-sec&gt;[:&lt;scale-factor&gt;] (the target rate per segment; the scale factor defaults to 2)
+     *
+     * @param segments the number of segments the stream starts with (and never scales below)
+     */
+    static ScalingPolicy parseScalingPolicy(String spec, int segments) {
+        if (segments < 1) throw new IllegalArgumentException("segment count must be positive");
+        String[] parts = spec.trim().split(":");
+        String type = parts[0].toLowerCase();
+        try {
+            if (type.equals("fixed") && parts.length == 1) {
+                return ScalingPolicy.fixed(segments);
+            } else if ((type.equals("events") || type.equals("kbytes")) && (parts.length == 2 || parts.length == 3)) {
+                int rate = Integer.parseInt(parts[1]), factor = parts.length == 3 ? Integer.parseInt(parts[2]) : 2;
+                if (rate < 1 || factor < 1) throw new IllegalArgumentException("invalid scaling policy: " + spec);
+                return type.equals("events") ? ScalingPolicy.byEventRate(rate, factor, segments)
+                        : ScalingPolicy.byDataRate(rate, factor, segments);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid scaling policy: " + spec, e);
+        }
+        throw new IllegalArgumentException("invalid scaling policy (use fixed, events:<events-per-sec>[:<scale-factor>] " +
+                "or kbytes:<KB-per-sec>[:<scale-factor>]): " + spec);
+    }
+
+    // a transaction being filled, and the events written to it
+    private static class Batch {
+        final Transaction<ByteBuffer> txn;
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        final long startTime = System.currentTimeMillis();
+        long time = Long.MIN_VALUE; // the time noted when it filled up
+        TxnFailedException failure;
+
+        Batch(Transaction<ByteBuffer> txn) {
+            this.txn = txn;
         }
     }
 }
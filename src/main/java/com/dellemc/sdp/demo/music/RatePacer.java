@@ -0,0 +1,118 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * Decides when each event should be sent to follow a {@link RateProfile} (open-loop: the schedule only depends on the
+ * profile, never on how long the sink took to accept earlier events). The schedule is the integral of the rate, so
+ * varying rates come out right too; it is stepped at most {@link #MAX_STEP_MS} at a time, so a rise in the rate is
+ * noticed even when the current rate is very low (or 0).
+ * <p>
+ * Lag is accounted against the intended send time of each event, not the time the previous one was sent. When the sink
+ * stalls, every event that should have been sent in the meantime counts as late (by however long it was held up), and
+ * the events are sent as soon as possible afterwards to catch up. This avoids coordinated omission: a stall shows up
+ * as the backlog it really causes instead of as one slow event.
+ * <p>
+ * NOTE: this class is *not* thread-safe (each generator worker has its own)
+ */
+final class RatePacer {
+    static final double MAX_STEP_MS = 100;
+    static final long LATE_THRESHOLD_MS = 5; // the generator sleeps in increments of up to 5ms, so this is on time
+
+    private final RateProfile profile;
+    private final double share;
+    private final long start;
+    private double time; // how far the schedule has been integrated
+    private double credit; // events owed as of time (fractional)
+    private long nextTime;
+
+    // accounting since the last reset
+    private long sentCount;
+    private long lateCount;
+    private long totalLagMS;
+    private long maxLagMS;
+
+    /**
+     * @param share the fraction of the profile's rate to generate (i.e. 1/n for each of n workers)
+     * @param start the (epoch millisecond) time the profile starts at
+     */
+    RatePacer(RateProfile profile, double share, long start) {
+        this.profile = profile;
+        this.share = share;
+        this.start = start;
+        this.time = start;
+        advance();
+    }
+
+    /**
+     * @return the intended send time of the next event
+     */
+    long getNextTime() {
+        return nextTime;
+    }
+
+    /**
+     * @return the target rate (for this pacer's share) at the given time
+     */
+    double getRateAt(long time) {
+        return profile.rateAt(time - start) * share;
+    }
+
+    /**
+     * Records that the next event was sent at the given time, and schedules the one after it
+     */
+    void sent(long now) {
+        long lagMS = now - nextTime;
+        if (lagMS > LATE_THRESHOLD_MS) {
+            lateCount++;
+            totalLagMS += lagMS;
+            if (lagMS > maxLagMS) maxLagMS = lagMS;
+        }
+        sentCount++;
+        advance();
+    }
+
+    /**
+     * @return how far behind schedule we are at the given time (0 if we're not)
+     */
+    long getBacklogMS(long now) {
+        return Math.max(0, now - nextTime);
+    }
+
+    long getSentCount() {
+        return sentCount;
+    }
+
+    long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * @return the average lag of the late events (0 if there were none)
+     */
+    long getAverageLagMS() {
+        return lateCount == 0 ? 0 : totalLagMS / lateCount;
+    }
+
+    long getMaxLagMS() {
+        return maxLagMS;
+    }
+
+    void resetStats() {
+        sentCount = lateCount = totalLagMS = maxLagMS = 0;
+    }
+
+    private void advance() {
+        // integrate the rate until another whole event is owed (allowing for rounding error)
+        while (credit < 1 - 1e-9) {
+            double rate = getRateAt((long) time);
+            if (!(rate > 0)) {
+                time += MAX_STEP_MS;
+                continue;
+            }
+            double stepMS = Math.min(MAX_STEP_MS, (1 - credit) * 1000 / rate);
+            credit += rate * stepMS / 1000;
+            time += stepMS;
+        }
+        credit -= 1;
+        nextTime = (long) time;
+    }
+}
@@ -0,0 +1,108 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * The target event rate (events per second) over the course of a run, for load testing with an exact rate instead of
+ * whatever the simulated players happen to produce. Profiles are given as a spec on the command line, based on the
+ * --rate option:
+ * <ul>
+ * <li>constant - always the base rate</li>
+ * <li>step:&lt;increment&gt;:&lt;interval&gt;[:&lt;max-rate&gt;] - starts at the base rate and adds increment events/sec
+ * every interval (up to max-rate)</li>
+ * <li>sine:&lt;amplitude&gt;:&lt;period&gt; - swings between base - amplitude and base + amplitude over each period
+ * (i.e. a daily cycle with a period of 1d); never below 0</li>
+ * <li>burst:&lt;burst-rate&gt;:&lt;every&gt;:&lt;duration&gt; - the base rate, except for the last duration of each
+ * every, when it is burst-rate</li>
+ * </ul>
+ * Durations are in seconds, or have an s, m, h or d suffix (i.e. 30s, 15m, 1d).
+ */
+@FunctionalInterface
+interface RateProfile {
+    String CONSTANT = "constant";
+
+    /**
+     * @param elapsedMS time since the start of the run (by the generator clock)
+     * @return the target rate at that time, in events per second
+     */
+    double rateAt(long elapsedMS);
+
+    static RateProfile constant(double rate) {
+        return elapsedMS -> rate;
+    }
+
+    static RateProfile step(double rate, double increment, long intervalMS, double maxRate) {
+        return elapsedMS -> Math.min(rate + increment * (elapsedMS / intervalMS), maxRate);
+    }
+
+    static RateProfile sine(double rate, double amplitude, long periodMS) {
+        return elapsedMS -> Math.max(0, rate + amplitude * Math.sin(2 * Math.PI * (elapsedMS % periodMS) / periodMS));
+    }
+
+    static RateProfile burst(double rate, double burstRate, long everyMS, long durationMS) {
+        return elapsedMS -> elapsedMS % everyMS >= everyMS - durationMS ? burstRate : rate;
+    }
+
+    /**
+     * Parses a profile spec (see above)
+     *
+     * @param rate the base rate (from the --rate option)
+     */
+    static RateProfile parse(String spec, double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate)) throw new IllegalArgumentException("rate must be positive");
+        String[] parts = spec.trim().split(":");
+        String type = parts[0].toLowerCase();
+        try {
+            if (type.equals(CONSTANT) && parts.length == 1) {
+                return constant(rate);
+            } else if (type.equals("step") && (parts.length == 3 || parts.length == 4)) {
+                double increment = parseRate(parts[1]);
+                double maxRate = parts.length == 4 ? parseRate(parts[3]) : Double.MAX_VALUE;
+                return step(rate, increment, parseDuration(parts[2]), maxRate);
+            } else if (type.equals("sine") && parts.length == 3) {
+                double amplitude = Double.parseDouble(parts[1]);
+                if (!(amplitude >= 0) || Double.isInfinite(amplitude))
+                    throw new IllegalArgumentException("amplitude must not be negative");
+                return sine(rate, amplitude, parseDuration(parts[2]));
+            } else if (type.equals("burst") && parts.length == 4) {
+                long everyMS = parseDuration(parts[2]), durationMS = parseDuration(parts[3]);
+                if (durationMS > everyMS) throw new IllegalArgumentException("burst duration must not be longer than its interval");
+                return burst(rate, parseRate(parts[1]), everyMS, durationMS);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid rate profile: " + spec, e);
+        }
+        throw new IllegalArgumentException("invalid rate profile (use constant, step:<increment>:<interval>[:<max-rate>], " +
+                "sine:<amplitude>:<period> or burst:<burst-rate>:<every>:<duration>): " + spec);
+    }
+
+    static double parseRate(String rate) {
+        double value = Double.parseDouble(rate);
+        if (!(value > 0) || Double.isInfinite(value)) throw new IllegalArgumentException("rate must be positive: " + rate);
+        return value;
+    }
+
+    // seconds, or a number with an s, m, h or d suffix
+    static long parseDuration(String duration) {
+        String number = duration.isEmpty() ? duration : duration.substring(0, duration.length() - 1);
+        long unitMS;
+        switch (duration.isEmpty() ? ' ' : duration.charAt(duration.length() - 1)) {
+            case 'd':
+                unitMS = 86_400_000L;
+                break;
+            case 'h':
+                unitMS = 3_600_000L;
+                break;
+            case 'm':
+                unitMS = 60_000L;
+                break;
+            case 's':
+                unitMS = 1000L;
+                break;
+            default: // seconds
+                unitMS = 1000L;
+                number = duration;
+        }
+        long ms = (long) (Double.parseDouble(number) * unitMS);
+        if (ms <= 0) throw new IllegalArgumentException("duration must be positive: " + duration);
+        return ms;
+    }
+}
@@ -0,0 +1,36 @@
+package com.dellemc.sdp.demo.music;
+
+import java.util.Arrays;
+
+/**
+ * The routing keys (player IDs as strings) of a worker's players, so a new string isn't built for every event. Keys are
+ * cached by player slot in a direct-mapped table: with up to {@link #MAX_CAPACITY} players, each key is only built
+ * once; beyond that, players share entries and a key is rebuilt when its entry was last used by another player (so
+ * memory stays bounded for huge player counts).
+ * <p>
+ * NOTE: this class is *not* thread-safe (each generator worker has its own)
+ */
+final class RoutingKeyCache {
+    static final int MAX_CAPACITY = 1 << 18;
+
+    private final int mask;
+    private final int[] slots;
+    private final String[] keys;
+
+    RoutingKeyCache(int playerCount) {
+        int capacity = Integer.highestOneBit(Math.max(1, Math.min(playerCount, MAX_CAPACITY)) * 2 - 1);
+        mask = capacity - 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        keys = new String[capacity];
+    }
+
+    String get(int slot, long playerId) {
+        int i = slot & mask;
+        if (slots[i] != slot) {
+            keys[i] = Long.toString(playerId);
+            slots[i] = slot;
+        }
+        return keys[i];
+    }
+}
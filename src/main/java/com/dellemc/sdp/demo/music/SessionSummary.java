@@ -0,0 +1,96 @@
+package com.dellemc.sdp.demo.music;
+
+import java.time.Instant;
+
+/**
+ * A listening session of one player: a run of events with no gap of more than the session gap between them (see
+ * {@link SessionTracker}). Immutable.
+ */
+public final class SessionSummary {
+    private final long playerId;
+    private final long start;
+    private final long end;
+    private final int eventCount;
+    private final int songCount;
+    private final int skipCount;
+    private final int listSwitchCount;
+    private final boolean complete;
+
+    SessionSummary(long playerId, long start, long end, int eventCount, int songCount, int skipCount,
+                   int listSwitchCount, boolean complete) {
+        this.playerId = playerId;
+        this.start = start;
+        this.end = end;
+        this.eventCount = eventCount;
+        this.songCount = songCount;
+        this.skipCount = skipCount;
+        this.listSwitchCount = listSwitchCount;
+        this.complete = complete;
+    }
+
+    public long getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * @return the time of the first event in the session
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the time of the last event in the session
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getDurationMS() {
+        return end - start;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the number of songs started (Next, Skip and Select events)
+     */
+    public int getSongCount() {
+        return songCount;
+    }
+
+    public int getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * @return the number of times the player selected a different album, playlist, station or song to play from
+     */
+    public int getListSwitchCount() {
+        return listSwitchCount;
+    }
+
+    /**
+     * @return true if the session ended with a gap, false if it was closed early (evicted to bound memory, or still open
+     * when processing stopped)
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionSummary{" +
+                "playerId=" + playerId +
+                ", start=" + Instant.ofEpochMilli(start) +
+                ", end=" + Instant.ofEpochMilli(end) +
+                ", eventCount=" + eventCount +
+                ", songCount=" + songCount +
+                ", skipCount=" + skipCount +
+                ", listSwitchCount=" + listSwitchCount +
+                ", complete=" + complete +
+                '}';
+    }
+}
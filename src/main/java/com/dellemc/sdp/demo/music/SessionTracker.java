@@ -0,0 +1,463 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Groups each player's events into listening sessions: a session ends when the player has no events for the session
+ * gap, and is then passed to the listener as a {@link SessionSummary}. Time is event time, advanced by the caller (see
+ * {@link #advanceTo(long)}), so sessions time out as the stream is read rather than on the wall clock.
+ * <p>
+ * Open sessions are kept in parallel primitive arrays (about 61 bytes each, with no object per session), found by player
+ * ID through an open-addressing index, so millions of them fit in a modest heap. Expiry is a hashed timer wheel: each
+ * session sits in the bucket of the tick its gap would have elapsed at when it was scheduled, and advancing time only
+ * visits the buckets of the ticks passed. Events don't move a session between buckets; a session that has had events
+ * since it was scheduled is rescheduled when its bucket comes up, so each session is looked at about once per gap
+ * rather than on every tick.
+ * <p>
+ * Memory is bounded by a maximum number of open sessions. When it is reached, the sessions in the next bucket to expire
+ * (those idle the longest, give or take a rotation of the wheel) are closed early, as incomplete sessions.
+ * <p>
+ * Sessions can be snapshotted incrementally (see {@link #writeTo(StateBuffer, boolean)}): the tracker remembers which
+ * sessions changed and which were closed since the last snapshot. A restored session can then be moved to whichever
+ * tracker reads its player's events next (see {@link #moveTo(long, SessionTracker)}).
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class SessionTracker {
+    static final int WHEEL_SIZE = 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+    private static final int MOVED = -1; // event count of an entry moved to another tracker, until its bucket comes up
+
+    private final long gapMS;
+    private final int maxSessions;
+    private final Consumer<SessionSummary> listener;
+
+    // open sessions by entry number; entries never move, so the index and wheel can refer to them
+    private long[] playerIds;
+    private long[] starts;
+    private long[] lasts;
+    private long[] listKeys;
+    private int[] eventCounts;
+    private int[] songCounts;
+    private int[] skipCounts;
+    private int[] switchCounts;
+    private boolean[] dirty; // changed since the last snapshot
+    private int[] next; // the next entry in the same wheel bucket (or in the free list)
+    private int allocated; // entries handed out so far (free ones are reused first)
+    private int freeHead = NONE;
+    private int size;
+
+    // player ID -> entry + 1 (0 is empty), linear probing, at most half full
+    private int[] index;
+
+    private final long tickMS;
+    private final int[] buckets = new int[WHEEL_SIZE]; // first entry in each bucket
+    private long currentTick = Long.MIN_VALUE; // every bucket up to this tick has been expired
+    private long time = Long.MIN_VALUE;
+    private long evictedCount;
+
+    // sessions closed since the last snapshot (player ID, start), once there has been one
+    private boolean snapshotted;
+    private final StateBuffer removals = new StateBuffer(64);
+    private int removalCount;
+
+    SessionTracker(long gapMS, int maxSessions, Consumer<SessionSummary> listener) {
+        if (gapMS <= 0) throw new IllegalArgumentException("session gap must be positive");
+        if (maxSessions < 1) throw new IllegalArgumentException("max sessions must be positive");
+        this.gapMS = gapMS;
+        this.maxSessions = maxSessions;
+        this.listener = listener;
+        this.tickMS = Math.max(1, gapMS / WHEEL_SIZE);
+        Arrays.fill(buckets, NONE);
+        resize(Math.min(INITIAL_CAPACITY, maxSessions));
+    }
+
+    /**
+     * Adds an event to its player's session, starting a new one if there is none (or the gap since the last event has
+     * passed, even if time hasn't been advanced that far yet).
+     */
+    void add(SongEvent event) {
+        int slot = find(event.playerId);
+        int entry = index[slot] - 1;
+        if (entry >= 0 && event.timestamp - lasts[entry] >= gapMS) {
+            // the session ended before this event; the entry stays in its bucket and is rescheduled from there
+            emit(entry, true);
+            start(entry, event);
+        } else if (entry < 0) {
+            if (size == maxSessions) {
+                evict();
+                slot = find(event.playerId);
+            }
+            entry = allocate();
+            index[slot] = entry + 1;
+            size++;
+            start(entry, event);
+            schedule(entry);
+        }
+
+        dirty[entry] = true;
+        eventCounts[entry]++;
+        starts[entry] = Math.min(starts[entry], event.timestamp);
+        lasts[entry] = Math.max(lasts[entry], event.timestamp);
+        if (PaneStats.isPlay(event.songEventType)) songCounts[entry]++;
+        if (event.songEventType == SongEventType.Skip) skipCounts[entry]++;
+        if (event.songEventType == SongEventType.Select) {
+            long listKey = listKey(event.nextContext);
+            if (listKey != listKeys[entry]) {
+                switchCounts[entry]++;
+                listKeys[entry] = listKey;
+            }
+        }
+    }
+
+    /**
+     * Moves time forward, closing every session whose gap has passed by then (within one tick of {@link #getTickMS()}).
+     * Time never goes backwards.
+     */
+    void advanceTo(long now) {
+        if (now <= time) return;
+        time = now;
+        long tick = Math.floorDiv(now, tickMS);
+        // one turn of the wheel visits every bucket
+        if (currentTick == Long.MIN_VALUE || tick - currentTick > WHEEL_SIZE) currentTick = tick - WHEEL_SIZE;
+        while (currentTick < tick) {
+            currentTick++;
+            expire((int) (currentTick & (WHEEL_SIZE - 1)));
+        }
+    }
+
+    /**
+     * Closes every open session (as incomplete), i.e. when processing stops
+     */
+    void closeAll() {
+        for (int bucket = 0; bucket < WHEEL_SIZE; bucket++) {
+            for (int entry = buckets[bucket]; entry != NONE; entry = next[entry]) {
+                if (eventCounts[entry] != MOVED) emit(entry, false);
+            }
+            buckets[bucket] = NONE;
+        }
+        Arrays.fill(index, 0);
+        allocated = 0;
+        freeHead = NONE;
+        size = 0;
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    int size() {
+        return size;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    long getTickMS() {
+        return tickMS;
+    }
+
+    /**
+     * @return the number of sessions closed early to stay within the maximum
+     */
+    long getEvictedCount() {
+        return evictedCount;
+    }
+
+    boolean contains(long playerId) {
+        return index[find(playerId)] != 0;
+    }
+
+    /**
+     * Writes the open sessions for a snapshot: all of them, or only the sessions closed and changed since the last
+     * snapshot (which must have been written by this tracker). Applied in order by {@link #readFrom(ByteBuffer)}.
+     */
+    void writeTo(StateBuffer out, boolean full) {
+        if (full) {
+            out.putVarLong(0);
+            out.putBytes(new byte[0]);
+        } else {
+            out.putVarLong(removalCount);
+            out.putBytes(removals.contents());
+        }
+        int count = 0;
+        for (int slot : index) {
+            if (slot != 0 && (full || dirty[slot - 1])) count++;
+        }
+        out.putVarLong(count);
+        for (int slot : index) {
+            int entry = slot - 1;
+            if (slot == 0 || !(full || dirty[entry])) continue;
+            out.putSignedVarLong(playerIds[entry]);
+            out.putSignedVarLong(starts[entry]);
+            out.putVarLong(lasts[entry] - starts[entry]);
+            out.putLong(listKeys[entry]);
+            out.putVarLong(eventCounts[entry]);
+            out.putVarLong(songCounts[entry]);
+            out.putVarLong(skipCounts[entry]);
+            out.putVarLong(switchCounts[entry]);
+            dirty[entry] = false;
+        }
+        removals.clear();
+        removalCount = 0;
+        snapshotted = true;
+    }
+
+    /**
+     * Applies sessions written by {@link #writeTo(StateBuffer, boolean)} (by this or any other tracker) to this one,
+     * which is being restored: once every snapshot has been applied, call {@link #scheduleAll()}.
+     */
+    void readFrom(ByteBuffer in) {
+        int removed = StateBuffer.getVarInt(in);
+        StateBuffer.getVarInt(in); // the length of the removals
+        for (int i = 0; i < removed; i++) {
+            long playerId = StateBuffer.getSignedVarLong(in), start = StateBuffer.getSignedVarLong(in);
+            int slot = find(playerId);
+            // the player may have a newer session from another reader
+            if (index[slot] != 0 && starts[index[slot] - 1] == start) remove(index[slot] - 1);
+        }
+        for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+            long playerId = StateBuffer.getSignedVarLong(in), start = StateBuffer.getSignedVarLong(in);
+            long last = start + StateBuffer.getVarLong(in), listKey = in.getLong();
+            put(playerId, start, last, listKey, StateBuffer.getVarInt(in), StateBuffer.getVarInt(in),
+                    StateBuffer.getVarInt(in), StateBuffer.getVarInt(in));
+        }
+    }
+
+    /**
+     * Schedules the restored sessions to expire, once they have all been read
+     */
+    void scheduleAll() {
+        for (int slot : index) {
+            if (slot != 0) schedule(slot - 1);
+        }
+    }
+
+    /**
+     * Moves a player's session to another (open) tracker, unless the other already has one for the player. It is closed
+     * here without being passed to the listener.
+     *
+     * @return false if there was no session to move
+     */
+    boolean moveTo(long playerId, SessionTracker other) {
+        int entry = index[find(playerId)] - 1;
+        if (entry < 0 || other.contains(playerId)) return false;
+        other.schedule(copyTo(entry, other));
+        // it can't be taken out of the middle of its bucket, so it is freed when the bucket comes up
+        unindex(entry);
+        eventCounts[entry] = MOVED;
+        return true;
+    }
+
+    /**
+     * Adds a copy of a player's session to another tracker (replacing its session), without scheduling it there
+     */
+    void copyTo(long playerId, SessionTracker other) {
+        int entry = index[find(playerId)] - 1;
+        if (entry >= 0) copyTo(entry, other);
+    }
+
+    private int copyTo(int entry, SessionTracker other) {
+        return other.put(playerIds[entry], starts[entry], lasts[entry], listKeys[entry], eventCounts[entry],
+                songCounts[entry], skipCounts[entry], switchCounts[entry]);
+    }
+
+    // adds or replaces a player's session, without scheduling it
+    private int put(long playerId, long start, long last, long listKey, int eventCount, int songCount, int skipCount,
+                    int switchCount) {
+        int slot = find(playerId);
+        int entry = index[slot] - 1;
+        if (entry < 0) {
+            if (size == maxSessions) {
+                evict();
+                slot = find(playerId);
+            }
+            entry = allocate();
+            index[slot] = entry + 1;
+            size++;
+        }
+        playerIds[entry] = playerId;
+        starts[entry] = start;
+        lasts[entry] = last;
+        listKeys[entry] = listKey;
+        eventCounts[entry] = eventCount;
+        songCounts[entry] = songCount;
+        skipCounts[entry] = skipCount;
+        switchCounts[entry] = switchCount;
+        dirty[entry] = true;
+        return entry;
+    }
+
+    // what an event's list is: the list type and which album, playlist, station or song
+    static long listKey(SongEvent.Context context) {
+        if (context == null || context.listType == null) return 0;
+        long id;
+        switch (context.listType) {
+            case Playlist:
+                id = context.playlist == null ? 0 : PaneStats.nameKey(context.playlist);
+                break;
+            case Station:
+                id = context.station == null ? 0 : PaneStats.nameKey(context.station);
+                break;
+            case Album:
+                id = context.albumId;
+                break;
+            default:
+                id = context.songId;
+        }
+        return id * 4 + context.listType.ordinal();
+    }
+
+    private void start(int entry, SongEvent event) {
+        playerIds[entry] = event.playerId;
+        starts[entry] = event.timestamp;
+        lasts[entry] = event.timestamp;
+        listKeys[entry] = listKey(event.nextContext);
+        eventCounts[entry] = 0;
+        songCounts[entry] = 0;
+        skipCounts[entry] = 0;
+        switchCounts[entry] = 0;
+    }
+
+    private void expire(int bucket) {
+        int entry = buckets[bucket];
+        buckets[bucket] = NONE;
+        while (entry != NONE) {
+            int following = next[entry];
+            if (eventCounts[entry] == MOVED) {
+                free(entry);
+            } else if (lasts[entry] + gapMS <= time) {
+                emit(entry, true);
+                remove(entry);
+            } else {
+                schedule(entry); // had events since it was scheduled
+            }
+            entry = following;
+        }
+    }
+
+    // closes the sessions in the next bucket to expire
+    private void evict() {
+        for (int i = 1; i <= WHEEL_SIZE; i++) {
+            int bucket = (int) ((currentTick + i) & (WHEEL_SIZE - 1));
+            if (buckets[bucket] == NONE) continue;
+            int entry = buckets[bucket];
+            buckets[bucket] = NONE;
+            boolean evicted = false;
+            while (entry != NONE) {
+                int following = next[entry];
+                if (eventCounts[entry] == MOVED) {
+                    free(entry);
+                } else {
+                    emit(entry, false);
+                    remove(entry);
+                    evictedCount++;
+                    evicted = true;
+                }
+                entry = following;
+            }
+            if (evicted) return;
+        }
+    }
+
+    private void schedule(int entry) {
+        long tick = Math.max(Math.floorDiv(lasts[entry] + gapMS, tickMS), currentTick + 1);
+        int bucket = (int) (tick & (WHEEL_SIZE - 1));
+        next[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+    }
+
+    private void emit(int entry, boolean complete) {
+        listener.accept(new SessionSummary(playerIds[entry], starts[entry], lasts[entry], eventCounts[entry],
+                songCounts[entry], skipCounts[entry], switchCounts[entry], complete));
+    }
+
+    private int allocate() {
+        if (freeHead != NONE) {
+            int entry = freeHead;
+            freeHead = next[entry];
+            return entry;
+        }
+        if (allocated == playerIds.length) {
+            // entries moved to another tracker aren't free until their buckets come up, so there may be more entries
+            // than sessions
+            int capacity = Math.min(playerIds.length * 2, maxSessions);
+            resize(capacity > playerIds.length ? capacity : playerIds.length + Math.max(16, playerIds.length / 8));
+        }
+        return allocated++;
+    }
+
+    private void remove(int entry) {
+        unindex(entry);
+        free(entry);
+    }
+
+    // removes a session from the index (shifting later entries in its probe sequence back)
+    private void unindex(int entry) {
+        if (snapshotted) {
+            removals.putSignedVarLong(playerIds[entry]);
+            removals.putSignedVarLong(starts[entry]);
+            removalCount++;
+        }
+        int mask = index.length - 1;
+        int slot = find(playerIds[entry]);
+        index[slot] = 0;
+        for (int following = (slot + 1) & mask; index[following] != 0; following = (following + 1) & mask) {
+            int home = (int) SplitMix64.mix64(playerIds[index[following] - 1]) & mask;
+            // move it back unless its home is cyclically in (slot, following]
+            if (((following - home) & mask) >= ((following - slot) & mask)) {
+                index[slot] = index[following];
+                index[following] = 0;
+                slot = following;
+            }
+        }
+        size--;
+    }
+
+    private void free(int entry) {
+        next[entry] = freeHead;
+        freeHead = entry;
+    }
+
+    // the index slot of the player's session, or the empty slot where it would go
+    private int find(long playerId) {
+        int mask = index.length - 1;
+        int slot = (int) SplitMix64.mix64(playerId) & mask;
+        while (index[slot] != 0 && playerIds[index[slot] - 1] != playerId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        playerIds = grow(playerIds, capacity);
+        starts = grow(starts, capacity);
+        lasts = grow(lasts, capacity);
+        listKeys = grow(listKeys, capacity);
+        eventCounts = grow(eventCounts, capacity);
+        songCounts = grow(songCounts, capacity);
+        skipCounts = grow(skipCounts, capacity);
+        switchCounts = grow(switchCounts, capacity);
+        dirty = dirty == null ? new boolean[capacity] : Arrays.copyOf(dirty, capacity);
+        next = grow(next, capacity);
+
+        int[] entries = index;
+        index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        if (entries != null) {
+            for (int entry : entries) {
+                if (entry != 0) index[find(playerIds[entry - 1])] = entry;
+            }
+        }
+    }
+
+    private static long[] grow(long[] array, int capacity) {
+        return array == null ? new long[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
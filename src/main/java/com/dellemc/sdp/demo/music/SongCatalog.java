@@ -0,0 +1,499 @@
+package com.dellemc.sdp.demo.music;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A dense, integer-indexed song catalog. Each song is an ID (its position in the catalog file) and its artist, album
+ * and length are kept in parallel primitive arrays; artists and albums are interned into their own ID spaces. The hot
+ * path only deals in IDs, and names are looked up by ID when an event is serialized.
+ * <p>
+ * Names are not held as Strings. A catalog file is memory-mapped (in windows that end on line boundaries) and each
+ * name is a reference to its UTF-8 bytes in the mapping, so the heap cost is ~24 bytes per song plus a little per
+ * artist and album, however long the names are, and loading is a single pass over the file.
+ * <p>
+ * Catalog lines have the form <code>title::artist::length-in-seconds[::album[::weight]]</code>, in UTF-8. Songs without
+ * an album are put on a "&lt;artist&gt; - Singles" album. The weight is the song's relative popularity (see
+ * {@link SongList.Popularity#Catalog}); songs without one have a weight of 1.
+ * <p>
+ * Instances are immutable once loaded, so they can be shared between threads.
+ */
+final class SongCatalog {
+    static final String SINGLES_SUFFIX = " - Singles";
+    static final String PLAYLIST_SUFFIX = " Essentials";
+    static final String STATION_SUFFIX = " Radio";
+    static final int MAX_LIST_COUNT = 1000;
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final NameTable songs, artists, albums;
+    private final int[] artistIds;
+    private final int[] albumIds;
+    private final int[] lengths;
+    private final float[] weights; // null if the catalog doesn't have any
+    private final int songCount;
+    private final String[] playlists;
+    private final String[] stations;
+
+    /**
+     * Memory-maps and parses a catalog file
+     */
+    static SongCatalog load(Path file) throws IOException {
+        return load(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    // windowSize is only configurable for testing
+    static SongCatalog load(Path file, int windowSize) throws IOException {
+        Builder builder = new Builder();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size(), position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, windowSize);
+                boolean last = position + length == size;
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int parsed = builder.parse(window, last);
+                if (parsed == 0 && !last) throw new IllegalArgumentException("catalog line at offset " + position + " is too long");
+                position += parsed;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the whole stream into memory and parses it (for small catalogs, like the bundled song list)
+     */
+    static SongCatalog load(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int read; (read = in.read(chunk)) >= 0; ) {
+            bytes.write(chunk, 0, read);
+        }
+        Builder builder = new Builder();
+        builder.parse(ByteBuffer.wrap(bytes.toByteArray()), true);
+        return builder.build();
+    }
+
+    private SongCatalog(Builder builder) {
+        songCount = builder.songCount;
+        songs = builder.songs.trim();
+        artists = builder.artists.trim();
+        albums = builder.albums.trim();
+        artistIds = Arrays.copyOf(builder.artistIds, songCount);
+        albumIds = Arrays.copyOf(builder.albumIds, songCount);
+        lengths = Arrays.copyOf(builder.lengths, songCount);
+        weights = builder.weights == null ? null : Arrays.copyOf(builder.weights, songCount);
+
+        // playlists and stations are built around a spread of artists (i.e. "Bee Gees Radio")
+        int listCount = Math.min(artists.size(), MAX_LIST_COUNT);
+        playlists = new String[listCount];
+        stations = new String[listCount];
+        for (int i = 0; i < listCount; i++) {
+            long artistId = (long) i * artists.size() / listCount;
+            playlists[i] = artists.get((int) artistId) + PLAYLIST_SUFFIX;
+            stations[i] = artists.get((int) ((artistId + artists.size() / 2) % artists.size())) + STATION_SUFFIX;
+        }
+    }
+
+    int getSongCount() {
+        return songCount;
+    }
+
+    int getArtistCount() {
+        return artists.size();
+    }
+
+    int getAlbumCount() {
+        return albums.size();
+    }
+
+    int getArtistIdFor(int songId) {
+        return artistIds[songId];
+    }
+
+    int getAlbumIdFor(int songId) {
+        return albumIds[songId];
+    }
+
+    /**
+     * @return the length of the song in seconds
+     */
+    int getLengthFor(int songId) {
+        return lengths[songId];
+    }
+
+    boolean hasWeights() {
+        return weights != null;
+    }
+
+    /**
+     * @return the relative popularity of the song (1 if the catalog doesn't specify one)
+     */
+    double getWeightFor(int songId) {
+        return weights == null ? 1 : weights[songId];
+    }
+
+    /**
+     * Song titles (by song ID)
+     */
+    NameTable songs() {
+        return songs;
+    }
+
+    /**
+     * @return the ID of the song with the title by the artist on the album (either can be -1 to match any), else the
+     * first song with the title, or -1 if there is none
+     */
+    int findSong(String title, int artistId, int albumId) {
+        return songs.find(title, id -> (artistId < 0 || artistIds[id] == artistId) && (albumId < 0 || albumIds[id] == albumId));
+    }
+
+    NameTable artists() {
+        return artists;
+    }
+
+    NameTable albums() {
+        return albums;
+    }
+
+    int getPlaylistCount() {
+        return playlists.length;
+    }
+
+    String getPlaylist(int playlistId) {
+        return playlists[playlistId];
+    }
+
+    int getStationCount() {
+        return stations.length;
+    }
+
+    String getStation(int stationId) {
+        return stations[stationId];
+    }
+
+    /**
+     * A table of UTF-8 names, each referenced by ID. The bytes stay where they were loaded (i.e. in the mapped catalog
+     * file) and the table only records where they are. The index used to look names up is optional; when there isn't
+     * one, it is built on the first lookup.
+     */
+    static final class NameTable {
+        private final List<ByteBuffer> pools;
+        private long[] refs = new long[64]; // pool index << 32 | offset
+        private int[] lengths = new int[64];
+        private int size;
+        private volatile int[] index; // open addressing, holds ID + 1 (0 = empty slot)
+
+        NameTable(List<ByteBuffer> pools, boolean indexed) {
+            this.pools = pools;
+            if (indexed) index = new int[64];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * The buffer holding the name's bytes. Use {@link #offset(int)} and {@link #length(int)} to read them with
+         * absolute gets (the buffer is shared, so don't touch its position)
+         */
+        ByteBuffer pool(int id) {
+            return pools.get((int) (refs[id] >>> 32));
+        }
+
+        int offset(int id) {
+            return (int) refs[id];
+        }
+
+        int length(int id) {
+            return lengths[id];
+        }
+
+        /**
+         * @return the name as a String, or null if the ID is -1 (this allocates - use the bytes on the hot path)
+         */
+        String get(int id) {
+            if (id < 0) return null;
+            ByteBuffer pool = pool(id);
+            byte[] bytes = new byte[lengths[id]];
+            for (int i = 0, offset = offset(id); i < bytes.length; i++) {
+                bytes[i] = pool.get(offset + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the ID of the name (the first one, if there are duplicates), or -1 if it isn't in the table
+         */
+        int find(String name) {
+            return find(name, id -> true);
+        }
+
+        /**
+         * Picks between duplicate names (e.g. songs with the same title)
+         *
+         * @return the first ID of the name that the filter accepts, else the first ID of the name, or -1 if it isn't in
+         * the table
+         */
+        int find(String name, IntPredicate filter) {
+            if (name == null) return -1;
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int[] index = getIndex();
+            int mask = index.length - 1, first = -1;
+            // duplicates are inserted in ID order, so they are probed in ID order
+            for (int slot = hash(bytes) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                int id = index[slot] - 1;
+                if (!equals(id, bytes)) continue;
+                if (filter.test(id)) return id;
+                if (first < 0) first = id;
+            }
+            return first;
+        }
+
+        private int[] getIndex() {
+            if (index == null) {
+                synchronized (this) {
+                    if (index == null) {
+                        int[] newIndex = new int[tableSize(size)];
+                        for (int id = 0; id < size; id++) {
+                            insert(newIndex, id);
+                        }
+                        index = newIndex;
+                    }
+                }
+            }
+            return index;
+        }
+
+        int add(int pool, int offset, int length) {
+            if (size == refs.length) {
+                refs = Arrays.copyOf(refs, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            refs[size] = (long) pool << 32 | offset;
+            lengths[size] = length;
+            return size++;
+        }
+
+        /**
+         * @return the ID of the name if it's already in the table, otherwise adds it and returns the new ID
+         */
+        int intern(int pool, int offset, int length) {
+            int id = lookup(index, pools.get(pool), offset, length);
+            if (id >= 0) return id;
+            id = add(pool, offset, length);
+            if (size * 2 > index.length) {
+                int[] newIndex = new int[index.length * 2];
+                for (int i = 0; i < size - 1; i++) {
+                    insert(newIndex, i);
+                }
+                index = newIndex;
+            }
+            insert(index, id);
+            return id;
+        }
+
+        private int lookup(int[] index, ByteBuffer pool, int offset, int length) {
+            int mask = index.length - 1;
+            for (int slot = hash(pool, offset, length) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                if (equals(index[slot] - 1, pool, offset, length)) return index[slot] - 1;
+            }
+            return -1;
+        }
+
+        private void insert(int[] index, int id) {
+            int mask = index.length - 1;
+            int slot = hash(pool(id), offset(id), lengths[id]) & mask;
+            while (index[slot] != 0) slot = (slot + 1) & mask;
+            index[slot] = id + 1;
+        }
+
+        private boolean equals(int id, ByteBuffer pool, int offset, int length) {
+            if (lengths[id] != length) return false;
+            ByteBuffer idPool = pool(id);
+            int idOffset = offset(id);
+            for (int i = 0; i < length; i++) {
+                if (idPool.get(idOffset + i) != pool.get(offset + i)) return false;
+            }
+            return true;
+        }
+
+        private boolean equals(int id, byte[] bytes) {
+            return equals(id, ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        private static int hash(ByteBuffer pool, int offset, int length) {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + pool.get(offset + i);
+            }
+            return hash * 0x9E3779B9; // spread the bits, since we mask off the low ones
+        }
+
+        private static int hash(byte[] bytes) {
+            return hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        private static int tableSize(int size) {
+            return Integer.highestOneBit(Math.max(size, 32) * 2) * 2;
+        }
+
+        NameTable trim() {
+            refs = Arrays.copyOf(refs, size);
+            lengths = Arrays.copyOf(lengths, size);
+            return this;
+        }
+    }
+
+    static class Builder {
+        private final List<ByteBuffer> pools = new ArrayList<>();
+        private final NameTable songs = new NameTable(pools, false);
+        private final NameTable artists = new NameTable(pools, true);
+        private final NameTable albums = new NameTable(pools, true);
+        private int[] artistIds = new int[128];
+        private int[] albumIds = new int[128];
+        private int[] lengths = new int[128];
+        private float[] weights; // only allocated once we see a weight
+        private int[] singlesAlbumIds = new int[128]; // by artist ID
+        private int songCount;
+        private final int[] fieldEnds = new int[5]; // reused for every line
+        private ByteBuffer extraNames = ByteBuffer.allocate(1024); // pool 0 - names that aren't in the catalog file
+
+        Builder() {
+            pools.add(extraNames);
+        }
+
+        /**
+         * Parses the complete lines in the buffer (and the final unterminated line, if this is the last buffer)
+         *
+         * @return the number of bytes parsed (so the caller knows where the next buffer should start)
+         */
+        int parse(ByteBuffer buffer, boolean last) {
+            int pool = pools.size();
+            pools.add(buffer);
+            int lineStart = 0, limit = buffer.limit();
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    parseLine(pool, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (last && lineStart < limit) {
+                parseLine(pool, lineStart, limit);
+                lineStart = limit;
+            }
+            return lineStart;
+        }
+
+        // title::artist::length[::album[::weight]]
+        private void parseLine(int pool, int start, int end) {
+            ByteBuffer buffer = pools.get(pool);
+            if (end > start && buffer.get(end - 1) == '\r') end--;
+            if (end == start) return;
+
+            int fields = 0;
+            for (int i = start; i < end - 1 && fields < 4; i++) {
+                if (buffer.get(i) == ':' && buffer.get(i + 1) == ':') {
+                    fieldEnds[fields++] = i;
+                    i++;
+                }
+            }
+            if (fields < 2) throw new IllegalArgumentException("invalid catalog line: " + text(buffer, start, end));
+            fieldEnds[fields] = end;
+
+            int lengthSeconds = 0;
+            for (int i = fieldEnds[1] + 2; i < fieldEnds[2]; i++) {
+                byte b = buffer.get(i);
+                if (b < '0' || b > '9' || lengthSeconds > 100000)
+                    throw new IllegalArgumentException("invalid length in catalog line: " + text(buffer, start, end));
+                lengthSeconds = lengthSeconds * 10 + (b - '0');
+            }
+            if (lengthSeconds < 1)
+                throw new IllegalArgumentException("invalid length in catalog line: " + text(buffer, start, end));
+
+            float weight = 1;
+            if (fields == 4) {
+                try {
+                    weight = Float.parseFloat(text(buffer, fieldEnds[3] + 2, end));
+                } catch (NumberFormatException e) {
+                    weight = -1;
+                }
+                if (!(weight >= 0) || Float.isInfinite(weight))
+                    throw new IllegalArgumentException("invalid weight in catalog line: " + text(buffer, start, end));
+                if (weights == null) {
+                    // everything before this had the default weight
+                    weights = new float[lengths.length];
+                    Arrays.fill(weights, 0, songCount, 1);
+                }
+            }
+
+            int artistId = artists.intern(pool, fieldEnds[0] + 2, fieldEnds[1] - fieldEnds[0] - 2);
+            int albumLength = fields >= 3 ? fieldEnds[3] - fieldEnds[2] - 2 : 0;
+            int albumId = albumLength > 0
+                    ? albums.intern(pool, fieldEnds[2] + 2, albumLength)
+                    : singlesAlbumFor(artistId);
+            add(songs.add(pool, start, fieldEnds[0] - start), artistId, albumId, lengthSeconds, weight);
+        }
+
+        private void add(int songId, int artistId, int albumId, int lengthSeconds, float weight) {
+            if (songCount == lengths.length) {
+                int newCapacity = songCount * 2;
+                artistIds = Arrays.copyOf(artistIds, newCapacity);
+                albumIds = Arrays.copyOf(albumIds, newCapacity);
+                lengths = Arrays.copyOf(lengths, newCapacity);
+                if (weights != null) weights = Arrays.copyOf(weights, newCapacity);
+            }
+            artistIds[songId] = artistId;
+            albumIds[songId] = albumId;
+            lengths[songId] = lengthSeconds;
+            if (weights != null) weights[songId] = weight;
+            songCount++;
+        }
+
+        // the album for an artist's songs that don't have one
+        private int singlesAlbumFor(int artistId) {
+            if (artistId >= singlesAlbumIds.length) {
+                singlesAlbumIds = Arrays.copyOf(singlesAlbumIds, Math.max(singlesAlbumIds.length * 2, artistId + 1));
+            }
+            if (singlesAlbumIds[artistId] == 0) {
+                // albums are IDs + 1 here, so the array doesn't need initializing
+                int offset = addExtraName(artists.get(artistId) + SINGLES_SUFFIX);
+                singlesAlbumIds[artistId] = albums.intern(0, offset, extraNames.position() - offset) + 1;
+            }
+            return singlesAlbumIds[artistId] - 1;
+        }
+
+        private int addExtraName(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (extraNames.remaining() < bytes.length) {
+                ByteBuffer newNames = ByteBuffer.allocate(Math.max(extraNames.capacity() * 2, extraNames.position() + bytes.length));
+                extraNames.flip();
+                newNames.put(extraNames);
+                extraNames = newNames;
+                pools.set(0, extraNames);
+            }
+            int offset = extraNames.position();
+            extraNames.put(bytes);
+            return offset;
+        }
+
+        private static String text(ByteBuffer buffer, int start, int end) {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        SongCatalog build() {
+            if (songCount == 0) throw new IllegalArgumentException("catalog is empty");
+            return new SongCatalog(this);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dellemc.sdp.demo.music;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a synthetic song catalog of any size (for load tests with a realistic number of tracks, without needing a
+ * real catalog or network access). Artists get a handful of albums with 8-14 tracks each. The same seed always
+ * generates the same catalog.
+ */
+public class SongCatalogGenerator {
+    private static final String[] ADJECTIVES = {"Black", "Blue", "Broken", "Burning", "Crimson", "Crystal", "Dancing",
+            "Dark", "Electric", "Empty", "Endless", "Falling", "Fading", "Frozen", "Golden", "Hidden", "Hollow", "Lonely",
+            "Lost", "Midnight", "Neon", "Paper", "Purple", "Quiet", "Restless", "Rolling", "Silent", "Silver", "Sleeping",
+            "Stone", "Summer", "Velvet", "Wandering", "Wild", "Winter", "Wooden"};
+    private static final String[] NOUNS = {"Angel", "Bird", "Bridge", "Candle", "City", "Cloud", "Crow", "Dream",
+            "Engine", "Fire", "Flower", "Garden", "Ghost", "Heart", "Highway", "Horse", "Island", "King", "Light", "Machine",
+            "Mirror", "Moon", "Mountain", "Ocean", "River", "Road", "Rose", "Shadow", "Sky", "Star", "Storm", "Sun", "Train",
+            "Wave", "Wolf", "World"};
+
+    private SplittableRandom random;
+
+    public SongCatalogGenerator(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Writes songCount songs to the file (replacing it if it exists)
+     */
+    public void generate(Path file, long songCount) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            long songs = 0;
+            for (int artist = 0; songs < songCount; artist++) {
+                String artistName = artistName(artist);
+                int albumCount = 1 + random.nextInt(6);
+                for (int album = 0; album < albumCount && songs < songCount; album++) {
+                    String albumName = phrase();
+                    int trackCount = 8 + random.nextInt(7);
+                    for (int track = 0; track < trackCount && songs < songCount; track++, songs++) {
+                        writer.write(phrase());
+                        writer.write("::");
+                        writer.write(artistName);
+                        writer.write("::");
+                        writer.write(Integer.toString(120 + random.nextInt(300))); // 2-7 minutes
+                        writer.write("::");
+                        writer.write(albumName);
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    // every artist gets a distinct name
+    private String artistName(int artist) {
+        int combinations = ADJECTIVES.length * NOUNS.length;
+        String name = "The " + ADJECTIVES[artist % ADJECTIVES.length] + " " + NOUNS[artist / ADJECTIVES.length % NOUNS.length] + "s";
+        return artist < combinations ? name : name + " " + (artist / combinations + 1);
+    }
+
+    private String phrase() {
+        String phrase = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + NOUNS[random.nextInt(NOUNS.length)];
+        return random.nextInt(4) == 0 ? phrase + " " + NOUNS[random.nextInt(NOUNS.length)] : phrase;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: " + SongCatalogGenerator.class.getSimpleName() + " <catalog-file> <song-count> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        new SongCatalogGenerator(seed).generate(Paths.get(args[0]), Long.parseLong(args[1]));
+    }
+}
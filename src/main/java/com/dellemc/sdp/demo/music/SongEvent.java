@@ -1,5 +1,8 @@
 package com.dellemc.sdp.demo.music;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
 // the assumption is that this is a music service like Spotify or Pandora
 public class SongEvent {
     public long timestamp;
@@ -14,12 +17,50 @@ public class SongEvent {
         Album, Playlist, Station, SingleSong;
     }
 
+    /**
+     * Songs, artists and albums are carried as {@link SongList} IDs (-1 = none); they only appear as names in the JSON
+     * form (through the getters/setters). Setting a name that is not in the song list fails, and a song title is looked
+     * up with the artist and album set so far (the JSON form names them first), to pick between songs with that title.
+     */
+    @JsonPropertyOrder({"listType", "playlist", "station", "artist", "album", "song"})
     public static class Context {
         public ListType listType;
         public String playlist;
         public String station;
-        public String artist;
-        public String album;
-        public String song;
+        @JsonIgnore
+        public int artistId = -1;
+        @JsonIgnore
+        public int albumId = -1;
+        @JsonIgnore
+        public int songId = -1;
+
+        public String getArtist() {
+            return SongList.getArtist(artistId);
+        }
+
+        public void setArtist(String artist) {
+            artistId = checkFound(SongList.getArtistId(artist), "artist", artist);
+        }
+
+        public String getAlbum() {
+            return SongList.getAlbum(albumId);
+        }
+
+        public void setAlbum(String album) {
+            albumId = checkFound(SongList.getAlbumId(album), "album", album);
+        }
+
+        public String getSong() {
+            return SongList.getSong(songId);
+        }
+
+        public void setSong(String song) {
+            songId = checkFound(SongList.getSongId(song, artistId, albumId), "song", song);
+        }
+
+        private static int checkFound(int id, String kind, String name) {
+            if (id < 0 && name != null) throw new IllegalArgumentException(kind + " is not in the song list: " + name);
+            return id;
+        }
     }
 }
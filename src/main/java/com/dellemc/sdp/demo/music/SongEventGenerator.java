@@ -10,15 +10,19 @@
  */
 package com.dellemc.sdp.demo.music;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -28,62 +32,346 @@ public class SongEventGenerator implements Runnable {
     private static Logger log = LoggerFactory.getLogger(SongEventGenerator.class);
 
     public static int DEFAULT_PLAYER_COUNT = 100;
-
-    private static ObjectMapper mapper = new ObjectMapper();
+    public static int DEFAULT_WORKER_COUNT = 1;
+    public static int DEFAULT_MAX_IN_FLIGHT = 10000;
+    public static int DEFAULT_KINESIS_LINGER_MS = 100;
+    public static double DEFAULT_ZIPF_EXPONENT = 1.0;
+    public static int DEFAULT_METRICS_INTERVAL = 10;
+    public static long DEFAULT_FILE_SEGMENT_SIZE = 256 * 1024 * 1024;
+    public static int DEFAULT_PRAVEGA_WRITER_COUNT = 1;
+    public static int DEFAULT_TXN_LINGER_MS = 1000;
+    public static String DEFAULT_SCALING_POLICY = "events:5:2";
+    public static int DEFAULT_SEGMENT_COUNT = 2;
+
+    private static final long REPORT_INTERVAL_MS = 10000;
+    private static final long NOTE_TIME_INTERVAL_MS = 1000;
 
     private Config config;
+    private GeneratorMetrics metrics;
     private AtomicBoolean running = new AtomicBoolean();
-    private List<SongPlayer> players = new ArrayList<>();
-    private int futureEventThresholdMS = 5000; // only manage events that will emit before this threshold (5 seconds in the future)
-    private ExecutorService taskService = Executors.newSingleThreadExecutor();
+    private long seed;
+    private long clockStart;
+    private int maxSleepMS = 100; // cap on how long we sleep waiting for the next event, so we notice stop() in time
 
     public SongEventGenerator(Config config) {
         this.config = config;
+        this.metrics = new GeneratorMetrics(config.getFileDir() != null ? "file" : config.isUseKinesis() ? "kinesis" : "pravega");
+    }
+
+    public GeneratorMetrics getMetrics() {
+        return metrics;
     }
 
     public void run() {
         running.set(true);
+        try {
+            if (config.getMetricsInterval() > 0) metrics.startReporting(config.getMetricsInterval() * 1000L);
+            if (config.getMetricsPort() != null) metrics.startServer(config.getMetricsPort());
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not start metrics endpoint on port " + config.getMetricsPort(), e);
+        }
+        try {
+            if (config.getReplayDir() != null) replay();
+            else generate();
+        } finally {
+            metrics.close();
+        }
+    }
+
+    private void generate() {
+
+        // load the catalog up front, so workers don't generate events with IDs from the bundled song list
+        if (config.getCatalogFile() != null) {
+            try {
+                SongList.load(Paths.get(config.getCatalogFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not load catalog " + config.getCatalogFile(), e);
+            }
+        }
+        SongList.setPopularity(config.getPopularity(), config.getZipfExponent());
+
+        // every player's behavior is derived from the seed, so logging it is enough to repeat the run
+        seed = config.getSeed() != null ? config.getSeed() : new SplittableRandom().nextLong();
+        log.info("generating events with seed {}", seed);
+
+        // in backfill mode, every worker's clock starts at the same time
+        clockStart = config.getBackfillStart() != null ? config.getBackfillStart() : System.currentTimeMillis();
+        if (config.getBackfillEnd() != null && config.getBackfillEnd() <= clockStart)
+            throw new IllegalArgumentException("backfill end must be after the start");
+        if (config.getRate() == null && !RateProfile.CONSTANT.equals(config.getRateProfile()))
+            throw new IllegalArgumentException("a rate profile requires a rate");
+
+        int workerCount = config.getWorkerCount();
+        if (workerCount == 1) {
+            // no sharding - generate in the calling thread
+            new GeneratorWorker(0, 1).run();
+            return;
+        }
+
+        // partition the player ID space across the workers; each worker owns its players, scheduler and writer
+        List<Thread> threads = new ArrayList<>();
+        for (int shard = 0; shard < workerCount; shard++) {
+            Thread thread = new Thread(new GeneratorWorker(shard, workerCount), "generator-" + shard);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            log.error("interrupted while waiting for workers", e);
+            stop();
+        }
+    }
 
-        // create players
-        for (int i = 0; i < config.getPlayerCount(); i++) {
-            players.add(new SongPlayer(i + 1));
+    /**
+     * Generates the events for one shard of the player population. The shard owns every player whose ID satisfies
+     * (playerId - 1) % shardCount == shard (in its own {@link PlayerStateStore}), along with its own scheduler and event
+     * writer, so nothing on the generating path is shared with other workers.
+     */
+    class GeneratorWorker implements Runnable {
+        private int shard;
+        private int shardCount;
+        private ByteBuffer buffer = ByteBuffer.allocate(1024); // reused for every event
+        private long lastReportTime = System.currentTimeMillis();
+        private long lastNoteTime;
+        private int unloggedCount;
+
+        GeneratorWorker(int shard, int shardCount) {
+            this.shard = shard;
+            this.shardCount = shardCount;
         }
 
-        // create event writer
-        try (EventWriter eventWriter = createEventWriter(config)) {
+        @Override
+        public void run() {
+            GeneratorClock clock = createClock(config, clockStart);
+            long endTime = config.getBackfillEnd() != null ? config.getBackfillEnd() : Long.MAX_VALUE;
+
+            // create players and schedule each one at the emission time of its first event
+            int playerCount = (config.getPlayerCount() - shard + shardCount - 1) / shardCount;
+            PlayerStateStore players = new PlayerStateStore(shard + 1, shardCount, playerCount, seed, clock.now());
+            EmissionScheduler scheduler = new EmissionScheduler(playerCount);
+            for (int slot = 0; slot < playerCount; slot++) {
+                scheduler.add(slot, players.getPendingTime(slot));
+            }
+            SongEvent event = PlayerStateStore.newEvent(); // reused for every event
+            RoutingKeyCache routingKeys = new RoutingKeyCache(playerCount);
+
+            // with a target rate, the rate decides when events are sent (each worker takes an equal share of it)
+            RatePacer pacer = null;
+            if (config.getRate() != null) {
+                RateProfile profile = RateProfile.parse(config.getRateProfile(), config.getRate());
+                pacer = new RatePacer(profile, 1d / shardCount, clockStart);
+            }
 
-            // loop until stopped
-            while (running.get()) {
+            // create serializer and event writer
+            SongEventSerializer serializer = config.getEventFormat().createSerializer();
+            EventWriter sink = createEventWriter(config);
+            if (sink instanceof KinesisEventWriter) {
+                metrics.registerGauge("generator_sink_queue_depth", "Events queued in the sink waiting to be sent",
+                        ((KinesisEventWriter) sink)::getQueueDepth);
+            }
+            try (EventWriter eventWriter = new BoundedEventWriter(new MeteredEventWriter(sink, metrics), config.getMaxInFlight())) {
+
+                // loop until stopped (or we reach the end of the backfill range)
+                long eventCount = 0;
+                while (running.get()) {
+                    long nextTime = pacer != null ? pacer.getNextTime() : scheduler.peekTime();
+                    if (nextTime >= endTime) {
+                        log.info("generator {} reached the end of the backfill range after {} events", shard, eventCount);
+                        break;
+                    }
+
+                    // no later event is stamped before the next one is due (or now, if that's earlier)
+                    long now = clock.now();
+                    noteTime(eventWriter, Math.min(nextTime, now));
 
-                // loop through all players and build a queue of future events based on emission time
-                long now = System.currentTimeMillis();
-                List<SongEvent> events = new ArrayList<>();
-                for (SongPlayer player : players) {
+                    // only sleep if it's worth it (more than 5ms in future)
+                    if (nextTime - now > 5) {
+                        clock.sleepUntil(nextTime, maxSleepMS);
+                        continue;
+                    }
 
-                    // for all events from this player that will emit within the threshold, add them to the list
-                    while (player.peekEvent().timestamp - now < futureEventThresholdMS) {
-                        events.add(player.nextEvent());
+                    // emit the next due event, then reschedule its player at the time of its following event
+                    int slot = scheduler.poll();
+                    if (pacer == null) {
+                        players.emit(slot, event, now);
+                    } else {
+                        // the players still decide what happens (on their own timeline), but the event is stamped with
+                        // its intended send time, so any lag behind the schedule shows up downstream too
+                        players.emit(slot, event, players.getPendingTime(slot));
+                        event.timestamp = nextTime;
+                    }
+                    writeEvent(eventWriter, serializer, event, routingKeys.get(slot, event.playerId));
+                    scheduler.add(slot, players.getPendingTime(slot));
+                    eventCount++;
+
+                    // lag is measured after the write, so time spent blocked on the sink counts against this event
+                    long sentTime = clock.now();
+                    metrics.emissionLag.record(sentTime - event.timestamp);
+                    if (pacer != null) {
+                        pacer.sent(sentTime);
+                        reportRate(pacer, sentTime);
                     }
                 }
+            } catch (InterruptedException e) {
+                log.error("interrupted while sleeping", e);
+            }
+        }
 
-                // sort the events based on future emission time
-                events.sort((o1, o2) -> (int) (o1.timestamp - o2.timestamp));
+        // lets readers know how far event time has got, about once a second
+        private void noteTime(EventWriter writer, long time) {
+            long realNow = System.currentTimeMillis();
+            if (realNow - lastNoteTime < NOTE_TIME_INTERVAL_MS) return;
+            writer.noteTime(time);
+            lastNoteTime = realNow;
+        }
+
+        private void reportRate(RatePacer pacer, long now) {
+            long realNow = System.currentTimeMillis();
+            if (realNow - lastReportTime < REPORT_INTERVAL_MS) return;
+            double actualRate = pacer.getSentCount() * 1000d / (realNow - lastReportTime);
+            long backlogMS = pacer.getBacklogMS(now);
+            if (pacer.getLateCount() > 0 || backlogMS > RatePacer.LATE_THRESHOLD_MS) {
+                log.warn("generator {} is falling behind the target rate ({}/s): sent {}/s, {} of {} events late " +
+                                "(avg {}ms, max {}ms), now {}ms behind schedule",
+                        shard, round(pacer.getRateAt(now)), round(actualRate), pacer.getLateCount(), pacer.getSentCount(),
+                        pacer.getAverageLagMS(), pacer.getMaxLagMS(), backlogMS);
+            } else {
+                log.info("generator {} sent {}/s (target {}/s)", shard, round(actualRate), round(pacer.getRateAt(now)));
+            }
+            pacer.resetStats();
+            lastReportTime = realNow;
+        }
 
-                // submit events to be emitted on time
-                taskService.submit(new TimedEventWriterTask(eventWriter, events));
+        private String round(double rate) {
+            return String.format("%.1f", rate);
+        }
+
+        void writeEvent(EventWriter writer, SongEventSerializer serializer, SongEvent event, String routingKey) {
+            // serialize straight into our reusable buffer (growing it if the event doesn't fit)
+            long start = System.nanoTime();
+            while (true) {
+                buffer.clear();
+                try {
+                    serializer.serialize(event, buffer);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+            buffer.flip();
+            metrics.serializeTime.record(System.nanoTime() - start);
+
+            // at high rates, logging every event costs more than writing it, so only log a sample (the metrics summary
+            // covers the rest)
+            if (config.getLogEvery() > 0 && ++unloggedCount >= config.getLogEvery()) {
+                unloggedCount = 0;
+                if (log.isInfoEnabled()) {
+                    log.info("Writing message (key: {}, size: {}, timestamp: {}) to stream {} / {}",
+                            routingKey, buffer.remaining(), event.timestamp, config.getScope(), config.getStream());
+                }
+            }
+
+            // use the player ID as the routing key (guarantees order for each player)
+            writer.writeEvent(routingKey, buffer);
+        }
+    }
 
-                // sleep for a while
-                Thread.sleep(futureEventThresholdMS / 5);
+    /**
+     * Replays events captured by a {@link FileEventWriter} instead of generating them, one worker per captured writer
+     * (so each player's events stay in order). Events go out as fast as the sink accepts them, or with a speed, at that
+     * multiple of the pace they were captured at; every worker's clock starts at the earliest captured time, so the
+     * workers keep their original timing relative to each other.
+     */
+    private void replay() {
+        if (config.getFileDir() != null && Paths.get(config.getFileDir()).equals(Paths.get(config.getReplayDir())))
+            throw new IllegalArgumentException("cannot replay events into the directory they are read from");
+        List<List<Path>> series;
+        long start = Long.MAX_VALUE;
+        try {
+            series = FileEventReader.findSeries(Paths.get(config.getReplayDir()));
+            for (List<Path> files : series) {
+                try (FileEventReader reader = new FileEventReader(files)) {
+                    if (reader.next()) start = Math.min(start, reader.getTime());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read captured events in " + config.getReplayDir(), e);
+        }
+        if (start == Long.MAX_VALUE) throw new IllegalArgumentException("no captured events in " + config.getReplayDir());
+        log.info("replaying events captured by {} writers in {}", series.size(), config.getReplayDir());
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < series.size(); i++) {
+            Thread thread = new Thread(new ReplayWorker(i, series.get(i), start), "replay-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
             }
         } catch (InterruptedException e) {
-            log.error("interrupted while sleeping", e);
-        } finally {
-            taskService.shutdown();
+            log.error("interrupted while waiting for workers", e);
+            stop();
         }
     }
 
+    /**
+     * Writes one captured writer's events to a sink of its own, in the order they were captured. Captured times are when
+     * the events were written rather than their event times, so no time is noted.
+     */
+    class ReplayWorker implements Runnable {
+        private int number;
+        private List<Path> files;
+        private long start;
+
+        ReplayWorker(int number, List<Path> files, long start) {
+            this.number = number;
+            this.files = files;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            double speed = config.getSpeed() != null ? config.getSpeed() : 0;
+            GeneratorClock clock = new GeneratorClock.SimulatedClock(start, speed);
+            long eventCount = 0;
+            try (FileEventReader reader = new FileEventReader(files);
+                 EventWriter eventWriter = new BoundedEventWriter(new MeteredEventWriter(createEventWriter(config), metrics), config.getMaxInFlight())) {
+                while (running.get() && reader.next()) {
+                    // only sleep if it's worth it (more than 5ms in future)
+                    while (running.get() && reader.getTime() - clock.now() > 5) {
+                        clock.sleepUntil(reader.getTime(), maxSleepMS);
+                    }
+                    eventWriter.writeEvent(reader.getRoutingKey(), reader.getBody());
+                    eventCount++;
+                    if (speed > 0) metrics.emissionLag.record(clock.now() - reader.getTime());
+                }
+                log.info("replay {} wrote {} events", number, eventCount);
+            } catch (IOException e) {
+                log.error("could not read captured events after {} events", eventCount, e);
+            } catch (InterruptedException e) {
+                log.error("interrupted while sleeping", e);
+            }
+        }
+    }
+
+    /**
+     * Live generation uses the system clock. With a backfill start or a speed-up factor, each worker gets a simulated
+     * clock starting at the given time (as fast as possible, unless a speed is given).
+     */
+    GeneratorClock createClock(Config config, long start) {
+        if (config.getBackfillStart() == null && config.getSpeed() == null) return GeneratorClock.system();
+        return new GeneratorClock.SimulatedClock(start, config.getSpeed() != null ? config.getSpeed() : 0);
+    }
+
     EventWriter createEventWriter(Config config) {
-        if (config.isUseKinesis()) {
+        if (config.getFileDir() != null) {
+            return new FileEventWriter(config);
+        } else if (config.isUseKinesis()) {
             return new KinesisEventWriter(config);
         } else {
             return new PravegaEventWriter(config);
@@ -101,7 +389,37 @@ public class SongEventGenerator implements Runnable {
         boolean useKeycloak;
         boolean useKinesis;
         String awsProfile;
+        String awsRegion;
+        String kinesisEndpoint;
+        int kinesisLingerMS = DEFAULT_KINESIS_LINGER_MS;
+        SongEventSerializer.Format eventFormat = SongEventSerializer.Format.Json;
+        String catalogFile;
+        SongList.Popularity popularity = SongList.Popularity.Uniform;
+        double zipfExponent = DEFAULT_ZIPF_EXPONENT;
+        Long seed;
+        Long backfillStart;
+        Long backfillEnd;
+        Double speed;
+        Double rate;
+        String rateProfile = RateProfile.CONSTANT;
         int playerCount = DEFAULT_PLAYER_COUNT;
+        int workerCount = DEFAULT_WORKER_COUNT;
+        int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        int logEvery;
+        Integer metricsPort;
+        int metricsInterval = DEFAULT_METRICS_INTERVAL;
+        String fileDir;
+        long fileSegmentSize = DEFAULT_FILE_SEGMENT_SIZE;
+        boolean fileCompression;
+        String replayDir;
+        int pravegaWriterCount = DEFAULT_PRAVEGA_WRITER_COUNT;
+        Integer writerRetryAttempts;
+        Integer writerMaxBackoffMS;
+        boolean writerConnectionPooling;
+        int txnBatchSize;
+        int txnLingerMS = DEFAULT_TXN_LINGER_MS;
+        String scalingPolicy = DEFAULT_SCALING_POLICY;
+        int segmentCount = DEFAULT_SEGMENT_COUNT;
 
         public Config() {
         }
@@ -165,6 +483,140 @@ public class SongEventGenerator implements Runnable {
             this.awsProfile = awsProfile;
         }
 
+        public String getAwsRegion() {
+            return awsRegion;
+        }
+
+        public void setAwsRegion(String awsRegion) {
+            this.awsRegion = awsRegion;
+        }
+
+        public String getKinesisEndpoint() {
+            return kinesisEndpoint;
+        }
+
+        public void setKinesisEndpoint(String kinesisEndpoint) {
+            this.kinesisEndpoint = kinesisEndpoint;
+        }
+
+        public int getKinesisLingerMS() {
+            return kinesisLingerMS;
+        }
+
+        public void setKinesisLingerMS(int kinesisLingerMS) {
+            if (kinesisLingerMS < 0) throw new IllegalArgumentException("linger time cannot be negative");
+            this.kinesisLingerMS = kinesisLingerMS;
+        }
+
+        public SongEventSerializer.Format getEventFormat() {
+            return eventFormat;
+        }
+
+        public void setEventFormat(SongEventSerializer.Format eventFormat) {
+            if (eventFormat == null) throw new IllegalArgumentException("event format is required");
+            this.eventFormat = eventFormat;
+        }
+
+        public String getCatalogFile() {
+            return catalogFile;
+        }
+
+        public void setCatalogFile(String catalogFile) {
+            this.catalogFile = catalogFile;
+        }
+
+        public SongList.Popularity getPopularity() {
+            return popularity;
+        }
+
+        public void setPopularity(SongList.Popularity popularity) {
+            if (popularity == null) throw new IllegalArgumentException("popularity is required");
+            this.popularity = popularity;
+        }
+
+        public double getZipfExponent() {
+            return zipfExponent;
+        }
+
+        public void setZipfExponent(double zipfExponent) {
+            if (!(zipfExponent > 0) || Double.isInfinite(zipfExponent))
+                throw new IllegalArgumentException("Zipf exponent must be positive");
+            this.zipfExponent = zipfExponent;
+        }
+
+        /**
+         * @return the seed that all player behavior is derived from, or null to pick one at random
+         */
+        public Long getSeed() {
+            return seed;
+        }
+
+        public void setSeed(Long seed) {
+            this.seed = seed;
+        }
+
+        /**
+         * @return the (epoch millisecond) time to start generating events from, or null to generate live events
+         */
+        public Long getBackfillStart() {
+            return backfillStart;
+        }
+
+        public void setBackfillStart(Long backfillStart) {
+            this.backfillStart = backfillStart;
+        }
+
+        /**
+         * @return the (epoch millisecond) time to stop generating events at, or null to run until stopped
+         */
+        public Long getBackfillEnd() {
+            return backfillEnd;
+        }
+
+        public void setBackfillEnd(Long backfillEnd) {
+            this.backfillEnd = backfillEnd;
+        }
+
+        /**
+         * @return how many times faster than real time events are generated (0 = as fast as possible), or null for the
+         * default (real time for live events, as fast as possible for a backfill)
+         */
+        public Double getSpeed() {
+            return speed;
+        }
+
+        public void setSpeed(Double speed) {
+            if (speed != null && (!(speed >= 0) || speed.isInfinite()))
+                throw new IllegalArgumentException("speed must be a positive factor or 0");
+            this.speed = speed;
+        }
+
+        /**
+         * @return the target number of events per second (across all workers), or null to generate whatever the players
+         * produce
+         */
+        public Double getRate() {
+            return rate;
+        }
+
+        public void setRate(Double rate) {
+            if (rate != null && (!(rate > 0) || rate.isInfinite())) throw new IllegalArgumentException("rate must be positive");
+            this.rate = rate;
+        }
+
+        /**
+         * @return how the target rate changes over time (see {@link RateProfile})
+         */
+        public String getRateProfile() {
+            return rateProfile;
+        }
+
+        public void setRateProfile(String rateProfile) {
+            if (rateProfile == null) throw new IllegalArgumentException("rate profile is required");
+            RateProfile.parse(rateProfile, 1); // validate
+            this.rateProfile = rateProfile;
+        }
+
         public int getPlayerCount() {
             return playerCount;
         }
@@ -174,6 +626,198 @@ public class SongEventGenerator implements Runnable {
             this.playerCount = playerCount;
         }
 
+        public int getWorkerCount() {
+            return workerCount;
+        }
+
+        public void setWorkerCount(int workerCount) {
+            if (workerCount < 1) throw new IllegalArgumentException("worker count must be positive");
+            this.workerCount = workerCount;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) throw new IllegalArgumentException("max in-flight events must be positive");
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * @return log one of every this many events written (0 = none)
+         */
+        public int getLogEvery() {
+            return logEvery;
+        }
+
+        public void setLogEvery(int logEvery) {
+            if (logEvery < 0) throw new IllegalArgumentException("log sample rate cannot be negative");
+            this.logEvery = logEvery;
+        }
+
+        /**
+         * @return the port to serve metrics on (in the Prometheus text format), or null to not serve them
+         */
+        public Integer getMetricsPort() {
+            return metricsPort;
+        }
+
+        public void setMetricsPort(Integer metricsPort) {
+            if (metricsPort != null && (metricsPort < 0 || metricsPort > 65535))
+                throw new IllegalArgumentException("invalid metrics port: " + metricsPort);
+            this.metricsPort = metricsPort;
+        }
+
+        /**
+         * @return how often (in seconds) to log a metrics summary (0 = never)
+         */
+        public int getMetricsInterval() {
+            return metricsInterval;
+        }
+
+        public void setMetricsInterval(int metricsInterval) {
+            if (metricsInterval < 0) throw new IllegalArgumentException("metrics interval cannot be negative");
+            this.metricsInterval = metricsInterval;
+        }
+
+        /**
+         * @return the directory to write events to as segment files (see {@link FileEventWriter}) instead of a stream,
+         * or null to write to the stream
+         */
+        public String getFileDir() {
+            return fileDir;
+        }
+
+        public void setFileDir(String fileDir) {
+            this.fileDir = fileDir;
+        }
+
+        public long getFileSegmentSize() {
+            return fileSegmentSize;
+        }
+
+        public void setFileSegmentSize(long fileSegmentSize) {
+            if (fileSegmentSize <= 0) throw new IllegalArgumentException("segment size must be positive");
+            this.fileSegmentSize = fileSegmentSize;
+        }
+
+        public boolean isFileCompression() {
+            return fileCompression;
+        }
+
+        public void setFileCompression(boolean fileCompression) {
+            this.fileCompression = fileCompression;
+        }
+
+        /**
+         * @return a directory of events captured with {@link #getFileDir()} to replay instead of generating events, or
+         * null to generate them
+         */
+        public String getReplayDir() {
+            return replayDir;
+        }
+
+        public void setReplayDir(String replayDir) {
+            this.replayDir = replayDir;
+        }
+
+        /**
+         * @return the number of stream writers each worker spreads its events over (by routing key), all driven by the
+         * worker's thread
+         */
+        public int getPravegaWriterCount() {
+            return pravegaWriterCount;
+        }
+
+        public void setPravegaWriterCount(int pravegaWriterCount) {
+            if (pravegaWriterCount < 1) throw new IllegalArgumentException("writer count must be positive");
+            this.pravegaWriterCount = pravegaWriterCount;
+        }
+
+        /**
+         * @return how many times a stream writer retries a failed connection, or null for the Pravega default
+         */
+        public Integer getWriterRetryAttempts() {
+            return writerRetryAttempts;
+        }
+
+        public void setWriterRetryAttempts(Integer writerRetryAttempts) {
+            if (writerRetryAttempts != null && writerRetryAttempts < 1)
+                throw new IllegalArgumentException("retry attempts must be positive");
+            this.writerRetryAttempts = writerRetryAttempts;
+        }
+
+        /**
+         * @return the longest a stream writer backs off between retries, or null for the Pravega default
+         */
+        public Integer getWriterMaxBackoffMS() {
+            return writerMaxBackoffMS;
+        }
+
+        public void setWriterMaxBackoffMS(Integer writerMaxBackoffMS) {
+            if (writerMaxBackoffMS != null && writerMaxBackoffMS < 1)
+                throw new IllegalArgumentException("max backoff must be positive");
+            this.writerMaxBackoffMS = writerMaxBackoffMS;
+        }
+
+        public boolean isWriterConnectionPooling() {
+            return writerConnectionPooling;
+        }
+
+        public void setWriterConnectionPooling(boolean writerConnectionPooling) {
+            this.writerConnectionPooling = writerConnectionPooling;
+        }
+
+        /**
+         * @return the number of events to commit in each transaction (0 = don't use transactions)
+         */
+        public int getTxnBatchSize() {
+            return txnBatchSize;
+        }
+
+        public void setTxnBatchSize(int txnBatchSize) {
+            if (txnBatchSize < 0) throw new IllegalArgumentException("transaction batch size cannot be negative");
+            this.txnBatchSize = txnBatchSize;
+        }
+
+        /**
+         * @return how long a transaction may stay open before it is committed, however few events it holds
+         */
+        public int getTxnLingerMS() {
+            return txnLingerMS;
+        }
+
+        public void setTxnLingerMS(int txnLingerMS) {
+            if (txnLingerMS < 1) throw new IllegalArgumentException("transaction linger time must be positive");
+            this.txnLingerMS = txnLingerMS;
+        }
+
+        /**
+         * @return the scaling policy of the stream, if it is created (see {@link PravegaEventWriter#parseScalingPolicy})
+         */
+        public String getScalingPolicy() {
+            return scalingPolicy;
+        }
+
+        public void setScalingPolicy(String scalingPolicy) {
+            if (scalingPolicy == null) throw new IllegalArgumentException("scaling policy is required");
+            PravegaEventWriter.parseScalingPolicy(scalingPolicy, 1); // validate
+            this.scalingPolicy = scalingPolicy;
+        }
+
+        /**
+         * @return the number of segments the stream starts with, if it is created (and the least it scales down to)
+         */
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        public void setSegmentCount(int segmentCount) {
+            if (segmentCount < 1) throw new IllegalArgumentException("segment count must be positive");
+            this.segmentCount = segmentCount;
+        }
+
         @Override
         public String toString() {
             return "Config{" +
@@ -183,54 +827,58 @@ public class SongEventGenerator implements Runnable {
                     ", useKeycloak=" + useKeycloak +
                     ", useKinesis=" + useKinesis +
                     ", awsProfile=" + awsProfile +
+                    ", awsRegion=" + awsRegion +
+                    ", kinesisEndpoint=" + kinesisEndpoint +
+                    ", kinesisLingerMS=" + kinesisLingerMS +
+                    ", eventFormat=" + eventFormat +
+                    ", catalogFile=" + catalogFile +
+                    ", popularity=" + popularity +
+                    ", zipfExponent=" + zipfExponent +
+                    ", seed=" + seed +
+                    ", backfillStart=" + backfillStart +
+                    ", backfillEnd=" + backfillEnd +
+                    ", speed=" + speed +
+                    ", rate=" + rate +
+                    ", rateProfile=" + rateProfile +
                     ", playerCount=" + playerCount +
+                    ", workerCount=" + workerCount +
+                    ", maxInFlight=" + maxInFlight +
+                    ", logEvery=" + logEvery +
+                    ", metricsPort=" + metricsPort +
+                    ", metricsInterval=" + metricsInterval +
+                    ", fileDir=" + fileDir +
+                    ", fileSegmentSize=" + fileSegmentSize +
+                    ", fileCompression=" + fileCompression +
+                    ", replayDir=" + replayDir +
+                    ", pravegaWriterCount=" + pravegaWriterCount +
+                    ", writerRetryAttempts=" + writerRetryAttempts +
+                    ", writerMaxBackoffMS=" + writerMaxBackoffMS +
+                    ", writerConnectionPooling=" + writerConnectionPooling +
+                    ", txnBatchSize=" + txnBatchSize +
+                    ", txnLingerMS=" + txnLingerMS +
+                    ", scalingPolicy=" + scalingPolicy +
+                    ", segmentCount=" + segmentCount +
                     '}';
         }
     }
 
-    class TimedEventWriterTask implements Runnable {
-        private EventWriter writer;
-        private List<SongEvent> events;
-
+    public interface EventWriter extends AutoCloseable {
         /**
-         * @param events a *sorted* list of events to write (sorted by future emission time)
+         * Writes an event asynchronously. The returned future completes when the sink has acknowledged the event (or
+         * completes exceptionally if the write failed). Implementations should not block waiting for the
+         * acknowledgement; bounding the number of outstanding events is up to the caller (see {@link BoundedEventWriter}).
+         * <p>
+         * The body buffer is reused by the caller once this method returns, so implementations that hold on to it
+         * (i.e. until the event is acknowledged) must copy it.
          */
-        public TimedEventWriterTask(EventWriter writer, List<SongEvent> events) {
-            this.writer = writer;
-            this.events = events;
-        }
+        CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body);
 
-        @Override
-        public void run() {
-            for (SongEvent event : events) {
-                try {
-
-                    // only sleep if it's worth it (more than 5ms in future)
-                    long waitMS = event.timestamp - System.currentTimeMillis();
-                    if (waitMS > 5) {
-                        Thread.sleep(waitMS);
-                    }
-
-                    // marshall event to JSON
-                    // TODO: maybe move this out of the write task for efficiency
-                    String json = mapper.writeValueAsString(event);
-
-                    // use the player ID as the routing key (guarantees order for each player)
-                    log.info("Writing message (key: {}, size: {}, timestamp: {}) to stream {} / {}",
-                            event.playerId, json.length(), event.timestamp, config.getScope(), config.getStream());
-                    log.debug("raw event: {}", json);
-                    writer.writeEvent("" + event.playerId, json);
-                } catch (InterruptedException e) {
-                    log.warn("interrupted while sleeping", e);
-                } catch (JsonProcessingException e) {
-                    log.warn("error marshalling JSON", e);
-                }
-            }
+        /**
+         * Notes that no event written from now on has an earlier event time, so readers can tell how far event time has
+         * got (for sinks that support it)
+         */
+        default void noteTime(long timestamp) {
         }
-    }
-
-    public interface EventWriter extends AutoCloseable {
-        void writeEvent(String routingKey, String body);
 
         @Override
         void close();
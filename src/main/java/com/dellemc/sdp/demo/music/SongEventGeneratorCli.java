@@ -5,6 +5,9 @@ import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
 public class SongEventGeneratorCli {
     private static final Logger log = LoggerFactory.getLogger(SongEventGeneratorCli.class);
 
@@ -21,15 +24,79 @@ public class SongEventGeneratorCli {
         options.addOption(Option.builder("k").longOpt("use-keycloak").desc("This enables Keycloak authentication for use with Streaming Data Platform. You must have a valid keycloak.json file in your home directory")
                 .build());
 
-        options.addOption(Option.builder("p").longOpt("players").desc("Number of players/users to simulate. Each player will simulate live user behavior. Default is " + SongEventGenerator.DEFAULT_PLAYER_COUNT + " (~8 events per second)")
+        options.addOption(Option.builder("p").longOpt("players").desc("Number of players/users to simulate. Each player will simulate live user behavior. Default is " + SongEventGenerator.DEFAULT_PLAYER_COUNT + " (~8 events per second). Use --rate to generate an exact number of events per second instead")
                 .hasArg().argName("num-players").build());
+        options.addOption(Option.builder("r").longOpt("rate").desc("Generate exactly this many events per second (across all workers), independent of the number of players and of how fast the stream accepts events. If the stream falls behind, events that are due are sent as soon as it catches up, and the generator reports how far behind schedule it is. Each event is stamped with the time it was meant to be sent")
+                .hasArg().argName("events-per-sec").build());
+        options.addOption(Option.builder().longOpt("rate-profile").desc("How the --rate changes over time: constant, step:<increment>:<interval>[:<max-rate>] (add increment events/sec every interval), sine:<amplitude>:<period> (i.e. sine:500:1d for a daily cycle of rate +/- 500) or burst:<burst-rate>:<every>:<duration> (i.e. burst:10000:10m:30s). Durations are in seconds or have an s/m/h/d suffix. Default is constant")
+                .hasArg().argName("profile").build());
+        options.addOption(Option.builder("w").longOpt("workers").desc("Number of worker threads to generate events with. The players are partitioned across the workers and each worker has its own stream writer. Default is " + SongEventGenerator.DEFAULT_WORKER_COUNT)
+                .hasArg().argName("num-workers").build());
+        options.addOption(Option.builder().longOpt("max-in-flight").desc("Maximum number of events each worker may have written but not yet acknowledged by the stream. When this is reached, the generator slows down until the stream catches up. Default is " + SongEventGenerator.DEFAULT_MAX_IN_FLIGHT)
+                .hasArg().argName("num-events").build());
+
+        options.addOption(Option.builder("f").longOpt("format").desc("The format of events written to the stream: json or binary (a compact encoding, see BinarySongEventSerializer). Default is json")
+                .hasArg().argName("event-format").build());
+        options.addOption(Option.builder().longOpt("catalog").desc("A song catalog file to pick songs from instead of the bundled song list. Each line is title::artist::length-in-seconds[::album[::weight]] (see SongCatalogGenerator to generate one)")
+                .hasArg().argName("catalog-file").build());
+        options.addOption(Option.builder().longOpt("popularity").desc("How songs are picked: uniform (every song is equally likely), zipf (play counts follow a Zipf distribution over the catalog order, so a few songs are very hot) or catalog (weighted by the 5th column of the catalog). Default is uniform")
+                .hasArg().argName("distribution").build());
+        options.addOption(Option.builder().longOpt("zipf-exponent").desc("The exponent of the Zipf distribution (higher is more skewed). Default is " + SongEventGenerator.DEFAULT_ZIPF_EXPONENT)
+                .hasArg().argName("exponent").build());
+        options.addOption(Option.builder().longOpt("seed").desc("The random seed that all player behavior is derived from. Runs with the same seed and options generate the same events for each player (the seed is logged at startup). Default is a random seed")
+                .hasArg().argName("seed").build());
+        options.addOption(Option.builder().longOpt("backfill-start").desc("Generate historical events starting at this time (ISO-8601, i.e. 2020-04-01T00:00:00Z, or epoch milliseconds) instead of live events. Events are generated as fast as the stream accepts them, unless --speed is given")
+                .hasArg().argName("time").build());
+        options.addOption(Option.builder().longOpt("backfill-end").desc("Stop generating when event time reaches this time (ISO-8601 or epoch milliseconds). Default is to run until stopped")
+                .hasArg().argName("time").build());
+        options.addOption(Option.builder().longOpt("speed").desc("Generate events this many times faster than real time (i.e. 60 generates an hour of events per minute). 0 means as fast as possible. Default is real time for live events and as fast as possible for a backfill")
+                .hasArg().argName("factor").build());
+
+        options.addOption(Option.builder().longOpt("metrics-port").desc("Serve generator metrics (throughput, emission lag, serialization time, write latency histograms, events in flight) in the Prometheus text format at http://<host>:<port>/metrics")
+                .hasArg().argName("port").build());
+        options.addOption(Option.builder().longOpt("metrics-interval").desc("How often to log a summary of the generator metrics, in seconds (0 to disable). Default is " + SongEventGenerator.DEFAULT_METRICS_INTERVAL)
+                .hasArg().argName("seconds").build());
 
         options.addOption(Option.builder("v").longOpt("verbose").desc("Verbose logging").build());
+        options.addOption(Option.builder().longOpt("log-every").desc("With verbose logging, log one of every n events written (logging every event slows down the generator considerably at high rates). Default is 0 (don't log events; see --metrics-interval for throughput)")
+                .hasArg().argName("n").build());
         options.addOption(Option.builder("d").longOpt("debug").desc("Debug logging").build());
 
+        options.addOption(Option.builder().longOpt("pravega-writers").desc("Number of stream writers each worker spreads its events over (by player, so each player's events stay in order). This is per worker, and the worker's thread drives all of its writers, so more writers add connections but not threads (use --workers for that). Default is " + SongEventGenerator.DEFAULT_PRAVEGA_WRITER_COUNT)
+                .hasArg().argName("num-writers").build());
+        options.addOption(Option.builder().longOpt("writer-retries").desc("How many times a stream writer retries a failed connection before failing its events. Default is the Pravega default")
+                .hasArg().argName("attempts").build());
+        options.addOption(Option.builder().longOpt("writer-max-backoff").desc("The longest a stream writer waits between retries, in milliseconds. Default is the Pravega default")
+                .hasArg().argName("milliseconds").build());
+        options.addOption(Option.builder().longOpt("writer-connection-pooling").desc("Let the stream writers share connections to the segment stores")
+                .build());
+        options.addOption(Option.builder().longOpt("txn-batch").desc("Write events in transactions of this many events, each committed atomically (each stream writer fills its own). Must not be more than --max-in-flight. Default is 0 (no transactions)")
+                .hasArg().argName("num-events").build());
+        options.addOption(Option.builder().longOpt("txn-linger").desc("With --txn-batch, commit a transaction once it has been open this long, however few events it holds. Default is " + SongEventGenerator.DEFAULT_TXN_LINGER_MS)
+                .hasArg().argName("milliseconds").build());
+        options.addOption(Option.builder().longOpt("scaling-policy").desc("The scaling policy of the stream, if the generator creates it: fixed, events:<events-per-sec>[:<scale-factor>] or kbytes:<KB-per-sec>[:<scale-factor>] (the target rate per segment). Default is " + SongEventGenerator.DEFAULT_SCALING_POLICY)
+                .hasArg().argName("policy").build());
+        options.addOption(Option.builder().longOpt("segments").desc("The number of segments the stream starts with, if the generator creates it (and the least it scales down to). Default is " + SongEventGenerator.DEFAULT_SEGMENT_COUNT)
+                .hasArg().argName("num-segments").build());
+
         options.addOption(Option.builder("z").longOpt("kinesis").desc("Write to Kinesis instead of Pravega (for testing)").build());
         options.addOption(Option.builder().longOpt("aws-profile").desc("When writing to Kinesis, the AWS CLI profile to use (configuration must be set for this profile)")
                 .hasArg().argName("aws-profile").build());
+        options.addOption(Option.builder().longOpt("aws-region").desc("When writing to Kinesis, the AWS region of the stream")
+                .hasArg().argName("aws-region").build());
+        options.addOption(Option.builder().longOpt("kinesis-endpoint").desc("When writing to Kinesis, overrides the service endpoint (i.e. to use a local stand-in for Kinesis). Requires --aws-region")
+                .hasArg().argName("endpoint-url").build());
+        options.addOption(Option.builder().longOpt("kinesis-linger").desc("When writing to Kinesis, how long to wait for a batch of records to fill up before sending it. Default is " + SongEventGenerator.DEFAULT_KINESIS_LINGER_MS)
+                .hasArg().argName("milliseconds").build());
+
+        options.addOption(Option.builder().longOpt("file-dir").desc("Write events to segment files in this directory instead of a stream (i.e. to capture a run and --replay it later). Each worker writes its own series of files")
+                .hasArg().argName("directory").build());
+        options.addOption(Option.builder().longOpt("file-segment-size").desc("With --file-dir, roll over to a new segment file after this many megabytes. Default is " + SongEventGenerator.DEFAULT_FILE_SEGMENT_SIZE / 1024 / 1024)
+                .hasArg().argName("megabytes").build());
+        options.addOption(Option.builder().longOpt("file-compress").desc("With --file-dir, deflate the segment files (smaller files, more CPU when writing and replaying)")
+                .build());
+        options.addOption(Option.builder().longOpt("replay").desc("Replay the events captured with --file-dir in this directory instead of generating events, in the order each worker wrote them. Events are written as fast as the sink accepts them, unless --speed is given (--speed 1 replays them at the pace they were captured at)")
+                .hasArg().argName("directory").build());
 
         options.addOption(Option.builder("h").longOpt("help").desc("Print this help text").build());
         return options;
@@ -40,6 +107,37 @@ public class SongEventGeneratorCli {
 
         if (commandLine.hasOption("players"))
             config.setPlayerCount(Integer.parseInt(commandLine.getOptionValue("players")));
+        if (commandLine.hasOption("workers"))
+            config.setWorkerCount(Integer.parseInt(commandLine.getOptionValue("workers")));
+        if (commandLine.hasOption("rate"))
+            config.setRate(Double.parseDouble(commandLine.getOptionValue("rate")));
+        if (commandLine.hasOption("rate-profile"))
+            config.setRateProfile(commandLine.getOptionValue("rate-profile"));
+        if (commandLine.hasOption("max-in-flight"))
+            config.setMaxInFlight(Integer.parseInt(commandLine.getOptionValue("max-in-flight")));
+
+        if (commandLine.hasOption("format"))
+            config.setEventFormat(SongEventSerializer.Format.parse(commandLine.getOptionValue("format")));
+        config.setCatalogFile(commandLine.getOptionValue("catalog"));
+        if (commandLine.hasOption("popularity"))
+            config.setPopularity(SongList.Popularity.parse(commandLine.getOptionValue("popularity")));
+        if (commandLine.hasOption("seed"))
+            config.setSeed(Long.parseLong(commandLine.getOptionValue("seed")));
+        if (commandLine.hasOption("backfill-start"))
+            config.setBackfillStart(parseTime(commandLine.getOptionValue("backfill-start")));
+        if (commandLine.hasOption("backfill-end"))
+            config.setBackfillEnd(parseTime(commandLine.getOptionValue("backfill-end")));
+        if (commandLine.hasOption("speed"))
+            config.setSpeed(Double.parseDouble(commandLine.getOptionValue("speed")));
+        if (commandLine.hasOption("zipf-exponent"))
+            config.setZipfExponent(Double.parseDouble(commandLine.getOptionValue("zipf-exponent")));
+
+        if (commandLine.hasOption("log-every"))
+            config.setLogEvery(Integer.parseInt(commandLine.getOptionValue("log-every")));
+        if (commandLine.hasOption("metrics-port"))
+            config.setMetricsPort(Integer.parseInt(commandLine.getOptionValue("metrics-port")));
+        if (commandLine.hasOption("metrics-interval"))
+            config.setMetricsInterval(Integer.parseInt(commandLine.getOptionValue("metrics-interval")));
 
         config.setControllerEndpoint(commandLine.getOptionValue('c'));
         config.setScope(commandLine.getOptionValue('x'));
@@ -47,10 +145,45 @@ public class SongEventGeneratorCli {
         config.setUseKeycloak(commandLine.hasOption('k'));
         config.setUseKinesis(commandLine.hasOption('z'));
         config.setAwsProfile(commandLine.getOptionValue("aws-profile"));
+        config.setAwsRegion(commandLine.getOptionValue("aws-region"));
+        config.setKinesisEndpoint(commandLine.getOptionValue("kinesis-endpoint"));
+        if (commandLine.hasOption("kinesis-linger"))
+            config.setKinesisLingerMS(Integer.parseInt(commandLine.getOptionValue("kinesis-linger")));
+
+        if (commandLine.hasOption("pravega-writers"))
+            config.setPravegaWriterCount(Integer.parseInt(commandLine.getOptionValue("pravega-writers")));
+        if (commandLine.hasOption("writer-retries"))
+            config.setWriterRetryAttempts(Integer.parseInt(commandLine.getOptionValue("writer-retries")));
+        if (commandLine.hasOption("writer-max-backoff"))
+            config.setWriterMaxBackoffMS(Integer.parseInt(commandLine.getOptionValue("writer-max-backoff")));
+        config.setWriterConnectionPooling(commandLine.hasOption("writer-connection-pooling"));
+        if (commandLine.hasOption("txn-batch"))
+            config.setTxnBatchSize(Integer.parseInt(commandLine.getOptionValue("txn-batch")));
+        if (commandLine.hasOption("txn-linger"))
+            config.setTxnLingerMS(Integer.parseInt(commandLine.getOptionValue("txn-linger")));
+        if (commandLine.hasOption("scaling-policy"))
+            config.setScalingPolicy(commandLine.getOptionValue("scaling-policy"));
+        if (commandLine.hasOption("segments"))
+            config.setSegmentCount(Integer.parseInt(commandLine.getOptionValue("segments")));
+        config.setFileDir(commandLine.getOptionValue("file-dir"));
+        if (commandLine.hasOption("file-segment-size"))
+            config.setFileSegmentSize(Long.parseLong(commandLine.getOptionValue("file-segment-size")) * 1024 * 1024);
+        config.setFileCompression(commandLine.hasOption("file-compress"));
+        config.setReplayDir(commandLine.getOptionValue("replay"));
 
         return config;
     }
 
+    // ISO-8601 instant or epoch milliseconds
+    static long parseTime(String time) {
+        if (time.matches("-?\\d+")) return Long.parseLong(time);
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid time (use ISO-8601, i.e. 2020-04-01T00:00:00Z, or epoch milliseconds): " + time, e);
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         CommandLine commandLine = new DefaultParser().parse(options(), args);
 
@@ -0,0 +1,59 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts {@link SongEvent}s to and from the bytes that are written to the stream
+ * <p>
+ * Both formats depend on the song catalog (see {@link SongList}): JSON carries songs, artists and albums by name, and the
+ * binary format (version 2) by catalog ID, so readers must load the same catalog as the writers. Names or IDs that are
+ * not in the reader's catalog fail to deserialize.
+ */
+public interface SongEventSerializer {
+    /**
+     * Writes the event into the buffer, starting at its current position. This is the hot path, so implementations
+     * should not allocate.
+     *
+     * @throws BufferOverflowException if the event doesn't fit in the remaining space (the caller should retry with a
+     *                                 bigger buffer)
+     */
+    void serialize(SongEvent event, ByteBuffer buffer);
+
+    /**
+     * Convenience method that serializes the event into a new buffer (flipped, ready to read)
+     */
+    default ByteBuffer serialize(SongEvent event) {
+        for (int size = 512; ; size *= 2) {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                serialize(event, buffer);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                // try again with a bigger buffer
+            }
+        }
+    }
+
+    SongEvent deserialize(ByteBuffer buffer);
+
+    enum Format {
+        Json, Binary;
+
+        SongEventSerializer createSerializer() {
+            if (this == Binary) return new BinarySongEventSerializer();
+            return new JsonSongEventSerializer();
+        }
+
+        /**
+         * Parses a format name, ignoring case
+         */
+        static Format parse(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) return format;
+            }
+            throw new IllegalArgumentException("unknown event format: " + name);
+        }
+    }
+}
@@ -1,66 +1,192 @@
 package com.dellemc.sdp.demo.music;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.SplittableRandom;
-import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Static access to the song catalog (see {@link SongCatalog}). Unless an external catalog is loaded with
+ * {@link #load(Path)}, the bundled songs.lst is loaded the first time it is needed. Songs, artists and albums are
+ * referred to by ID; the name lookups are for serialization.
+ */
 public final class SongList {
+    private static final Logger log = LoggerFactory.getLogger(SongList.class);
+
     private static final String SONG_MAP_RESOURCE = "/songs.lst";
-    private static final SplittableRandom random = new SplittableRandom();
 
-    private static List<String> _songList;
-    private static Map<String, String> _artistMap;
-    private static Map<String, Integer> _lengthMap;
+    private static volatile SongCatalog _catalog;
+    private static volatile AliasSampler _songSampler; // null = uniform
 
-    static String getArtistFor(String song) {
-        return getArtistMap().get(song);
-    }
+    /**
+     * How songs are picked
+     */
+    enum Popularity {
+        /**
+         * Every song is equally likely
+         */
+        Uniform,
+        /**
+         * Play counts follow a Zipf distribution over the catalog order (the first song is the most popular, the
+         * second is played 1/2^s as often, the third 1/3^s as often, etc.)
+         */
+        Zipf,
+        /**
+         * Songs are weighted by the popularity column of the catalog
+         */
+        Catalog;
 
-    static Integer getLengthFor(String song) {
-        return getLengthMap().get(song);
+        /**
+         * Parses a popularity name, ignoring case
+         */
+        static Popularity parse(String name) {
+            for (Popularity popularity : values()) {
+                if (popularity.name().equalsIgnoreCase(name)) return popularity;
+            }
+            throw new IllegalArgumentException("unknown popularity distribution: " + name);
+        }
     }
 
-    static String getRandomSong() {
-        return getSongList().get(random.nextInt(getSongList().size()));
+    static int getRandomSongId(SplitMix64 random) {
+        AliasSampler sampler = _songSampler;
+        if (sampler != null) return sampler.sample(random);
+        return random.nextInt(getCatalog().getSongCount());
     }
 
-    private static Map<String, String> getArtistMap() {
-        if (_artistMap == null) {
-            synchronized (SongEventGenerator.class) {
-                if (_artistMap == null) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(SongList.class.getResourceAsStream(SONG_MAP_RESOURCE)));
-                    _artistMap = reader.lines().collect(Collectors.toMap(s -> s.split("::")[0], s -> s.split("::")[1]));
+    /**
+     * Sets the distribution songs are picked from (for the current catalog - loading another one resets it to uniform)
+     *
+     * @param zipfExponent the exponent s of the Zipf distribution (only used with {@link Popularity#Zipf})
+     */
+    static synchronized void setPopularity(Popularity popularity, double zipfExponent) {
+        SongCatalog catalog = getCatalog();
+        switch (popularity) {
+            case Zipf:
+                _songSampler = new AliasSampler(AliasSampler.zipfWeights(catalog.getSongCount(), zipfExponent));
+                break;
+            case Catalog:
+                if (!catalog.hasWeights()) throw new IllegalArgumentException("the catalog does not have popularity weights");
+                double[] weights = new double[catalog.getSongCount()];
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] = catalog.getWeightFor(i);
                 }
-            }
+                _songSampler = new AliasSampler(weights);
+                break;
+            default:
+                _songSampler = null;
         }
-        return _artistMap;
     }
 
-    private static Map<String, Integer> getLengthMap() {
-        if (_lengthMap == null) {
-            synchronized (SongEventGenerator.class) {
-                if (_lengthMap == null) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(SongList.class.getResourceAsStream(SONG_MAP_RESOURCE)));
-                    _lengthMap = reader.lines().collect(Collectors.toMap(s -> s.split("::")[0], s -> Integer.parseInt(s.split("::")[2])));
-                }
-            }
-        }
-        return _lengthMap;
+    static int getRandomPlaylistId(SplitMix64 random) {
+        return random.nextInt(getCatalog().getPlaylistCount());
+    }
+
+    static String getPlaylist(int playlistId) {
+        return getCatalog().getPlaylist(playlistId);
+    }
+
+    static int getRandomStationId(SplitMix64 random) {
+        return random.nextInt(getCatalog().getStationCount());
+    }
+
+    static String getStation(int stationId) {
+        return getCatalog().getStation(stationId);
+    }
+
+    static int getSongCount() {
+        return getCatalog().getSongCount();
+    }
+
+    static int getArtistIdFor(int songId) {
+        return getCatalog().getArtistIdFor(songId);
+    }
+
+    static int getAlbumIdFor(int songId) {
+        return getCatalog().getAlbumIdFor(songId);
+    }
+
+    /**
+     * @return the length of the song in seconds
+     */
+    static int getLengthFor(int songId) {
+        return getCatalog().getLengthFor(songId);
+    }
+
+    /**
+     * @return the name of the song, or null if the ID is -1
+     */
+    static String getSong(int songId) {
+        return getCatalog().songs().get(songId);
+    }
+
+    static String getArtist(int artistId) {
+        return getCatalog().artists().get(artistId);
+    }
+
+    static String getAlbum(int albumId) {
+        return getCatalog().albums().get(albumId);
+    }
+
+    /**
+     * @return the ID of the song (its position in the song list), or -1 if it is not in the song list
+     */
+    static int getSongId(String song) {
+        return getCatalog().songs().find(song);
+    }
+
+    /**
+     * Picks between songs with the same title by their artist and album (either can be -1 to match any)
+     *
+     * @return the ID of the song, or -1 if it is not in the song list
+     */
+    static int getSongId(String song, int artistId, int albumId) {
+        return getCatalog().findSong(song, artistId, albumId);
+    }
+
+    /**
+     * @return the ID of the artist, or -1 if it is not in the song list
+     */
+    static int getArtistId(String artist) {
+        return getCatalog().artists().find(artist);
+    }
+
+    /**
+     * @return the ID of the album, or -1 if it is not in the song list
+     */
+    static int getAlbumId(String album) {
+        return getCatalog().albums().find(album);
+    }
+
+    /**
+     * Replaces the catalog with the one in the given file (see {@link SongCatalog} for the format). This should happen
+     * before any events are generated, since IDs from the previous catalog won't mean the same thing.
+     */
+    static synchronized void load(Path file) throws IOException {
+        long start = System.nanoTime();
+        SongCatalog catalog = SongCatalog.load(file);
+        log.info("loaded {} songs, {} artists and {} albums from {} in {}ms", catalog.getSongCount(),
+                catalog.getArtistCount(), catalog.getAlbumCount(), file, (System.nanoTime() - start) / 1000000);
+        _catalog = catalog;
+        _songSampler = null;
     }
 
-    private static List<String> getSongList() {
-        if (_songList == null) {
-            synchronized (SongEventGenerator.class) {
-                if (_songList == null) {
-                    _songList = new ArrayList<>(getArtistMap().keySet());
+    // IDs are assigned in file order, so they are stable as long as the song list doesn't change
+    static SongCatalog getCatalog() {
+        if (_catalog == null) {
+            synchronized (SongList.class) {
+                if (_catalog == null) {
+                    try (InputStream in = SongList.class.getResourceAsStream(SONG_MAP_RESOURCE)) {
+                        _catalog = SongCatalog.load(in);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("error loading " + SONG_MAP_RESOURCE, e);
+                    }
                 }
             }
         }
-        return _songList;
+        return _catalog;
     }
 
     private SongList() {
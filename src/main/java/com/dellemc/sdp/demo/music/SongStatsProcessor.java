@@ -0,0 +1,1040 @@
+package com.dellemc.sdp.demo.music;
+
+import io.pravega.client.ClientConfig;
+import io.pravega.client.EventStreamClientFactory;
+import io.pravega.client.admin.ReaderGroupManager;
+import io.pravega.client.admin.StreamManager;
+import io.pravega.client.stream.Checkpoint;
+import io.pravega.client.stream.EventRead;
+import io.pravega.client.stream.EventStreamReader;
+import io.pravega.client.stream.EventStreamWriter;
+import io.pravega.client.stream.EventWriterConfig;
+import io.pravega.client.stream.ReaderConfig;
+import io.pravega.client.stream.ReaderGroup;
+import io.pravega.client.stream.ReaderGroupConfig;
+import io.pravega.client.stream.ReinitializationRequiredException;
+import io.pravega.client.stream.ScalingPolicy;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.StreamConfiguration;
+import io.pravega.client.stream.impl.ByteBufferSerializer;
+import io.pravega.keycloak.client.PravegaKeycloakCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads song events from a stream and computes statistics (plays and listeners per song and artist, players per
+ * subscription level, skip rate) over tumbling or sliding windows of event time.
+ * <p>
+ * Several readers in one reader group share the stream's segments. Each reader aggregates the events it reads into
+ * panes of its own (nothing is shared on the reading path) and hands them to the processor thread every
+ * {@link #FLUSH_INTERVAL_MS}, along with its low watermark. The processor thread merges the panes into the
+ * {@link WindowAggregator} and fires each window once the watermark passes its end, then passes it to the listener
+ * (and to the {@link StatsService}, if serving).
+ * <p>
+ * Events are only roughly in order within a segment, and a reader reads several segments at their own pace, so the
+ * watermark comes from Pravega's watermarks: the generator notes the event time it has written up to (see
+ * {@link SongEventGenerator.EventWriter#noteTime(long)}), Pravega tracks it by segment position, and a reader's low
+ * watermark is the lower bound of its current time window. If the writers note no time, it is the latest event time
+ * the reader has read instead. The watermark is the lowest of the active readers' (less the allowed out-of-order time).
+ * A window's panes are kept for the allowed lateness after it fires, so late events update it; events later than that
+ * are passed to the late event listener (and written to the late stream, if configured) instead of being counted.
+ * <p>
+ * Each reader also groups its players' events into listening sessions (see {@link SessionTracker}). Events are routed
+ * by player ID, so all of a player's events are in one segment and are read by one reader (unless the segment moves to
+ * another reader, which can split a session). Sessions are closed as the reader's event time, less the allowed
+ * out-of-order time, passes their gap, and are counted in the window their gap ran out in. Sessions still open when
+ * processing stops are passed to the session listener as incomplete, but aren't counted.
+ * <p>
+ * With a state directory, the state (the aggregator's panes and the readers' open sessions) is snapshotted at reader
+ * group checkpoints (see {@link StateStore}), so a restarted processor picks up where the last one left off instead of
+ * re-reading the stream. Each reader passes the checkpoint between two events: it flushes its panes and writes its
+ * sessions, and the processor thread holds back its later updates until every reader has passed, so the snapshot has
+ * exactly the events before the checkpoint's positions. Snapshots hold only what changed since the one before, with a
+ * full one every {@link #FULL_SNAPSHOT_INTERVAL}. On restart the reader group is reset to the checkpoint, and since the
+ * readers may divide the segments differently, each restored session waits for the reader that reads its player next.
+ */
+public class SongStatsProcessor implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(SongStatsProcessor.class);
+
+    public static int DEFAULT_READER_COUNT = 2;
+    public static long DEFAULT_WINDOW_MS = 60000;
+    public static long DEFAULT_MAX_OUT_OF_ORDER_MS = 5000;
+    public static int DEFAULT_TOP_COUNT = 10;
+    public static int DEFAULT_SKETCH_WIDTH = 2048;
+    public static int DEFAULT_SKETCH_DEPTH = 4;
+    public static int DEFAULT_HLL_PRECISION = 12;
+    public static int DEFAULT_HISTORY = 60;
+    public static long DEFAULT_SESSION_GAP_MS = 10 * 60000;
+    public static int DEFAULT_MAX_SESSIONS = 1 << 21;
+    public static long DEFAULT_ALLOWED_LATENESS_MS = 0;
+    public static long DEFAULT_CHECKPOINT_INTERVAL_MS = 30000;
+
+    // heavy hitters kept per sketch, per song/artist/playlist ranked
+    static final int HEAVY_HITTER_FACTOR = 4;
+
+    static final long FLUSH_INTERVAL_MS = 100;
+    static final long READ_TIMEOUT_MS = 1000;
+    static final int HTTP_THREADS = 4;
+    // snapshots of changes between full snapshots
+    static final int FULL_SNAPSHOT_INTERVAL = 10;
+    // a checkpoint that every reader hasn't passed by then is given up on
+    static final long CHECKPOINT_TIMEOUT_MS = 60000;
+    static final Pattern CHECKPOINT_NAME = Pattern.compile("snapshot-(\\d+)(-full)?");
+
+    private Config config;
+    private Consumer<WindowStats> listener;
+    private Consumer<SessionSummary> sessionListener;
+    private Consumer<SongEvent> lateEventListener = event -> {
+    };
+    private EventStreamWriter<ByteBuffer> lateWriter;
+    private AtomicBoolean running = new AtomicBoolean();
+    private BlockingQueue<ReaderUpdate> updates = new LinkedBlockingQueue<>();
+    private AtomicLong eventCount = new AtomicLong();
+    private AtomicLong invalidEventCount = new AtomicLong();
+    private AtomicLong evictedSessionCount = new AtomicLong();
+    private AtomicLong lateEventCount = new AtomicLong();
+    private volatile long lateMergedEventCount; // on time when read, but their windows had gone when merged
+    private volatile long watermark = Long.MIN_VALUE;
+    private volatile StatsService service;
+
+    // snapshots, and the sessions restored from them that no reader has claimed yet (guarded by closedRestoredSessions)
+    private StateStore store;
+    private long checkpointSequence;
+    private boolean fullSnapshotDue = true;
+    private int changeSnapshotCount;
+    private AtomicLong snapshotCount = new AtomicLong();
+    private SessionTracker restoredSessions;
+    // copies of claimed sessions, by the last checkpoint the reader that claimed them had passed
+    private final Map<Long, SessionTracker> claimedSessions = new HashMap<>();
+    private final List<SessionSummary> closedRestoredSessions = new ArrayList<>();
+    private volatile boolean restoring;
+
+    public SongStatsProcessor(Config config) {
+        this(config, stats -> log.info("{}", stats));
+    }
+
+    public SongStatsProcessor(Config config, Consumer<WindowStats> listener) {
+        this(config, listener, session -> {
+        });
+    }
+
+    /**
+     * @param sessionListener is passed each listening session as it closes, by the reader threads (so it must be
+     *                        thread-safe)
+     */
+    public SongStatsProcessor(Config config, Consumer<WindowStats> listener, Consumer<SessionSummary> sessionListener) {
+        this.config = config;
+        this.listener = listener;
+        this.sessionListener = sessionListener;
+    }
+
+    @Override
+    public void run() {
+        running.set(true);
+        WindowAggregator windows = new WindowAggregator(config.getWindowMS(), config.getSlideMS(),
+                config.getAllowedLatenessMS(), config.getTopCount(), this::newPane);
+        if (config.getCatalogFile() != null) {
+            try {
+                SongList.load(Paths.get(config.getCatalogFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not load catalog " + config.getCatalogFile(), e);
+            }
+        }
+        if (config.getPort() != null) {
+            service = new StatsService(config.getHistory());
+            try {
+                service.start(config.getPort(), HTTP_THREADS);
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not start stats service on port " + config.getPort(), e);
+            }
+        }
+        try {
+            Checkpoint checkpoint = null;
+            if (config.getStateDir() != null) {
+                try {
+                    store = new StateStore(Paths.get(config.getStateDir()));
+                    checkpoint = restore(windows);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("could not restore state from " + config.getStateDir(), e);
+                }
+            }
+            read(windows, checkpoint);
+        } finally {
+            if (service != null) service.close();
+        }
+    }
+
+    /**
+     * Applies the snapshots in the state directory, if there are any. Each is laid out as:
+     * <pre>
+     * bytes   the reader group checkpoint
+     * ...     the aggregator's state (see {@link WindowAggregator#writeTo(StateBuffer, boolean)})
+     * varint  count of session sections, each sessions (see {@link SessionTracker#writeTo(StateBuffer, boolean)}),
+     *         applied in order
+     * </pre>
+     *
+     * @return the checkpoint of the latest snapshot, or null if there is none
+     */
+    private Checkpoint restore(WindowAggregator windows) throws IOException {
+        Checkpoint checkpoint = null;
+        SessionTracker sessions = new SessionTracker(Math.max(1, config.getSessionGapMS()), Integer.MAX_VALUE,
+                closedRestoredSessions::add);
+        for (ByteBuffer snapshot : store.load()) {
+            checkpoint = Checkpoint.fromBytes(ByteBuffer.wrap(StateBuffer.getBytes(snapshot)));
+            windows.restore(snapshot);
+            for (int i = StateBuffer.getVarInt(snapshot); i > 0; i--) {
+                sessions.readFrom(snapshot);
+            }
+        }
+        if (checkpoint == null) return null;
+
+        if (config.getSessionGapMS() > 0 && sessions.size() > 0) {
+            sessions.scheduleAll();
+            restoredSessions = sessions;
+            restoring = true;
+        }
+        watermark = windows.getWatermark();
+        checkpointSequence = store.getLastSequence();
+        log.info("restored {} panes and {} open sessions from checkpoint {}", windows.getPaneCount(),
+                restoring ? sessions.size() : 0, checkpoint.getName());
+        return checkpoint;
+    }
+
+    private void read(WindowAggregator windows, Checkpoint checkpoint) {
+        ClientConfig clientConfig = createClientConfig();
+        String readerGroup = config.getReaderGroup();
+        try (ReaderGroupManager readerGroupManager = ReaderGroupManager.withScope(config.getScope(), clientConfig);
+             EventStreamClientFactory clientFactory = EventStreamClientFactory.withScope(config.getScope(), clientConfig)) {
+
+            // an existing reader group continues from where it left off, unless there is state to resume
+            ReaderGroupConfig.ReaderGroupConfigBuilder readerGroupConfig = ReaderGroupConfig.builder()
+                    .stream(Stream.of(config.getScope(), config.getStream()));
+            if (checkpoint != null) {
+                readerGroupConfig.startFromCheckpoint(checkpoint);
+                if (!readerGroupManager.createReaderGroup(readerGroup, readerGroupConfig.build())) {
+                    try (ReaderGroup group = readerGroupManager.getReaderGroup(readerGroup)) {
+                        group.resetReaderGroup(readerGroupConfig.build());
+                    }
+                }
+                log.info("reader group {} resumes from checkpoint {}", readerGroup, checkpoint.getName());
+            } else if (!readerGroupManager.createReaderGroup(readerGroup, readerGroupConfig.build())) {
+                log.info("reader group {} exists, continuing from its position", readerGroup);
+            }
+            if (config.getLateStream() != null) lateWriter = createLateWriter(clientConfig, clientFactory);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < config.getReaderCount(); i++) {
+                String readerId = readerGroup + "-" + i + "-" + UUID.randomUUID();
+                EventStreamReader<ByteBuffer> reader = clientFactory.createReader(readerId, readerGroup,
+                        new ByteBufferSerializer(), ReaderConfig.builder().build());
+                Thread thread = new Thread(new StatsReader(i, reader), "stats-reader-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+
+            ScheduledExecutorService checkpointExecutor = null;
+            try (ReaderGroup group = store != null ? readerGroupManager.getReaderGroup(readerGroup) : null) {
+                if (group != null) checkpointExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "stats-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                process(windows, threads, group, checkpointExecutor);
+            } finally {
+                if (checkpointExecutor != null) checkpointExecutor.shutdownNow();
+                if (lateWriter != null) lateWriter.close();
+            }
+        }
+    }
+
+    private EventStreamWriter<ByteBuffer> createLateWriter(ClientConfig clientConfig, EventStreamClientFactory clientFactory) {
+        try (StreamManager streamManager = StreamManager.create(clientConfig)) {
+            streamManager.createStream(config.getScope(), config.getLateStream(), StreamConfiguration.builder()
+                    .scalingPolicy(ScalingPolicy.fixed(1)).build());
+        }
+        return clientFactory.createEventWriter(config.getLateStream(), new ByteBufferSerializer(),
+                EventWriterConfig.builder().build());
+    }
+
+    // merges reader updates and closes windows until stopped, then closes what is left once the readers are done; with
+    // a reader group to checkpoint, snapshots the state every checkpoint interval
+    private void process(WindowAggregator windows, List<Thread> threads, ReaderGroup group,
+                         ScheduledExecutorService checkpointExecutor) {
+        long[] readerTimes = new long[config.getReaderCount()];
+        boolean[] idle = new boolean[config.getReaderCount()]; // nothing closes until every reader has reported
+        Arrays.fill(readerTimes, Long.MIN_VALUE);
+        List<ReaderUpdate> batch = new ArrayList<>();
+        PendingCheckpoint checkpoint = null;
+        long nextCheckpointTime = System.currentTimeMillis() + config.getCheckpointIntervalMS();
+        try {
+            while (running.get()) {
+                ReaderUpdate update = updates.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (update != null) batch.add(update);
+                updates.drainTo(batch);
+                for (ReaderUpdate readerUpdate : batch) {
+                    // updates from readers past the checkpoint wait for the snapshot
+                    if (checkpoint != null && checkpoint.sessions[readerUpdate.reader] != null) {
+                        checkpoint.held.add(readerUpdate);
+                        continue;
+                    }
+                    for (PaneStats pane : readerUpdate.panes) {
+                        windows.add(pane);
+                    }
+                    readerTimes[readerUpdate.reader] = readerUpdate.readTime; // may go back if it picked up a segment
+                    idle[readerUpdate.reader] = readerUpdate.idle;
+                    if (checkpoint != null && checkpoint.name.equals(readerUpdate.checkpoint)) {
+                        checkpoint.sessions[readerUpdate.reader] = readerUpdate.sessions;
+                        checkpoint.passedCount++;
+                    }
+                }
+                batch.clear();
+                lateMergedEventCount = windows.getLateEventCount();
+
+                long readTime = watermark(readerTimes, idle);
+                if (readTime != Long.MIN_VALUE) { // something has been read
+                    watermark = Math.max(watermark, readTime - config.getMaxOutOfOrderMS());
+                    close(windows.advanceTo(watermark));
+                }
+                if (restoring) closeRestoredSessions(windows);
+
+                long now = System.currentTimeMillis();
+                if (group != null && checkpoint == null && now >= nextCheckpointTime) {
+                    checkpoint = checkpoint(group, checkpointExecutor);
+                } else if (checkpoint != null && (checkpoint.passedCount == readerTimes.length && checkpoint.future.isDone()
+                        || now >= checkpoint.deadline)) {
+                    snapshot(windows, checkpoint);
+                    batch.addAll(checkpoint.held); // before anything newer from those readers
+                    checkpoint = null;
+                    nextCheckpointTime = now + config.getCheckpointIntervalMS();
+                }
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            log.error("interrupted while processing", e);
+            stop();
+        }
+
+        // whatever the readers flushed on the way out, then the remaining (possibly incomplete) windows
+        if (checkpoint != null) batch.addAll(checkpoint.held);
+        updates.drainTo(batch);
+        for (ReaderUpdate readerUpdate : batch) {
+            for (PaneStats pane : readerUpdate.panes) {
+                windows.add(pane);
+            }
+        }
+        synchronized (closedRestoredSessions) {
+            if (restoredSessions != null) restoredSessions.closeAll();
+            closedRestoredSessions.forEach(sessionListener);
+            closedRestoredSessions.clear();
+        }
+        close(windows.advanceTo(Long.MAX_VALUE));
+        lateMergedEventCount = windows.getLateEventCount();
+        long late = getLateEventCount();
+        if (late > 0)
+            log.warn("dropped {} events that arrived after their windows' allowed lateness", late);
+        if (evictedSessionCount.get() > 0)
+            log.warn("closed {} sessions early to stay within {} open sessions", evictedSessionCount.get(), config.getMaxSessions());
+    }
+
+    private PendingCheckpoint checkpoint(ReaderGroup group, ScheduledExecutorService executor) {
+        boolean full = fullSnapshotDue || changeSnapshotCount >= FULL_SNAPSHOT_INTERVAL;
+        long sequence = ++checkpointSequence;
+        String name = "snapshot-" + sequence + (full ? "-full" : "");
+        return new PendingCheckpoint(name, sequence, full, group.initiateCheckpoint(name, executor),
+                config.getReaderCount());
+    }
+
+    // writes the snapshot of a checkpoint every reader has passed
+    private void snapshot(WindowAggregator windows, PendingCheckpoint pending) {
+        Checkpoint checkpoint = null;
+        if (pending.passedCount == pending.sessions.length && pending.future.isDone()) {
+            try {
+                checkpoint = pending.future.join();
+            } catch (RuntimeException e) {
+                log.warn("checkpoint {} failed", pending.name, e);
+            }
+        }
+        if (checkpoint == null) {
+            // the readers that passed it have forgotten what changed before it
+            log.warn("gave up on checkpoint {} ({} of {} readers passed it)", pending.name, pending.passedCount,
+                    pending.sessions.length);
+            fullSnapshotDue = true;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        StateBuffer out = new StateBuffer(1 << 20);
+        out.putBytes(checkpoint.toBytes());
+        windows.writeTo(out, pending.full);
+        synchronized (closedRestoredSessions) {
+            // restored sessions claimed by a reader before it passed the checkpoint are in that reader's sessions, and
+            // those claimed after are written as they were when claimed
+            List<SessionTracker> claimed = new ArrayList<>();
+            for (Map.Entry<Long, SessionTracker> entry : claimedSessions.entrySet()) {
+                if (entry.getKey() >= pending.sequence) claimed.add(entry.getValue());
+            }
+            int readerSections = 0;
+            for (ByteBuffer sessions : pending.sessions) {
+                if (sessions.hasRemaining()) readerSections++;
+            }
+            out.putVarLong((restoredSessions != null ? 1 : 0) + claimed.size() + readerSections);
+            // restored sessions first, so that sessions readers closed and started again since replace them
+            if (restoredSessions != null) restoredSessions.writeTo(out, pending.full);
+            for (SessionTracker sessions : claimed) {
+                sessions.writeTo(out, true);
+            }
+            for (ByteBuffer sessions : pending.sessions) {
+                out.put(sessions);
+            }
+            // every reader passes the next checkpoint with the sessions it has claimed so far
+            claimedSessions.clear();
+            if (restoredSessions != null && restoredSessions.size() == 0) restoredSessions = null;
+            restoring = restoredSessions != null;
+        }
+        try {
+            store.write(pending.sequence, pending.full, out.contents());
+        } catch (IOException e) {
+            log.error("could not write snapshot {}", pending.sequence, e);
+            fullSnapshotDue = true;
+            return;
+        }
+        fullSnapshotDue = false;
+        changeSnapshotCount = pending.full ? 0 : changeSnapshotCount + 1;
+        snapshotCount.incrementAndGet();
+        log.info("wrote {}snapshot {} ({} bytes) in {}ms", pending.full ? "full " : "", pending.sequence, out.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    // restored sessions expire with the watermark until a reader claims them; counted like the readers' own
+    private void closeRestoredSessions(WindowAggregator windows) {
+        Map<Long, PaneStats> panes = new HashMap<>();
+        synchronized (closedRestoredSessions) {
+            if (restoredSessions != null) restoredSessions.advanceTo(watermark);
+            for (SessionSummary session : closedRestoredSessions) {
+                if (session.isComplete()) {
+                    long time = Math.max(watermark, session.getEnd() + config.getSessionGapMS());
+                    long paneStart = WindowAggregator.paneStart(time, config.getSlideMS());
+                    panes.computeIfAbsent(paneStart, this::newPane).addSession(session);
+                }
+                sessionListener.accept(session);
+            }
+            closedRestoredSessions.clear();
+        }
+        for (PaneStats pane : panes.values()) {
+            windows.add(pane);
+        }
+    }
+
+    // hands a reader the restored session of a player it has started reading, if it has one
+    private void claimRestoredSession(long playerId, SessionTracker sessions, long lastCheckpoint) {
+        synchronized (closedRestoredSessions) {
+            if (restoredSessions == null || !restoredSessions.contains(playerId)) return;
+            // kept until the next snapshot, in case the reader has passed a checkpoint that hasn't been written yet
+            restoredSessions.copyTo(playerId, claimedSessions.computeIfAbsent(lastCheckpoint,
+                    sequence -> new SessionTracker(config.getSessionGapMS(), Integer.MAX_VALUE, session -> {
+                    })));
+            restoredSessions.moveTo(playerId, sessions);
+        }
+    }
+
+    PaneStats newPane(long start) {
+        return new PaneStats(start, config.getSketchWidth(), config.getSketchDepth(),
+                config.getTopCount() * HEAVY_HITTER_FACTOR, config.getHllPrecision());
+    }
+
+    /**
+     * How far every active reader has read in event time (each reader's low watermark). A reader that has nothing to
+     * read doesn't hold windows back; if no reader has anything to read, the stream is caught up and we go as far as
+     * any reader has read.
+     */
+    static long watermark(long[] readerTimes, boolean[] idle) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < readerTimes.length; i++) {
+            if (!idle[i]) min = Math.min(min, readerTimes[i]);
+            max = Math.max(max, readerTimes[i]);
+        }
+        return min != Long.MAX_VALUE ? min : max;
+    }
+
+    private void close(List<WindowStats> closed) {
+        for (WindowStats stats : closed) {
+            try {
+                listener.accept(stats);
+            } catch (RuntimeException e) {
+                log.error("window listener failed", e);
+            }
+            if (service != null) service.publish(stats);
+        }
+    }
+
+    /**
+     * Reads events into panes of its own, and hands them to the processor thread every {@link #FLUSH_INTERVAL_MS} (or
+     * when there is nothing to read), with its low watermark. Also tracks the sessions of the players it reads, and
+     * writes them when it passes a checkpoint.
+     */
+    class StatsReader implements Runnable {
+        private int index;
+        private EventStreamReader<ByteBuffer> reader;
+        private Stream stream = Stream.of(config.getScope(), config.getStream());
+        private SongEventSerializer serializer = config.getEventFormat().createSerializer();
+        private Map<Long, PaneStats> panes = new HashMap<>();
+        private long lastCheckpoint = -1; // the sequence of the last checkpoint passed
+        private long maxTime = Long.MIN_VALUE; // the latest event time read
+        private long readTime = Long.MIN_VALUE; // low watermark
+        private long lastFlushTime = System.currentTimeMillis();
+        private SessionTracker sessions;
+
+        StatsReader(int index, EventStreamReader<ByteBuffer> reader) {
+            this.index = index;
+            this.reader = reader;
+            if (config.getSessionGapMS() > 0)
+                sessions = new SessionTracker(config.getSessionGapMS(),
+                        Math.max(1, config.getMaxSessions() / config.getReaderCount()), this::closeSession);
+        }
+
+        @Override
+        public void run() {
+            long sizeMS = config.getWindowMS(), slideMS = config.getSlideMS(), latenessMS = config.getAllowedLatenessMS();
+            try {
+                while (running.get()) {
+                    EventRead<ByteBuffer> eventRead = reader.readNextEvent(READ_TIMEOUT_MS);
+                    if (eventRead.isCheckpoint()) {
+                        checkpoint(eventRead.getCheckpointName());
+                        continue;
+                    }
+                    if (eventRead.getEvent() == null) {
+                        flush(true); // caught up
+                        continue;
+                    }
+
+                    ByteBuffer body = eventRead.getEvent();
+                    int position = body.position();
+                    SongEvent event;
+                    try {
+                        event = serializer.deserialize(body);
+                    } catch (RuntimeException e) {
+                        if (invalidEventCount.getAndIncrement() == 0)
+                            log.warn("skipping events that can't be read as {} (is --format right?)", config.getEventFormat(), e);
+                        continue;
+                    }
+                    maxTime = Math.max(maxTime, event.timestamp);
+                    eventCount.incrementAndGet();
+                    if (sessions != null) {
+                        if (restoring && !sessions.contains(event.playerId))
+                            claimRestoredSession(event.playerId, sessions, lastCheckpoint);
+                        sessions.add(event);
+                    }
+
+                    if (WindowAggregator.isLate(event.timestamp, watermark, sizeMS, slideMS, latenessMS)) {
+                        late(event, (ByteBuffer) body.position(position));
+                    } else {
+                        long paneStart = WindowAggregator.paneStart(event.timestamp, slideMS);
+                        panes.computeIfAbsent(paneStart, SongStatsProcessor.this::newPane).add(event);
+                    }
+
+                    if (System.currentTimeMillis() - lastFlushTime >= FLUSH_INTERVAL_MS) flush(false);
+                }
+            } catch (ReinitializationRequiredException e) {
+                log.error("reader {} must be reinitialized, stopping it", index, e);
+            } finally {
+                if (sessions != null) {
+                    sessions.closeAll();
+                    evictedSessionCount.addAndGet(sessions.getEvictedCount());
+                }
+                flush(true, null);
+                reader.close();
+            }
+        }
+
+        // flushes everything read before the checkpoint, with the sessions as of then
+        private void checkpoint(String name) {
+            Matcher matcher = CHECKPOINT_NAME.matcher(name);
+            if (!matcher.matches()) return; // not ours
+            flush(false, matcher);
+            lastCheckpoint = Long.parseLong(matcher.group(1));
+        }
+
+        private void late(SongEvent event, ByteBuffer body) {
+            lateEventCount.incrementAndGet();
+            if (lateWriter != null) {
+                ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+                copy.put(body).flip();
+                lateWriter.writeEvent(String.valueOf(event.playerId), copy);
+            }
+            lateEventListener.accept(event);
+        }
+
+        // sessions that ended are counted in the pane their gap ran out in, or the one the reader has got to if that's
+        // later (which is no earlier than the watermark, so its windows are still open)
+        private void closeSession(SessionSummary session) {
+            if (session.isComplete()) {
+                long time = Math.max(sessions.getTime(), session.getEnd() + config.getSessionGapMS());
+                long paneStart = WindowAggregator.paneStart(time, config.getSlideMS());
+                panes.computeIfAbsent(paneStart, SongStatsProcessor.this::newPane).addSession(session);
+            }
+            sessionListener.accept(session);
+        }
+
+        private void flush(boolean idle) {
+            flush(idle, null);
+        }
+
+        // at a checkpoint, also writes the sessions (all of them, or what changed since the last checkpoint)
+        private void flush(boolean idle, Matcher checkpoint) {
+            // the lower bound of the reader's time window, which Pravega works out from the times the writers noted at
+            // the positions it is reading from (or, if they note none, the latest event time read)
+            Long lowerBound = reader.getCurrentTimeWindow(stream).getLowerTimeBound();
+            readTime = lowerBound != null ? lowerBound : maxTime;
+            if (sessions != null && readTime != Long.MIN_VALUE)
+                sessions.advanceTo(readTime - config.getMaxOutOfOrderMS());
+
+            ByteBuffer state = null;
+            if (checkpoint != null) {
+                StateBuffer out = new StateBuffer(sessions == null ? 0 : 64 + sessions.size() * 32);
+                if (sessions != null) sessions.writeTo(out, checkpoint.group(2) != null);
+                state = out.contents();
+            }
+            updates.add(new ReaderUpdate(index, readTime, idle, panes.values(),
+                    checkpoint == null ? null : checkpoint.group(), state));
+            panes = new HashMap<>();
+            lastFlushTime = System.currentTimeMillis();
+        }
+    }
+
+    private static class ReaderUpdate {
+        final int reader;
+        final long readTime;
+        final boolean idle;
+        final Collection<PaneStats> panes;
+        final String checkpoint; // the checkpoint the reader passed after these panes, if any
+        final ByteBuffer sessions; // the reader's sessions as of that checkpoint (empty if it has none)
+
+        ReaderUpdate(int reader, long readTime, boolean idle, Collection<PaneStats> panes, String checkpoint,
+                     ByteBuffer sessions) {
+            this.reader = reader;
+            this.readTime = readTime;
+            this.idle = idle;
+            this.panes = panes;
+            this.checkpoint = checkpoint;
+            this.sessions = sessions;
+        }
+    }
+
+    private static class PendingCheckpoint {
+        final String name;
+        final long sequence;
+        final boolean full;
+        final CompletableFuture<Checkpoint> future;
+        final long deadline = System.currentTimeMillis() + CHECKPOINT_TIMEOUT_MS;
+        final ByteBuffer[] sessions; // by reader, once it has passed the checkpoint
+        int passedCount;
+        final List<ReaderUpdate> held = new ArrayList<>(); // from readers past the checkpoint, in order
+
+        PendingCheckpoint(String name, long sequence, boolean full, CompletableFuture<Checkpoint> future, int readerCount) {
+            this.name = name;
+            this.sequence = sequence;
+            this.full = full;
+            this.future = future;
+            this.sessions = new ByteBuffer[readerCount];
+        }
+    }
+
+    ClientConfig createClientConfig() {
+        ClientConfig.ClientConfigBuilder builder = ClientConfig.builder();
+        builder.controllerURI(URI.create(config.getControllerEndpoint()));
+
+        // Keycloak means we are using Streaming Data Platform
+        if (config.isUseKeycloak()) {
+            builder.credentials(new PravegaKeycloakCredentials());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param lateEventListener is passed each event that arrives after its windows' allowed lateness, by the reader
+     *                          threads (so it must be thread-safe)
+     */
+    public void setLateEventListener(Consumer<SongEvent> lateEventListener) {
+        this.lateEventListener = lateEventListener;
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    /**
+     * @return the number of events read so far
+     */
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * @return the number of events dropped so far because they arrived after their windows' allowed lateness. Those
+     * that were late when read are passed to the late event listener; a few that were on time when read but whose
+     * windows had gone by the time the processor thread merged them are only counted
+     */
+    public long getLateEventCount() {
+        return lateEventCount.get() + lateMergedEventCount;
+    }
+
+    /**
+     * @return the number of snapshots written so far
+     */
+    public long getSnapshotCount() {
+        return snapshotCount.get();
+    }
+
+    /**
+     * @return the port the stats service is listening on (-1 if it isn't)
+     */
+    public int getPort() {
+        StatsService service = this.service;
+        return service == null ? -1 : service.getPort();
+    }
+
+    /**
+     * @return the event time up to which windows have been closed
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+    static class Config {
+        String controllerEndpoint;
+        String scope;
+        String stream;
+        boolean useKeycloak;
+        String readerGroup;
+        int readerCount = DEFAULT_READER_COUNT;
+        SongEventSerializer.Format eventFormat = SongEventSerializer.Format.Json;
+        String catalogFile;
+        long windowMS = DEFAULT_WINDOW_MS;
+        Long slideMS;
+        long maxOutOfOrderMS = DEFAULT_MAX_OUT_OF_ORDER_MS;
+        long allowedLatenessMS = DEFAULT_ALLOWED_LATENESS_MS;
+        String lateStream;
+        int topCount = DEFAULT_TOP_COUNT;
+        int sketchWidth = DEFAULT_SKETCH_WIDTH;
+        int sketchDepth = DEFAULT_SKETCH_DEPTH;
+        int hllPrecision = DEFAULT_HLL_PRECISION;
+        Integer port;
+        int history = DEFAULT_HISTORY;
+        String stateDir;
+        long checkpointIntervalMS = DEFAULT_CHECKPOINT_INTERVAL_MS;
+        long sessionGapMS = DEFAULT_SESSION_GAP_MS;
+        int maxSessions = DEFAULT_MAX_SESSIONS;
+
+        public String getControllerEndpoint() {
+            return controllerEndpoint;
+        }
+
+        public void setControllerEndpoint(String controllerEndpoint) {
+            this.controllerEndpoint = controllerEndpoint;
+        }
+
+        public String getScope() {
+            return scope;
+        }
+
+        public void setScope(String scope) {
+            this.scope = scope;
+        }
+
+        public String getStream() {
+            return stream;
+        }
+
+        public void setStream(String stream) {
+            if (stream == null || stream.trim().length() == 0) throw new IllegalArgumentException("stream is required");
+            this.stream = stream;
+        }
+
+        public boolean isUseKeycloak() {
+            return useKeycloak;
+        }
+
+        public void setUseKeycloak(boolean useKeycloak) {
+            this.useKeycloak = useKeycloak;
+        }
+
+        /**
+         * @return the reader group to read with (default is &lt;stream&gt;-stats)
+         */
+        public String getReaderGroup() {
+            return readerGroup != null ? readerGroup : stream + "-stats";
+        }
+
+        public void setReaderGroup(String readerGroup) {
+            this.readerGroup = readerGroup;
+        }
+
+        public int getReaderCount() {
+            return readerCount;
+        }
+
+        public void setReaderCount(int readerCount) {
+            if (readerCount < 1) throw new IllegalArgumentException("reader count must be positive");
+            this.readerCount = readerCount;
+        }
+
+        public SongEventSerializer.Format getEventFormat() {
+            return eventFormat;
+        }
+
+        public void setEventFormat(SongEventSerializer.Format eventFormat) {
+            if (eventFormat == null) throw new IllegalArgumentException("event format is required");
+            this.eventFormat = eventFormat;
+        }
+
+        public String getCatalogFile() {
+            return catalogFile;
+        }
+
+        public void setCatalogFile(String catalogFile) {
+            this.catalogFile = catalogFile;
+        }
+
+        public long getWindowMS() {
+            return windowMS;
+        }
+
+        public void setWindowMS(long windowMS) {
+            if (windowMS <= 0) throw new IllegalArgumentException("window size must be positive");
+            this.windowMS = windowMS;
+        }
+
+        /**
+         * @return how far apart windows start (the window size for tumbling windows, which is the default)
+         */
+        public long getSlideMS() {
+            return slideMS != null ? slideMS : windowMS;
+        }
+
+        public void setSlideMS(Long slideMS) {
+            if (slideMS != null && slideMS <= 0) throw new IllegalArgumentException("window slide must be positive");
+            this.slideMS = slideMS;
+        }
+
+        /**
+         * @return how far behind a reader's low watermark (the lower bound of its time window, or if the writers don't
+         * note time, the latest event time it has read) an event may be and still make it into its window before the
+         * window fires
+         */
+        public long getMaxOutOfOrderMS() {
+            return maxOutOfOrderMS;
+        }
+
+        public void setMaxOutOfOrderMS(long maxOutOfOrderMS) {
+            if (maxOutOfOrderMS < 0) throw new IllegalArgumentException("max out-of-order time cannot be negative");
+            this.maxOutOfOrderMS = maxOutOfOrderMS;
+        }
+
+        /**
+         * @return how long after a window fires (in watermark time) late events still update it; later events are
+         * dropped and passed to the late event output
+         */
+        public long getAllowedLatenessMS() {
+            return allowedLatenessMS;
+        }
+
+        public void setAllowedLatenessMS(long allowedLatenessMS) {
+            if (allowedLatenessMS < 0) throw new IllegalArgumentException("allowed lateness cannot be negative");
+            this.allowedLatenessMS = allowedLatenessMS;
+        }
+
+        /**
+         * @return the stream (in the same scope) to write events that are too late to, or null to only count them
+         */
+        public String getLateStream() {
+            return lateStream;
+        }
+
+        public void setLateStream(String lateStream) {
+            this.lateStream = lateStream;
+        }
+
+        /**
+         * @return how many songs, artists and playlists to rank in each window
+         */
+        public int getTopCount() {
+            return topCount;
+        }
+
+        public void setTopCount(int topCount) {
+            if (topCount < 1) throw new IllegalArgumentException("top count must be positive");
+            this.topCount = topCount;
+        }
+
+        /**
+         * @return the number of counters in each row of the play count sketches (see {@link TopKSketch}). Counts may
+         * be too high by up to e / width of the plays in a window
+         */
+        public int getSketchWidth() {
+            return sketchWidth;
+        }
+
+        public void setSketchWidth(int sketchWidth) {
+            if (sketchWidth < 1 || (sketchWidth & (sketchWidth - 1)) != 0)
+                throw new IllegalArgumentException("sketch width must be a power of 2");
+            this.sketchWidth = sketchWidth;
+        }
+
+        /**
+         * @return the number of rows in the play count sketches: counts are within the error bound with probability
+         * 1 - e^-depth
+         */
+        public int getSketchDepth() {
+            return sketchDepth;
+        }
+
+        public void setSketchDepth(int sketchDepth) {
+            if (sketchDepth < 1) throw new IllegalArgumentException("sketch depth must be positive");
+            this.sketchDepth = sketchDepth;
+        }
+
+        /**
+         * @return the precision of the sketches that count distinct players (see {@link HyperLogLog}): 2^precision
+         * registers, with a standard error of 1.04 / sqrt(2^precision)
+         */
+        public int getHllPrecision() {
+            return hllPrecision;
+        }
+
+        public void setHllPrecision(int hllPrecision) {
+            if (hllPrecision < HyperLogLog.MIN_PRECISION || hllPrecision > HyperLogLog.MAX_PRECISION)
+                throw new IllegalArgumentException("HyperLogLog precision must be between " + HyperLogLog.MIN_PRECISION +
+                        " and " + HyperLogLog.MAX_PRECISION);
+            this.hllPrecision = hllPrecision;
+        }
+
+        /**
+         * @return the port to serve the statistics of recent windows on (as JSON), or null to not serve them
+         */
+        public Integer getPort() {
+            return port;
+        }
+
+        public void setPort(Integer port) {
+            if (port != null && (port < 0 || port > 65535)) throw new IllegalArgumentException("invalid port: " + port);
+            this.port = port;
+        }
+
+        /**
+         * @return how many of the most recent windows the stats service serves
+         */
+        public int getHistory() {
+            return history;
+        }
+
+        public void setHistory(int history) {
+            if (history < 1) throw new IllegalArgumentException("window history must be positive");
+            this.history = history;
+        }
+
+        /**
+         * @return how long a player must have no events for their listening session to end (0 = don't track sessions)
+         */
+        public long getSessionGapMS() {
+            return sessionGapMS;
+        }
+
+        public void setSessionGapMS(long sessionGapMS) {
+            if (sessionGapMS < 0) throw new IllegalArgumentException("session gap cannot be negative");
+            this.sessionGapMS = sessionGapMS;
+        }
+
+        /**
+         * @return the most listening sessions to keep open (across all readers); beyond this the longest idle sessions
+         * are closed early
+         */
+        public int getMaxSessions() {
+            return maxSessions;
+        }
+
+        public void setMaxSessions(int maxSessions) {
+            if (maxSessions < 1) throw new IllegalArgumentException("max sessions must be positive");
+            this.maxSessions = maxSessions;
+        }
+
+        /**
+         * @return the local directory to snapshot the state to and restore it from, or null to keep no state
+         */
+        public String getStateDir() {
+            return stateDir;
+        }
+
+        public void setStateDir(String stateDir) {
+            this.stateDir = stateDir;
+        }
+
+        /**
+         * @return how often to checkpoint the reader group and snapshot the state (with a state directory)
+         */
+        public long getCheckpointIntervalMS() {
+            return checkpointIntervalMS;
+        }
+
+        public void setCheckpointIntervalMS(long checkpointIntervalMS) {
+            if (checkpointIntervalMS <= 0) throw new IllegalArgumentException("checkpoint interval must be positive");
+            this.checkpointIntervalMS = checkpointIntervalMS;
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "controllerEndpoint='" + controllerEndpoint + '\'' +
+                    ", scope='" + scope + '\'' +
+                    ", stream='" + stream + '\'' +
+                    ", useKeycloak=" + useKeycloak +
+                    ", readerGroup=" + getReaderGroup() +
+                    ", readerCount=" + readerCount +
+                    ", eventFormat=" + eventFormat +
+                    ", catalogFile=" + catalogFile +
+                    ", windowMS=" + windowMS +
+                    ", slideMS=" + getSlideMS() +
+                    ", maxOutOfOrderMS=" + maxOutOfOrderMS +
+                    ", allowedLatenessMS=" + allowedLatenessMS +
+                    ", lateStream=" + lateStream +
+                    ", topCount=" + topCount +
+                    ", sketchWidth=" + sketchWidth +
+                    ", sketchDepth=" + sketchDepth +
+                    ", hllPrecision=" + hllPrecision +
+                    ", port=" + port +
+                    ", history=" + history +
+                    ", sessionGapMS=" + sessionGapMS +
+                    ", maxSessions=" + maxSessions +
+                    ", stateDir=" + stateDir +
+                    ", checkpointIntervalMS=" + checkpointIntervalMS +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dellemc.sdp.demo.music;
+
+import ch.qos.logback.classic.Level;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SongStatsProcessorCli {
+    private static final Logger log = LoggerFactory.getLogger(SongStatsProcessorCli.class);
+
+    static Options options() {
+        Options options = new Options();
+
+        options.addOption(Option.builder("c").longOpt("controller").desc("Service endpoint of the Pravega controller")
+                .hasArg().argName("controller-uri").build());
+        options.addOption(Option.builder("x").longOpt("scope").desc("The Pravega scope")
+                .hasArg().argName("pravega-scope").build());
+        options.addOption(Option.builder("s").longOpt("stream").desc("The Pravega stream name")
+                .hasArg().argName("pravega-stream").build());
+
+        options.addOption(Option.builder("k").longOpt("use-keycloak").desc("This enables Keycloak authentication for use with Streaming Data Platform. You must have a valid keycloak.json file in your home directory")
+                .build());
+
+        options.addOption(Option.builder("g").longOpt("reader-group").desc("The reader group to read the stream with. An existing reader group continues from where it left off. Default is <stream>-stats")
+                .hasArg().argName("reader-group").build());
+        options.addOption(Option.builder("n").longOpt("readers").desc("Number of readers (threads) in the reader group. The stream's segments are shared among them. Default is " + SongStatsProcessor.DEFAULT_READER_COUNT)
+                .hasArg().argName("num-readers").build());
+        options.addOption(Option.builder("f").longOpt("format").desc("The format of events in the stream: json or binary. Default is json")
+                .hasArg().argName("event-format").build());
+        options.addOption(Option.builder().longOpt("catalog").desc("The song catalog file the events were generated from (required to read binary events generated with --catalog)")
+                .hasArg().argName("catalog-file").build());
+
+        options.addOption(Option.builder().longOpt("window").desc("The size of each window of event time. Durations are in seconds or have an s/m/h/d suffix. Default is " + SongStatsProcessor.DEFAULT_WINDOW_MS / 1000 + "s")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("slide").desc("How far apart windows start, for sliding windows (the window size must be a multiple of it). Default is the window size (tumbling windows)")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("max-out-of-order").desc("How far behind a reader's watermark (or the latest event time it has read, if the writers note no time) an event may be and still be counted when its window fires. Windows fire this much later. Default is " + SongStatsProcessor.DEFAULT_MAX_OUT_OF_ORDER_MS / 1000 + "s")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("allowed-lateness").desc("How long (in event time) to keep windows after they fire: late events update them, and the window is reported again. Later events are dropped. Default is 0")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("late-stream").desc("A stream (in the same scope) to write events that arrive after their windows' allowed lateness to, instead of just counting them")
+                .hasArg().argName("stream").build());
+        options.addOption(Option.builder().longOpt("top").desc("How many songs, artists and playlists to rank in each window. Default is " + SongStatsProcessor.DEFAULT_TOP_COUNT)
+                .hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("sketch-width").desc("Counters per row of the sketches that count plays (a power of 2). Play counts may be too high by up to e / width of the plays in the window (0.13% with the default of " + SongStatsProcessor.DEFAULT_SKETCH_WIDTH + "). Each sketch takes width * depth * 8 bytes")
+                .hasArg().argName("width").build());
+        options.addOption(Option.builder().longOpt("sketch-depth").desc("Rows in the sketches that count plays. Play counts are within the error bound with probability 1 - e^-depth (98% with the default of " + SongStatsProcessor.DEFAULT_SKETCH_DEPTH + ")")
+                .hasArg().argName("depth").build());
+        options.addOption(Option.builder().longOpt("hll-precision").desc("Precision of the sketches that count distinct players and listeners (" + HyperLogLog.MIN_PRECISION + "-" + HyperLogLog.MAX_PRECISION + "). Counts have a standard error of 1.04 / sqrt(2^precision) (1.6% with the default of " + SongStatsProcessor.DEFAULT_HLL_PRECISION + "), and each sketch takes up to 2^precision bytes")
+                .hasArg().argName("precision").build());
+
+        options.addOption(Option.builder().longOpt("session-gap").desc("How long a player must have no events for their listening session to end (0 to not track sessions). Default is " + SongStatsProcessor.DEFAULT_SESSION_GAP_MS / 60000 + "m")
+                .hasArg().argName("duration").build());
+        options.addOption(Option.builder().longOpt("max-sessions").desc("The most listening sessions to keep open, at about 65 bytes each. Beyond this the longest idle sessions are closed early. Default is " + SongStatsProcessor.DEFAULT_MAX_SESSIONS)
+                .hasArg().argName("count").build());
+
+        options.addOption(Option.builder().longOpt("state-dir").desc("Snapshot the windows and sessions to this directory at reader group checkpoints, and resume from the latest snapshot on restart")
+                .hasArg().argName("dir").build());
+        options.addOption(Option.builder().longOpt("checkpoint-interval").desc("How often to checkpoint and snapshot, with --state-dir. Default is " + SongStatsProcessor.DEFAULT_CHECKPOINT_INTERVAL_MS / 1000 + "s")
+                .hasArg().argName("duration").build());
+
+        options.addOption(Option.builder().longOpt("port").desc("Serve the statistics of recent windows as JSON at http://<host>:<port>/stats/windows (see README)")
+                .hasArg().argName("port").build());
+        options.addOption(Option.builder().longOpt("history").desc("How many of the most recent windows to serve. Default is " + SongStatsProcessor.DEFAULT_HISTORY)
+                .hasArg().argName("windows").build());
+
+        options.addOption(Option.builder("v").longOpt("verbose").desc("Verbose logging").build());
+        options.addOption(Option.builder("d").longOpt("debug").desc("Debug logging").build());
+
+        options.addOption(Option.builder("h").longOpt("help").desc("Print this help text").build());
+        return options;
+    }
+
+    static SongStatsProcessor.Config parseConfig(CommandLine commandLine) {
+        SongStatsProcessor.Config config = new SongStatsProcessor.Config();
+
+        config.setControllerEndpoint(commandLine.getOptionValue('c'));
+        config.setScope(commandLine.getOptionValue('x'));
+        config.setStream(commandLine.getOptionValue('s'));
+        config.setUseKeycloak(commandLine.hasOption('k'));
+
+        config.setReaderGroup(commandLine.getOptionValue("reader-group"));
+        if (commandLine.hasOption("readers"))
+            config.setReaderCount(Integer.parseInt(commandLine.getOptionValue("readers")));
+        if (commandLine.hasOption("format"))
+            config.setEventFormat(SongEventSerializer.Format.parse(commandLine.getOptionValue("format")));
+        config.setCatalogFile(commandLine.getOptionValue("catalog"));
+
+        if (commandLine.hasOption("window"))
+            config.setWindowMS(RateProfile.parseDuration(commandLine.getOptionValue("window")));
+        if (commandLine.hasOption("slide"))
+            config.setSlideMS(RateProfile.parseDuration(commandLine.getOptionValue("slide")));
+        if (commandLine.hasOption("max-out-of-order"))
+            config.setMaxOutOfOrderMS(parseDelay(commandLine.getOptionValue("max-out-of-order")));
+        if (commandLine.hasOption("allowed-lateness"))
+            config.setAllowedLatenessMS(parseDelay(commandLine.getOptionValue("allowed-lateness")));
+        config.setLateStream(commandLine.getOptionValue("late-stream"));
+        if (commandLine.hasOption("top"))
+            config.setTopCount(Integer.parseInt(commandLine.getOptionValue("top")));
+        if (commandLine.hasOption("sketch-width"))
+            config.setSketchWidth(Integer.parseInt(commandLine.getOptionValue("sketch-width")));
+        if (commandLine.hasOption("sketch-depth"))
+            config.setSketchDepth(Integer.parseInt(commandLine.getOptionValue("sketch-depth")));
+        if (commandLine.hasOption("hll-precision"))
+            config.setHllPrecision(Integer.parseInt(commandLine.getOptionValue("hll-precision")));
+        if (commandLine.hasOption("session-gap"))
+            config.setSessionGapMS(parseDelay(commandLine.getOptionValue("session-gap")));
+        if (commandLine.hasOption("max-sessions"))
+            config.setMaxSessions(Integer.parseInt(commandLine.getOptionValue("max-sessions")));
+        config.setStateDir(commandLine.getOptionValue("state-dir"));
+        if (commandLine.hasOption("checkpoint-interval"))
+            config.setCheckpointIntervalMS(RateProfile.parseDuration(commandLine.getOptionValue("checkpoint-interval")));
+        if (commandLine.hasOption("port"))
+            config.setPort(Integer.parseInt(commandLine.getOptionValue("port")));
+        if (commandLine.hasOption("history"))
+            config.setHistory(Integer.parseInt(commandLine.getOptionValue("history")));
+
+        return config;
+    }
+
+    // like a duration, but 0 is allowed
+    static long parseDelay(String delay) {
+        return delay.matches("0+[smhd]?") ? 0 : RateProfile.parseDuration(delay);
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine commandLine = new DefaultParser().parse(options(), args);
+
+        // help text
+        if (commandLine.hasOption('h')) {
+            System.out.println("\n" + SongStatsProcessor.class.getSimpleName() + " - computes windowed statistics of the song plays in a stream\n");
+            HelpFormatter hf = new HelpFormatter();
+            hf.printHelp(SongStatsProcessor.class.getSimpleName(), options(), true);
+            System.out.println();
+        } else {
+            // set log level
+            if (commandLine.hasOption('d')) {
+                ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SongStatsProcessorCli.class.getPackage().getName())).setLevel(Level.DEBUG);
+            } else if (commandLine.hasOption('v')) {
+                ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SongStatsProcessorCli.class.getPackage().getName())).setLevel(Level.INFO);
+            }
+
+            SongStatsProcessor.Config config = parseConfig(commandLine);
+            log.info("parsed options:\n{}", config);
+            new SongStatsProcessor(config).run();
+        }
+    }
+}
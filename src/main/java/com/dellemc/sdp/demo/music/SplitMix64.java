@@ -0,0 +1,63 @@
+package com.dellemc.sdp.demo.music;
+
+/**
+ * The SplitMix64 generator behind {@link java.util.SplittableRandom}, with state that can be read and replaced. This
+ * lets one instance drive any number of players whose generator states are kept in a long[] (see
+ * {@link PlayerStateStore}) instead of one object per player. Seeded with the same value, it produces exactly the same
+ * numbers as SplittableRandom.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class SplitMix64 {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+
+    long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return a uniformly distributed value between 0 (inclusive) and bound (exclusive)
+     */
+    int nextInt(int bound) {
+        if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+        int r = mix32(state += GOLDEN_GAMMA);
+        int m = bound - 1;
+        if ((bound & m) == 0) return r & m; // power of two
+        // reject values from the incomplete range at the top, so every result is equally likely
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(state += GOLDEN_GAMMA) >>> 1) ;
+        return r;
+    }
+
+    /**
+     * @return a uniformly distributed value between 0 (inclusive) and 1 (exclusive)
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Stafford's variant 13 of the MurmurHash3 finalizer
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+}
@@ -0,0 +1,126 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A growable buffer that aggregation state is written to for a snapshot (see {@link StateStore}), and the matching
+ * readers. Counts and sizes are unsigned varints (as in {@link BinarySongEventSerializer}), values that may be negative
+ * are zig-zag varints, and hashes are fixed 8 bytes, so mostly-empty counters and small IDs take a byte or two.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class StateBuffer {
+    private ByteBuffer buffer;
+
+    StateBuffer(int capacity) {
+        buffer = ByteBuffer.allocate(Math.max(16, capacity));
+    }
+
+    void putByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    void putVarLong(long value) {
+        ensure(10);
+        BinarySongEventSerializer.writeVarLong(buffer, value);
+    }
+
+    void putSignedVarLong(long value) {
+        putVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes the length of the bytes, then the bytes
+     */
+    void putBytes(byte[] bytes) {
+        putBytes(ByteBuffer.wrap(bytes));
+    }
+
+    void putBytes(ByteBuffer bytes) {
+        putVarLong(bytes.remaining());
+        ensure(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    /**
+     * Appends bytes as they are (i.e. state written to another buffer)
+     */
+    void put(ByteBuffer bytes) {
+        ensure(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    /**
+     * Writes a string as its UTF-8 length + 1 (0 for null), then its bytes
+     */
+    void putString(String value) {
+        if (value == null) {
+            putVarLong(0);
+            return;
+        }
+        ensure(10 + Utf8.encodedLength(value));
+        BinarySongEventSerializer.writeVarLong(buffer, Utf8.encodedLength(value) + 1);
+        Utf8.encode(value, buffer);
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return what has been written so far (shares the buffer, so it is only valid until more is written)
+     */
+    ByteBuffer contents() {
+        ByteBuffer contents = buffer.duplicate();
+        contents.flip();
+        return contents;
+    }
+
+    void clear() {
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        return BinarySongEventSerializer.readVarLong(buffer);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        if (value > Integer.MAX_VALUE) throw new IllegalArgumentException("malformed state: " + value + " is too big");
+        return (int) value;
+    }
+
+    static long getSignedVarLong(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = getVarInt(buffer) - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarInt(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,160 @@
+package com.dellemc.sdp.demo.music;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots of the processor's state in a local directory. A snapshot is either full, or holds only what changed since
+ * the snapshot before it, so restoring means applying the last full snapshot and then each snapshot after it, in order.
+ * Writing a full snapshot deletes the ones before it.
+ * <p>
+ * Each snapshot is one file, snapshot-&lt;sequence&gt;.bin:
+ * <pre>
+ * int     magic ("MSNP")
+ * byte    version
+ * long    sequence
+ * long    base (the sequence of the full snapshot it applies to; its own if it is full)
+ * long    previous (the sequence of the snapshot it follows; 0 if it is full)
+ * int     CRC32 of the body
+ * long    body length
+ * bytes   body
+ * </pre>
+ * Files are written under a temporary name and renamed once synced, so a file that exists is complete. They are read
+ * back memory-mapped, so restoring doesn't copy them onto the heap before parsing.
+ */
+final class StateStore {
+    private static final Logger log = LoggerFactory.getLogger(StateStore.class);
+    static final int MAGIC = 0x4d534e50;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 8 + 4 + 8;
+
+    private final Path directory;
+    private long lastSequence;
+
+    StateStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> files = files();
+        lastSequence = files.isEmpty() ? 0 : files.lastKey();
+    }
+
+    /**
+     * @return the sequence of the latest snapshot (0 if there is none); the next snapshot's must be higher
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Writes a snapshot, and if it is full, deletes the ones before it
+     */
+    void write(long sequence, boolean full, ByteBuffer body) throws IOException {
+        if (sequence <= lastSequence) throw new IllegalArgumentException("snapshot " + sequence + " is not after " + lastSequence);
+        if (!full && lastSequence == 0) throw new IllegalArgumentException("the first snapshot must be full");
+        long base = full ? sequence : readHeader(path(lastSequence)).getLong(13), previous = full ? 0 : lastSequence;
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).putLong(sequence).putLong(base).putLong(previous).putInt((int) crc.getValue())
+                .putLong(body.remaining()).flip();
+
+        Path temporary = directory.resolve("snapshot-" + sequence + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {header, body.duplicate()};
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path(sequence), StandardCopyOption.ATOMIC_MOVE);
+        lastSequence = sequence;
+
+        if (full) {
+            for (Path file : files().headMap(sequence).values()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the bodies of the last full snapshot and the snapshots after it, in order (none if there is no snapshot)
+     */
+    List<ByteBuffer> load() throws IOException {
+        List<ByteBuffer> bodies = new ArrayList<>();
+        if (lastSequence == 0) return bodies;
+        long base = readHeader(path(lastSequence)).getLong(13), previous = 0;
+        for (Map.Entry<Long, Path> file : files().subMap(base, true, lastSequence, true).entrySet()) {
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer body = check(file.getValue(), mapped);
+            // each one follows the one before, starting with the full snapshot
+            if (mapped.getLong(5) != file.getKey() || mapped.getLong(13) != base || mapped.getLong(21) != previous)
+                throw new IOException("snapshot " + (previous == 0 ? base : previous) + " is missing before " + file.getValue());
+            bodies.add(body);
+            previous = file.getKey();
+        }
+        log.info("loaded snapshot {} and {} snapshots of changes after it", base, bodies.size() - 1);
+        return bodies;
+    }
+
+    // the header's checks, then the body
+    private static ByteBuffer check(Path file, ByteBuffer mapped) throws IOException {
+        if (mapped.remaining() < HEADER_SIZE || mapped.getInt(0) != MAGIC) throw new IOException(file + " is not a snapshot");
+        if (mapped.get(4) != VERSION) throw new IOException(file + " has unsupported version " + mapped.get(4));
+        long length = mapped.getLong(33);
+        if (length != mapped.remaining() - HEADER_SIZE) throw new IOException(file + " is truncated");
+        ByteBuffer body = mapped.duplicate();
+        body.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != mapped.getInt(29)) throw new IOException(file + " is corrupt");
+        return body.slice();
+    }
+
+    private ByteBuffer readHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) ;
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) throw new IOException(file + " is not a snapshot");
+        return header;
+    }
+
+    private Path path(long sequence) {
+        return directory.resolve(String.format("snapshot-%020d.bin", sequence));
+    }
+
+    // the snapshots in the directory, by sequence
+    private TreeMap<Long, Path> files() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring("snapshot-".length(), name.length() - ".bin".length())), path);
+                } catch (NumberFormatException e) {
+                    log.warn("ignoring {}", path);
+                }
+            }
+        }
+        return files;
+    }
+}
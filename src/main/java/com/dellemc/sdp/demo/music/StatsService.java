@@ -0,0 +1,324 @@
+package com.dellemc.sdp.demo.music;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves the statistics of the most recent windows as JSON over HTTP:
+ * <ul>
+ * <li>{@code /stats/windows} - events, plays, skip rate, players (overall and per subscription level) and sessions of
+ * each window, newest first</li>
+ * <li>{@code /stats/windows/latest} and {@code /stats/windows/<start>} - everything about one window, including the top
+ * songs, artists and playlists (start is in epoch milliseconds, as listed)</li>
+ * <li>{@code /stats/songs} and {@code /stats/artists} - the top songs or artists of the latest window</li>
+ * </ul>
+ * Every response is rendered when a window is published, into an immutable {@link Snapshot} that replaces the last one
+ * atomically. A request only looks its path up in the current snapshot and writes the bytes, so requests never wait on
+ * the processor (or each other), and a response is always from one consistent snapshot.
+ */
+public class StatsService implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(StatsService.class);
+
+    static final String STATS_PATH = "/stats";
+    static final String WINDOWS_PATH = STATS_PATH + "/windows";
+    static final String LATEST_PATH = WINDOWS_PATH + "/latest";
+    static final String SONGS_PATH = STATS_PATH + "/songs";
+    static final String ARTISTS_PATH = STATS_PATH + "/artists";
+
+    // connections waiting to be accepted (the JDK default of 50 is too few for bursts of dashboard requests)
+    private static final int BACKLOG = 1024;
+    private static final byte[] NOT_FOUND = "{\"error\":\"not found\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_WINDOWS = "{\"error\":\"no windows have closed yet\"}".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // the JDK server writes the headers and body of a response separately, so with Nagle's algorithm on, every
+        // response on a kept-alive connection waits for the client's delayed ACK (up to 40ms). This only takes effect
+        // if no server has been created in this JVM yet
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final int history;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final Deque<Window> windows = new ArrayDeque<>(); // newest first, only touched by the publisher
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param history how many of the most recent windows to serve
+     */
+    public StatsService(int history) {
+        if (history < 1) throw new IllegalArgumentException("window history must be positive");
+        this.history = history;
+    }
+
+    /**
+     * Renders a newly fired window and publishes it, with the windows before it, to the next requests (an update
+     * replaces the window it updates). Called by one thread at a time (the processor); the work is proportional to the
+     * history, not to the number of requests.
+     */
+    public synchronized void publish(WindowStats stats) {
+        Window published = new Window(stats, json(renderWindow(stats)));
+        if (stats.isUpdate()) {
+            boolean found = false;
+            for (Iterator<Window> i = windows.iterator(); i.hasNext() && !found; ) {
+                found = i.next().stats.getStart() == stats.getStart();
+            }
+            if (!found) return; // no longer served
+            Deque<Window> updated = new ArrayDeque<>();
+            for (Window window : windows) {
+                updated.addLast(window.stats.getStart() == stats.getStart() ? published : window);
+            }
+            windows.clear();
+            windows.addAll(updated);
+        } else {
+            windows.addFirst(published);
+            while (windows.size() > history) windows.removeLast();
+        }
+        WindowStats latest = windows.getFirst().stats;
+
+        Map<String, byte[]> responses = new HashMap<>();
+        StringBuilder list = new StringBuilder("[");
+        for (Iterator<Window> i = windows.iterator(); i.hasNext(); ) {
+            Window window = i.next();
+            responses.put(WINDOWS_PATH + "/" + window.stats.getStart(), window.json);
+            appendSummary(list, window.stats);
+            if (i.hasNext()) list.append(',');
+        }
+        responses.put(WINDOWS_PATH, json(list.append(']')));
+        responses.put(LATEST_PATH, windows.getFirst().json);
+        responses.put(SONGS_PATH, json(renderTop(latest, "songs", latest.getTopSongs())));
+        responses.put(ARTISTS_PATH, json(renderTop(latest, "artists", latest.getTopArtists())));
+        snapshot.set(new Snapshot(latest.getEnd(), responses));
+    }
+
+    /**
+     * @return the response body for a path, or null if there is nothing at that path
+     */
+    byte[] get(String path) {
+        return snapshot.get().responses.get(path);
+    }
+
+    /**
+     * @return the end of the latest window published (Long.MIN_VALUE if none)
+     */
+    public long getLatestEnd() {
+        return snapshot.get().latestEnd;
+    }
+
+    /**
+     * Serves the statistics at http://&lt;host&gt;:&lt;port&gt;/stats/... until closed
+     *
+     * @param port    the port to listen on (0 picks a free port; see {@link #getPort()})
+     * @param threads the number of threads to handle requests with
+     */
+    public synchronized void start(int port, int threads) throws IOException {
+        if (server != null) throw new IllegalStateException("already serving");
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "stats-http-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.setExecutor(executor);
+        server.createContext(STATS_PATH, this::handle);
+        server.start();
+        log.info("serving statistics at http://localhost:{}{}", getPort(), WINDOWS_PATH);
+    }
+
+    /**
+     * @return the port the service is listening on (-1 if it isn't)
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) server.stop(0);
+        server = null;
+        if (executor != null) executor.shutdownNow();
+        executor = null;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.length() > 1 && path.endsWith("/")) path = path.substring(0, path.length() - 1);
+            Snapshot current = snapshot.get();
+            byte[] body = current.responses.get(path);
+            int status = 200;
+            if (body == null) {
+                status = 404;
+                body = current.latestEnd == Long.MIN_VALUE && path.startsWith(WINDOWS_PATH + "/") ? NO_WINDOWS : NOT_FOUND;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static String renderWindow(WindowStats stats) {
+        StringBuilder json = new StringBuilder();
+        appendBounds(json.append('{'), stats);
+        json.append(",\"eventCount\":").append(stats.getEventCount());
+        json.append(",\"eventCounts\":{");
+        for (SongEventType type : SongEventType.values()) {
+            if (type.ordinal() > 0) json.append(',');
+            json.append('"').append(type).append("\":").append(stats.getCount(type));
+        }
+        json.append("},\"playCount\":").append(stats.getPlayCount());
+        json.append(",\"skipRate\":").append(stats.getSkipRate());
+        appendPlayers(json, stats);
+        appendSessions(json, stats);
+        appendCounts(json.append(",\"topSongs\":"), stats.getTopSongs());
+        appendCounts(json.append(",\"topArtists\":"), stats.getTopArtists());
+        appendCounts(json.append(",\"topPlaylists\":"), stats.getTopPlaylists());
+        appendErrors(json, stats);
+        json.append(",\"update\":").append(stats.isUpdate());
+        return json.append('}').toString();
+    }
+
+    private static String renderTop(WindowStats stats, String name, List<WindowStats.Count> counts) {
+        StringBuilder json = new StringBuilder();
+        appendBounds(json.append('{'), stats);
+        appendCounts(json.append(",\"").append(name).append("\":"), counts);
+        appendErrors(json, stats);
+        return json.append('}').toString();
+    }
+
+    private static void appendSummary(StringBuilder json, WindowStats stats) {
+        appendBounds(json.append('{'), stats);
+        json.append(",\"eventCount\":").append(stats.getEventCount());
+        json.append(",\"playCount\":").append(stats.getPlayCount());
+        json.append(",\"skipRate\":").append(stats.getSkipRate());
+        appendPlayers(json, stats);
+        appendSessions(json, stats);
+        json.append('}');
+    }
+
+    private static void appendBounds(StringBuilder json, WindowStats stats) {
+        json.append("\"start\":").append(stats.getStart());
+        json.append(",\"end\":").append(stats.getEnd());
+        json.append(",\"startTime\":\"").append(Instant.ofEpochMilli(stats.getStart()));
+        json.append("\",\"endTime\":\"").append(Instant.ofEpochMilli(stats.getEnd())).append('"');
+    }
+
+    private static void appendSessions(StringBuilder json, WindowStats stats) {
+        json.append(",\"sessionCount\":").append(stats.getSessionCount());
+        json.append(",\"meanSessionMS\":").append(Math.round(stats.getMeanSessionMS()));
+        json.append(",\"meanSessionSongs\":").append(stats.getMeanSessionSongs());
+    }
+
+    private static void appendPlayers(StringBuilder json, WindowStats stats) {
+        json.append(",\"playerCount\":").append(stats.getPlayerCount());
+        json.append(",\"levelPlayerCounts\":{");
+        for (SubscriptionLevel level : SubscriptionLevel.values()) {
+            if (level.ordinal() > 0) json.append(',');
+            json.append('"').append(level).append("\":").append(stats.getPlayerCount(level));
+        }
+        json.append('}');
+    }
+
+    // playlists have no ID or listener count
+    private static void appendCounts(StringBuilder json, List<WindowStats.Count> counts) {
+        json.append('[');
+        for (int i = 0; i < counts.size(); i++) {
+            WindowStats.Count count = counts.get(i);
+            if (i > 0) json.append(',');
+            json.append('{');
+            if (count.getId() >= 0) json.append("\"id\":").append(count.getId()).append(',');
+            appendString(json.append("\"name\":"), count.getName());
+            json.append(",\"plays\":").append(count.getCount());
+            if (count.getListeners() >= 0) json.append(",\"listeners\":").append(count.getListeners());
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private static void appendErrors(StringBuilder json, WindowStats stats) {
+        json.append(",\"maxOvercount\":").append(stats.getMaxOvercount());
+        json.append(",\"listenerError\":").append(stats.getListenerError());
+    }
+
+    // escapes quotes, backslashes and control characters
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04X", (int) c));
+            else json.append(c);
+        }
+        json.append('"');
+    }
+
+    private static byte[] json(CharSequence json) {
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Window {
+        final WindowStats stats;
+        final byte[] json;
+
+        Window(WindowStats stats, byte[] json) {
+            this.stats = stats;
+            this.json = json;
+        }
+    }
+
+    /**
+     * Every response body, by path, as of one published window. Never modified once published.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Long.MIN_VALUE,
+                Collections.singletonMap(WINDOWS_PATH, "[]".getBytes(StandardCharsets.UTF_8)));
+
+        final long latestEnd;
+        final Map<String, byte[]> responses;
+
+        Snapshot(long latestEnd, Map<String, byte[]> responses) {
+            this.latestEnd = latestEnd;
+            this.responses = Collections.unmodifiableMap(responses);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Approximate counts of the most frequent keys in fixed memory. A Count-Min sketch counts every key, and a bounded
+ * min-heap keeps the keys with the highest estimates (the heavy hitters), with an open-addressing index from key to heap
+ * position. Memory is width * depth counters plus capacity heap entries, however many distinct keys there are.
+ * <p>
+ * Error bounds: with N keys counted, an estimate is never below the true count, and is above it by more than
+ * (e / width) * N with probability at most e^-depth (i.e. width 2048 and depth 4: within 0.13% of N, 98% of the time).
+ * A key is only reported if its estimate made it into the heap, so with a capacity of a few times the number of keys
+ * wanted, the top keys are found unless their counts are within the error of each other.
+ * <p>
+ * Sketches with the same dimensions merge exactly (the merged counters are those of a sketch that counted both
+ * streams), so partial counts from readers and panes can be combined in any order.
+ * <p>
+ * NOTE: this class is *not* thread-safe
+ */
+final class TopKSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counters; // depth rows of width counters
+    private long total;
+
+    // heavy hitters: a min-heap on estimate, so the smallest is the one to evict
+    private final int capacity;
+    private final long[] heapKeys;
+    private final long[] heapCounts;
+    private final String[] heapNames;
+    private int size;
+
+    // key -> heap position + 1 (0 is empty), linear probing
+    private final long[] indexKeys;
+    private final int[] indexPositions;
+    private final int indexMask;
+
+    private LongConsumer evictionListener; // null = none
+
+    TopKSketch(int width, int depth, int capacity) {
+        if (width < 1 || (width & (width - 1)) != 0) throw new IllegalArgumentException("sketch width must be a power of 2");
+        if (depth < 1) throw new IllegalArgumentException("sketch depth must be positive");
+        if (capacity < 1) throw new IllegalArgumentException("heavy hitter capacity must be positive");
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[width * depth];
+        this.capacity = capacity;
+        this.heapKeys = new long[capacity];
+        this.heapCounts = new long[capacity];
+        this.heapNames = new String[capacity];
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1; // at most half full
+        this.indexKeys = new long[indexSize];
+        this.indexPositions = new int[indexSize];
+        this.indexMask = indexSize - 1;
+    }
+
+    /**
+     * Sets a listener that is passed each key that stops being a heavy hitter (so state kept per heavy hitter can be
+     * dropped)
+     */
+    void setEvictionListener(LongConsumer evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * @return the fraction of the total count that an estimate may be too high by (with probability 1 - e^-depth)
+     */
+    static double epsilon(int width) {
+        return Math.E / width;
+    }
+
+    /**
+     * Counts one occurrence of a key. The name is kept with the key while it is a heavy hitter (null if the key itself is
+     * enough to look it up)
+     */
+    void add(long key, String name) {
+        total++;
+        long hash = SplitMix64.mix64(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+            int i = offset + ((h1 + row * h2) & (width - 1));
+            estimate = Math.min(estimate, ++counters[i]);
+        }
+        offer(key, name, estimate);
+    }
+
+    long estimate(long key) {
+        long hash = SplitMix64.mix64(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+            estimate = Math.min(estimate, counters[offset + ((h1 + row * h2) & (width - 1))]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds another sketch's counts to this one (the sketches must have the same dimensions)
+     */
+    void merge(TopKSketch other) {
+        if (other.width != width || other.depth != depth || other.capacity != capacity)
+            throw new IllegalArgumentException("can't merge sketches with different dimensions");
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+
+        // our heavy hitters' estimates can only have gone up, but not all by the same amount
+        for (int i = 0; i < size; i++) {
+            heapCounts[i] = estimate(heapKeys[i]);
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        for (int i = 0; i < other.size; i++) {
+            offer(other.heapKeys[i], other.heapNames[i], estimate(other.heapKeys[i]));
+        }
+    }
+
+    /**
+     * @return whether the key is a heavy hitter
+     */
+    boolean contains(long key) {
+        return indexPositions[find(key)] != 0;
+    }
+
+    /**
+     * @return the total count of all keys
+     */
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return how much higher than the true count an estimate may be (with probability 1 - e^-depth)
+     */
+    long getMaxOvercount() {
+        return (long) Math.ceil(epsilon(width) * total);
+    }
+
+    /**
+     * @return up to count heavy hitters, highest estimate first (ties in key order)
+     */
+    List<Entry> top(int count) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> heapCounts[a] != heapCounts[b]
+                ? Long.compare(heapCounts[b], heapCounts[a]) : Long.compare(heapKeys[a], heapKeys[b]));
+        List<Entry> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, size); i++) {
+            top.add(new Entry(heapKeys[order[i]], heapNames[order[i]], heapCounts[order[i]]));
+        }
+        return top;
+    }
+
+    /**
+     * Writes the sketch for a snapshot: its dimensions, the counters (as varints, so empty ones take a byte) and the
+     * heavy hitters in heap order.
+     */
+    void writeTo(StateBuffer out) {
+        out.putVarLong(width);
+        out.putVarLong(depth);
+        out.putVarLong(capacity);
+        out.putVarLong(total);
+        for (long counter : counters) {
+            out.putVarLong(counter);
+        }
+        out.putVarLong(size);
+        for (int i = 0; i < size; i++) {
+            out.putLong(heapKeys[i]);
+            out.putVarLong(heapCounts[i]);
+            out.putString(heapNames[i]);
+        }
+    }
+
+    /**
+     * Reads what {@link #writeTo(StateBuffer)} wrote into this (empty) sketch, which must have the same dimensions
+     */
+    void readFrom(ByteBuffer in) {
+        int width = StateBuffer.getVarInt(in), depth = StateBuffer.getVarInt(in), capacity = StateBuffer.getVarInt(in);
+        if (width != this.width || depth != this.depth || capacity != this.capacity)
+            throw new IllegalArgumentException("snapshot sketch is " + width + "x" + depth + " with " + capacity
+                    + " heavy hitters, not " + this.width + "x" + this.depth + " with " + this.capacity);
+        total = StateBuffer.getVarLong(in);
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = StateBuffer.getVarLong(in);
+        }
+        size = StateBuffer.getVarInt(in);
+        for (int i = 0; i < size; i++) {
+            set(i, in.getLong(), null, StateBuffer.getVarLong(in));
+            heapNames[i] = StateBuffer.getString(in);
+            int slot = find(heapKeys[i]);
+            indexKeys[slot] = heapKeys[i];
+            indexPositions[slot] = i + 1;
+        }
+    }
+
+    private void offer(long key, String name, long estimate) {
+        int slot = find(key);
+        if (indexPositions[slot] != 0) {
+            int position = indexPositions[slot] - 1;
+            heapCounts[position] = estimate; // estimates only go up, so it can only move down
+            siftDown(position);
+        } else if (size < capacity) {
+            int position = size++;
+            set(position, key, name, estimate);
+            indexKeys[slot] = key;
+            indexPositions[slot] = position + 1;
+            siftUp(position);
+        } else if (estimate > heapCounts[0]) {
+            // replace the smallest heavy hitter
+            long evicted = heapKeys[0];
+            remove(evicted);
+            slot = find(key); // removing may have moved keys in the index
+            set(0, key, name, estimate);
+            indexKeys[slot] = key;
+            indexPositions[slot] = 1;
+            siftDown(0);
+            if (evictionListener != null) evictionListener.accept(evicted);
+        }
+    }
+
+    // the index slot of the key, or the empty slot where it would go
+    private int find(long key) {
+        int slot = (int) SplitMix64.mix64(key ^ 0x5bd1e995L) & indexMask;
+        while (indexPositions[slot] != 0 && indexKeys[slot] != key) {
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    // removes a key from the index, shifting later keys in its probe sequence back so they can still be found
+    private void remove(long key) {
+        int slot = find(key);
+        indexPositions[slot] = 0;
+        for (int next = (slot + 1) & indexMask; indexPositions[next] != 0; next = (next + 1) & indexMask) {
+            int home = (int) SplitMix64.mix64(indexKeys[next] ^ 0x5bd1e995L) & indexMask;
+            // move it back unless its home is cyclically in (slot, next]
+            if (((next - home) & indexMask) >= ((next - slot) & indexMask)) {
+                indexKeys[slot] = indexKeys[next];
+                indexPositions[slot] = indexPositions[next];
+                indexPositions[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heapCounts[parent] <= heapCounts[position]) break;
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = position * 2 + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heapCounts[child + 1] < heapCounts[child]) child++;
+            if (heapCounts[position] <= heapCounts[child]) break;
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long key = heapKeys[a], count = heapCounts[a];
+        String name = heapNames[a];
+        set(a, heapKeys[b], heapNames[b], heapCounts[b]);
+        set(b, key, name, count);
+        indexPositions[find(heapKeys[a])] = a + 1;
+        indexPositions[find(heapKeys[b])] = b + 1;
+    }
+
+    private void set(int position, long key, String name, long count) {
+        heapKeys[position] = key;
+        heapNames[position] = name;
+        heapCounts[position] = count;
+    }
+
+    static final class Entry {
+        final long key;
+        final String name;
+        final long count;
+
+        Entry(long key, String name, long count) {
+            this.key = key;
+            this.name = name;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free UTF-8 encoding of strings directly into a ByteBuffer (String.getBytes() allocates an array per call)
+ */
+final class Utf8 {
+    /**
+     * @return the number of bytes needed to encode the value as UTF-8
+     */
+    static int encodedLength(CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (!Character.isSurrogate(c)) length += 3;
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else length += 1; // encoded as '?'
+        }
+        return length;
+    }
+
+    static void encode(CharSequence value, ByteBuffer buffer) {
+        for (int i = 0; i < value.length(); i++) {
+            encodeChar(value, i, buffer);
+            if (Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+                i++;
+        }
+    }
+
+    /**
+     * Encodes the character at the given index (along with the following low surrogate, if it starts a pair). Unpaired
+     * surrogates are encoded as '?', like String.getBytes() does.
+     */
+    static void encodeChar(CharSequence value, int index, ByteBuffer buffer) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) '?');
+            }
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private Utf8() {
+    }
+}
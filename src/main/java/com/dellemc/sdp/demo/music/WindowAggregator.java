@@ -0,0 +1,202 @@
+package com.dellemc.sdp.demo.music;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+
+/**
+ * Tumbling or sliding windows over event time, built from panes. Event time is cut into slide-length panes, readers
+ * aggregate events into the pane they fall in (see {@link PaneStats}), and each window is the merge of the size / slide
+ * panes it covers, so an event is aggregated once no matter how many windows it is in. With size == slide the windows
+ * are tumbling.
+ * <p>
+ * Windows end at multiples of the slide. A window [end - size, end) fires once the watermark reaches its end, and its
+ * panes are kept for the allowed lateness after that: events that arrive in the meantime are added, and the window
+ * fires again with the updated result ({@link WindowStats#isUpdate()}). Once the watermark passes the end of every
+ * window a pane is in, plus the allowed lateness, the pane is freed and events for it are dropped as late. Not thread
+ * safe.
+ */
+final class WindowAggregator {
+    private final long sizeMS;
+    private final long slideMS;
+    private final long allowedLatenessMS;
+    private final int topCount;
+    private final LongFunction<PaneStats> newPane;
+    private final TreeMap<Long, PaneStats> panes = new TreeMap<>();
+    private final TreeSet<Long> updated = new TreeSet<>(); // ends of fired windows that late events were added to
+    private final TreeSet<Long> changed = new TreeSet<>(); // panes added to since the last snapshot
+    private long watermark = Long.MIN_VALUE;
+    private long firedEnd = Long.MIN_VALUE; // end of the last window fired
+    private long lateEventCount;
+
+    WindowAggregator(long sizeMS, long slideMS, int topCount, LongFunction<PaneStats> newPane) {
+        this(sizeMS, slideMS, 0, topCount, newPane);
+    }
+
+    WindowAggregator(long sizeMS, long slideMS, long allowedLatenessMS, int topCount, LongFunction<PaneStats> newPane) {
+        if (slideMS <= 0) throw new IllegalArgumentException("window slide must be positive");
+        if (sizeMS < slideMS || sizeMS % slideMS != 0)
+            throw new IllegalArgumentException("window size must be a multiple of the slide");
+        if (allowedLatenessMS < 0) throw new IllegalArgumentException("allowed lateness cannot be negative");
+        this.sizeMS = sizeMS;
+        this.slideMS = slideMS;
+        this.allowedLatenessMS = allowedLatenessMS;
+        this.topCount = topCount;
+        this.newPane = newPane;
+    }
+
+    static long paneStart(long time, long slideMS) {
+        return Math.floorDiv(time, slideMS) * slideMS;
+    }
+
+    /**
+     * @return true if an event at the given time is too late for any window, once the watermark has reached the given
+     * time (every window it is in has been fired and is past the allowed lateness)
+     */
+    static boolean isLate(long time, long watermark, long sizeMS, long slideMS, long allowedLatenessMS) {
+        return watermark != Long.MIN_VALUE && paneStart(time, slideMS) + sizeMS + allowedLatenessMS <= watermark;
+    }
+
+    /**
+     * Merges (partial) statistics for a pane into the pane.
+     *
+     * @return false if every window the pane is in is past the allowed lateness (its events are dropped as late)
+     */
+    boolean add(PaneStats pane) {
+        if (isLate(pane.start, watermark, sizeMS, slideMS, allowedLatenessMS)) {
+            lateEventCount += pane.eventCount;
+            return false;
+        }
+        PaneStats existing = panes.get(pane.start);
+        if (existing == null) panes.put(pane.start, pane);
+        else existing.merge(pane);
+        changed.add(pane.start);
+
+        // windows that have already fired fire again (if they are still within the allowed lateness)
+        for (long end = pane.start + slideMS; end <= pane.start + sizeMS && end <= firedEnd; end += slideMS) {
+            if (end + allowedLatenessMS > watermark) updated.add(end);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the watermark forward: fires every window with events that ends at or before it, fires again the windows
+     * that late events have been added to, and frees the panes that are past the allowed lateness.
+     *
+     * @return the windows fired, updates first, each in order
+     */
+    List<WindowStats> advanceTo(long watermark) {
+        List<WindowStats> fired = new ArrayList<>();
+        if (watermark <= this.watermark) watermark = this.watermark;
+        this.watermark = watermark;
+
+        for (long end : updated) {
+            fired.add(window(end, true));
+        }
+        updated.clear();
+
+        while (true) {
+            // the next window with any events in it
+            long end = firedEnd == Long.MIN_VALUE ? Long.MIN_VALUE : firedEnd + slideMS;
+            Long next = end == Long.MIN_VALUE ? (panes.isEmpty() ? null : panes.firstKey()) : panes.ceilingKey(end - sizeMS);
+            if (next == null) break;
+            end = end == Long.MIN_VALUE ? next + slideMS : Math.max(end, next + slideMS);
+            if (end > watermark) break;
+            fired.add(window(end, false));
+            firedEnd = end;
+        }
+
+        // the panes whose windows are all past the allowed lateness
+        if (watermark != Long.MIN_VALUE) panes.headMap(watermark - allowedLatenessMS - sizeMS, true).clear();
+        return fired;
+    }
+
+    /**
+     * Writes the state for a snapshot: where the watermark and windows are, and the panes (all of them, or only those
+     * added to since the last snapshot, along with which panes are kept so the others can be dropped)
+     */
+    void writeTo(StateBuffer out, boolean full) {
+        out.putLong(watermark);
+        out.putLong(firedEnd);
+        out.putVarLong(lateEventCount);
+        out.putVarLong(updated.size());
+        for (long end : updated) {
+            out.putLong(end);
+        }
+        out.putVarLong(panes.size());
+        for (long start : panes.keySet()) {
+            out.putLong(start);
+        }
+        List<PaneStats> written = new ArrayList<>();
+        for (PaneStats pane : panes.values()) {
+            if (full || changed.contains(pane.start)) written.add(pane);
+        }
+        out.putVarLong(written.size());
+        for (PaneStats pane : written) {
+            pane.writeTo(out);
+        }
+        changed.clear();
+    }
+
+    /**
+     * Applies a snapshot written by {@link #writeTo(StateBuffer, boolean)}: a full snapshot to an empty aggregator,
+     * then the snapshots of changes after it, in order
+     */
+    void restore(ByteBuffer in) {
+        watermark = in.getLong();
+        firedEnd = in.getLong();
+        lateEventCount = StateBuffer.getVarLong(in);
+        updated.clear();
+        for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+            updated.add(in.getLong());
+        }
+        Set<Long> kept = new HashSet<>();
+        for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+            kept.add(in.getLong());
+        }
+        panes.keySet().retainAll(kept);
+        for (int i = StateBuffer.getVarInt(in); i > 0; i--) {
+            PaneStats pane = PaneStats.readFrom(in, newPane);
+            panes.put(pane.start, pane);
+        }
+        if (panes.size() != kept.size()) throw new IllegalArgumentException("snapshot is missing panes");
+    }
+
+    private WindowStats window(long end, boolean update) {
+        long start = end - sizeMS;
+        PaneStats window = newPane.apply(start);
+        for (PaneStats pane : panes.subMap(start, end).values()) {
+            window.merge(pane);
+        }
+        return WindowStats.of(start, end, window, topCount, update);
+    }
+
+    long getSizeMS() {
+        return sizeMS;
+    }
+
+    long getSlideMS() {
+        return slideMS;
+    }
+
+    long getAllowedLatenessMS() {
+        return allowedLatenessMS;
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    int getPaneCount() {
+        return panes.size();
+    }
+
+    long getLateEventCount() {
+        return lateEventCount;
+    }
+}
@@ -0,0 +1,243 @@
+package com.dellemc.sdp.demo.music;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics of one closed window of event time [start, end). Immutable.
+ * <p>
+ * Play counts of the top songs, artists and playlists are estimates (see {@link TopKSketch}): they are never too low,
+ * and are too high by at most {@link #getMaxOvercount()} (with the probability given by the sketch depth). Player and
+ * listener counts are estimates too (see {@link HyperLogLog}), with a standard error of {@link #getListenerError()}.
+ */
+public final class WindowStats {
+    private final long start;
+    private final long end;
+    private final long eventCount;
+    private final long[] typeCounts;
+    private final long playerCount;
+    private final Map<SubscriptionLevel, Long> levelPlayerCounts;
+    private final List<Count> topSongs;
+    private final List<Count> topArtists;
+    private final List<Count> topPlaylists;
+    private final long maxOvercount;
+    private final double listenerError;
+    private final long sessionCount;
+    private final long sessionMS;
+    private final long sessionSongCount;
+    private final boolean update;
+
+    WindowStats(long start, long end, long eventCount, long[] typeCounts, long playerCount,
+                Map<SubscriptionLevel, Long> levelPlayerCounts, List<Count> topSongs, List<Count> topArtists,
+                List<Count> topPlaylists, long maxOvercount, double listenerError, long sessionCount, long sessionMS,
+                long sessionSongCount, boolean update) {
+        this.start = start;
+        this.end = end;
+        this.eventCount = eventCount;
+        this.typeCounts = typeCounts.clone();
+        this.playerCount = playerCount;
+        this.levelPlayerCounts = Collections.unmodifiableMap(new EnumMap<>(levelPlayerCounts));
+        this.topSongs = Collections.unmodifiableList(topSongs);
+        this.topArtists = Collections.unmodifiableList(topArtists);
+        this.topPlaylists = Collections.unmodifiableList(topPlaylists);
+        this.maxOvercount = maxOvercount;
+        this.listenerError = listenerError;
+        this.sessionCount = sessionCount;
+        this.sessionMS = sessionMS;
+        this.sessionSongCount = sessionSongCount;
+        this.update = update;
+    }
+
+    static WindowStats of(long start, long end, PaneStats stats, int topCount) {
+        return of(start, end, stats, topCount, false);
+    }
+
+    static WindowStats of(long start, long end, PaneStats stats, int topCount, boolean update) {
+        Map<SubscriptionLevel, Long> levelPlayerCounts = new EnumMap<>(SubscriptionLevel.class);
+        for (SubscriptionLevel level : SubscriptionLevel.values()) {
+            levelPlayerCounts.put(level, stats.levelPlayers[level.ordinal()].estimate());
+        }
+        List<Count> topSongs = new ArrayList<>(), topArtists = new ArrayList<>(), topPlaylists = new ArrayList<>();
+        for (TopKSketch.Entry entry : stats.songPlays.top(topCount)) {
+            int id = (int) entry.key;
+            topSongs.add(new Count(id, SongList.getSong(id), entry.count, PaneStats.listenerCount(stats.songListeners, id)));
+        }
+        for (TopKSketch.Entry entry : stats.artistPlays.top(topCount)) {
+            int id = (int) entry.key;
+            topArtists.add(new Count(id, SongList.getArtist(id), entry.count, PaneStats.listenerCount(stats.artistListeners, id)));
+        }
+        for (TopKSketch.Entry entry : stats.playlistPlays.top(topCount)) {
+            topPlaylists.add(new Count(-1, entry.name, entry.count, -1));
+        }
+        return new WindowStats(start, end, stats.eventCount, stats.typeCounts, stats.players.estimate(), levelPlayerCounts,
+                topSongs, topArtists, topPlaylists, stats.songPlays.getMaxOvercount(),
+                HyperLogLog.standardError(stats.hllPrecision), stats.sessionCount, stats.sessionMS, stats.sessionSongCount,
+                update);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getCount(SongEventType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    /**
+     * @return the number of songs started (Next, Skip and Select events)
+     */
+    public long getPlayCount() {
+        return getCount(SongEventType.Next) + getCount(SongEventType.Skip) + getCount(SongEventType.Select);
+    }
+
+    /**
+     * @return the fraction of plays that were skips
+     */
+    public double getSkipRate() {
+        long plays = getPlayCount();
+        return plays == 0 ? 0 : (double) getCount(SongEventType.Skip) / plays;
+    }
+
+    /**
+     * @return the number of distinct players with events in the window
+     */
+    public long getPlayerCount() {
+        return playerCount;
+    }
+
+    /**
+     * @return the number of distinct players with events at the given subscription level in the window
+     */
+    public long getPlayerCount(SubscriptionLevel level) {
+        return levelPlayerCounts.get(level);
+    }
+
+    public List<Count> getTopSongs() {
+        return topSongs;
+    }
+
+    public List<Count> getTopArtists() {
+        return topArtists;
+    }
+
+    public List<Count> getTopPlaylists() {
+        return topPlaylists;
+    }
+
+    /**
+     * @return how much higher than the true count the play counts of the top songs, artists and playlists may be
+     */
+    public long getMaxOvercount() {
+        return maxOvercount;
+    }
+
+    /**
+     * @return the standard error of the player and listener counts, relative to the count
+     */
+    public double getListenerError() {
+        return listenerError;
+    }
+
+    /**
+     * @return the number of listening sessions whose session gap ran out in the window
+     */
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * @return the mean duration of the sessions that ended in the window
+     */
+    public double getMeanSessionMS() {
+        return sessionCount == 0 ? 0 : (double) sessionMS / sessionCount;
+    }
+
+    /**
+     * @return the mean number of songs played in the sessions that ended in the window
+     */
+    public double getMeanSessionSongs() {
+        return sessionCount == 0 ? 0 : (double) sessionSongCount / sessionCount;
+    }
+
+    /**
+     * @return true if this replaces an earlier result for the same window, because late events were added to it
+     */
+    public boolean isUpdate() {
+        return update;
+    }
+
+    @Override
+    public String toString() {
+        return "WindowStats{" +
+                "start=" + Instant.ofEpochMilli(start) +
+                ", end=" + Instant.ofEpochMilli(end) +
+                (update ? ", update=true" : "") +
+                ", eventCount=" + eventCount +
+                ", playCount=" + getPlayCount() +
+                ", skipRate=" + String.format("%.3f", getSkipRate()) +
+                ", playerCount=" + playerCount +
+                ", levelPlayerCounts=" + levelPlayerCounts +
+                ", topSongs=" + topSongs +
+                ", topArtists=" + topArtists +
+                ", topPlaylists=" + topPlaylists +
+                ", maxOvercount=" + maxOvercount +
+                ", sessionCount=" + sessionCount +
+                ", meanSessionMS=" + String.format("%.0f", getMeanSessionMS()) +
+                ", meanSessionSongs=" + String.format("%.1f", getMeanSessionSongs()) +
+                '}';
+    }
+
+    /**
+     * The number of plays of a song, artist or playlist (playlists have no ID), and the number of distinct players that
+     * played it (not counted for playlists)
+     */
+    public static final class Count {
+        private final int id;
+        private final String name;
+        private final long count;
+        private final long listeners;
+
+        Count(int id, String name, long count, long listeners) {
+            this.id = id;
+            this.name = name;
+            this.count = count;
+            this.listeners = listeners;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of distinct players, or -1 if not counted
+         */
+        public long getListeners() {
+            return listeners;
+        }
+
+        @Override
+        public String toString() {
+            return listeners < 0 ? name + "=" + count : name + "=" + count + "/" + listeners;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AliasSamplerTest {
+    @Test
+    public void testDistribution() {
+        double[] weights = {1, 2, 3, 4, 0, 10};
+        assertFrequencies(weights, new AliasSampler(weights));
+    }
+
+    @Test
+    public void testZipf() {
+        double[] weights = AliasSampler.zipfWeights(1000, 1.2);
+        assertEquals(1.0, weights[0]);
+        assertEquals(1 / Math.pow(2, 1.2), weights[1], 1e-12);
+        assertFrequencies(weights, new AliasSampler(weights));
+    }
+
+    @Test
+    public void testInvalidWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{1, -1}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler(new double[]{1, Double.NaN}));
+    }
+
+    // each index should be sampled in proportion to its weight (within a few standard deviations)
+    private void assertFrequencies(double[] weights, AliasSampler sampler) {
+        SplitMix64 random = new SplitMix64(1);
+        int samples = 2000000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < samples; i++) {
+            counts[sampler.sample(random)]++;
+        }
+
+        double sum = 0;
+        for (double weight : weights) sum += weight;
+        for (int i = 0; i < weights.length; i++) {
+            double p = weights[i] / sum;
+            double expected = samples * p;
+            double tolerance = 5 * Math.sqrt(samples * p * (1 - p)) + 1;
+            assertEquals(expected, counts[i], tolerance, "count for index " + i);
+        }
+    }
+}
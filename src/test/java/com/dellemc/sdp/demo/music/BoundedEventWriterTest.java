@@ -0,0 +1,60 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedEventWriterTest {
+    @Test
+    public void testBackpressure() throws Exception {
+        // a sink that only acknowledges events when we tell it to
+        Queue<CompletableFuture<Void>> pending = new ConcurrentLinkedQueue<>();
+        SongEventGenerator.EventWriter sink = new SongEventGenerator.EventWriter() {
+            @Override
+            public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                pending.add(future);
+                return future;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        BoundedEventWriter writer = new BoundedEventWriter(sink, 3);
+        for (int i = 0; i < 3; i++) {
+            writer.writeEvent("key", ByteBuffer.wrap(("event " + i).getBytes()));
+        }
+        assertEquals(3, writer.getInFlightCount());
+
+        // the next write should block until an event is acknowledged
+        CountDownLatch written = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            writer.writeEvent("key", ByteBuffer.wrap("event 3".getBytes()));
+            written.countDown();
+        });
+        thread.start();
+        assertFalse(written.await(500, TimeUnit.MILLISECONDS));
+
+        pending.poll().complete(null);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(3, writer.getInFlightCount());
+
+        // failures also free up the window
+        pending.poll().completeExceptionally(new RuntimeException("simulated failure"));
+        assertEquals(2, writer.getInFlightCount());
+
+        CompletableFuture<Void> future;
+        while ((future = pending.poll()) != null) future.complete(null);
+        assertEquals(0, writer.getInFlightCount());
+        writer.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmissionSchedulerTest {
+    @Test
+    public void testOrdering() {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] times = new long[10000];
+        EmissionScheduler scheduler = new EmissionScheduler(16); // force the heap to grow
+        for (int i = 0; i < times.length; i++) {
+            times[i] = random.nextLong(1_000_000_000L);
+            scheduler.add(i, times[i]);
+        }
+        assertEquals(times.length, scheduler.size());
+
+        long lastTime = Long.MIN_VALUE;
+        while (!scheduler.isEmpty()) {
+            long time = scheduler.peekTime();
+            int slot = scheduler.poll();
+            assertEquals(times[slot], time);
+            assertTrue(time >= lastTime);
+            lastTime = time;
+        }
+        assertEquals(-1, scheduler.poll());
+        assertEquals(Long.MAX_VALUE, scheduler.peekTime());
+    }
+
+    @Test
+    public void testReschedule() {
+        // simulate the generator loop: pop the next due player, then put it back at a later time
+        EmissionScheduler scheduler = new EmissionScheduler(3);
+        scheduler.add(0, 300);
+        scheduler.add(1, 100);
+        scheduler.add(2, 200);
+
+        assertEquals(1, scheduler.poll());
+        scheduler.add(1, 250);
+        assertEquals(2, scheduler.poll());
+        assertEquals(1, scheduler.peekSlot());
+        assertEquals(250, scheduler.peekTime());
+        assertEquals(1, scheduler.poll());
+        assertEquals(0, scheduler.poll());
+        assertTrue(scheduler.isEmpty());
+    }
+}
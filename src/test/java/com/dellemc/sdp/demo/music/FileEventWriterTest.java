@@ -0,0 +1,110 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileEventWriterTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            Path directory = Files.createTempDirectory("events");
+            try {
+                // small buffers and segments, so events span many blocks and files
+                long before = System.currentTimeMillis();
+                try (FileEventWriter writer = new FileEventWriter(directory, 16 * 1024, 1024, compress)) {
+                    for (int i = 0; i < 10000; i++) {
+                        assertTrue(writer.writeEvent("" + i % 100, body(i)).isDone());
+                    }
+                    // an event bigger than the buffer gets a block of its own
+                    writer.writeEvent("big", ByteBuffer.allocate(5000));
+                }
+
+                List<List<Path>> series = FileEventReader.findSeries(directory);
+                assertEquals(1, series.size());
+                assertTrue(series.get(0).size() > 1);
+                for (Path file : series.get(0)) {
+                    assertTrue(Files.size(file) <= 16 * 1024 || Files.size(file) > 5000);
+                }
+                try (FileEventReader reader = new FileEventReader(series.get(0))) {
+                    for (int i = 0; i < 10000; i++) {
+                        assertTrue(reader.next());
+                        assertEquals("" + i % 100, reader.getRoutingKey());
+                        assertEquals(body(i), reader.getBody());
+                        assertTrue(reader.getTime() >= before && reader.getTime() <= System.currentTimeMillis());
+                    }
+                    assertTrue(reader.next());
+                    assertEquals(5000, reader.getBody().remaining());
+                    assertFalse(reader.next());
+                }
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    @Test
+    public void testWriters() throws Exception {
+        Path directory = Files.createTempDirectory("events");
+        try {
+            // each writer claims its own series of files
+            try (FileEventWriter first = new FileEventWriter(directory, 1024 * 1024, 1024, false);
+                 FileEventWriter second = new FileEventWriter(directory, 1024 * 1024, 1024, false);
+                 FileEventWriter idle = new FileEventWriter(directory, 1024 * 1024, 1024, false)) {
+                assertNotEquals(first.getWriterNumber(), second.getWriterNumber());
+                assertNotEquals(first.getWriterNumber(), idle.getWriterNumber());
+                assertNotEquals(second.getWriterNumber(), idle.getWriterNumber());
+                for (int i = 0; i < 100; i++) {
+                    first.writeEvent("1", body(i));
+                    second.writeEvent("2", body(-i));
+                }
+            }
+            List<List<Path>> series = FileEventReader.findSeries(directory);
+            assertEquals(2, series.size());
+            assertEquals(2, directory.toFile().listFiles().length); // the idle writer leaves no file behind
+
+            // a block cut short (i.e. the writer was killed) ends the file
+            Path file = series.get(1).get(0);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 10);
+            }
+            try (FileEventReader reader = new FileEventReader(series.get(1))) {
+                int count = 0;
+                while (reader.next()) {
+                    assertEquals("2", reader.getRoutingKey());
+                    count++;
+                }
+                assertTrue(count > 0 && count < 100);
+            }
+
+            Files.write(file, "not events".getBytes(StandardCharsets.UTF_8));
+            try (FileEventReader reader = new FileEventReader(series.get(1))) {
+                assertThrows(IOException.class, reader::next);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static ByteBuffer body(int i) {
+        return ByteBuffer.wrap(("event " + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+}
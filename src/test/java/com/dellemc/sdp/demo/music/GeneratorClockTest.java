@@ -0,0 +1,44 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneratorClockTest {
+    @Test
+    public void testUnlimitedSpeed() throws Exception {
+        GeneratorClock clock = new GeneratorClock.SimulatedClock(1000, 0);
+        assertEquals(1000, clock.now());
+
+        // time jumps straight to whatever we wait for, without really waiting
+        long start = System.nanoTime();
+        clock.sleepUntil(86400000, 100);
+        assertEquals(86400000, clock.now());
+        assertTrue(System.nanoTime() - start < 50000000);
+
+        // and never goes backwards
+        clock.sleepUntil(5000, 100);
+        assertEquals(86400000, clock.now());
+    }
+
+    @Test
+    public void testSpeedUp() throws Exception {
+        GeneratorClock clock = new GeneratorClock.SimulatedClock(0, 1000);
+        long start = System.nanoTime();
+        clock.sleepUntil(50000, 1000); // 50 seconds at 1000x = 50ms
+        long realMS = (System.nanoTime() - start) / 1000000;
+        assertTrue(clock.now() >= 50000);
+        assertTrue(realMS >= 45 && realMS < 1000, "slept " + realMS + "ms");
+
+        // real sleeps are capped
+        start = System.nanoTime();
+        clock.sleepUntil(clock.now() + 1000000, 20);
+        assertTrue((System.nanoTime() - start) / 1000000 < 500);
+    }
+
+    @Test
+    public void testInvalidSpeed() {
+        assertThrows(IllegalArgumentException.class, () -> new GeneratorClock.SimulatedClock(0, -1));
+        assertThrows(IllegalArgumentException.class, () -> new GeneratorClock.SimulatedClock(0, Double.NaN));
+    }
+}
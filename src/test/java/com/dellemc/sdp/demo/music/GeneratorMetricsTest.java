@@ -0,0 +1,117 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneratorMetricsTest {
+    @Test
+    public void testMeteredWriter() {
+        GeneratorMetrics metrics = new GeneratorMetrics("test");
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        CompletableFuture<Void> failing = new CompletableFuture<>();
+        SongEventGenerator.EventWriter sink = new SongEventGenerator.EventWriter() {
+            int count;
+
+            @Override
+            public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+                switch (count++) {
+                    case 0:
+                        return pending;
+                    case 1:
+                        return failing;
+                    default:
+                        return CompletableFuture.completedFuture(null);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        MeteredEventWriter writer = new MeteredEventWriter(sink, metrics);
+        for (int i = 0; i < 5; i++) {
+            writer.writeEvent("key", ByteBuffer.wrap(new byte[100]));
+        }
+        assertEquals(3, metrics.events.sum());
+        assertEquals(300, metrics.bytes.sum());
+        assertEquals(2, metrics.inFlight.sum());
+        assertEquals(3, metrics.writeLatency.snapshot().getCount());
+
+        pending.complete(null);
+        failing.completeExceptionally(new RuntimeException("oops"));
+        assertEquals(4, metrics.events.sum());
+        assertEquals(400, metrics.bytes.sum());
+        assertEquals(1, metrics.failures.sum());
+        assertEquals(0, metrics.inFlight.sum());
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        GeneratorMetrics metrics = new GeneratorMetrics("pravega");
+        metrics.events.add(42);
+        metrics.writeLatency.record(500); // 0.5ms
+        metrics.writeLatency.record(20000); // 20ms
+        metrics.emissionLag.record(3);
+        metrics.registerGauge("generator_sink_queue_depth", "Events queued in the sink", () -> 7);
+        metrics.registerGauge("generator_sink_queue_depth", "Events queued in the sink", () -> 5);
+
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("# TYPE generator_events_total counter\ngenerator_events_total{sink=\"pravega\"} 42\n"));
+        assertTrue(text.contains("# TYPE generator_write_latency_seconds histogram\n"));
+        assertTrue(text.contains("generator_write_latency_seconds_bucket{sink=\"pravega\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("generator_write_latency_seconds_bucket{sink=\"pravega\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("generator_write_latency_seconds_bucket{sink=\"pravega\",le=\"0.025\"} 2\n"));
+        assertTrue(text.contains("generator_write_latency_seconds_bucket{sink=\"pravega\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("generator_write_latency_seconds_count{sink=\"pravega\"} 2\n"));
+        assertTrue(text.contains("generator_emission_lag_seconds_bucket{le=\"0.005\"} 1\n"));
+        assertTrue(text.contains("generator_emission_lag_seconds_count 1\n"));
+        // gauges registered under the same name are added up
+        assertTrue(text.contains("generator_sink_queue_depth{sink=\"pravega\"} 12\n"));
+
+        // every line is a comment or a sample
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# HELP ") || line.startsWith("# TYPE ") || line.matches("[a-z_]+(\\{.*\\})? [0-9.E-]+"), line);
+        }
+    }
+
+    @Test
+    public void testSummary() {
+        GeneratorMetrics metrics = new GeneratorMetrics("kinesis");
+        GeneratorMetrics.Totals start = metrics.new Totals(0);
+        metrics.events.add(5000);
+        metrics.bytes.add(1024 * 1000);
+        metrics.writeLatency.record(2000);
+        String summary = metrics.summarize(metrics.new Totals(10000), start);
+        assertTrue(summary.startsWith("kinesis: 500.0 events/s, 100.0 KB/s, 0 failed, 0 in flight"), summary);
+        assertTrue(summary.contains("write latency ms p50 2.0"), summary);
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        try (GeneratorMetrics metrics = new GeneratorMetrics("pravega")) {
+            metrics.events.add(3);
+            metrics.startServer(0);
+            assertTrue(metrics.getPort() > 0);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + metrics.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) > 0; ) body.write(buffer, 0, n);
+            }
+            assertTrue(new String(body.toByteArray(), StandardCharsets.UTF_8).contains("generator_events_total{sink=\"pravega\"} 3\n"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HyperLogLogTest {
+    @Test
+    public void testSmallCounts() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 3; i++) {
+            sketch.add(42); // duplicates don't count
+        }
+        assertEquals(1, sketch.estimate());
+        for (long player = 1; player <= 100; player++) {
+            sketch.add(player);
+        }
+        assertTrue(Math.abs(sketch.estimate() - 100) <= 2, "estimated " + sketch.estimate());
+    }
+
+    @Test
+    public void testAccuracy() {
+        // within 3 standard errors, through the switch from sparse to dense registers and at large counts
+        for (int precision : new int[]{10, 12, 14}) {
+            HyperLogLog sketch = new HyperLogLog(precision);
+            double error = HyperLogLog.standardError(precision);
+            long count = 0;
+            for (long target : new long[]{300, 5000, 100000, 1000000}) {
+                for (; count < target; count++) {
+                    sketch.add(count * 7919 + 1);
+                }
+                long estimate = sketch.estimate();
+                assertTrue(Math.abs(estimate - count) <= 3 * error * count,
+                        "precision " + precision + " estimated " + estimate + " for " + count);
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        // overlapping sketches merge into the sketch of the union, whichever form each one is in
+        HyperLogLog union = new HyperLogLog(12), small = new HyperLogLog(12), large = new HyperLogLog(12);
+        for (long player = 0; player < 50; player++) {
+            small.add(player);
+            union.add(player);
+        }
+        for (long player = 25; player < 20000; player++) {
+            large.add(player);
+            union.add(player);
+        }
+        HyperLogLog merged = new HyperLogLog(12);
+        merged.merge(small);
+        assertEquals(small.estimate(), merged.estimate());
+        merged.merge(large);
+        assertEquals(union.estimate(), merged.estimate());
+
+        small.merge(large); // sparse merging dense
+        assertEquals(union.estimate(), small.estimate());
+
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new HyperLogLog(10)));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    @Test
+    public void testSnapshot() {
+        // sparse and dense sketches come back the same, and carry on the same
+        for (int count : new int[]{0, 40, 5000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            for (long player = 0; player < count; player++) {
+                sketch.add(player);
+            }
+            StateBuffer out = new StateBuffer(16);
+            sketch.writeTo(out);
+            HyperLogLog restored = new HyperLogLog(12);
+            restored.readFrom(out.contents());
+            assertEquals(sketch.estimate(), restored.estimate());
+            for (long player = count; player < count + 100; player++) {
+                sketch.add(player);
+                restored.add(player);
+            }
+            assertEquals(sketch.estimate(), restored.estimate());
+            assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(10).readFrom(out.contents()));
+        }
+    }
+}
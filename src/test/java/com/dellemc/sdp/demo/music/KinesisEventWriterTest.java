@@ -0,0 +1,192 @@
+package com.dellemc.sdp.demo.music;
+
+import com.amazonaws.SDKGlobalConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.kinesis.AbstractAmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KinesisEventWriterTest {
+    private static final int KEY_COUNT = 100;
+    private static final int EVENT_COUNT = 2000;
+
+    @Test
+    public void testBatchingAndRetries() throws Exception {
+        FlakyKinesis kinesis = new FlakyKinesis(10); // throttle 10% of records
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream("test-stream");
+        config.setKinesisLingerMS(5);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (KinesisEventWriter writer = new KinesisEventWriter(config, kinesis)) {
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                futures.add(writer.writeEvent("" + (i % KEY_COUNT), ByteBuffer.wrap(("" + (i / KEY_COUNT)).getBytes(StandardCharsets.UTF_8))));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        }
+
+        assertTrue(kinesis.throttledCount > 0);
+        assertTrue(kinesis.batchCount < EVENT_COUNT / 10); // make sure we're actually batching
+        // every key should have received its events exactly once and in order
+        assertEquals(KEY_COUNT, kinesis.written.size());
+        for (List<Integer> values : kinesis.written.values()) {
+            assertEquals(EVENT_COUNT / KEY_COUNT, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(i, values.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchLimits() {
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream("test-stream");
+        // don't let the sender thread interfere - stop it and build batches by hand
+        KinesisEventWriter writer = new KinesisEventWriter(config, new FlakyKinesis(0));
+        writer.close();
+
+        List<KinesisEventWriter.Record> backlog = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            backlog.add(new KinesisEventWriter.Record("" + (i % 600), ByteBuffer.allocate(10)));
+        }
+        setBacklog(writer, backlog);
+        // 500 records max, and only one per key
+        List<KinesisEventWriter.Record> batch = writer.nextBatch();
+        assertEquals(KinesisEventWriter.MAX_BATCH_RECORDS, batch.size());
+        assertEquals(batch.size(), new HashSet<>(keys(batch)).size());
+        batch = writer.nextBatch();
+        assertEquals(batch.size(), new HashSet<>(keys(batch)).size());
+
+        // 5MB max
+        backlog.clear();
+        for (int i = 0; i < 10; i++) {
+            backlog.add(new KinesisEventWriter.Record("" + i, ByteBuffer.allocate(KinesisEventWriter.MAX_RECORD_BYTES - 10)));
+        }
+        setBacklog(writer, backlog);
+        assertEquals(5, writer.nextBatch().size());
+    }
+
+    @Test
+    public void testEndpointOverride() throws Exception {
+        // the SDK talks CBOR to Kinesis by default, our stand-in only speaks JSON
+        System.setProperty(SDKGlobalConfiguration.AWS_CBOR_DISABLE_SYSTEM_PROPERTY, "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        Map<String, List<Integer>> written = new HashMap<>();
+        server.createContext("/", exchange -> {
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            assertEquals("test-stream", request.get("StreamName").asText());
+            ObjectNode response = mapper.createObjectNode().put("FailedRecordCount", 0);
+            ArrayNode results = response.putArray("Records");
+            synchronized (written) {
+                for (JsonNode entry : request.get("Records")) {
+                    String value = new String(Base64.getDecoder().decode(entry.get("Data").asText()), StandardCharsets.UTF_8);
+                    written.computeIfAbsent(entry.get("PartitionKey").asText(), k -> new ArrayList<>()).add(Integer.parseInt(value));
+                    results.addObject().put("SequenceNumber", "1").put("ShardId", "shardId-000000000000");
+                }
+            }
+            byte[] body = mapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            SongEventGenerator.Config config = new SongEventGenerator.Config();
+            config.setStream("test-stream");
+            config.setAwsRegion("us-east-1");
+            config.setKinesisEndpoint("http://localhost:" + server.getAddress().getPort());
+            AWSCredentialsProvider credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("test", "test"));
+
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            try (KinesisEventWriter writer = new KinesisEventWriter(config, KinesisEventWriter.createClient(config, credentials))) {
+                for (int i = 0; i < 20; i++) {
+                    futures.add(writer.writeEvent("" + (i % 5), ByteBuffer.wrap(("" + (i / 5)).getBytes(StandardCharsets.UTF_8))));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            }
+
+            assertEquals(5, written.size());
+            for (List<Integer> values : written.values()) {
+                assertEquals(Arrays.asList(0, 1, 2, 3), values);
+            }
+        } finally {
+            server.stop(0);
+            System.clearProperty(SDKGlobalConfiguration.AWS_CBOR_DISABLE_SYSTEM_PROPERTY);
+        }
+    }
+
+    private void setBacklog(KinesisEventWriter writer, List<KinesisEventWriter.Record> records) {
+        writer.backlog.clear();
+        writer.backlog.addAll(records);
+    }
+
+    private List<String> keys(List<KinesisEventWriter.Record> records) {
+        List<String> keys = new ArrayList<>();
+        for (KinesisEventWriter.Record record : records) keys.add(record.routingKey);
+        return keys;
+    }
+
+    /**
+     * A stand-in for Kinesis that randomly throttles a percentage of records in each request
+     */
+    static class FlakyKinesis extends AbstractAmazonKinesis {
+        private Random random = new Random(1);
+        private int throttlePercent;
+        Map<String, List<Integer>> written = new HashMap<>();
+        int batchCount;
+        int throttledCount;
+
+        FlakyKinesis(int throttlePercent) {
+            this.throttlePercent = throttlePercent;
+        }
+
+        @Override
+        public synchronized PutRecordsResult putRecords(PutRecordsRequest request) {
+            batchCount++;
+            Set<String> keys = new HashSet<>();
+            List<PutRecordsResultEntry> results = new ArrayList<>();
+            int failed = 0;
+            for (PutRecordsRequestEntry entry : request.getRecords()) {
+                assertTrue(keys.add(entry.getPartitionKey()), "multiple records for the same key in one batch");
+                if (random.nextInt(100) < throttlePercent) {
+                    failed++;
+                    throttledCount++;
+                    results.add(new PutRecordsResultEntry().withErrorCode("ProvisionedThroughputExceededException")
+                            .withErrorMessage("Rate exceeded for shard"));
+                } else {
+                    String value = StandardCharsets.UTF_8.decode(entry.getData()).toString();
+                    written.computeIfAbsent(entry.getPartitionKey(), k -> new ArrayList<>()).add(Integer.parseInt(value));
+                    results.add(new PutRecordsResultEntry().withSequenceNumber("" + batchCount).withShardId("shardId-000000000000"));
+                }
+            }
+            return new PutRecordsResult().withFailedRecordCount(failed).withRecords(results);
+        }
+
+        @Override
+        public void shutdown() {
+            // AbstractAmazonKinesis throws UnsupportedOperationException
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        // small values are exact
+        for (long value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.highestValueIn(LatencyHistogram.bucketFor(value)));
+        }
+
+        // larger values are within ~1.5%, and buckets are contiguous
+        long[] values = {128, 129, 1000, 12345, 999999, 1L << 40, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketFor(value);
+            assertTrue(bucket < LatencyHistogram.BUCKET_COUNT);
+            long highest = LatencyHistogram.highestValueIn(bucket);
+            assertTrue(highest >= value && highest - value <= value / 64, value + " -> " + highest);
+            assertEquals(bucket - 1, LatencyHistogram.bucketFor(LatencyHistogram.highestValueIn(bucket - 1)));
+            assertEquals(bucket, LatencyHistogram.bucketFor(LatencyHistogram.highestValueIn(bucket - 1) + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getValueAt(0.99));
+        assertEquals(0, empty.getMax());
+
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5); // recorded as 0
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10001, snapshot.getCount());
+        assertEquals(50005000, snapshot.getSum());
+        assertWithin(5000, snapshot.getValueAt(0.5));
+        assertWithin(9900, snapshot.getValueAt(0.99));
+        assertWithin(10000, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAt(0));
+        assertWithin(1000, snapshot.getCountAtOrBelow(1000));
+
+        // an interval only contains what was recorded in it
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1000000);
+        }
+        LatencyHistogram.Snapshot interval = histogram.snapshot().minus(snapshot);
+        assertEquals(100, interval.getCount());
+        assertWithin(1000000, interval.getValueAt(0.5));
+        assertEquals(1000000.0, interval.getMean(), 0.001);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i % 500);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.snapshot().getCount());
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 64 + 1, "expected ~" + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,70 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlayerStateStoreTest {
+    @Test
+    public void testPlayerIds() {
+        PlayerStateStore store = new PlayerStateStore(3, 4, 10, 42, 1000000);
+        assertEquals(10, store.size());
+        assertEquals(3, store.getPlayerId(0));
+        assertEquals(7, store.getPlayerId(1));
+        assertEquals(39, store.getPlayerId(9));
+
+        SongEvent event = PlayerStateStore.newEvent();
+        store.peek(9, event);
+        assertEquals(39, event.playerId);
+        assertEquals(store.getPendingTime(9), event.timestamp);
+    }
+
+    @Test
+    public void testEmit() {
+        long now = 1000000;
+        PlayerStateStore store = new PlayerStateStore(1, 1, 1, 42, now);
+        SongEvent peeked = PlayerStateStore.newEvent(), event = PlayerStateStore.newEvent();
+        for (int i = 0; i < 1000; i++) {
+            store.peek(0, peeked);
+            store.emit(0, event, now);
+
+            // emitting returns the event we peeked at
+            assertEquals(peeked.timestamp, event.timestamp);
+            assertEquals(peeked.songEventType, event.songEventType);
+            assertEquals(peeked.nextContext.songId, event.nextContext.songId);
+            assertEquals(peeked.nextContext.playlist, event.nextContext.playlist);
+
+            // and the next event starts where this one left off
+            assertTrue(store.getPendingTime(0) > event.timestamp);
+            store.peek(0, peeked);
+            assertEquals(event.nextContext.listType, peeked.lastContext.listType);
+            assertEquals(event.nextContext.station, peeked.lastContext.station);
+            assertEquals(event.nextContext.songId, peeked.lastContext.songId);
+            assertEquals(SongList.getArtistIdFor(event.nextContext.songId), event.nextContext.artistId);
+            now = event.timestamp;
+        }
+    }
+
+    @Test
+    public void testPlayersDontDependOnSharding() {
+        // the same players, all in one store or split across two
+        long now = 1000000;
+        PlayerStateStore all = new PlayerStateStore(1, 1, 10, 42, now);
+        PlayerStateStore odd = new PlayerStateStore(1, 2, 5, 42, now);
+        PlayerStateStore even = new PlayerStateStore(2, 2, 5, 42, now);
+
+        SongEvent expected = PlayerStateStore.newEvent(), actual = PlayerStateStore.newEvent();
+        for (int i = 0; i < 100; i++) {
+            for (int slot = 0; slot < 10; slot++) {
+                all.emit(slot, expected, now);
+                (slot % 2 == 0 ? odd : even).emit(slot / 2, actual, now);
+                assertEquals(expected.playerId, actual.playerId);
+                assertEquals(expected.timestamp, actual.timestamp);
+                assertEquals(expected.subscriptionLevel, actual.subscriptionLevel);
+                assertEquals(expected.songEventType, actual.songEventType);
+                assertEquals(expected.nextContext.listType, actual.nextContext.listType);
+                assertEquals(expected.nextContext.songId, actual.nextContext.songId);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.dellemc.sdp.demo.music;
+
+import io.pravega.client.stream.Transaction;
+import io.pravega.client.stream.TransactionalEventStreamWriter;
+import io.pravega.client.stream.TxnFailedException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PravegaEventWriterTest {
+
+    @Test
+    public void testTransactions() throws Exception {
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream("test");
+        config.setTxnBatchSize(10);
+        config.setTxnLingerMS(200);
+        List<String> committed = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (PravegaEventWriter writer = new PravegaEventWriter(config, Arrays.asList(txnWriter(committed, false),
+                txnWriter(committed, false)))) {
+            for (int i = 0; i < 55; i++) {
+                futures.add(writer.writeEvent("" + i % 5, ByteBuffer.wrap(new byte[]{(byte) i})));
+            }
+            // full batches are committed right away, and the rest once they have lingered
+            Thread.sleep(100);
+            assertTrue(futures.get(0).isDone());
+            assertFalse(futures.get(futures.size() - 1).isDone());
+            futures.get(futures.size() - 1).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(55, committed.size());
+
+        // each player's events are committed in order
+        Map<String, Integer> last = new HashMap<>();
+        for (String event : committed) {
+            String[] parts = event.split(":");
+            int previous = last.getOrDefault(parts[0], -1);
+            assertTrue(Integer.parseInt(parts[1]) > previous);
+            last.put(parts[0], Integer.parseInt(parts[1]));
+        }
+
+        // a batch that doesn't commit fails every event in it
+        config.setTxnLingerMS(10000);
+        CompletableFuture<Void> failed;
+        try (PravegaEventWriter writer = new PravegaEventWriter(config, Arrays.asList(txnWriter(committed, true)))) {
+            failed = writer.writeEvent("1", ByteBuffer.allocate(1));
+        }
+        assertThrows(ExecutionException.class, failed::get);
+        assertEquals(55, committed.size());
+
+        // a batch has to fit in the in-flight window
+        config.setMaxInFlight(5);
+        assertThrows(IllegalArgumentException.class, () -> new PravegaEventWriter(config, Arrays.asList(txnWriter(committed, false))));
+    }
+
+    @Test
+    public void testWriterFor() {
+        for (int i = 0; i < 1000; i++) {
+            int writer = PravegaEventWriter.writerFor("" + i, 3);
+            assertTrue(writer >= 0 && writer < 3);
+            assertEquals(writer, PravegaEventWriter.writerFor("" + i, 3));
+        }
+        assertEquals(0, PravegaEventWriter.writerFor("" + Integer.MIN_VALUE, 1));
+    }
+
+    @Test
+    public void testScalingPolicy() {
+        PravegaEventWriter.parseScalingPolicy("fixed", 4);
+        PravegaEventWriter.parseScalingPolicy("events:100", 4);
+        PravegaEventWriter.parseScalingPolicy("kbytes:1024:3", 1);
+        for (String spec : new String[]{"fixed:3", "events", "events:0", "events:10:0", "kbytes:x", "bytes:100"}) {
+            assertThrows(IllegalArgumentException.class, () -> PravegaEventWriter.parseScalingPolicy(spec, 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> PravegaEventWriter.parseScalingPolicy("fixed", 0));
+    }
+
+    // a transactional writer whose transactions add their events (as "key:value") to the committed list on commit
+    @SuppressWarnings("unchecked")
+    private static TransactionalEventStreamWriter<ByteBuffer> txnWriter(List<String> committed, boolean failCommit) {
+        return (TransactionalEventStreamWriter<ByteBuffer>) Proxy.newProxyInstance(TransactionalEventStreamWriter.class.getClassLoader(),
+                new Class<?>[]{TransactionalEventStreamWriter.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("beginTxn")) return null; // close, etc.
+                    UUID id = UUID.randomUUID();
+                    List<String> events = new ArrayList<>();
+                    return Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[]{Transaction.class},
+                            (txn, txnMethod, txnArgs) -> {
+                                switch (txnMethod.getName()) {
+                                    case "getTxnId":
+                                        return id;
+                                    case "writeEvent":
+                                        events.add(txnArgs[0] + ":" + ((ByteBuffer) txnArgs[1]).get(0));
+                                        return null;
+                                    case "commit":
+                                        if (failCommit) throw new TxnFailedException();
+                                        synchronized (committed) {
+                                            committed.addAll(events);
+                                        }
+                                        return null;
+                                    default:
+                                        return null; // abort, flush, etc.
+                                }
+                            });
+                });
+    }
+}
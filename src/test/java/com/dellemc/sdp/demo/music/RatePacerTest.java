@@ -0,0 +1,76 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RatePacerTest {
+    @Test
+    public void testConstantRate() {
+        RatePacer pacer = new RatePacer(RateProfile.constant(1000), 1, 10000);
+        for (int i = 1; i <= 5000; i++) {
+            assertEquals(10000 + i, pacer.getNextTime());
+            pacer.sent(pacer.getNextTime());
+        }
+        assertEquals(5000, pacer.getSentCount());
+        assertEquals(0, pacer.getLateCount());
+    }
+
+    @Test
+    public void testShare() {
+        // a quarter of 1000/s is an event every 4ms
+        RatePacer pacer = new RatePacer(RateProfile.constant(1000), 0.25, 0);
+        assertEquals(4, pacer.getNextTime());
+        pacer.sent(4);
+        assertEquals(8, pacer.getNextTime());
+    }
+
+    @Test
+    public void testVaryingRate() {
+        // 100/s for the first 10 seconds, then 1000/s: 1000 + 10000 events in the first 20 seconds
+        RatePacer pacer = new RatePacer(RateProfile.step(100, 900, 10000, 1000), 1, 0);
+        assertTrue(Math.abs(countUntil(pacer, 20000) - 11000) <= 1);
+
+        // long stretches without any rate are skipped, and the rate is noticed soon after it comes back
+        pacer = new RatePacer(RateProfile.burst(0.001, 100, 60000, 1000), 1, 0);
+        assertTrue(pacer.getNextTime() >= 59000 && pacer.getNextTime() < 59100, "first event at " + pacer.getNextTime());
+        assertTrue(Math.abs(countUntil(pacer, 60000) - 100) <= 1);
+    }
+
+    @Test
+    public void testLagAccounting() {
+        RatePacer pacer = new RatePacer(RateProfile.constant(100), 1, 0);
+
+        // the sink stalls for a second while sending the first event
+        pacer.sent(1010);
+        assertEquals(1, pacer.getLateCount());
+        assertEquals(1000, pacer.getMaxLagMS());
+
+        // every event that was due in the meantime is late too, and is sent right away (it isn't pushed back)
+        assertEquals(20, pacer.getNextTime());
+        assertEquals(990, pacer.getBacklogMS(1010));
+        for (int i = 0; i < 99; i++) {
+            pacer.sent(1010);
+        }
+        assertEquals(1010, pacer.getNextTime());
+        assertEquals(0, pacer.getBacklogMS(1010));
+        assertEquals(100, pacer.getLateCount());
+        assertEquals(505, pacer.getAverageLagMS());
+
+        pacer.resetStats();
+        pacer.sent(1010);
+        assertEquals(1, pacer.getSentCount());
+        assertEquals(0, pacer.getLateCount());
+        assertEquals(0, pacer.getMaxLagMS());
+    }
+
+    // sends every event on time, up to the given time
+    private long countUntil(RatePacer pacer, long time) {
+        long count = 0;
+        while (pacer.getNextTime() < time) {
+            pacer.sent(pacer.getNextTime());
+            count++;
+        }
+        return count;
+    }
+}
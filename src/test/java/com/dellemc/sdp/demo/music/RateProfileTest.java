@@ -0,0 +1,77 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateProfileTest {
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testConstant() {
+        RateProfile profile = RateProfile.parse("constant", 250);
+        assertEquals(250.0, profile.rateAt(0), DELTA);
+        assertEquals(250.0, profile.rateAt(86400000), DELTA);
+    }
+
+    @Test
+    public void testStep() {
+        RateProfile profile = RateProfile.parse("step:100:30s:400", 100);
+        assertEquals(100.0, profile.rateAt(0), DELTA);
+        assertEquals(100.0, profile.rateAt(29999), DELTA);
+        assertEquals(200.0, profile.rateAt(30000), DELTA);
+        assertEquals(300.0, profile.rateAt(60000), DELTA);
+        assertEquals(400.0, profile.rateAt(90000), DELTA);
+        assertEquals(400.0, profile.rateAt(3600000), DELTA); // capped
+
+        // no cap
+        assertEquals(1100.0, RateProfile.parse("step:100:1m", 100).rateAt(600000), DELTA);
+    }
+
+    @Test
+    public void testSine() {
+        RateProfile profile = RateProfile.parse("sine:500:1d", 1000);
+        long day = 86400000;
+        assertEquals(1000.0, profile.rateAt(0), DELTA);
+        assertEquals(1500.0, profile.rateAt(day / 4), DELTA);
+        assertEquals(500.0, profile.rateAt(day * 3 / 4), DELTA);
+        assertEquals(1500.0, profile.rateAt(day + day / 4), DELTA);
+
+        // never negative
+        assertEquals(0.0, RateProfile.parse("sine:200:1h", 100).rateAt(2700000), DELTA);
+    }
+
+    @Test
+    public void testBurst() {
+        RateProfile profile = RateProfile.parse("burst:5000:10m:30s", 100);
+        assertEquals(100.0, profile.rateAt(0), DELTA);
+        assertEquals(100.0, profile.rateAt(569999), DELTA);
+        assertEquals(5000.0, profile.rateAt(570000), DELTA);
+        assertEquals(5000.0, profile.rateAt(599999), DELTA);
+        assertEquals(100.0, profile.rateAt(600000), DELTA);
+        assertEquals(5000.0, profile.rateAt(1170000), DELTA);
+    }
+
+    @Test
+    public void testDurations() {
+        assertEquals(1500, RateProfile.parseDuration("1.5"));
+        assertEquals(30000, RateProfile.parseDuration("30s"));
+        assertEquals(900000, RateProfile.parseDuration("15m"));
+        assertEquals(7200000, RateProfile.parseDuration("2h"));
+        assertEquals(86400000, RateProfile.parseDuration("1d"));
+    }
+
+    @Test
+    public void testInvalidProfiles() {
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("constant", 0));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("linear", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("constant:5", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("step:100", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("step:-100:10s", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("step:100:0", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("sine:-1:1d", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("sine:abc:1d", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("burst:100:10s:20s", 10));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("burst:100:10x:1s", 10));
+    }
+}
@@ -0,0 +1,29 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoutingKeyCacheTest {
+    @Test
+    public void testKeysAreCached() {
+        RoutingKeyCache cache = new RoutingKeyCache(100);
+        String key = cache.get(7, 15);
+        assertEquals("15", key);
+        assertSame(key, cache.get(7, 15));
+        for (int slot = 0; slot < 100; slot++) {
+            assertEquals(Long.toString(slot * 2 + 1), cache.get(slot, slot * 2 + 1));
+        }
+        assertSame(key, cache.get(7, 15));
+    }
+
+    @Test
+    public void testSharedEntries() {
+        // more players than entries - players that share an entry still get their own key
+        int playerCount = RoutingKeyCache.MAX_CAPACITY + 10;
+        RoutingKeyCache cache = new RoutingKeyCache(playerCount);
+        assertEquals("1", cache.get(0, 1));
+        assertEquals(Long.toString(RoutingKeyCache.MAX_CAPACITY + 1), cache.get(RoutingKeyCache.MAX_CAPACITY, RoutingKeyCache.MAX_CAPACITY + 1));
+        assertEquals("1", cache.get(0, 1));
+    }
+}
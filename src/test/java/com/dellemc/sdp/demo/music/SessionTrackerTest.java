@@ -0,0 +1,228 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.dellemc.sdp.demo.music.WindowAggregatorTest.event;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTrackerTest {
+    private static final long MINUTE = 60000;
+    private static final long GAP = 10 * MINUTE;
+
+    @Test
+    public void testSessions() {
+        List<SessionSummary> sessions = new ArrayList<>();
+        SessionTracker tracker = new SessionTracker(GAP, 100, sessions::add);
+        tracker.add(event(0, 1, SongEventType.Select, 5));
+        tracker.add(event(MINUTE, 1, SongEventType.Skip, 6));
+        tracker.add(event(2 * MINUTE, 1, SongEventType.Next, 7));
+        tracker.add(select(3 * MINUTE, 1, "Evening Playlist"));
+        tracker.add(event(4 * MINUTE, 1, SongEventType.Pause, 7));
+        tracker.add(event(MINUTE, 2, SongEventType.Next, 5));
+        tracker.advanceTo(4 * MINUTE);
+        assertEquals(2, tracker.size());
+
+        // player 2's gap passes first
+        tracker.advanceTo(MINUTE + GAP - 1);
+        assertTrue(sessions.isEmpty());
+        tracker.advanceTo(MINUTE + GAP + tracker.getTickMS());
+        assertEquals(1, sessions.size());
+        assertEquals(2, sessions.get(0).getPlayerId());
+        assertEquals(1, tracker.size());
+
+        tracker.advanceTo(4 * MINUTE + GAP + tracker.getTickMS());
+        assertEquals(2, sessions.size());
+        SessionSummary session = sessions.get(1);
+        assertEquals(1, session.getPlayerId());
+        assertEquals(0, session.getStart());
+        assertEquals(4 * MINUTE, session.getDurationMS());
+        assertEquals(5, session.getEventCount());
+        assertEquals(4, session.getSongCount());
+        assertEquals(1, session.getSkipCount());
+        assertEquals(1, session.getListSwitchCount()); // the first Select just starts the list
+        assertTrue(session.isComplete());
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void testGapBeforeTimeout() {
+        List<SessionSummary> sessions = new ArrayList<>();
+        SessionTracker tracker = new SessionTracker(GAP, 100, sessions::add);
+        tracker.add(event(0, 1, SongEventType.Next, 5));
+        tracker.add(event(MINUTE, 1, SongEventType.Pause, 5));
+        // a pause longer than the gap ends the session, even if time hasn't been advanced past it
+        tracker.add(event(MINUTE + GAP, 1, SongEventType.Resume, 5));
+        tracker.add(event(MINUTE + GAP + 10, 1, SongEventType.Next, 6));
+        // out-of-order events are part of the session they fall in
+        tracker.add(event(MINUTE + GAP - 5, 1, SongEventType.Next, 6));
+        assertEquals(1, sessions.size());
+        assertEquals(2, sessions.get(0).getEventCount());
+        assertEquals(1, tracker.size());
+
+        tracker.advanceTo(MINUTE + GAP + 10 + GAP + tracker.getTickMS());
+        assertEquals(2, sessions.size());
+        assertEquals(MINUTE + GAP - 5, sessions.get(1).getStart());
+        assertEquals(3, sessions.get(1).getEventCount());
+    }
+
+    @Test
+    public void testEviction() {
+        List<SessionSummary> sessions = new ArrayList<>();
+        SessionTracker tracker = new SessionTracker(GAP, 10, sessions::add);
+        tracker.advanceTo(0);
+        for (int player = 0; player < 10; player++) {
+            tracker.add(event(player * MINUTE / 2, player, SongEventType.Next, 5));
+        }
+        assertEquals(10, tracker.size());
+
+        // the longest idle session makes room for a new one
+        tracker.add(event(5 * MINUTE, 10, SongEventType.Next, 5));
+        assertEquals(10, tracker.size());
+        assertEquals(1, tracker.getEvictedCount());
+        assertEquals(1, sessions.size());
+        assertEquals(0, sessions.get(0).getPlayerId());
+        assertFalse(sessions.get(0).isComplete());
+
+        tracker.closeAll();
+        assertEquals(11, sessions.size());
+        assertEquals(0, tracker.size());
+        for (SessionSummary session : sessions) {
+            assertFalse(session.isComplete());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new SessionTracker(0, 10, sessions::add));
+        assertThrows(IllegalArgumentException.class, () -> new SessionTracker(GAP, 0, sessions::add));
+    }
+
+    @Test
+    public void testManyPlayers() {
+        // sessions of random players, checked against a straightforward model
+        Random random = new Random(42);
+        long gap = 30000;
+        Map<Long, long[]> open = new HashMap<>(); // player -> {start, last, events}
+        List<SessionSummary> expected = new ArrayList<>(), sessions = new ArrayList<>();
+        SessionTracker tracker = new SessionTracker(gap, Integer.MAX_VALUE, sessions::add);
+        long time = 0;
+        for (int i = 0; i < 500000; i++) {
+            time += random.nextInt(20);
+            long player = random.nextInt(50000);
+            long[] session = open.get(player);
+            if (session != null && time - session[1] >= gap) {
+                expected.add(new SessionSummary(player, session[0], session[1], (int) session[2], 0, 0, 0, true));
+                session = null;
+            }
+            if (session == null) open.put(player, session = new long[]{time, time, 0});
+            session[1] = time;
+            session[2]++;
+            tracker.add(event(time, player, SongEventType.Pause, 5));
+            tracker.advanceTo(time);
+        }
+        // sessions past their gap by more than a tick have expired (and those within a tick may have)
+        long expired = 0, mayHaveExpired = 0;
+        for (long[] session : open.values()) {
+            if (time - session[1] >= gap + tracker.getTickMS()) expired++;
+            if (time - session[1] >= gap) mayHaveExpired++;
+        }
+        assertTrue(sessions.size() >= expected.size() + expired);
+        assertTrue(sessions.size() <= expected.size() + mayHaveExpired);
+        assertEquals(open.size() + expected.size(), tracker.size() + sessions.size());
+
+        // then every session matches the model, in order for each player
+        tracker.closeAll();
+        open.forEach((player, session) -> expected.add(new SessionSummary(player, session[0], session[1],
+                (int) session[2], 0, 0, 0, false)));
+        assertEquals(expected.size(), sessions.size());
+        Map<Long, List<SessionSummary>> byPlayer = new HashMap<>();
+        long events = 0;
+        for (SessionSummary session : sessions) {
+            byPlayer.computeIfAbsent(session.getPlayerId(), p -> new ArrayList<>()).add(session);
+            events += session.getEventCount();
+        }
+        for (SessionSummary session : expected) {
+            SessionSummary actual = byPlayer.get(session.getPlayerId()).remove(0);
+            assertEquals(session.getStart(), actual.getStart());
+            assertEquals(session.getEnd(), actual.getEnd());
+            assertEquals(session.getEventCount(), actual.getEventCount());
+        }
+        assertEquals(500000, events);
+    }
+
+    @Test
+    public void testSnapshot() {
+        List<SessionSummary> sessions = new ArrayList<>();
+        SessionTracker tracker = new SessionTracker(GAP, 100, sessions::add);
+        tracker.add(event(0, 1, SongEventType.Next, 5));
+        tracker.add(event(0, 2, SongEventType.Next, 5));
+        tracker.add(event(MINUTE, 3, SongEventType.Skip, 6));
+        tracker.advanceTo(MINUTE);
+        StateBuffer full = new StateBuffer(16);
+        tracker.writeTo(full, true);
+
+        // player 1 carries on, player 2's session closes and player 4 starts one
+        tracker.add(event(5 * MINUTE, 1, SongEventType.Pause, 5));
+        tracker.advanceTo(GAP + tracker.getTickMS());
+        tracker.add(event(GAP, 4, SongEventType.Next, 7));
+        assertEquals(1, sessions.size());
+        StateBuffer changes = new StateBuffer(16);
+        tracker.writeTo(changes, false);
+        assertTrue(changes.size() < full.size());
+
+        List<SessionSummary> restoredSessions = new ArrayList<>();
+        SessionTracker restored = new SessionTracker(GAP, 100, restoredSessions::add);
+        restored.readFrom(full.contents());
+        restored.readFrom(changes.contents());
+        restored.scheduleAll();
+        assertEquals(3, restored.size());
+        assertTrue(restored.contains(1));
+        assertTrue(restored.contains(3));
+        assertTrue(restored.contains(4));
+        SessionTracker copy = new SessionTracker(GAP, 100, session -> fail("not scheduled"));
+        restored.copyTo(4, copy);
+        assertTrue(copy.contains(4));
+
+        // a reader's tracker takes them over player by player, keeping sessions it already has
+        SessionTracker reader = new SessionTracker(GAP, 100, restoredSessions::add);
+        reader.add(event(GAP, 3, SongEventType.Next, 8));
+        assertTrue(restored.moveTo(1, reader));
+        assertTrue(restored.moveTo(4, reader));
+        assertFalse(restored.moveTo(3, reader));
+        assertFalse(restored.moveTo(1, reader));
+        assertEquals(1, restored.size());
+        assertEquals(3, reader.size());
+
+        // sessions that moved don't expire where they were
+        restored.advanceTo(10 * GAP);
+        assertEquals(1, restoredSessions.size());
+        assertEquals(3, restoredSessions.get(0).getPlayerId());
+        restoredSessions.clear();
+        copy.advanceTo(10 * GAP);
+
+        tracker.closeAll();
+        reader.closeAll();
+        Map<Long, SessionSummary> byPlayer = new HashMap<>();
+        for (SessionSummary session : restoredSessions) {
+            byPlayer.put(session.getPlayerId(), session);
+        }
+        for (SessionSummary session : sessions.subList(1, sessions.size())) {
+            if (session.getPlayerId() == 3) continue;
+            SessionSummary actual = byPlayer.get(session.getPlayerId());
+            assertEquals(session.getStart(), actual.getStart());
+            assertEquals(session.getEnd(), actual.getEnd());
+            assertEquals(session.getEventCount(), actual.getEventCount());
+            assertEquals(session.getSongCount(), actual.getSongCount());
+        }
+        assertEquals(GAP, byPlayer.get(3L).getStart());
+    }
+
+    private static SongEvent select(long timestamp, long playerId, String playlist) {
+        SongEvent event = event(timestamp, playerId, SongEventType.Select, 8);
+        event.nextContext.playlist = playlist;
+        return event;
+    }
+}
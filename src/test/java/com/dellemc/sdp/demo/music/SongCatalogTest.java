@@ -0,0 +1,135 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SongCatalogTest {
+    @Test
+    public void testLoad() throws Exception {
+        SongCatalog catalog = load("Song A::Artist 1::180\n" +
+                "Song B::Artist 2::200::Album X\r\n" +
+                "\n" +
+                "Caf\u00e9 \"Song\"::Artist 1::240::Album X");
+
+        assertEquals(3, catalog.getSongCount());
+        assertEquals(2, catalog.getArtistCount());
+        assertEquals(2, catalog.getAlbumCount());
+
+        // IDs are assigned in file order
+        assertEquals(0, catalog.songs().find("Song A"));
+        assertEquals("Caf\u00e9 \"Song\"", catalog.songs().get(2));
+        assertEquals(2, catalog.songs().find("Caf\u00e9 \"Song\""));
+        assertEquals(200, catalog.getLengthFor(1));
+
+        // artists and albums are interned
+        assertEquals(catalog.getArtistIdFor(0), catalog.getArtistIdFor(2));
+        assertEquals("Artist 1", catalog.artists().get(catalog.getArtistIdFor(2)));
+        assertEquals(catalog.getAlbumIdFor(1), catalog.getAlbumIdFor(2));
+        assertEquals("Album X", catalog.albums().get(catalog.getAlbumIdFor(1)));
+        assertEquals("Artist 1" + SongCatalog.SINGLES_SUFFIX, catalog.albums().get(catalog.getAlbumIdFor(0)));
+
+        assertEquals(2, catalog.getPlaylistCount());
+        assertEquals(2, catalog.getStationCount());
+        assertTrue(catalog.getStation(0).endsWith(SongCatalog.STATION_SUFFIX));
+
+        assertEquals(-1, catalog.songs().find("Song D"));
+        assertEquals(-1, catalog.artists().find(null));
+        assertNull(catalog.songs().get(-1));
+    }
+
+    @Test
+    public void testDuplicateTitles() throws Exception {
+        SongCatalog catalog = load("Intro::Artist 1::60::Album X\n" +
+                "Intro::Artist 2::90::Album X\n" +
+                "Outro::Artist 2::90\n" +
+                "Intro::Artist 2::90::Album Y\n");
+        int artist2 = catalog.artists().find("Artist 2");
+        int albumY = catalog.albums().find("Album Y");
+
+        // the artist and album pick between songs with the same title, falling back to the first one
+        assertEquals(0, catalog.songs().find("Intro"));
+        assertEquals(0, catalog.findSong("Intro", -1, -1));
+        assertEquals(1, catalog.findSong("Intro", artist2, -1));
+        assertEquals(1, catalog.findSong("Intro", artist2, catalog.albums().find("Album X")));
+        assertEquals(3, catalog.findSong("Intro", artist2, albumY));
+        assertEquals(3, catalog.findSong("Intro", -1, albumY));
+        assertEquals(0, catalog.findSong("Intro", catalog.artists().find("Artist 1"), albumY));
+        assertEquals(-1, catalog.findSong("Interlude", artist2, albumY));
+    }
+
+    @Test
+    public void testInvalidLines() {
+        assertThrows(IllegalArgumentException.class, () -> load("Song A::Artist 1\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("Song A::Artist 1::0\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("Song A::Artist 1::3:00\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("Song A::Artist 1::180::Album::x\n"));
+        assertThrows(IllegalArgumentException.class, () -> load("Song A::Artist 1::180::Album::-1\n"));
+        assertThrows(IllegalArgumentException.class, () -> load(""));
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        SongCatalog catalog = load("Song A::Artist 1::180\n");
+        assertFalse(catalog.hasWeights());
+        assertEquals(1.0, catalog.getWeightFor(0));
+
+        catalog = load("Song A::Artist 1::180\n" +
+                "Song B::Artist 2::200::::0.25\n" +
+                "Song C::Artist 2::240::Album X::40\n");
+        assertTrue(catalog.hasWeights());
+        assertEquals(1.0, catalog.getWeightFor(0));
+        assertEquals(0.25, catalog.getWeightFor(1));
+        assertEquals(40.0, catalog.getWeightFor(2));
+        // an empty album is the same as no album
+        assertEquals("Artist 2" + SongCatalog.SINGLES_SUFFIX, catalog.albums().get(catalog.getAlbumIdFor(1)));
+        assertEquals("Album X", catalog.albums().get(catalog.getAlbumIdFor(2)));
+    }
+
+    @Test
+    public void testGeneratedCatalog() throws Exception {
+        Path file = Files.createTempFile("catalog", ".lst");
+        try {
+            new SongCatalogGenerator(42).generate(file, 10000);
+
+            SongCatalog catalog = SongCatalog.load(file);
+            assertEquals(10000, catalog.getSongCount());
+            assertTrue(catalog.getArtistCount() > 100);
+            assertTrue(catalog.getAlbumCount() > catalog.getArtistCount());
+
+            // small windows shouldn't change anything (lines are never split across windows)
+            SongCatalog windowed = SongCatalog.load(file, 4096);
+            assertEquals(catalog.getSongCount(), windowed.getSongCount());
+            assertEquals(catalog.getArtistCount(), windowed.getArtistCount());
+            assertEquals(catalog.getAlbumCount(), windowed.getAlbumCount());
+            for (int songId = 0; songId < catalog.getSongCount(); songId += 97) {
+                assertEquals(catalog.songs().get(songId), windowed.songs().get(songId));
+                assertEquals(catalog.getLengthFor(songId), windowed.getLengthFor(songId));
+                assertEquals(catalog.artists().get(catalog.getArtistIdFor(songId)),
+                        windowed.artists().get(windowed.getArtistIdFor(songId)));
+                assertEquals(catalog.albums().get(catalog.getAlbumIdFor(songId)),
+                        windowed.albums().get(windowed.getAlbumIdFor(songId)));
+            }
+
+            // the same seed generates the same catalog
+            Path file2 = Files.createTempFile("catalog", ".lst");
+            try {
+                new SongCatalogGenerator(42).generate(file2, 10000);
+                assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(file2));
+            } finally {
+                Files.delete(file2);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static SongCatalog load(String catalog) throws Exception {
+        return SongCatalog.load(new ByteArrayInputStream(catalog.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -12,9 +12,22 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SongEventGeneratorTest {
@@ -103,4 +116,137 @@ public class SongEventGeneratorTest {
         assertTrue(count > 0);
 
     }
+
+    @Test
+    public void testBackfill() {
+        long start = 1585699200000L, end = start + 3600000; // an hour on 2020-04-01
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream(TEST_STREAM);
+        config.setPlayerCount(200);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setSeed(42L);
+        config.setBackfillStart(start);
+        config.setBackfillEnd(end);
+
+        CapturingWriter first = backfill(config);
+        log.info("backfilled {} events", first.count);
+        // players average an event every few minutes (songs are a few minutes long, and pauses can last 20 minutes)
+        assertTrue(first.count > 3000);
+        assertTrue(first.minTimestamp >= start - 30000);
+        assertTrue(first.maxTimestamp < end);
+
+        // the same seed produces exactly the same events
+        CapturingWriter second = backfill(config);
+        assertEquals(first.count, second.count);
+        assertEquals(first.crc.getValue(), second.crc.getValue());
+    }
+
+    @Test
+    public void testBackfillAtRate() {
+        long start = 1585699200000L, end = start + 3600000;
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream(TEST_STREAM);
+        config.setPlayerCount(200);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setSeed(42L);
+        config.setBackfillStart(start);
+        config.setBackfillEnd(end);
+        config.setRate(20d);
+
+        // the rate decides the number of events, not the players
+        CapturingWriter writer = backfill(config);
+        assertTrue(Math.abs(writer.count - 72000) <= 1, "generated " + writer.count + " events");
+        assertTrue(writer.minTimestamp >= start);
+        assertTrue(writer.maxTimestamp < end);
+
+        // a profile needs a base rate
+        config.setRate(null);
+        config.setRateProfile("sine:10:1h");
+        assertThrows(IllegalArgumentException.class, () -> backfill(config));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        long start = 1585699200000L, end = start + 3600000;
+        SongEventGenerator.Config config = new SongEventGenerator.Config();
+        config.setStream(TEST_STREAM);
+        config.setPlayerCount(200);
+        config.setWorkerCount(2);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setSeed(42L);
+        config.setBackfillStart(start);
+        config.setBackfillEnd(end);
+        Collection<CapturingWriter> generated = captureWorkers(config);
+
+        Path directory = Files.createTempDirectory("events");
+        try {
+            // capture the same run to files, then replay it: each worker's events come back in the same order
+            config.setFileDir(directory.toString());
+            config.setFileCompression(true);
+            new SongEventGenerator(config).run();
+            config.setFileDir(null);
+            config.setReplayDir(directory.toString());
+            Collection<CapturingWriter> replayed = captureWorkers(config);
+            assertEquals(2, replayed.size());
+            assertEquals(checksums(generated), checksums(replayed));
+        } finally {
+            for (File file : directory.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    // runs the generator with a sink per worker thread
+    private Collection<CapturingWriter> captureWorkers(SongEventGenerator.Config config) {
+        Map<String, CapturingWriter> writers = new ConcurrentHashMap<>();
+        new SongEventGenerator(config) {
+            @Override
+            EventWriter createEventWriter(Config config) {
+                return writers.computeIfAbsent(Thread.currentThread().getName(), name -> new CapturingWriter());
+            }
+        }.run();
+        return writers.values();
+    }
+
+    // each writer's event count and checksum
+    private Set<String> checksums(Collection<CapturingWriter> writers) {
+        Set<String> checksums = new HashSet<>();
+        for (CapturingWriter writer : writers) {
+            checksums.add(writer.count + ":" + writer.crc.getValue());
+        }
+        return checksums;
+    }
+
+    // generates the backfill range, which should finish on its own (and quickly, since nothing waits on real time)
+    private CapturingWriter backfill(SongEventGenerator.Config config) {
+        CapturingWriter writer = new CapturingWriter();
+        new SongEventGenerator(config) {
+            @Override
+            EventWriter createEventWriter(Config config) {
+                return writer;
+            }
+        }.run();
+        return writer;
+    }
+
+    private static class CapturingWriter implements SongEventGenerator.EventWriter {
+        private SongEventSerializer serializer = SongEventSerializer.Format.Binary.createSerializer();
+        private CRC32 crc = new CRC32();
+        private long count, minTimestamp = Long.MAX_VALUE, maxTimestamp;
+
+        @Override
+        public CompletableFuture<Void> writeEvent(String routingKey, ByteBuffer body) {
+            SongEvent event = serializer.deserialize(body.duplicate());
+            minTimestamp = Math.min(minTimestamp, event.timestamp);
+            maxTimestamp = Math.max(maxTimestamp, event.timestamp);
+            crc.update(body);
+            count++;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
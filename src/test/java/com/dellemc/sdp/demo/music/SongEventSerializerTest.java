@@ -0,0 +1,183 @@
+package com.dellemc.sdp.demo.music;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class SongEventSerializerTest {
+    private static final Logger log = LoggerFactory.getLogger(SongEventSerializerTest.class);
+
+    @Test
+    public void testRoundTrip() {
+        SongEventSerializer json = SongEventSerializer.Format.Json.createSerializer();
+        SongEventSerializer binary = SongEventSerializer.Format.Binary.createSerializer();
+
+        SongPlayer songPlayer = new SongPlayer(123456789L);
+        long jsonBytes = 0, binaryBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            SongEvent event = songPlayer.nextEvent();
+
+            ByteBuffer jsonBuffer = json.serialize(event);
+            jsonBytes += jsonBuffer.remaining();
+            assertEventEquals(event, json.deserialize(jsonBuffer));
+
+            ByteBuffer binaryBuffer = binary.serialize(event);
+            binaryBytes += binaryBuffer.remaining();
+            assertEventEquals(event, binary.deserialize(binaryBuffer));
+            assertFalse(binaryBuffer.hasRemaining());
+        }
+
+        log.info("average event size - JSON: {} bytes, binary: {} bytes", jsonBytes / 1000, binaryBytes / 1000);
+        assertTrue(binaryBytes * 3 < jsonBytes);
+    }
+
+    @Test
+    public void testNullsAndUnknownValues() {
+        SongEvent event = new SongEvent();
+        event.timestamp = Long.MAX_VALUE;
+        event.playerId = 0;
+        event.lastContext = new SongEvent.Context();
+        event.lastContext.listType = SongEvent.ListType.Playlist;
+        event.lastContext.playlist = "Bj\u00f6rk's favorites";
+        event.lastContext.songId = SongList.getSongCount() - 1;
+        event.lastContext.artistId = SongList.getArtistIdFor(event.lastContext.songId);
+        event.nextContext = new SongEvent.Context();
+        event.nextContext.listType = SongEvent.ListType.Station;
+        // names that aren't in the song list don't have IDs
+        assertThrows(IllegalArgumentException.class, () -> event.nextContext.setSong("A song that isn't in the song list"));
+        assertThrows(IllegalArgumentException.class, () -> event.nextContext.setArtist("An artist that isn't in the song list"));
+        event.nextContext.setSong(null);
+        assertEquals(-1, event.nextContext.songId);
+        assertNull(event.nextContext.getSong());
+
+        SongEventSerializer binary = SongEventSerializer.Format.Binary.createSerializer();
+        assertEventEquals(event, binary.deserialize(binary.serialize(event)));
+
+        // neither format decodes songs from another song list
+        SongEventSerializer json = SongEventSerializer.Format.Json.createSerializer();
+        String unknown = StandardCharsets.UTF_8.decode(json.serialize(event)).toString()
+                .replace("\"song\":null", "\"song\":\"A song that isn't in the song list\"");
+        assertThrows(UncheckedIOException.class, () -> json.deserialize(ByteBuffer.wrap(unknown.getBytes(StandardCharsets.UTF_8))));
+        event.nextContext.songId = SongList.getSongCount();
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(binary.serialize(event)));
+    }
+
+    @Test
+    public void testMalformedBinary() {
+        SongEventSerializer binary = SongEventSerializer.Format.Binary.createSerializer();
+        SongEvent event = new SongEvent();
+        event.timestamp = 1;
+        event.playerId = 2;
+        event.subscriptionLevel = SubscriptionLevel.values()[0];
+        event.songEventType = SongEventType.values()[0];
+        event.lastContext = new SongEvent.Context();
+        event.lastContext.listType = SongEvent.ListType.Playlist;
+        event.lastContext.playlist = "playlist";
+        ByteBuffer buffer = binary.serialize(event);
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.limit());
+        assertEventEquals(event, binary.deserialize(ByteBuffer.wrap(bytes.clone())));
+
+        // byte offsets: 0 version, 1 timestamp, 2 playerId, 3 subscriptionLevel, 4 songEventType,
+        // 5 partnerService length, 6 listType, 7 playlist length
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 0, 99)));
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 3, SubscriptionLevel.values().length + 1)));
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 4, -1)));
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 6, SongEvent.ListType.values().length + 1)));
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 6, 0x80)));
+        // a string longer than the rest of the event, and a length that wraps around to a negative int
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(corrupt(bytes, 7, 100)));
+        ByteBuffer negativeLength = ByteBuffer.allocate(32);
+        negativeLength.put(Arrays.copyOf(bytes, 5));
+        BinarySongEventSerializer.writeVarLong(negativeLength, 0x80000000L);
+        negativeLength.flip();
+        assertThrows(IllegalArgumentException.class, () -> binary.deserialize(negativeLength));
+    }
+
+    private static ByteBuffer corrupt(byte[] bytes, int offset, int value) {
+        byte[] copy = bytes.clone();
+        copy[offset] = (byte) value;
+        return ByteBuffer.wrap(copy);
+    }
+
+    @Test
+    public void testJsonMatchesJackson() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        SongEventSerializer json = SongEventSerializer.Format.Json.createSerializer();
+
+        SongPlayer songPlayer = new SongPlayer(42);
+        for (int i = 0; i < 1000; i++) {
+            SongEvent event = songPlayer.nextEvent();
+            assertEquals(mapper.writeValueAsString(event), StandardCharsets.UTF_8.decode(json.serialize(event)).toString());
+        }
+
+        // strings that need escaping or multi-byte encoding
+        SongEvent event = new SongEvent();
+        event.timestamp = -1;
+        event.lastContext = new SongEvent.Context();
+        event.lastContext.playlist = "\"Quoted\" \\ back\tslash\n\u0001 caf\u00e9 \u266b \ud83c\udfb5";
+        assertEquals(mapper.writeValueAsString(event), StandardCharsets.UTF_8.decode(json.serialize(event)).toString());
+    }
+
+    @Test
+    public void testAllocationFree() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+
+        for (SongEventSerializer.Format format : SongEventSerializer.Format.values()) {
+            SongEventSerializer serializer = format.createSerializer();
+            SongPlayer songPlayer = new SongPlayer(7);
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            // warm up (class loading, song list, JIT)
+            for (int i = 0; i < 100000; i++) {
+                buffer.clear();
+                serializer.serialize(songPlayer.nextEvent(), buffer);
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            int count = 100000;
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                serializer.serialize(songPlayer.nextEvent(), buffer);
+            }
+            long bytesPerEvent = (threadMXBean.getThreadAllocatedBytes(threadId) - startBytes) / count;
+            log.info("{} generation + serialization allocated {} bytes per event", format, bytesPerEvent);
+            assertTrue(bytesPerEvent < 8, format + " path allocated " + bytesPerEvent + " bytes per event");
+        }
+    }
+
+    static void assertEventEquals(SongEvent expected, SongEvent actual) {
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.playerId, actual.playerId);
+        assertEquals(expected.subscriptionLevel, actual.subscriptionLevel);
+        assertEquals(expected.partnerService, actual.partnerService);
+        assertEquals(expected.songEventType, actual.songEventType);
+        assertContextEquals(expected.lastContext, actual.lastContext);
+        assertContextEquals(expected.nextContext, actual.nextContext);
+    }
+
+    static void assertContextEquals(SongEvent.Context expected, SongEvent.Context actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.listType, actual.listType);
+        assertEquals(expected.playlist, actual.playlist);
+        assertEquals(expected.station, actual.station);
+        assertEquals(expected.artistId, actual.artistId);
+        assertEquals(expected.albumId, actual.albumId);
+        assertEquals(expected.songId, actual.songId);
+    }
+}
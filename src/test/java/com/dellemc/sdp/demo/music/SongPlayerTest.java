@@ -24,6 +24,35 @@ public class SongPlayerTest {
         }
     }
 
+    @Test
+    public void testSeededPlayersAreRepeatable() {
+        SongPlayer player = new SongPlayer(123, 42);
+        SongPlayer samePlayer = new SongPlayer(123, 42);
+        SongPlayer otherPlayer = new SongPlayer(124, 42);
+        boolean differs = false;
+        long lastTimestamp = 0, sameLastTimestamp = 0;
+        for (int i = 0; i < 1000; i++) {
+            SongEvent event = player.nextEvent();
+            SongEvent sameEvent = samePlayer.nextEvent();
+            SongEvent otherEvent = otherPlayer.nextEvent();
+
+            assertEquals(event.subscriptionLevel, sameEvent.subscriptionLevel);
+            assertEquals(event.songEventType, sameEvent.songEventType);
+            assertEquals(event.nextContext.listType, sameEvent.nextContext.listType);
+            assertEquals(event.nextContext.playlist, sameEvent.nextContext.playlist);
+            assertEquals(event.nextContext.station, sameEvent.nextContext.station);
+            assertEquals(event.nextContext.songId, sameEvent.nextContext.songId);
+            // the first event may be pushed forward to the current time, but the gaps after that are the same
+            if (i > 0) assertEquals(event.timestamp - lastTimestamp, sameEvent.timestamp - sameLastTimestamp);
+            lastTimestamp = event.timestamp;
+            sameLastTimestamp = sameEvent.timestamp;
+
+            differs |= event.nextContext.songId != otherEvent.nextContext.songId;
+        }
+        // another player with the same seed behaves differently
+        assertTrue(differs);
+    }
+
     private void verifyEvent(SongEvent event, long lastEventTime) throws Exception {
         log.info("event: {}", mapper.writeValueAsString(event));
 
@@ -53,7 +82,7 @@ public class SongPlayerTest {
             assertEquals(event.lastContext.station, event.nextContext.station);
             // this should happen after the last song plays all the way through
             if (lastEventTime > 0)
-                assertEquals(SongList.getLengthFor(event.lastContext.song).longValue() * 1000, event.timestamp - lastEventTime);
+                assertEquals(SongList.getLengthFor(event.lastContext.songId) * 1000L, event.timestamp - lastEventTime);
         } else if (event.songEventType == SongEventType.Skip) {
             // there's no "skip" when playing a single song
             assertNotEquals(SongEvent.ListType.SingleSong, event.lastContext.listType);
@@ -68,19 +97,19 @@ public class SongPlayerTest {
             assertEquals(event.lastContext.listType, event.nextContext.listType);
             assertEquals(event.lastContext.playlist, event.nextContext.playlist);
             assertEquals(event.lastContext.station, event.nextContext.station);
-            assertEquals(event.lastContext.artist, event.nextContext.artist);
-            assertEquals(event.lastContext.album, event.nextContext.album);
-            assertEquals(event.lastContext.song, event.nextContext.song);
+            assertEquals(event.lastContext.artistId, event.nextContext.artistId);
+            assertEquals(event.lastContext.albumId, event.nextContext.albumId);
+            assertEquals(event.lastContext.songId, event.nextContext.songId);
             // should happen in the middle of playing the last song
             if (lastEventTime > 0)
-                assertTrue(event.timestamp - lastEventTime <= SongList.getLengthFor(event.lastContext.song) * 1000 && event.timestamp - lastEventTime >= 0);
+                assertTrue(event.timestamp - lastEventTime <= SongList.getLengthFor(event.lastContext.songId) * 1000 && event.timestamp - lastEventTime >= 0);
         } else if (event.songEventType == SongEventType.Resume) {
             assertEquals(event.lastContext.listType, event.nextContext.listType);
             assertEquals(event.lastContext.playlist, event.nextContext.playlist);
             assertEquals(event.lastContext.station, event.nextContext.station);
-            assertEquals(event.lastContext.artist, event.nextContext.artist);
-            assertEquals(event.lastContext.album, event.nextContext.album);
-            assertEquals(event.lastContext.song, event.nextContext.song);
+            assertEquals(event.lastContext.artistId, event.nextContext.artistId);
+            assertEquals(event.lastContext.albumId, event.nextContext.albumId);
+            assertEquals(event.lastContext.songId, event.nextContext.songId);
             // should happen between 30 seconds and 20 minutes later
             if (lastEventTime > 0)
                 assertTrue(event.timestamp - lastEventTime < 1200000 && event.timestamp - lastEventTime >= 30000);
@@ -99,8 +128,9 @@ public class SongPlayerTest {
             assertNotNull(context.station);
             assertNull(context.playlist);
         }
-        assertNotNull(context.artist);
-        assertNotNull(context.album);
-        assertNotNull(context.song);
+        assertNotNull(context.getArtist());
+        assertNotNull(context.getAlbum());
+        assertNotNull(context.getSong());
+        assertEquals(SongList.getArtistIdFor(context.songId), context.artistId);
     }
 }
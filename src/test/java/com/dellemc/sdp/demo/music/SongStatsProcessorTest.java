@@ -0,0 +1,288 @@
+package com.dellemc.sdp.demo.music;
+
+import io.pravega.client.EventStreamClientFactory;
+import io.pravega.client.admin.ReaderGroupManager;
+import io.pravega.client.stream.EventRead;
+import io.pravega.client.stream.EventStreamReader;
+import io.pravega.client.stream.ReaderConfig;
+import io.pravega.client.stream.ReaderGroupConfig;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.impl.ByteBufferSerializer;
+import io.pravega.local.InProcPravegaCluster;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SongStatsProcessorTest {
+    private static final Logger log = LoggerFactory.getLogger(SongStatsProcessorTest.class);
+
+    private static final String TEST_SCOPE = "pravega-demo";
+    private static final String TEST_STREAM = "stats-test-stream";
+    private static final String RECOVERY_STREAM = "stats-recovery-stream";
+    private static final String LATE_TEST_STREAM = "stats-late-test-stream";
+    private static final String LATE_STREAM = "stats-late-stream";
+    private static final long MINUTE = 60000;
+
+    private static InProcPravegaCluster localPravega;
+
+    @BeforeAll
+    public static void classSetup() throws Exception {
+        localPravega = TestUtils.startStandalone();
+    }
+
+    @AfterAll
+    public static void classTearDown() throws Exception {
+        if (localPravega != null) localPravega.close();
+    }
+
+    @Test
+    public void testWindows() throws Exception {
+        // backfill 10 minutes of events (the generator creates the stream, with 2 segments)
+        long start = 1585699200000L, end = start + 10 * MINUTE;
+        long written = backfill(TEST_STREAM, start, end);
+
+        // read them back in one minute windows
+        SongStatsProcessor.Config config = new SongStatsProcessor.Config();
+        config.setControllerEndpoint(TestUtils.PRAVEGA_CONTROLLER_URI);
+        config.setScope(TEST_SCOPE);
+        config.setStream(TEST_STREAM);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setReaderCount(2);
+        config.setWindowMS(MINUTE);
+        config.setMaxOutOfOrderMS(end - start + MINUTE); // segments may move between readers, but nothing should be late
+        config.setSessionGapMS(MINUTE);
+        List<WindowStats> windows = new CopyOnWriteArrayList<>();
+        LongAdder sessionEvents = new LongAdder(), completeSessions = new LongAdder();
+        SongStatsProcessor processor = new SongStatsProcessor(config, windows::add, session -> {
+            sessionEvents.add(session.getEventCount());
+            if (session.isComplete()) completeSessions.increment();
+        });
+        Thread thread = new Thread(processor);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (processor.getEventCount() < written && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        processor.stop();
+        thread.join();
+        assertEquals(written, processor.getEventCount());
+        assertEquals(0, processor.getLateEventCount());
+
+        // every event is counted once, in the window it belongs to
+        long counted = 0, sessions = 0, lastEnd = Long.MIN_VALUE;
+        for (WindowStats stats : windows) {
+            assertEquals(MINUTE, stats.getEnd() - stats.getStart());
+            assertEquals(0, stats.getStart() % MINUTE);
+            assertTrue(stats.getStart() >= lastEnd);
+            assertTrue(stats.getStart() >= start - MINUTE && stats.getEnd() <= end);
+            assertTrue(stats.getPlayerCount() > 0 && stats.getPlayerCount() <= 500 * (1 + 3 * stats.getListenerError()));
+            assertTrue(stats.getTopSongs().size() <= SongStatsProcessor.DEFAULT_TOP_COUNT);
+            lastEnd = stats.getEnd();
+            counted += stats.getEventCount();
+            sessions += stats.getSessionCount();
+        }
+        assertEquals(written, counted);
+
+        // and in one session (pauses of over a minute end sessions), counted in a window if it ended
+        assertEquals(written, sessionEvents.sum());
+        assertTrue(completeSessions.sum() > 0);
+        assertEquals(completeSessions.sum(), sessions);
+        assertTrue(windows.size() >= 10);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        long start = 1585699200000L, middle = start + 10 * MINUTE, end = middle + 10 * MINUTE;
+        Path stateDir = Files.createTempDirectory("stats-state");
+        SongStatsProcessor.Config config = new SongStatsProcessor.Config();
+        config.setControllerEndpoint(TestUtils.PRAVEGA_CONTROLLER_URI);
+        config.setScope(TEST_SCOPE);
+        config.setStream(RECOVERY_STREAM);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setWindowMS(MINUTE);
+        config.setMaxOutOfOrderMS(end - start + MINUTE); // no window fires until the processor stops
+        config.setSessionGapMS(MINUTE);
+        config.setStateDir(stateDir.toString());
+        config.setCheckpointIntervalMS(200);
+
+        // a processor reads 10 minutes of events, and is stopped after a snapshot of all of them
+        long firstWritten = backfill(RECOVERY_STREAM, start, middle);
+        SongStatsProcessor processor = new SongStatsProcessor(config, stats -> {
+        });
+        long snapshots = runUntil(processor, firstWritten);
+        assertTrue(snapshots > 1);
+        assertEquals(firstWritten, processor.getEventCount());
+        // the snapshot has the reader group's position, whatever happens to the group
+        try (ReaderGroupManager manager = ReaderGroupManager.withScope(TEST_SCOPE, processor.createClientConfig())) {
+            manager.deleteReaderGroup(config.getReaderGroup());
+        }
+
+        // another one carries on from the snapshot with the next 10 minutes, without reading the first again
+        long secondWritten = backfill(RECOVERY_STREAM, middle, end);
+        Map<Long, WindowStats> windows = new ConcurrentHashMap<>(); // the latest of each window
+        AtomicBoolean sessionResumed = new AtomicBoolean();
+        processor = new SongStatsProcessor(config, stats -> windows.put(stats.getStart(), stats), session -> {
+            if (session.getStart() < middle && session.getEnd() >= middle) sessionResumed.set(true);
+        });
+        runUntil(processor, secondWritten);
+        assertEquals(secondWritten, processor.getEventCount());
+
+        // its windows have the events of both, each counted once, and sessions carried on across the restart
+        long counted = 0;
+        for (WindowStats stats : windows.values()) {
+            assertTrue(stats.getStart() >= start - MINUTE && stats.getEnd() <= end);
+            counted += stats.getEventCount();
+        }
+        assertEquals(firstWritten + secondWritten, counted);
+        assertTrue(sessionResumed.get());
+
+        for (File file : stateDir.toFile().listFiles()) {
+            assertTrue(file.delete());
+        }
+        Files.delete(stateDir);
+    }
+
+    @Test
+    public void testLateEvents() throws Exception {
+        long start = 1585699200000L;
+        SongStatsProcessor.Config config = new SongStatsProcessor.Config();
+        config.setControllerEndpoint(TestUtils.PRAVEGA_CONTROLLER_URI);
+        config.setScope(TEST_SCOPE);
+        config.setStream(LATE_TEST_STREAM);
+        config.setEventFormat(SongEventSerializer.Format.Binary);
+        config.setReaderCount(1);
+        config.setWindowMS(MINUTE);
+        config.setMaxOutOfOrderMS(0);
+        config.setAllowedLatenessMS(MINUTE);
+        config.setLateStream(LATE_STREAM);
+        config.setSessionGapMS(0);
+        Map<Long, WindowStats> windows = new ConcurrentHashMap<>(); // the latest of each window
+        List<SongEvent> late = new CopyOnWriteArrayList<>();
+        SongStatsProcessor processor = new SongStatsProcessor(config, stats -> windows.put(stats.getStart(), stats));
+        processor.setLateEventListener(late::add);
+
+        SongEventGenerator.Config writerConfig = new SongEventGenerator.Config();
+        writerConfig.setControllerEndpoint(TestUtils.PRAVEGA_CONTROLLER_URI);
+        writerConfig.setScope(TEST_SCOPE);
+        writerConfig.setStream(LATE_TEST_STREAM);
+        SongEventSerializer serializer = new BinarySongEventSerializer();
+        Thread thread = new Thread(processor);
+        try (PravegaEventWriter writer = new PravegaEventWriter(writerConfig)) {
+            // the writer notes no time, so the watermark follows the events read (with no out-of-order allowance)
+            for (int i = 0; i <= 10; i++) {
+                writer.writeEvent("1", serializer.serialize(WindowAggregatorTest.event(start + i * MINUTE, 1, SongEventType.Next, 5)));
+            }
+            thread.start();
+            long deadline = System.currentTimeMillis() + 60000;
+            while (processor.getWatermark() < start + 10 * MINUTE && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(start + 10 * MINUTE, processor.getWatermark());
+
+            // an event within the allowed lateness updates its window, and ones before that are late
+            writer.writeEvent("2", serializer.serialize(WindowAggregatorTest.event(start + 9 * MINUTE, 2, SongEventType.Next, 5)));
+            writer.writeEvent("2", serializer.serialize(WindowAggregatorTest.event(start + 2 * MINUTE, 2, SongEventType.Skip, 5)));
+            writer.writeEvent("3", serializer.serialize(WindowAggregatorTest.event(start, 3, SongEventType.Next, 5)));
+            while (processor.getEventCount() < 14 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        } finally {
+            processor.stop();
+            thread.join();
+        }
+        assertEquals(14, processor.getEventCount());
+        assertEquals(2, processor.getLateEventCount());
+        assertEquals(2, windows.get(start + 9 * MINUTE).getEventCount());
+        assertEquals(1, windows.get(start + 2 * MINUTE).getEventCount());
+        assertEquals(1, windows.get(start).getEventCount());
+
+        // the late events go to the listener, and to the late stream as they were written
+        Set<Long> expected = new HashSet<>(Arrays.asList(start, start + 2 * MINUTE));
+        Set<Long> listened = new HashSet<>();
+        for (SongEvent event : late) {
+            listened.add(event.timestamp);
+        }
+        assertEquals(expected, listened);
+        Set<Long> written = new HashSet<>();
+        try (ReaderGroupManager manager = ReaderGroupManager.withScope(TEST_SCOPE, processor.createClientConfig());
+             EventStreamClientFactory clientFactory = EventStreamClientFactory.withScope(TEST_SCOPE, processor.createClientConfig())) {
+            manager.createReaderGroup(LATE_STREAM + "-test", ReaderGroupConfig.builder()
+                    .stream(Stream.of(TEST_SCOPE, LATE_STREAM)).build());
+            try (EventStreamReader<ByteBuffer> reader = clientFactory.createReader("late-reader", LATE_STREAM + "-test",
+                    new ByteBufferSerializer(), ReaderConfig.builder().build())) {
+                for (EventRead<ByteBuffer> read = reader.readNextEvent(5000); read.getEvent() != null || read.isCheckpoint();
+                     read = reader.readNextEvent(1000)) {
+                    if (read.getEvent() != null) written.add(serializer.deserialize(read.getEvent()).timestamp);
+                }
+            }
+        }
+        assertEquals(expected, written);
+    }
+
+    @Test
+    public void testWatermark() {
+        long[] readerTimes = {5000, 3000, Long.MIN_VALUE};
+        // idle readers don't hold the watermark back
+        assertEquals(3000, SongStatsProcessor.watermark(readerTimes, new boolean[]{false, false, true}));
+        assertEquals(5000, SongStatsProcessor.watermark(readerTimes, new boolean[]{false, true, true}));
+        // once every reader is caught up, as far as any reader has read
+        assertEquals(5000, SongStatsProcessor.watermark(readerTimes, new boolean[]{true, true, true}));
+    }
+
+    // the number of events written
+    private static long backfill(String stream, long start, long end) {
+        SongEventGenerator.Config generatorConfig = new SongEventGenerator.Config();
+        generatorConfig.setControllerEndpoint(TestUtils.PRAVEGA_CONTROLLER_URI);
+        generatorConfig.setScope(TEST_SCOPE);
+        generatorConfig.setStream(stream);
+        generatorConfig.setPlayerCount(500);
+        generatorConfig.setEventFormat(SongEventSerializer.Format.Binary);
+        generatorConfig.setSeed(42L);
+        generatorConfig.setBackfillStart(start);
+        generatorConfig.setBackfillEnd(end);
+        generatorConfig.setMetricsInterval(0);
+        SongEventGenerator generator = new SongEventGenerator(generatorConfig);
+        generator.run();
+        long written = generator.getMetrics().events.sum();
+        log.info("backfilled {} events", written);
+        assertTrue(written > 0);
+        return written;
+    }
+
+    // runs a processor until it has read the events and written a snapshot after that
+    // @return the number of snapshots it wrote
+    private static long runUntil(SongStatsProcessor processor, long events) throws InterruptedException {
+        Thread thread = new Thread(processor);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 60000;
+        while (processor.getEventCount() < events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        long snapshots = processor.getSnapshotCount();
+        while (processor.getSnapshotCount() < snapshots + 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        processor.stop();
+        thread.join();
+        return processor.getSnapshotCount();
+    }
+}
@@ -0,0 +1,36 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SplitMix64Test {
+    @Test
+    public void testMatchesSplittableRandom() {
+        SplitMix64 random = new SplitMix64(12345);
+        SplittableRandom expected = new SplittableRandom(12345);
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(expected.nextLong(), random.nextLong());
+            assertEquals(expected.nextInt(100), random.nextInt(100));
+            assertEquals(expected.nextInt(64), random.nextInt(64));
+            assertEquals(expected.nextInt(1170000), random.nextInt(1170000));
+            assertEquals(expected.nextInt(Integer.MAX_VALUE), random.nextInt(Integer.MAX_VALUE));
+            assertEquals(expected.nextDouble(), random.nextDouble());
+        }
+    }
+
+    @Test
+    public void testSaveAndRestoreState() {
+        SplitMix64 random = new SplitMix64(7);
+        random.nextLong();
+        long state = random.getState();
+        long first = random.nextLong(), second = random.nextLong();
+
+        SplitMix64 other = new SplitMix64(0);
+        other.setState(state);
+        assertEquals(first, other.nextLong());
+        assertEquals(second, other.nextLong());
+    }
+}
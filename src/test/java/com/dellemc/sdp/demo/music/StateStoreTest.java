@@ -0,0 +1,95 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateStoreTest {
+
+    @Test
+    public void testSnapshots() throws Exception {
+        Path directory = Files.createTempDirectory("stats-state");
+        try {
+            StateStore store = new StateStore(directory);
+            assertEquals(0, store.getLastSequence());
+            assertTrue(store.load().isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> store.write(1, false, body("changes")));
+
+            store.write(1, true, body("full 1"));
+            store.write(2, false, body("changes 2"));
+            store.write(4, false, body("changes 4"));
+            assertThrows(IllegalArgumentException.class, () -> store.write(4, false, body("changes 4")));
+
+            // reopened, the full snapshot comes first, then the changes in order
+            StateStore reopened = new StateStore(directory);
+            assertEquals(4, reopened.getLastSequence());
+            assertBodies(reopened.load(), "full 1", "changes 2", "changes 4");
+
+            // a new full snapshot replaces the ones before it
+            reopened.write(5, true, body("full 5"));
+            reopened.write(6, false, body("changes 6"));
+            assertBodies(reopened.load(), "full 5", "changes 6");
+            assertEquals(2, directory.toFile().listFiles().length);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testDamagedSnapshots() throws Exception {
+        Path directory = Files.createTempDirectory("stats-state");
+        try {
+            StateStore store = new StateStore(directory);
+            store.write(1, true, body("full 1"));
+            store.write(2, false, body("changes 2"));
+            store.write(3, false, body("changes 3"));
+            File[] files = directory.toFile().listFiles();
+            Arrays.sort(files);
+
+            // a flipped byte in a body
+            try (FileChannel channel = FileChannel.open(files[1].toPath(), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{'X'}), StateStore.HEADER_SIZE);
+            }
+            assertThrows(IOException.class, () -> new StateStore(directory).load());
+
+            // a snapshot missing from the chain
+            Files.delete(files[1].toPath());
+            assertThrows(IOException.class, () -> new StateStore(directory).load());
+
+            // the next full snapshot starts over
+            new StateStore(directory).write(4, true, body("full 4"));
+            assertBodies(new StateStore(directory).load(), "full 4");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static ByteBuffer body(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertBodies(List<ByteBuffer> bodies, String... expected) {
+        assertEquals(expected.length, bodies.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], StandardCharsets.UTF_8.decode(bodies.get(i)).toString());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+}
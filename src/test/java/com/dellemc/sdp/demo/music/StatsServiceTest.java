@@ -0,0 +1,188 @@
+package com.dellemc.sdp.demo.music;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dellemc.sdp.demo.music.WindowAggregatorTest.event;
+import static com.dellemc.sdp.demo.music.WindowAggregatorTest.pane;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatsServiceTest {
+    private static final long MINUTE = 60000;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testRender() throws Exception {
+        StatsService service = new StatsService(10);
+        assertEquals("[]", new String(service.get(StatsService.WINDOWS_PATH), "UTF-8"));
+        assertNull(service.get(StatsService.LATEST_PATH));
+
+        service.publish(window(MINUTE));
+        JsonNode window = mapper.readTree(service.get(StatsService.LATEST_PATH));
+        assertEquals(MINUTE, window.get("start").asLong());
+        assertEquals(2 * MINUTE, window.get("end").asLong());
+        assertEquals("1970-01-01T00:01:00Z", window.get("startTime").asText());
+        assertEquals(4, window.get("eventCount").asLong());
+        assertEquals(1, window.get("eventCounts").get("Skip").asLong());
+        assertEquals(3, window.get("playCount").asLong());
+        assertTrue(Math.abs(window.get("skipRate").asDouble() - 1 / 3d) < 1e-9);
+        assertEquals(3, window.get("playerCount").asLong());
+        assertEquals(2, window.get("levelPlayerCounts").get("FreeTier").asLong());
+        assertEquals(1, window.get("levelPlayerCounts").get("Member").asLong());
+
+        JsonNode song = window.get("topSongs").get(0);
+        assertEquals(5, song.get("id").asInt());
+        assertEquals(SongList.getSong(5), song.get("name").asText());
+        assertEquals(2, song.get("plays").asLong());
+        assertEquals(2, song.get("listeners").asLong());
+        JsonNode playlist = window.get("topPlaylists").get(0);
+        assertEquals("Morning Playlist", playlist.get("name").asText());
+        assertEquals(3, playlist.get("plays").asLong());
+        assertFalse(playlist.has("id"));
+        assertFalse(playlist.has("listeners"));
+
+        // the same window, by start time
+        assertSame(service.get(StatsService.LATEST_PATH), service.get(StatsService.WINDOWS_PATH + "/" + MINUTE));
+
+        JsonNode songs = mapper.readTree(service.get(StatsService.SONGS_PATH));
+        assertEquals(MINUTE, songs.get("start").asLong());
+        assertEquals(2, songs.get("songs").size());
+        JsonNode artists = mapper.readTree(service.get(StatsService.ARTISTS_PATH));
+        assertEquals(SongList.getArtist(SongList.getArtistIdFor(5)), artists.get("artists").get(0).get("name").asText());
+    }
+
+    @Test
+    public void testHistory() throws Exception {
+        StatsService service = new StatsService(2);
+        for (int i = 1; i <= 3; i++) {
+            service.publish(window(i * MINUTE));
+        }
+        assertEquals(4 * MINUTE, service.getLatestEnd());
+
+        // newest first, and only the last 2
+        JsonNode windows = mapper.readTree(service.get(StatsService.WINDOWS_PATH));
+        assertEquals(2, windows.size());
+        assertEquals(3 * MINUTE, windows.get(0).get("start").asLong());
+        assertEquals(2 * MINUTE, windows.get(1).get("start").asLong());
+        assertEquals(3, windows.get(0).get("playerCount").asLong());
+        assertFalse(windows.get(0).has("topSongs"));
+        assertNotNull(service.get(StatsService.WINDOWS_PATH + "/" + 2 * MINUTE));
+        assertNull(service.get(StatsService.WINDOWS_PATH + "/" + MINUTE));
+
+        assertThrows(IllegalArgumentException.class, () -> new StatsService(0));
+    }
+
+    @Test
+    public void testEscaping() {
+        StringBuilder json = new StringBuilder();
+        StatsService.appendString(json, "a \"b\" \\c\n\u00e9");
+        assertEquals("\"a \\\"b\\\" \\\\c\\u000A\u00e9\"", json.toString());
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        try (StatsService service = new StatsService(10)) {
+            service.start(0, 4);
+            assertTrue(service.getPort() > 0);
+            String url = "http://localhost:" + service.getPort();
+
+            assertEquals(404, connect(url + StatsService.LATEST_PATH, "GET").getResponseCode());
+            assertEquals(404, connect(url + "/stats/nothing", "GET").getResponseCode());
+            assertEquals(405, connect(url + StatsService.WINDOWS_PATH, "POST").getResponseCode());
+
+            service.publish(window(MINUTE));
+            HttpURLConnection connection = connect(url + StatsService.LATEST_PATH + "/", "GET");
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("application/json"));
+            assertEquals(MINUTE, mapper.readTree(read(connection)).get("start").asLong());
+
+            // requests while windows are published always see one whole window
+            AtomicBoolean publishing = new AtomicBoolean(true);
+            ExecutorService clients = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    results.add(clients.submit(() -> {
+                        int requests = 0;
+                        while (publishing.get() || requests == 0) {
+                            JsonNode window = mapper.readTree(read(connect(url + StatsService.LATEST_PATH, "GET")));
+                            assertEquals(window.get("start").asLong() + MINUTE, window.get("end").asLong());
+                            assertEquals(4, window.get("eventCount").asLong());
+                            requests++;
+                        }
+                        return requests;
+                    }));
+                }
+                for (int i = 2; i <= 200; i++) {
+                    service.publish(window(i * MINUTE));
+                }
+                publishing.set(false);
+                for (Future<Integer> result : results) {
+                    assertTrue(result.get() > 0);
+                }
+            } finally {
+                clients.shutdownNow();
+            }
+            assertEquals(10, mapper.readTree(read(connect(url + StatsService.WINDOWS_PATH, "GET"))).size());
+        }
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        StatsService service = new StatsService(2);
+        service.publish(window(0));
+        service.publish(window(MINUTE));
+
+        // an update replaces the window it updates, without becoming the latest
+        PaneStats stats = pane(0, MINUTE, event(0, 1, SongEventType.Next, 5), event(10, 4, SongEventType.Next, 6));
+        service.publish(WindowStats.of(0, MINUTE, stats, 3, true));
+        JsonNode window = mapper.readTree(service.get(StatsService.WINDOWS_PATH + "/0"));
+        assertEquals(2, window.get("eventCount").asLong());
+        assertTrue(window.get("update").asBoolean());
+        assertEquals(MINUTE, mapper.readTree(service.get(StatsService.LATEST_PATH)).get("start").asLong());
+        assertEquals(2, mapper.readTree(service.get(StatsService.WINDOWS_PATH)).size());
+        assertEquals(2 * MINUTE, service.getLatestEnd());
+
+        // updates to windows no longer kept are ignored
+        service.publish(window(2 * MINUTE));
+        service.publish(WindowStats.of(0, MINUTE, stats, 3, true));
+        assertNull(service.get(StatsService.WINDOWS_PATH + "/0"));
+        assertEquals(2, mapper.readTree(service.get(StatsService.WINDOWS_PATH)).size());
+    }
+
+    // 3 players, 3 plays (one a skip) of 2 songs
+    static WindowStats window(long start) {
+        PaneStats stats = pane(start, MINUTE, event(start, 1, SongEventType.Next, 5),
+                event(start + 10, 2, SongEventType.Skip, 6), event(start + 20, 3, SongEventType.Select, 5),
+                event(start + 30, 1, SongEventType.Pause, 5));
+        return WindowStats.of(start, start + MINUTE, stats, 3);
+    }
+
+    static HttpURLConnection connect(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    static byte[] read(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) body.write(buffer, 0, n);
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopKSketchTest {
+    @Test
+    public void testExactWhenSmall() {
+        TopKSketch sketch = new TopKSketch(1024, 4, 8);
+        for (int key = 1; key <= 5; key++) {
+            for (int i = 0; i < key * 10; i++) {
+                sketch.add(key, "key " + key);
+            }
+        }
+        assertEquals(150, sketch.getTotal());
+        List<TopKSketch.Entry> top = sketch.top(3);
+        assertEquals(3, top.size());
+        assertEquals(5, top.get(0).key);
+        assertEquals("key 5", top.get(0).name);
+        assertEquals(50, top.get(0).count);
+        assertEquals(4, top.get(1).key);
+        assertEquals(3, top.get(2).key);
+        assertEquals(0, sketch.estimate(6));
+        assertEquals(5, sketch.top(10).size());
+    }
+
+    @Test
+    public void testSkewedStream() {
+        // Zipf-like plays over 100K keys: far more keys than the heap holds
+        TopKSketch sketch = new TopKSketch(2048, 4, 40);
+        Map<Long, Long> exact = new HashMap<>();
+        SplitMix64 random = new SplitMix64(42);
+        int count = 200000;
+        for (int i = 0; i < count; i++) {
+            long key = (long) (1 / (random.nextDouble() * 0.9999 + 0.0001)); // P(key >= k) ~ 1/k
+            sketch.add(key, null);
+            exact.merge(key, 1L, Long::sum);
+        }
+
+        // the top keys are found, and no estimate is low or further off than the bound
+        List<TopKSketch.Entry> top = sketch.top(10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            TopKSketch.Entry entry = top.get(i);
+            assertEquals(i + 1, entry.key);
+            long error = entry.count - exact.get(entry.key);
+            assertTrue(error >= 0 && error <= sketch.getMaxOvercount(), "error " + error + " for key " + entry.key);
+        }
+        assertEquals((long) Math.ceil(Math.E / 2048 * count), sketch.getMaxOvercount());
+    }
+
+    @Test
+    public void testMerge() {
+        // merging partial sketches gives the same counts as one sketch over everything
+        TopKSketch whole = new TopKSketch(256, 3, 16);
+        TopKSketch[] parts = {new TopKSketch(256, 3, 16), new TopKSketch(256, 3, 16), new TopKSketch(256, 3, 16)};
+        SplitMix64 random = new SplitMix64(7);
+        for (int i = 0; i < 30000; i++) {
+            long key = random.nextInt(i % 3 == 0 ? 20 : 5000);
+            whole.add(key, null);
+            parts[i % 3].add(key, null);
+        }
+        TopKSketch merged = new TopKSketch(256, 3, 16);
+        for (TopKSketch part : parts) {
+            merged.merge(part);
+        }
+        assertEquals(whole.getTotal(), merged.getTotal());
+        for (long key = 0; key < 5000; key++) {
+            assertEquals(whole.estimate(key), merged.estimate(key));
+        }
+        List<TopKSketch.Entry> expected = whole.top(10), actual = merged.top(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.get(i).key, actual.get(i).key);
+            assertEquals(expected.get(i).count, actual.get(i).count);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new TopKSketch(512, 3, 16)));
+    }
+
+    @Test
+    public void testHeavyHitterChurn() {
+        // keys keep replacing each other in a small heap, so the index has to keep up with evictions
+        TopKSketch sketch = new TopKSketch(4096, 4, 4);
+        for (int round = 1; round <= 50; round++) {
+            for (long key = round * 10; key < round * 10 + 6; key++) {
+                for (int i = 0; i < round; i++) {
+                    sketch.add(key, Long.toString(key));
+                }
+            }
+        }
+        List<TopKSketch.Entry> top = sketch.top(4);
+        assertEquals(4, top.size());
+        for (TopKSketch.Entry entry : top) {
+            assertTrue(entry.key >= 500 && entry.key < 506, "unexpected key " + entry.key);
+            assertEquals(Long.toString(entry.key), entry.name);
+            assertEquals(50, entry.count);
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        TopKSketch sketch = new TopKSketch(1024, 4, 8);
+        SplitMix64 random = new SplitMix64(7);
+        for (int i = 0; i < 10000; i++) {
+            long key = (long) (1 / (random.nextDouble() * 0.999 + 0.001));
+            sketch.add(key, key % 2 == 0 ? "key " + key : null);
+        }
+        StateBuffer out = new StateBuffer(16);
+        sketch.writeTo(out);
+        TopKSketch restored = new TopKSketch(1024, 4, 8);
+        ByteBuffer in = out.contents();
+        restored.readFrom(in);
+        assertFalse(in.hasRemaining());
+        assertEquals(sketch.getTotal(), restored.getTotal());
+        assertEquals(sketch.estimate(3), restored.estimate(3));
+        assertTop(sketch.top(8), restored.top(8));
+
+        // and it carries on as the original would
+        for (long key = 1; key <= 20; key++) {
+            sketch.add(key, null);
+            restored.add(key, null);
+        }
+        assertTop(sketch.top(8), restored.top(8));
+        assertThrows(IllegalArgumentException.class, () -> new TopKSketch(2048, 4, 8).readFrom(out.contents()));
+    }
+
+    private static void assertTop(List<TopKSketch.Entry> expected, List<TopKSketch.Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).key, actual.get(i).key);
+            assertEquals(expected.get(i).name, actual.get(i).name);
+            assertEquals(expected.get(i).count, actual.get(i).count);
+        }
+    }
+
+    @Test
+    public void testInvalidDimensions() {
+        assertThrows(IllegalArgumentException.class, () -> new TopKSketch(1000, 4, 10));
+        assertThrows(IllegalArgumentException.class, () -> new TopKSketch(1024, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new TopKSketch(1024, 4, 0));
+    }
+}
@@ -0,0 +1,238 @@
+package com.dellemc.sdp.demo.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WindowAggregatorTest {
+    private static final long MINUTE = 60000;
+
+    @Test
+    public void testTumblingWindows() {
+        WindowAggregator windows = new WindowAggregator(MINUTE, MINUTE, 3, WindowAggregatorTest::newPane);
+        windows.add(pane(MINUTE, MINUTE, event(MINUTE + 10, 1, SongEventType.Next, 5),
+                event(MINUTE + 20, 2, SongEventType.Skip, 5), event(MINUTE + 30, 1, SongEventType.Pause, 5)));
+        // partial statistics for the same pane (i.e. from another reader) are merged
+        windows.add(pane(MINUTE, MINUTE, event(MINUTE + 40, 3, SongEventType.Select, 7)));
+        windows.add(pane(2 * MINUTE, MINUTE, event(2 * MINUTE, 3, SongEventType.Next, 7)));
+
+        // nothing closes until the watermark reaches the end of a window
+        assertTrue(windows.advanceTo(2 * MINUTE - 1).isEmpty());
+        List<WindowStats> closed = windows.advanceTo(2 * MINUTE);
+        assertEquals(1, closed.size());
+        WindowStats stats = closed.get(0);
+        assertEquals(MINUTE, stats.getStart());
+        assertEquals(2 * MINUTE, stats.getEnd());
+        assertEquals(4, stats.getEventCount());
+        assertEquals(3, stats.getPlayCount());
+        assertEquals(3, stats.getPlayerCount());
+        assertEquals(1.0 / 3, stats.getSkipRate());
+        assertEquals(2, stats.getTopSongs().size());
+        assertEquals(5, stats.getTopSongs().get(0).getId());
+        assertEquals(2, stats.getTopSongs().get(0).getCount());
+        assertEquals(SongList.getSong(5), stats.getTopSongs().get(0).getName());
+        assertEquals(2, stats.getTopSongs().get(0).getListeners());
+        assertEquals(7, stats.getTopSongs().get(1).getId());
+        assertEquals(1, stats.getTopSongs().get(1).getListeners());
+        assertEquals(2, stats.getPlayerCount(SubscriptionLevel.FreeTier));
+        assertEquals(1, stats.getPlayerCount(SubscriptionLevel.Member));
+        assertEquals(0, stats.getPlayerCount(SubscriptionLevel.Promo30));
+        assertEquals(SongList.getArtistIdFor(5), stats.getTopArtists().get(0).getId());
+        assertEquals(1, stats.getTopPlaylists().size());
+        assertEquals("Morning Playlist", stats.getTopPlaylists().get(0).getName());
+        assertEquals(3, stats.getTopPlaylists().get(0).getCount());
+        assertEquals(1, windows.getPaneCount());
+
+        // closing everything flushes the last window
+        closed = windows.advanceTo(Long.MAX_VALUE);
+        assertEquals(1, closed.size());
+        assertEquals(2 * MINUTE, closed.get(0).getStart());
+        assertEquals(0, windows.getPaneCount());
+    }
+
+    @Test
+    public void testSlidingWindows() {
+        // 3 minute windows every minute: an event is in 3 windows
+        WindowAggregator windows = new WindowAggregator(3 * MINUTE, MINUTE, 10, WindowAggregatorTest::newPane);
+        for (int minute = 0; minute < 5; minute++) {
+            windows.add(pane(minute * MINUTE, MINUTE, event(minute * MINUTE + 1, minute, SongEventType.Next, minute)));
+        }
+        List<WindowStats> closed = windows.advanceTo(Long.MAX_VALUE);
+
+        // windows ending at 1..7 minutes, covering 1, 2, 3, 3, 3, 2 and 1 events
+        assertEquals(7, closed.size());
+        long[] counts = {1, 2, 3, 3, 3, 2, 1};
+        for (int i = 0; i < closed.size(); i++) {
+            assertEquals((i + 1) * MINUTE, closed.get(i).getEnd());
+            assertEquals((i - 2) * MINUTE, closed.get(i).getStart());
+            assertEquals(counts[i], closed.get(i).getEventCount());
+        }
+        assertEquals(0, windows.getPaneCount());
+    }
+
+    @Test
+    public void testGapsAndLateEvents() {
+        WindowAggregator windows = new WindowAggregator(MINUTE, MINUTE, 10, WindowAggregatorTest::newPane);
+        windows.add(pane(0, MINUTE, event(0, 1, SongEventType.Next, 1)));
+        windows.add(pane(60 * MINUTE, MINUTE, event(60 * MINUTE, 1, SongEventType.Next, 1)));
+
+        // empty windows in between are skipped
+        List<WindowStats> closed = windows.advanceTo(61 * MINUTE);
+        assertEquals(2, closed.size());
+        assertEquals(0, closed.get(0).getStart());
+        assertEquals(60 * MINUTE, closed.get(1).getStart());
+
+        // events for closed windows are dropped
+        assertFalse(windows.add(pane(30 * MINUTE, MINUTE, event(30 * MINUTE, 2, SongEventType.Skip, 2))));
+        assertEquals(1, windows.getLateEventCount());
+        assertTrue(windows.advanceTo(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testAllowedLateness() {
+        WindowAggregator windows = new WindowAggregator(MINUTE, MINUTE, 2 * MINUTE, 10, WindowAggregatorTest::newPane);
+        windows.add(pane(0, MINUTE, event(10, 1, SongEventType.Next, 1)));
+        windows.add(pane(MINUTE, MINUTE, event(MINUTE, 1, SongEventType.Next, 1)));
+        List<WindowStats> fired = windows.advanceTo(MINUTE);
+        assertEquals(1, fired.size());
+        assertFalse(fired.get(0).isUpdate());
+        assertEquals(1, fired.get(0).getEventCount());
+        assertEquals(2, windows.getPaneCount()); // kept for the allowed lateness
+
+        // a late event within the allowed lateness fires the window again
+        assertTrue(windows.add(pane(0, MINUTE, event(20, 2, SongEventType.Skip, 2))));
+        fired = windows.advanceTo(2 * MINUTE);
+        assertEquals(2, fired.size());
+        assertTrue(fired.get(0).isUpdate());
+        assertEquals(0, fired.get(0).getStart());
+        assertEquals(2, fired.get(0).getEventCount());
+        assertFalse(fired.get(1).isUpdate());
+        assertEquals(MINUTE, fired.get(1).getStart());
+
+        // once the watermark is past the end plus the allowed lateness, the pane is freed and its events dropped
+        assertTrue(windows.advanceTo(3 * MINUTE).isEmpty());
+        assertEquals(1, windows.getPaneCount());
+        assertFalse(windows.add(pane(0, MINUTE, event(30, 3, SongEventType.Next, 3))));
+        assertEquals(1, windows.getLateEventCount());
+        assertTrue(windows.add(pane(MINUTE, MINUTE, event(MINUTE + 1, 3, SongEventType.Next, 3))));
+        assertTrue(windows.advanceTo(3 * MINUTE).get(0).isUpdate());
+        assertTrue(WindowAggregator.isLate(MINUTE - 1, 3 * MINUTE, MINUTE, MINUTE, 2 * MINUTE));
+        assertFalse(WindowAggregator.isLate(MINUTE, 3 * MINUTE, MINUTE, MINUTE, 2 * MINUTE));
+
+        // the watermark never goes back
+        assertTrue(windows.advanceTo(0).isEmpty());
+        assertEquals(3 * MINUTE, windows.getWatermark());
+        assertThrows(IllegalArgumentException.class,
+                () -> new WindowAggregator(MINUTE, MINUTE, -1, 10, WindowAggregatorTest::newPane));
+    }
+
+    @Test
+    public void testSnapshot() {
+        WindowAggregator windows = new WindowAggregator(3 * MINUTE, MINUTE, MINUTE, 10, WindowAggregatorTest::newPane);
+        for (int minute = 0; minute < 5; minute++) {
+            windows.add(pane(minute * MINUTE, MINUTE, event(minute * MINUTE + 1, minute, SongEventType.Next, minute)));
+        }
+        windows.advanceTo(3 * MINUTE);
+        StateBuffer full = new StateBuffer(16);
+        windows.writeTo(full, true);
+
+        // then a new pane, a late event for a fired window, and one too late for any
+        windows.add(pane(5 * MINUTE, MINUTE, event(5 * MINUTE, 5, SongEventType.Next, 5)));
+        windows.add(pane(2 * MINUTE, MINUTE, event(2 * MINUTE + 5, 2, SongEventType.Skip, 2)));
+        windows.advanceTo(4 * MINUTE);
+        assertFalse(windows.add(pane(0, MINUTE, event(5, 0, SongEventType.Next, 0))));
+        StateBuffer changes = new StateBuffer(16);
+        windows.writeTo(changes, false);
+        assertTrue(changes.size() < full.size());
+
+        WindowAggregator restored = new WindowAggregator(3 * MINUTE, MINUTE, MINUTE, 10, WindowAggregatorTest::newPane);
+        restored.restore(full.contents());
+        restored.restore(changes.contents());
+        assertEquals(windows.getWatermark(), restored.getWatermark());
+        assertEquals(windows.getPaneCount(), restored.getPaneCount());
+        assertEquals(1, restored.getLateEventCount());
+
+        List<WindowStats> expected = windows.advanceTo(Long.MAX_VALUE), closed = restored.advanceTo(Long.MAX_VALUE);
+        assertEquals(expected.size(), closed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getEnd(), closed.get(i).getEnd());
+            assertEquals(expected.get(i).getEventCount(), closed.get(i).getEventCount());
+            assertEquals(expected.get(i).getPlayerCount(), closed.get(i).getPlayerCount());
+        }
+
+        // changes only apply to the state they were written after
+        WindowAggregator partial = new WindowAggregator(3 * MINUTE, MINUTE, MINUTE, 10, WindowAggregatorTest::newPane);
+        assertThrows(IllegalArgumentException.class, () -> partial.restore(changes.contents()));
+    }
+
+    @Test
+    public void testInvalidWindows() {
+        assertThrows(IllegalArgumentException.class, () -> new WindowAggregator(MINUTE, 0, 10, WindowAggregatorTest::newPane));
+        assertThrows(IllegalArgumentException.class, () -> new WindowAggregator(MINUTE, 2 * MINUTE, 10, WindowAggregatorTest::newPane));
+        assertThrows(IllegalArgumentException.class, () -> new WindowAggregator(MINUTE, 7000, 10, WindowAggregatorTest::newPane));
+        assertEquals(-MINUTE, WindowAggregator.paneStart(-1, MINUTE));
+    }
+
+    @Test
+    public void testListenerSketchesBounded() {
+        // 16 songs played once fill the heavy hitters, then 40 songs played 5 times each push them out, while song 7 is
+        // played by 50 players
+        PaneStats pane = newPane(0);
+        for (int i = 0; i < 16; i++) {
+            pane.add(event(i, 1000 + i, SongEventType.Next, i));
+        }
+        for (int i = 0; i < 200; i++) {
+            pane.add(event(i, 2000 + i, SongEventType.Next, 20 + i % 40));
+            if (i < 50) pane.add(event(i, i, SongEventType.Next, 7));
+        }
+        // only the heavy hitters (16 of them) have listener sketches
+        assertTrue(pane.songListeners.size() <= 16);
+        assertTrue(pane.artistListeners.size() <= 16);
+        pane.songListeners.keySet().forEach(id -> assertTrue(pane.songPlays.contains(id)));
+        assertEquals(50, PaneStats.listenerCount(pane.songListeners, 7), 2);
+
+        // and so do windows merged from panes with different heavy hitters
+        PaneStats window = newPane(0);
+        for (int start = 0; start < 10; start++) {
+            PaneStats other = newPane(start * MINUTE);
+            for (int i = 0; i < 100; i++) {
+                other.add(event(start * MINUTE + i, i, SongEventType.Next, (start * 10 + i / 10) % 100));
+            }
+            window.merge(other);
+            assertTrue(window.songListeners.size() <= 16);
+            window.songListeners.keySet().forEach(id -> assertTrue(window.songPlays.contains(id)));
+        }
+        List<TopKSketch.Entry> top = window.songPlays.top(3);
+        for (TopKSketch.Entry entry : top) {
+            assertTrue(PaneStats.listenerCount(window.songListeners, (int) entry.key) > 0);
+        }
+    }
+
+    static PaneStats newPane(long start) {
+        return new PaneStats(start, 256, 4, 16, 12);
+    }
+
+    static PaneStats pane(long start, long slide, SongEvent... events) {
+        PaneStats pane = newPane(start);
+        for (SongEvent event : events) {
+            assertEquals(start, WindowAggregator.paneStart(event.timestamp, slide));
+            pane.add(event);
+        }
+        return pane;
+    }
+
+    static SongEvent event(long timestamp, long playerId, SongEventType type, int songId) {
+        SongEvent event = PlayerStateStore.newEvent();
+        event.timestamp = timestamp;
+        event.playerId = playerId;
+        event.songEventType = type;
+        event.subscriptionLevel = playerId % 2 == 1 ? SubscriptionLevel.FreeTier : SubscriptionLevel.Member;
+        event.nextContext.songId = songId;
+        event.nextContext.artistId = SongList.getArtistIdFor(songId);
+        event.nextContext.listType = SongEvent.ListType.Playlist;
+        event.nextContext.playlist = "Morning Playlist";
+        return event;
+    }
+}